@@ -0,0 +1,113 @@
+package org.openmrs.module.ssemrws.benchmarks;
+
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.ObsPrefetcher;
+import org.openmrs.module.ssemrws.queries.GetDatePatientBecameIIT;
+import org.openmrs.module.ssemrws.queries.GetNextAppointmentDate;
+import org.openmrs.module.ssemrws.queries.GetPregnantOrBreastfeeding;
+import org.openmrs.module.ssemrws.queries.GetVLDueDate;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.DATE_OF_ENROLLMENT_UUID;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.LAST_REFILL_DATE_UUID;
+
+/**
+ * Stand-ins for the beans that query the database, returning fixed values without a Spring context
+ * or an OpenMRS session.
+ */
+final class BenchmarkStubs {
+	
+	private BenchmarkStubs() {
+	}
+	
+	static class PregnantOrBreastfeeding extends GetPregnantOrBreastfeeding {
+		
+		private final Set<Integer> pbfwPatientIds;
+		
+		PregnantOrBreastfeeding(Set<Integer> pbfwPatientIds) {
+			super(null);
+			this.pbfwPatientIds = pbfwPatientIds;
+		}
+		
+		@Override
+		public Set<Integer> getPbfwPatientIds(Date endDate) {
+			return pbfwPatientIds;
+		}
+	}
+	
+	static class NextAppointmentDate extends GetNextAppointmentDate {
+		
+		@Override
+		public Map<Integer, String> getNextOrLastAppointmentDates(Collection<Integer> patientIds) {
+			return fixedValues(patientIds, "15-01-2026");
+		}
+	}
+	
+	static class VLDueDate extends GetVLDueDate {
+		
+		VLDueDate() {
+			super(null);
+		}
+		
+		@Override
+		public Map<Integer, String> getVLDueDates(Collection<Integer> patientIds) {
+			return fixedValues(patientIds, "01-03-2026");
+		}
+	}
+	
+	static class DatePatientBecameIIT extends GetDatePatientBecameIIT {
+		
+		@Override
+		public String getIitDateForPatient(Patient patient, Date startDate, Date endDate) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Binds a prefetch covering every requested concept without querying, with an enrollment and a
+	 * last refill date for each person and no obs for the other concepts, so no obs getter reaches the
+	 * ObsService.
+	 */
+	static class SyntheticObsPrefetcher extends ObsPrefetcher {
+		
+		private static final Date ENROLLMENT_DATE = SyntheticData.START_DATE;
+		
+		private static final Date LAST_REFILL_DATE = SyntheticData.END_DATE;
+		
+		@Override
+		public Prefetch prefetch(Collection<Integer> personIds, Collection<String> conceptUuids) {
+			Map<Integer, Map<String, Obs>> latestObs = new HashMap<>();
+			for (Integer personId : personIds) {
+				Map<String, Obs> personObs = new HashMap<>();
+				addDateObs(personObs, conceptUuids, DATE_OF_ENROLLMENT_UUID, personId * 2, ENROLLMENT_DATE);
+				addDateObs(personObs, conceptUuids, LAST_REFILL_DATE_UUID, personId * 2 + 1, LAST_REFILL_DATE);
+				latestObs.put(personId, personObs);
+			}
+			return bind(personIds, conceptUuids, latestObs);
+		}
+		
+		private static void addDateObs(Map<String, Obs> personObs, Collection<String> conceptUuids, String conceptUuid,
+		        int obsId, Date value) {
+			if (conceptUuids.contains(conceptUuid)) {
+				Obs obs = new Obs(obsId);
+				obs.setObsDatetime(value);
+				obs.setValueDatetime(value);
+				personObs.put(conceptUuid, obs);
+			}
+		}
+	}
+	
+	private static Map<Integer, String> fixedValues(Collection<Integer> patientIds, String value) {
+		Map<Integer, String> values = new HashMap<>();
+		for (Integer patientId : patientIds) {
+			values.put(patientId, value);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,203 @@
+package org.openmrs.module.ssemrws.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+
+import javax.persistence.Query;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.CONCEPT_BY_UUID;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.CURRENTLY_PREGNANT_CONCEPT_UUID;
+
+/**
+ * Filtering a whole cohort per patient with {@link FilterUtility#applyFilter}, with the PBFW cohort
+ * served by a stub holding every fifth patient, against filtering it in SQL with
+ * {@link FilterUtility#toSqlPredicate} the way GetFilteredPatients does, one query per chunk of ids.
+ * The SQL form runs on an in-memory H2 database holding the same patients, with a PBFW obs for every
+ * fifth one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+	
+	private static final Pattern NAMED_PARAMETER = Pattern.compile(":(\\w+)");
+	
+	@Param({ "1000", "10000", "100000" })
+	public int rows;
+	
+	@Param({ "CHILDREN_ADOLESCENTS", "PREGNANT_BREASTFEEDING" })
+	public SSEMRWebServicesController.filterCategory filterCategory;
+	
+	private List<Patient> patients;
+	
+	private List<Integer> patientIds;
+	
+	private Connection connection;
+	
+	private String filterSql;
+	
+	private Map<String, Object> filterParameters;
+	
+	@Setup
+	public void setUp() throws SQLException {
+		patients = SyntheticData.patients(rows);
+		
+		Set<Integer> pbfwPatientIds = new HashSet<>();
+		for (int patientId = 5; patientId <= rows; patientId += 5) {
+			pbfwPatientIds.add(patientId);
+		}
+		// Installs the stub where FilterUtility looks the PBFW cohort up
+		new SharedConstants(null, null, new BenchmarkStubs.PregnantOrBreastfeeding(pbfwPatientIds));
+		
+		patientIds = new ArrayList<>(rows);
+		for (Patient patient : patients) {
+			patientIds.add(patient.getPatientId());
+		}
+		connection = createDatabase(patients, pbfwPatientIds);
+		filterSql = "SELECT p.patient_id FROM openmrs.patient p WHERE p.patient_id IN (:patientIds) "
+		        + FilterUtility.toSqlPredicate(filterCategory, "p.patient_id");
+		filterParameters = bindSqlFilter(filterCategory);
+	}
+	
+	@TearDown
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+	
+	@Benchmark
+	public void applyFilter(Blackhole blackhole) {
+		for (Patient patient : patients) {
+			blackhole.consume(FilterUtility.applyFilter(patient, filterCategory, SyntheticData.END_DATE));
+		}
+	}
+	
+	@Benchmark
+	public void sqlFilter(Blackhole blackhole) throws SQLException {
+		for (int i = 0; i < patientIds.size(); i += SharedConstants.ID_CHUNK_SIZE) {
+			Map<String, Object> parameters = new HashMap<>(filterParameters);
+			parameters.put("patientIds", patientIds.subList(i, Math.min(i + SharedConstants.ID_CHUNK_SIZE, rows)));
+			try (PreparedStatement statement = prepare(filterSql, parameters);
+			        ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					blackhole.consume(resultSet.getInt(1));
+				}
+			}
+		}
+	}
+	
+	// The parameters FilterUtility.bindSqlFilter sets, captured from a stand-in for the JPA query
+	private static Map<String, Object> bindSqlFilter(SSEMRWebServicesController.filterCategory filterCategory) {
+		Map<String, Object> parameters = new HashMap<>();
+		Query query = (Query) Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[] { Query.class },
+		    (proxy, method, args) -> {
+			    if (method.getName().equals("setParameter") && args[0] instanceof String) {
+				    parameters.put((String) args[0], args[1]);
+			    }
+			    return proxy;
+		    });
+		FilterUtility.bindSqlFilter(query, filterCategory, SyntheticData.END_DATE);
+		return parameters;
+	}
+	
+	// Binds named parameters as JDBC ones, expanding collections into one placeholder per element
+	private PreparedStatement prepare(String sql, Map<String, Object> parameters) throws SQLException {
+		List<Object> values = new ArrayList<>();
+		Matcher matcher = NAMED_PARAMETER.matcher(sql);
+		StringBuffer jdbcSql = new StringBuffer();
+		while (matcher.find()) {
+			Object value = parameters.get(matcher.group(1));
+			if (value instanceof Collection) {
+				Collection<?> elements = (Collection<?>) value;
+				values.addAll(elements);
+				matcher.appendReplacement(jdbcSql, String.join(", ", Collections.nCopies(elements.size(), "?")));
+			} else {
+				values.add(value instanceof Date ? new Timestamp(((Date) value).getTime()) : value);
+				matcher.appendReplacement(jdbcSql, "?");
+			}
+		}
+		matcher.appendTail(jdbcSql);
+		
+		PreparedStatement statement = connection.prepareStatement(jdbcSql.toString());
+		for (int i = 0; i < values.size(); i++) {
+			statement.setObject(i + 1, values.get(i));
+		}
+		return statement;
+	}
+	
+	// The tables toSqlPredicate reads, holding the synthetic patients and a PBFW obs for each of the given ones
+	private static Connection createDatabase(List<Patient> patients, Set<Integer> pbfwPatientIds) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:;MODE=MySQL");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE SCHEMA openmrs");
+			statement.execute("CREATE TABLE openmrs.patient (patient_id INT PRIMARY KEY)");
+			statement.execute("CREATE TABLE openmrs.person (person_id INT PRIMARY KEY, birthdate DATE)");
+			statement.execute("CREATE TABLE openmrs.concept (concept_id INT PRIMARY KEY, uuid CHAR(38))");
+			statement.execute("CREATE TABLE openmrs.obs (obs_id INT AUTO_INCREMENT PRIMARY KEY, person_id INT, "
+			        + "concept_id INT, value_coded INT, obs_datetime DATETIME, voided BOOLEAN)");
+			statement.execute("CREATE INDEX obs_person ON openmrs.obs (person_id)");
+			statement.execute("INSERT INTO openmrs.concept VALUES (1, '" + CURRENTLY_PREGNANT_CONCEPT_UUID + "'), (2, '"
+			        + CONCEPT_BY_UUID + "')");
+		}
+		
+		try (PreparedStatement patient = connection.prepareStatement("INSERT INTO openmrs.patient VALUES (?)");
+		        PreparedStatement person = connection.prepareStatement("INSERT INTO openmrs.person VALUES (?, ?)");
+		        PreparedStatement obs = connection.prepareStatement(
+		            "INSERT INTO openmrs.obs (person_id, concept_id, value_coded, obs_datetime, voided) "
+		                    + "VALUES (?, 1, 2, ?, FALSE)")) {
+			for (Patient synthetic : patients) {
+				patient.setInt(1, synthetic.getPatientId());
+				patient.addBatch();
+				person.setInt(1, synthetic.getPatientId());
+				person.setDate(2, new java.sql.Date(synthetic.getBirthdate().getTime()));
+				person.addBatch();
+				if (pbfwPatientIds.contains(synthetic.getPatientId())) {
+					obs.setInt(1, synthetic.getPatientId());
+					obs.setTimestamp(2, new Timestamp(SyntheticData.START_DATE.getTime()));
+					obs.addBatch();
+				}
+			}
+			patient.executeBatch();
+			person.executeBatch();
+			obs.executeBatch();
+		}
+		return connection;
+	}
+}
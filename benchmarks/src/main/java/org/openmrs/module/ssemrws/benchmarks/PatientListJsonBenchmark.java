@@ -0,0 +1,103 @@
+package org.openmrs.module.ssemrws.benchmarks;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.queries.GetAllPatients;
+import org.openmrs.module.ssemrws.web.constants.GeneratePatientListObject;
+import org.openmrs.module.ssemrws.web.constants.GeneratePatientObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the JSON of a patient list with the real row builder. The queries behind the appointment,
+ * VL due date, IIT date and obs columns are stubbed, so only the JSON assembly, the summary and the
+ * serialization are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatientListJsonBenchmark {
+	
+	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	
+	// Stands in for the servlet output stream, so that only producing the bytes is measured
+	private static final OutputStream DISCARD = new OutputStream() {
+		
+		@Override
+		public void write(int b) {
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+	
+	@Param({ "1000", "10000", "100000" })
+	public int rows;
+	
+	private List<Patient> patients;
+	
+	private GeneratePatientListObject generatePatientListObject;
+	
+	private GetAllPatients getAllPatients;
+	
+	@Setup
+	public void setUp() {
+		patients = SyntheticData.patients(rows);
+		
+		BenchmarkStubs.NextAppointmentDate nextAppointmentDate = new BenchmarkStubs.NextAppointmentDate();
+		BenchmarkStubs.VLDueDate vlDueDate = new BenchmarkStubs.VLDueDate();
+		BenchmarkStubs.SyntheticObsPrefetcher obsPrefetcher = new BenchmarkStubs.SyntheticObsPrefetcher();
+		GeneratePatientObject generatePatientObject = new GeneratePatientObject(nextAppointmentDate,
+		        new BenchmarkStubs.DatePatientBecameIIT(), vlDueDate, null);
+		generatePatientListObject = new GeneratePatientListObject(generatePatientObject, nextAppointmentDate, vlDueDate,
+		        obsPrefetcher);
+		getAllPatients = new GetAllPatients(nextAppointmentDate, obsPrefetcher);
+	}
+	
+	@Benchmark
+	public Object generatePatientListObj() {
+		return generatePatientListObject.generatePatientListObj(patients, SyntheticData.START_DATE,
+		    SyntheticData.END_DATE, null, JsonNodeFactory.instance.objectNode());
+	}
+	
+	/**
+	 * The streaming variant the line list endpoints write to the response with.
+	 */
+	@Benchmark
+	public void writePatientListObj() throws IOException {
+		JsonGenerator generator = JSON_FACTORY.createJsonGenerator(DISCARD, JsonEncoding.UTF8);
+		generatePatientListObject.writePatientListObj(patients, SyntheticData.START_DATE, SyntheticData.END_DATE, null,
+		    JsonNodeFactory.instance.objectNode(), null, generator);
+		generator.close();
+	}
+	
+	/**
+	 * GetAllPatients.buildPatientList through the filtered list, the variant without obs columns.
+	 */
+	@Benchmark
+	public String buildPatientList() {
+		return getAllPatients.filteredPatientsListObj(patients, JsonNodeFactory.instance.objectNode());
+	}
+}
@@ -0,0 +1,59 @@
+package org.openmrs.module.ssemrws.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.ssemrws.web.constants.GenerateCumulativeSummary;
+import org.openmrs.module.ssemrws.web.constants.GenerateSummary;
+import org.openmrs.module.ssemrws.web.constants.GenerateTxNewSummary;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The monthly summaries built from the dates of a cohort, as returned with every dashboard list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SummaryBenchmark {
+	
+	@Param({ "1000", "10000", "100000" })
+	public int rows;
+	
+	private List<Date> dates;
+	
+	@Setup
+	public void setUp() {
+		dates = SyntheticData.dates(rows);
+	}
+	
+	@Benchmark
+	public Map<String, Map<String, Integer>> generateSummary() {
+		return GenerateSummary.generateSummary(dates);
+	}
+	
+	@Benchmark
+	public Map<String, Map<String, Integer>> generateCumulativeSummary() {
+		return GenerateCumulativeSummary.generateCumulativeSummary(dates, SyntheticData.START_DATE,
+		    SyntheticData.END_DATE, rows);
+	}
+	
+	@Benchmark
+	public Map<String, Map<String, Integer>> generateTxNewSummary() {
+		return GenerateTxNewSummary.generateTxNewSummary(dates);
+	}
+}
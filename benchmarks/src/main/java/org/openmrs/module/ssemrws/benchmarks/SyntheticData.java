@@ -0,0 +1,85 @@
+package org.openmrs.module.ssemrws.benchmarks;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonName;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Synthetic data shaped like what the dashboards work on: patients with a name, an identifier and an
+ * address, and dates spread over one reporting year. A fixed seed makes every run, and so every
+ * baseline, use the same data.
+ */
+final class SyntheticData {
+	
+	static final Date START_DATE = date(2025, Calendar.JANUARY, 1);
+	
+	static final Date END_DATE = date(2025, Calendar.DECEMBER, 31);
+	
+	private static final long SEED = 20251231L;
+	
+	private SyntheticData() {
+	}
+	
+	/**
+	 * @return Dates between {@link #START_DATE} and {@link #END_DATE}, in random order.
+	 */
+	static List<Date> dates(int count) {
+		Random random = new Random(SEED);
+		long range = END_DATE.getTime() - START_DATE.getTime();
+		List<Date> dates = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			dates.add(new Date(START_DATE.getTime() + (long) (random.nextDouble() * range)));
+		}
+		return dates;
+	}
+	
+	/**
+	 * @return Patients numbered from 1, aged 0 to 69 and created during the reporting year.
+	 */
+	static List<Patient> patients(int count) {
+		Random random = new Random(SEED);
+		PatientIdentifierType artNumber = new PatientIdentifierType(1);
+		artNumber.setName("Unique ART No");
+		Location location = new Location(1);
+		List<Date> createdDates = dates(count);
+		
+		List<Patient> patients = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Patient patient = new Patient(i + 1);
+			patient.setUuid(UUID.nameUUIDFromBytes(("patient-" + i).getBytes()).toString());
+			patient.setGender(i % 2 == 0 ? "F" : "M");
+			Calendar birthdate = Calendar.getInstance();
+			birthdate.setTime(END_DATE);
+			birthdate.add(Calendar.DAY_OF_YEAR, -random.nextInt(70 * 365));
+			patient.setBirthdate(birthdate.getTime());
+			patient.setDateCreated(createdDates.get(i));
+			patient.addName(new PersonName("Given" + i, null, "Family" + i));
+			patient.addIdentifier(new PatientIdentifier(String.format("ART-%07d", i), artNumber, location));
+			
+			PersonAddress address = new PersonAddress();
+			address.setAddress5("Village " + random.nextInt(500));
+			address.setAddress6("Landmark " + random.nextInt(500));
+			patient.addAddress(address);
+			
+			patients.add(patient);
+		}
+		return patients;
+	}
+	
+	private static Date date(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day);
+		return calendar.getTime();
+	}
+}
@@ -0,0 +1,69 @@
+package org.openmrs.module.ssemrws.advice;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.queries.GetPregnantOrBreastfeeding;
+import org.openmrs.module.ssemrws.queries.GetViralLoadIndicators;
+import org.openmrs.module.ssemrws.service.FacilityDenominatorService;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registered in config.xml on the patient, encounter and obs services. Drops the cached facility
+ * denominators, viral load indicators and PBFW cohorts after any call that changes their data.
+ */
+public class DenominatorInvalidationAdvice implements AfterReturningAdvice {
+	
+	private static final String[] CHANGING_METHOD_PREFIXES = { "save", "void", "unvoid", "purge", "merge" };
+	
+	// The caches to clear, resolved from the module context on the first changing call
+	private volatile List<Runnable> caches;
+	
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (!isChangingMethod(method.getName())) {
+			return;
+		}
+		
+		for (Runnable clear : getCaches()) {
+			clear.run();
+		}
+	}
+	
+	// Looks the beans up until all of them are registered, as they are not during module startup
+	private List<Runnable> getCaches() {
+		if (caches != null) {
+			return caches;
+		}
+		
+		List<FacilityDenominatorService> services = Context.getRegisteredComponents(FacilityDenominatorService.class);
+		List<GetViralLoadIndicators> indicators = Context.getRegisteredComponents(GetViralLoadIndicators.class);
+		List<GetPregnantOrBreastfeeding> pbfw = Context.getRegisteredComponents(GetPregnantOrBreastfeeding.class);
+		
+		List<Runnable> resolved = new ArrayList<>();
+		for (FacilityDenominatorService service : services) {
+			resolved.add(service::clear);
+		}
+		for (GetViralLoadIndicators indicator : indicators) {
+			resolved.add(indicator::clear);
+		}
+		for (GetPregnantOrBreastfeeding cohorts : pbfw) {
+			resolved.add(cohorts::clear);
+		}
+		if (!services.isEmpty() && !indicators.isEmpty() && !pbfw.isEmpty()) {
+			caches = resolved;
+		}
+		return resolved;
+	}
+	
+	private static boolean isChangingMethod(String methodName) {
+		for (String prefix : CHANGING_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,323 @@
+package org.openmrs.module.ssemrws.constants;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Component;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of dashboard cohorts, held as sorted patient id arrays and keyed by indicator,
+ * start day, end day and filter category. Paging through a cohort computes it once; every further
+ * page only slices the cached ids.
+ * <p>
+ * The time to live and the maximum number of cohorts kept are read from the
+ * {@value #TTL_SECONDS_PROPERTY} and {@value #MAX_ENTRIES_PROPERTY} global properties once, and read
+ * again after one of the cache's global properties changes (see {@link GlobalPropertyListener}).
+ * <p>
+ * A cohort can also be pinned behind an opaque handle with {@link #getPinnedCohort}. The handle keeps
+ * serving the same ordered ids for as long as it is used within
+ * {@value #HANDLE_TTL_SECONDS_PROPERTY} seconds, even after the cached cohort has expired, so that
+ * every page of a line list is a slice of one list.
+ */
+@Component
+public class CohortCache implements GlobalPropertyListener {
+	
+	public static final String TTL_SECONDS_PROPERTY = "ssemrws.cohortCache.ttlSeconds";
+	
+	public static final String MAX_ENTRIES_PROPERTY = "ssemrws.cohortCache.maxEntries";
+	
+	public static final String HANDLE_TTL_SECONDS_PROPERTY = "ssemrws.cohortHandle.ttlSeconds";
+	
+	public static final String MAX_HANDLES_PROPERTY = "ssemrws.cohortHandle.maxHandles";
+	
+	private static final long DEFAULT_TTL_SECONDS = 300;
+	
+	private static final int DEFAULT_MAX_ENTRIES = 200;
+	
+	private static final long DEFAULT_HANDLE_TTL_SECONDS = 1800;
+	
+	private static final int DEFAULT_MAX_HANDLES = 1000;
+	
+	private static final Map<String, Long> DEFAULT_VALUES = new HashMap<>();
+	
+	static {
+		DEFAULT_VALUES.put(TTL_SECONDS_PROPERTY, DEFAULT_TTL_SECONDS);
+		DEFAULT_VALUES.put(MAX_ENTRIES_PROPERTY, (long) DEFAULT_MAX_ENTRIES);
+		DEFAULT_VALUES.put(HANDLE_TTL_SECONDS_PROPERTY, DEFAULT_HANDLE_TTL_SECONDS);
+		DEFAULT_VALUES.put(MAX_HANDLES_PROPERTY, (long) DEFAULT_MAX_HANDLES);
+	}
+	
+	private final ConcurrentHashMap<String, CacheEntry> cohorts = new ConcurrentHashMap<>();
+	
+	private final ConcurrentHashMap<String, PinnedCohort> pinnedCohorts = new ConcurrentHashMap<>();
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	private final AtomicLong evictions = new AtomicLong();
+	
+	// The values of the global properties, read on first use and updated by the listener
+	private final ConcurrentHashMap<String, Long> properties = new ConcurrentHashMap<>();
+	
+	// Inner class to store the cohort and when it stops being valid
+	private static class CacheEntry {
+		
+		final int[] patientIds;
+		
+		final long createdAt;
+		
+		final long expiresAt;
+		
+		CacheEntry(int[] patientIds, long ttlMs) {
+			this.patientIds = patientIds;
+			this.createdAt = System.currentTimeMillis();
+			this.expiresAt = createdAt + ttlMs;
+		}
+		
+		boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+	}
+	
+	/**
+	 * A cohort pinned behind an opaque handle. The ids are in ascending order and must not be modified.
+	 */
+	public static class PinnedCohort {
+		
+		private final String handle;
+		
+		private final String key;
+		
+		private final int[] patientIds;
+		
+		private volatile long lastAccessedAt;
+		
+		PinnedCohort(String key, int[] patientIds) {
+			this.handle = UUID.randomUUID().toString();
+			this.key = key;
+			this.patientIds = patientIds;
+			this.lastAccessedAt = System.currentTimeMillis();
+		}
+		
+		public String getHandle() {
+			return handle;
+		}
+		
+		public int[] getPatientIds() {
+			return patientIds;
+		}
+		
+		boolean isExpired(long now, long ttlMs) {
+			return now >= lastAccessedAt + ttlMs;
+		}
+	}
+	
+	/**
+	 * Returns the ids of a cohort, computing it with the given loader only when it is not cached or
+	 * has expired.
+	 * 
+	 * @param indicator The name of the cohort, e.g. the endpoint serving it.
+	 * @param startDate The start of the reporting period, compared by day.
+	 * @param endDate The end of the reporting period, compared by day.
+	 * @param filterCategory The filter the loader applies, or null.
+	 * @param loader Computes the ids of the filtered cohort on a miss.
+	 * @return The patient ids of the cohort in ascending order. Callers must not modify the array.
+	 */
+	public int[] getPatientIds(String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, Supplier<Collection<Integer>> loader) {
+		String key = buildKey(indicator, startDate, endDate, filterCategory);
+		
+		CacheEntry entry = cohorts.get(key);
+		if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+			hits.incrementAndGet();
+			MetricsRegistry.getInstance().recordCacheLookup("cohort", true);
+			return entry.patientIds;
+		}
+		misses.incrementAndGet();
+		MetricsRegistry.getInstance().recordCacheLookup("cohort", false);
+		
+		long loadStart = System.nanoTime();
+		int[] patientIds;
+		try (RequestProfiler.Span span = RequestProfiler.span("cohort:" + indicator)) {
+			patientIds = loader.get().stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+			span.setRows(patientIds.length);
+		}
+		MetricsRegistry.getInstance().recordCohortQuery(indicator, System.nanoTime() - loadStart, patientIds.length);
+		
+		long ttlSeconds = getProperty(TTL_SECONDS_PROPERTY);
+		if (ttlSeconds > 0) {
+			makeRoom((int) getProperty(MAX_ENTRIES_PROPERTY));
+			cohorts.put(key, new CacheEntry(patientIds, ttlSeconds * 1000));
+		}
+		
+		return patientIds;
+	}
+	
+	/**
+	 * Returns the cohort pinned behind the given handle, or pins the current cohort behind a new handle
+	 * when the handle is missing, unknown, expired or was issued for another indicator, period or
+	 * filter.
+	 * 
+	 * @param handle The handle returned with an earlier page, or null on the first request.
+	 * @see #getPatientIds(String, Date, Date, SSEMRWebServicesController.filterCategory, Supplier)
+	 */
+	public PinnedCohort getPinnedCohort(String handle, String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, Supplier<Collection<Integer>> loader) {
+		String key = buildKey(indicator, startDate, endDate, filterCategory);
+		long handleTtlMs = getProperty(HANDLE_TTL_SECONDS_PROPERTY) * 1000;
+		
+		if (StringUtils.isNotBlank(handle)) {
+			PinnedCohort pinned = pinnedCohorts.get(handle.trim());
+			long now = System.currentTimeMillis();
+			if (pinned != null && pinned.key.equals(key) && !pinned.isExpired(now, handleTtlMs)) {
+				pinned.lastAccessedAt = now;
+				return pinned;
+			}
+		}
+		
+		PinnedCohort pinned = new PinnedCohort(key,
+		    getPatientIds(indicator, startDate, endDate, filterCategory, loader));
+		makeRoomForHandles((int) getProperty(MAX_HANDLES_PROPERTY), handleTtlMs);
+		pinnedCohorts.put(pinned.handle, pinned);
+		return pinned;
+	}
+	
+	/**
+	 * @return How long, in seconds, a cohort stays cached. 0 or less disables caching.
+	 */
+	public long getTtlSeconds() {
+		return getProperty(TTL_SECONDS_PROPERTY);
+	}
+	
+	/**
+	 * Drops every cached cohort. Pinned cohorts are kept until their handles expire.
+	 */
+	public void clear() {
+		cohorts.clear();
+	}
+	
+	/**
+	 * @return The number of cached cohorts and the hit, miss and eviction counts since startup.
+	 */
+	public Map<String, Object> getStatistics() {
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("entries", cohorts.size());
+		statistics.put("maxEntries", getProperty(MAX_ENTRIES_PROPERTY));
+		statistics.put("ttlSeconds", getProperty(TTL_SECONDS_PROPERTY));
+		statistics.put("hits", hitCount);
+		statistics.put("misses", missCount);
+		statistics.put("evictions", evictions.get());
+		statistics.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+		statistics.put("pinnedCohorts", pinnedCohorts.size());
+		return statistics;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return DEFAULT_VALUES.containsKey(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		String property = newValue.getProperty();
+		properties.put(property, parseLongProperty(property, newValue.getPropertyValue()));
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		properties.put(propertyName, DEFAULT_VALUES.get(propertyName));
+	}
+	
+	private long getProperty(String property) {
+		return properties.computeIfAbsent(property,
+		    name -> parseLongProperty(name, Context.getAdministrationService().getGlobalProperty(name)));
+	}
+	
+	// Removes expired cohorts, then the oldest ones until there is room for one more
+	private void makeRoom(int maxEntries) {
+		long now = System.currentTimeMillis();
+		cohorts.entrySet().removeIf(cached -> {
+			boolean expired = cached.getValue().isExpired(now);
+			if (expired) {
+				evictions.incrementAndGet();
+			}
+			return expired;
+		});
+		
+		while (!cohorts.isEmpty() && cohorts.size() >= Math.max(maxEntries, 1)) {
+			String oldestKey = null;
+			long oldestCreatedAt = Long.MAX_VALUE;
+			for (Map.Entry<String, CacheEntry> cached : cohorts.entrySet()) {
+				if (cached.getValue().createdAt < oldestCreatedAt) {
+					oldestCreatedAt = cached.getValue().createdAt;
+					oldestKey = cached.getKey();
+				}
+			}
+			if (oldestKey == null || cohorts.remove(oldestKey) == null) {
+				break;
+			}
+			evictions.incrementAndGet();
+		}
+	}
+	
+	// Removes expired handles, then the least recently used ones until there is room for one more
+	private void makeRoomForHandles(int maxHandles, long handleTtlMs) {
+		long now = System.currentTimeMillis();
+		pinnedCohorts.values().removeIf(pinned -> pinned.isExpired(now, handleTtlMs));
+		
+		while (!pinnedCohorts.isEmpty() && pinnedCohorts.size() >= Math.max(maxHandles, 1)) {
+			String oldestHandle = null;
+			long oldestAccessedAt = Long.MAX_VALUE;
+			for (PinnedCohort pinned : pinnedCohorts.values()) {
+				if (pinned.lastAccessedAt < oldestAccessedAt) {
+					oldestAccessedAt = pinned.lastAccessedAt;
+					oldestHandle = pinned.handle;
+				}
+			}
+			if (oldestHandle == null || pinnedCohorts.remove(oldestHandle) == null) {
+				break;
+			}
+		}
+	}
+	
+	private static String buildKey(String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		SimpleDateFormat dayFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		return indicator + "|" + (startDate != null ? dayFormatter.format(startDate) : "") + "|"
+		        + (endDate != null ? dayFormatter.format(endDate) : "") + "|"
+		        + (filterCategory != null ? filterCategory.name() : "");
+	}
+	
+	private static long parseLongProperty(String property, String value) {
+		long defaultValue = DEFAULT_VALUES.get(property);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Invalid value for global property " + property + ": " + value);
+			return defaultValue;
+		}
+	}
+}
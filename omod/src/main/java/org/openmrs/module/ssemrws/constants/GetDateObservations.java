@@ -6,25 +6,23 @@ import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 
 import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import static org.openmrs.module.ssemrws.constants.GetObservationValue.getPersonObs;
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
 
 public class GetDateObservations {
 	
 	// Get date as String
 	public static String getPatientDateByConcept(Patient patient, String conceptUuid) {
-		List<Obs> conceptDateObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(conceptUuid)), null, null, null,
-		    null, 0, null, null, null, false);
+		List<Obs> conceptDateObs = getPersonObs(patient.getPerson(), conceptUuid, 0);
 		
 		if (!conceptDateObs.isEmpty()) {
 			Obs dateObs = conceptDateObs.get(0);
 			Date conceptDate = dateObs.getValueDate();
 			if (conceptDate != null) {
-				return dateTimeFormatter.format(conceptDate);
+				return formatDate(conceptDate);
 			}
 		}
 		
@@ -33,9 +31,7 @@ public class GetDateObservations {
 	
 	// Get unfiltered Date
 	public static Date getDateByConcept(Patient patient, String conceptUuid) {
-		List<Obs> conceptDateObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(conceptUuid)), null, null, null,
-		    null, 0, null, null, null, false);
+		List<Obs> conceptDateObs = getPersonObs(patient.getPerson(), conceptUuid, 0);
 		
 		if (!conceptDateObs.isEmpty()) {
 			Obs dateObs = conceptDateObs.get(0);
@@ -46,6 +42,11 @@ public class GetDateObservations {
 	}
 	
 	public static Date getLatestDateFromObs(Patient patient, String conceptUuid) {
+		List<Obs> snapshotObs = GetObservationValue.lookupLoadedObs(patient.getPerson(), conceptUuid);
+		if (snapshotObs != null) {
+			return snapshotObs.isEmpty() ? null : snapshotObs.get(0).getValueDate();
+		}
+		
 		Concept dateConcept = Context.getConceptService().getConceptByUuid(conceptUuid);
 		if (dateConcept == null) {
 			return null;
@@ -3,17 +3,74 @@ package org.openmrs.module.ssemrws.constants;
 import org.openmrs.Concept;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.api.context.Context;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class GetObservationValue {
 	
+	/**
+	 * Returns a person's non-voided obs for a concept, newest first. The obs are served from the open
+	 * {@link PatientObsSnapshot} or {@link ObsPrefetcher} when one covers the person and concept,
+	 * otherwise from the ObsService. A prefetch only holds the latest obs.
+	 * 
+	 * @param person The person to get the observations for.
+	 * @param conceptUuid The UUID of the question concept.
+	 * @param mostRecentN The maximum number of obs to return, null or 0 for all of them.
+	 * @return The matching observations, newest first.
+	 */
+	public static List<Obs> getPersonObs(Person person, String conceptUuid, Integer mostRecentN) {
+		List<Obs> snapshotObs = lookupLoadedObs(person, conceptUuid);
+		if (snapshotObs != null) {
+			if (mostRecentN != null && mostRecentN > 0 && snapshotObs.size() > mostRecentN) {
+				return snapshotObs.subList(0, mostRecentN);
+			}
+			return snapshotObs;
+		}
+		
+		return Context.getObsService().getObservations(Collections.singletonList(person), null,
+		    Collections.singletonList(Context.getConceptService().getConceptByUuid(conceptUuid)), null, null, null, null,
+		    mostRecentN, null, null, null, false);
+	}
+	
+	/**
+	 * Returns a person's non-voided obs across several concepts, newest first, the same way a single
+	 * ObsService call with several question concepts would.
+	 */
+	public static List<Obs> getPersonObs(Person person, List<String> conceptUuids) {
+		List<Obs> observations = new ArrayList<>();
+		for (String conceptUuid : conceptUuids) {
+			List<Obs> snapshotObs = lookupLoadedObs(person, conceptUuid);
+			if (snapshotObs == null) {
+				return Context.getObsService().getObservations(Collections.singletonList(person), null,
+				    SharedConstants.getConceptsByUuids(conceptUuids), null, null, null, null, null, null, null, null,
+				    false);
+			}
+			observations.addAll(snapshotObs);
+		}
+		
+		observations.sort(Comparator.comparing(Obs::getObsDatetime).thenComparing(Obs::getObsId).reversed());
+		return observations;
+	}
+	
+	/**
+	 * Returns the obs already loaded for this thread by an open {@link PatientObsSnapshot} or
+	 * {@link ObsPrefetcher}, or null when the database has to be queried.
+	 */
+	static List<Obs> lookupLoadedObs(Person person, String conceptUuid) {
+		List<Obs> loadedObs = PatientObsSnapshot.lookup(person, conceptUuid);
+		if (loadedObs == null) {
+			loadedObs = ObsPrefetcher.lookup(person, conceptUuid);
+		}
+		return loadedObs;
+	}
+	
 	public static Object getObsValue(Patient patient, Obs observation, String conceptUuid) {
-		List<Obs> observations = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(conceptUuid)), null, null, null,
-		    null, null, null, null, null, false);
+		List<Obs> observations = getPersonObs(patient.getPerson(), conceptUuid, null);
 		
 		for (Obs obs : observations) {
 			if (obs.getObsGroup() != null && obs.getObsGroup().equals(observation)) {
@@ -31,9 +88,7 @@ public class GetObservationValue {
 	}
 	
 	public static Object getLatestObsByConcept(Patient patient, String conceptUuid) {
-		Concept concept = Context.getConceptService().getConceptByUuid(conceptUuid);
-		
-		List<Obs> observations = Context.getObsService().getObservationsByPersonAndConcept(patient.getPerson(), concept);
+		List<Obs> observations = getPersonObs(patient.getPerson(), conceptUuid, null);
 		if (observations != null && !observations.isEmpty()) {
 			Obs latestObs = observations.get(0);
 			
@@ -58,9 +113,7 @@ public class GetObservationValue {
 	 * @return The value of the observation as a String, or an empty string if not found.
 	 */
 	public static String getLatestObsValueText(Patient patient, String conceptUuid) {
-		List<Obs> obsValue = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(conceptUuid)), null, null, null, null,
-		    null, null, null, null, false);
+		List<Obs> obsValue = getPersonObs(patient.getPerson(), conceptUuid, null);
 		
 		if (!obsValue.isEmpty()) {
 			return obsValue.get(0).getValueText();
@@ -100,6 +153,11 @@ public class GetObservationValue {
 	 * @return The latest Obs object, or null if not found.
 	 */
 	private static Obs getLatestObsForConcept(Patient patient, String conceptUuid) {
+		List<Obs> snapshotObs = lookupLoadedObs(patient.getPerson(), conceptUuid);
+		if (snapshotObs != null) {
+			return snapshotObs.isEmpty() ? null : snapshotObs.get(0);
+		}
+		
 		Concept question = Context.getConceptService().getConceptByUuid(conceptUuid);
 		if (question == null) {
 			System.err.println("Concept not found with uuid: " + conceptUuid);
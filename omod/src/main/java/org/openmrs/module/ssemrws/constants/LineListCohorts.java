@@ -0,0 +1,211 @@
+package org.openmrs.module.ssemrws.constants;
+
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.queries.GetDueForVL;
+import org.openmrs.module.ssemrws.queries.GetFilteredPatients;
+import org.openmrs.module.ssemrws.queries.GetInterruptedInTreatment;
+import org.openmrs.module.ssemrws.queries.GetInterruptedInTreatmentWithinRange;
+import org.openmrs.module.ssemrws.queries.GetMissedAppointments;
+import org.openmrs.module.ssemrws.queries.GetNextAppointmentDate;
+import org.openmrs.module.ssemrws.queries.GetOnAppointment;
+import org.openmrs.module.ssemrws.queries.GetPregnantOrBreastfeeding;
+import org.openmrs.module.ssemrws.service.CohortStatusSnapshotService;
+import org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier;
+import org.openmrs.module.ssemrws.web.constants.GetTxCurr;
+import org.openmrs.module.ssemrws.web.constants.GetTxNew;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.COMMUNITY_LINKAGE_ENCOUNTER_UUID;
+
+/**
+ * The cohorts behind the dashboard line lists, by the indicator name of their endpoint, e.g.
+ * "interruptedInTreatment" for /dashboard/interruptedInTreatment. The line list endpoints page
+ * through them and /dashboard/{indicator}/export streams them whole, so both list the same patients.
+ * Every line list endpoint goes through here, so none of them computes its cohort inline.
+ * Cohorts are taken from the cohort status snapshot when it covers the period and are cached in the
+ * {@link CohortCache}.
+ */
+@Component
+public class LineListCohorts {
+	
+	/**
+	 * Computes the ids of the filtered cohort of an indicator for a period. Cohorts read from the
+	 * snapshot, or computed by a query that has an id form, are never loaded as patients.
+	 */
+	private interface Loader {
+		
+		Collection<Integer> load(Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory);
+	}
+	
+	private final CohortCache cohortCache;
+	
+	private final CohortStatusSnapshotService cohortStatusSnapshotService;
+	
+	private final GetFilteredPatients getFilteredPatients;
+	
+	private final GetNextAppointmentDate getNextAppointmentDate;
+	
+	private final Map<String, Loader> loaders = new LinkedHashMap<>();
+	
+	public LineListCohorts(CohortCache cohortCache, CohortStatusSnapshotService cohortStatusSnapshotService,
+	    GetFilteredPatients getFilteredPatients, GetNextAppointmentDate getNextAppointmentDate,
+	    GetInterruptedInTreatment getInterruptedInTreatment,
+	    GetInterruptedInTreatmentWithinRange getInterruptedInTreatmentWithinRange, GetOnAppointment getOnAppointment,
+	    GetMissedAppointments getMissedAppointments, GetPregnantOrBreastfeeding getPregnantOrBreastfeeding,
+	    GetDueForVL getDueForVl, GetTxCurr getTxCurr) {
+		this.cohortCache = cohortCache;
+		this.cohortStatusSnapshotService = cohortStatusSnapshotService;
+		this.getFilteredPatients = getFilteredPatients;
+		this.getNextAppointmentDate = getNextAppointmentDate;
+		
+		loaders.put("interruptedInTreatment", getInterruptedInTreatment::getIitIds);
+		loaders.put("interruptedInTreatmentWithinRange", getInterruptedInTreatmentWithinRange::getIitWithinRangeIds);
+		loaders.put("onAppointment", getOnAppointment::getOnAppointmentIds);
+		loaders.put("missedAppointment", getMissedAppointments::getMissedAppointmentIds);
+		loaders.put("returnedToTreatment",
+		    (startDate, endDate, filterCategory) -> cohortStatusSnapshotService.covers(startDate, endDate)
+		            ? cohortStatusSnapshotService.getPatientIds(endDate, CohortStatusSnapshotService.Cohort.RTT,
+		                filterCategory)
+		            : getFilteredPatients.filterPatientIds(toIds(getReturnToTreatmentPatients(startDate, endDate)),
+		                filterCategory, endDate));
+		loaders.put("transferredOut",
+		    (startDate, endDate, filterCategory) -> cohortStatusSnapshotService.covers(startDate, endDate)
+		            ? cohortStatusSnapshotService.getPatientIds(endDate,
+		                CohortStatusSnapshotService.Cohort.TRANSFERRED_OUT, filterCategory)
+		            : getFilteredPatients.filterPatientIds(toIds(getTransferredOutClients(startDate, endDate)),
+		                filterCategory, endDate));
+		loaders.put("deceased", this::loadDeceased);
+		loaders.put("pbfw", (startDate, endDate, filterCategory) -> getFilteredPatients
+		        .filterPatientIds(getPregnantOrBreastfeeding.getPbfwPatientIds(endDate), filterCategory, endDate));
+		loaders.put("highVl",
+		    (startDate, endDate, filterCategory) -> cohortStatusSnapshotService.covers(startDate, endDate)
+		            ? cohortStatusSnapshotService.getPatientIds(endDate, CohortStatusSnapshotService.Cohort.HIGH_VL,
+		                filterCategory)
+		            : getFilteredPatients.filterPatientIds(toIds(getPatientsWithHighVL(startDate, endDate)),
+		                filterCategory, endDate));
+		loaders.put("dueForVl",
+		    (startDate, endDate, filterCategory) -> cohortStatusSnapshotService.covers(startDate, endDate)
+		            ? cohortStatusSnapshotService.getPatientIds(endDate, CohortStatusSnapshotService.Cohort.DUE_FOR_VL,
+		                filterCategory)
+		            : getDueForVl.getDueForVlIds(startDate, endDate, filterCategory));
+		loaders.put("activeClients",
+		    (startDate, endDate, filterCategory) -> cohortStatusSnapshotService.covers(startDate, endDate)
+		            ? getTxCurr.removeInterruptedInTreatment(startDate, endDate, cohortStatusSnapshotService
+		                    .getPatientIds(endDate, CohortStatusSnapshotService.Cohort.TX_CURR, filterCategory))
+		            : getTxCurr.getTxCurrPatientIds(startDate, endDate, filterCategory));
+		loaders.put("newClients", this::loadNewClients);
+		loaders.put("underCareOfCommunityProgrammes", this::loadUnderCareOfCommunityProgrammes);
+	}
+	
+	/**
+	 * @return The indicators that have a line list, in a stable order.
+	 */
+	public Set<String> getIndicators() {
+		return Collections.unmodifiableSet(loaders.keySet());
+	}
+	
+	public boolean isLineList(String indicator) {
+		return loaders.containsKey(indicator);
+	}
+	
+	/**
+	 * @return The patient ids of the cohort of an indicator in ascending order, cached like every
+	 *         other cohort. Callers must not modify the array.
+	 * @see CohortCache#getPatientIds
+	 */
+	public int[] getPatientIds(String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		Loader loader = getLoader(indicator);
+		return cohortCache.getPatientIds(indicator, startDate, endDate, filterCategory,
+		    () -> loader.load(startDate, endDate, filterCategory));
+	}
+	
+	/**
+	 * @return The patients of the cohort of an indicator in ascending id order, for the line lists that
+	 *         summarize the whole cohort rather than a page of it.
+	 * @see #getPatientIds
+	 */
+	public List<Patient> getPatients(String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		int[] patientIds = getPatientIds(indicator, startDate, endDate, filterCategory);
+		List<Integer> ids = new ArrayList<>(patientIds.length);
+		for (int patientId : patientIds) {
+			ids.add(patientId);
+		}
+		return FetchPatientsByIdentifier.fetchPatientsInOrder(ids);
+	}
+	
+	/**
+	 * @return The cohort of an indicator pinned behind the given handle, or behind a new one.
+	 * @see CohortCache#getPinnedCohort
+	 */
+	public CohortCache.PinnedCohort getPinnedCohort(String handle, String indicator, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		Loader loader = getLoader(indicator);
+		return cohortCache.getPinnedCohort(handle, indicator, startDate, endDate, filterCategory,
+		    () -> loader.load(startDate, endDate, filterCategory));
+	}
+	
+	private Loader getLoader(String indicator) {
+		Loader loader = loaders.get(indicator);
+		if (loader == null) {
+			throw new IllegalArgumentException("No line list for indicator " + indicator);
+		}
+		return loader;
+	}
+	
+	private Collection<Integer> loadDeceased(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		Set<Integer> deceasedIds = new HashSet<>(cohortStatusSnapshotService.covers(startDate, endDate)
+		        ? cohortStatusSnapshotService.getPatientIds(endDate, CohortStatusSnapshotService.Cohort.DIED)
+		        : toIds(getDeceasedPatientsByDateRange(startDate, endDate)));
+		
+		// Filter out patients who have an upcoming appointment
+		deceasedIds.removeAll(getNextAppointmentDate.getNextAppointmentDates(deceasedIds).keySet());
+		
+		return getFilteredPatients.filterPatientIds(deceasedIds, filterCategory, endDate);
+	}
+	
+	private Collection<Integer> loadNewClients(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		return getFilteredPatients.filterPatientIds(toIds(toPatients(GetTxNew.getNewlyEnrolledPatients(startDate, endDate))),
+		    filterCategory, endDate);
+	}
+	
+	private Collection<Integer> loadUnderCareOfCommunityProgrammes(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		EncounterType communityLinkageEncounterType = Context.getEncounterService()
+		        .getEncounterTypeByUuid(COMMUNITY_LINKAGE_ENCOUNTER_UUID);
+		EncounterSearchCriteria encounterSearchCriteria = new EncounterSearchCriteria(null, null, startDate, endDate, null,
+		        null, Collections.singletonList(communityLinkageEncounterType), null, null, null, false);
+		List<Encounter> encounters = Context.getEncounterService().getEncounters(encounterSearchCriteria);
+		
+		return getFilteredPatients.filterPatientIds(toIds(encounters.stream().map(Encounter::getPatient)
+		        .collect(Collectors.toList())), filterCategory, endDate);
+	}
+	
+	private static List<Patient> toPatients(List<GetTxNew.PatientEnrollmentData> enrollments) {
+		return enrollments.stream().map(GetTxNew.PatientEnrollmentData::getPatient).collect(Collectors.toList());
+	}
+	
+	private static List<Integer> toIds(Collection<Patient> patients) {
+		return patients.stream().map(Patient::getPatientId).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,159 @@
+package org.openmrs.module.ssemrws.constants;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Person;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
+
+/**
+ * Loads the latest obs per (person, concept) for a page of persons in one query per chunk of
+ * {@value SharedConstants#ID_CHUNK_SIZE} persons. While a {@link Prefetch} is open it is bound to
+ * the current thread and the latest-value getters in {@link SharedConstants} read from it instead
+ * of querying the ObsService once per patient and concept. A latest obs without a value still goes
+ * to the ObsService, so getters that skip it keep seeing the older obs.
+ * 
+ * <pre>
+ * try (ObsPrefetcher.Prefetch ignored = obsPrefetcher.prefetch(patientIds, conceptUuids)) {
+ * 	// getters called here are served from the prefetched obs
+ * }
+ * </pre>
+ */
+@Component
+public class ObsPrefetcher {
+	
+	private static final ThreadLocal<Prefetch> CURRENT = new ThreadLocal<>();
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	/**
+	 * Loads the latest non-voided obs for every person and concept and binds the result to the
+	 * current thread until it is closed.
+	 * 
+	 * @param personIds The persons on the page.
+	 * @param conceptUuids The concepts the page needs. Unknown concept uuids are skipped and keep
+	 *            going to the database.
+	 * @return The open prefetch.
+	 */
+	public Prefetch prefetch(Collection<Integer> personIds, Collection<String> conceptUuids) {
+		Map<Integer, String> conceptUuidsById = new HashMap<>();
+		for (String conceptUuid : conceptUuids) {
+			Concept concept = ConceptCache.getCachedConcept(conceptUuid);
+			if (concept != null) {
+				conceptUuidsById.put(concept.getConceptId(), conceptUuid);
+			}
+		}
+		
+		List<Integer> ids = personIds != null ? new ArrayList<>(personIds) : new ArrayList<>();
+		
+		Map<Integer, Map<String, Obs>> latestObs = new HashMap<>();
+		if (!ids.isEmpty() && !conceptUuidsById.isEmpty()) {
+			String query = "select o from Obs o where o.voided = false " + "and o.person.personId in (:personIds) "
+			        + "and o.concept.conceptId in (:conceptIds) "
+			        + "and o.obsDatetime = (select max(o2.obsDatetime) from Obs o2 where o2.voided = false "
+			        + "and o2.person = o.person and o2.concept = o.concept)";
+			
+			List<Obs> results = queryInChunks(ids, batchIds -> entityManager.createQuery(query, Obs.class)
+			        .setParameter("personIds", batchIds).setParameter("conceptIds", conceptUuidsById.keySet())
+			        .getResultList());
+			
+			for (Obs obs : results) {
+				String conceptUuid = conceptUuidsById.get(obs.getConcept().getConceptId());
+				Map<String, Obs> personObs = latestObs.computeIfAbsent(obs.getPerson().getPersonId(), k -> new HashMap<>());
+				
+				// Same ordering as the ObsService: obsDatetime desc, then obsId desc
+				Obs current = personObs.get(conceptUuid);
+				if (current == null || obs.getObsId() > current.getObsId()) {
+					personObs.put(conceptUuid, obs);
+				}
+			}
+		}
+		
+		return bind(ids, conceptUuidsById.values(), latestObs);
+	}
+	
+	/**
+	 * Binds already loaded latest obs to the current thread until the returned prefetch is closed.
+	 * 
+	 * @param latestObs The latest obs per person id and concept uuid. A covered person and concept
+	 *            without an entry has no obs.
+	 */
+	protected Prefetch bind(Collection<Integer> personIds, Collection<String> conceptUuids,
+	        Map<Integer, Map<String, Obs>> latestObs) {
+		Prefetch prefetch = new Prefetch(new ArrayList<>(personIds), conceptUuids, latestObs, CURRENT.get());
+		CURRENT.set(prefetch);
+		return prefetch;
+	}
+	
+	/**
+	 * Looks up a person's latest obs for a concept in the prefetch bound to the current thread.
+	 * Getters such as {@link SharedConstants#getARTRegimen} look past a latest obs without a value to
+	 * older ones, which the prefetch does not hold, so such an obs is not served from it.
+	 * 
+	 * @return A list holding the latest obs, an empty list when the person has none, or null when no
+	 *         open prefetch covers this person and concept, or the latest obs has no value, and the
+	 *         caller has to query the database.
+	 */
+	public static List<Obs> lookup(Person person, String conceptUuid) {
+		Prefetch prefetch = CURRENT.get();
+		if (prefetch == null || person == null || !prefetch.covers(person.getPersonId(), conceptUuid)) {
+			return null;
+		}
+		
+		Map<String, Obs> personObs = prefetch.latestObs.get(person.getPersonId());
+		Obs obs = personObs != null ? personObs.get(conceptUuid) : null;
+		if (obs == null) {
+			return Collections.emptyList();
+		}
+		return hasValue(obs) ? Collections.singletonList(obs) : null;
+	}
+	
+	private static boolean hasValue(Obs obs) {
+		return obs.getValueCoded() != null || obs.getValueDatetime() != null || obs.getValueNumeric() != null
+		        || obs.getValueText() != null;
+	}
+	
+	public static class Prefetch implements AutoCloseable {
+		
+		private final Collection<Integer> personIds;
+		
+		private final Collection<String> conceptUuids;
+		
+		private final Map<Integer, Map<String, Obs>> latestObs;
+		
+		private final Prefetch previous;
+		
+		private Prefetch(List<Integer> personIds, Collection<String> conceptUuids,
+		    Map<Integer, Map<String, Obs>> latestObs, Prefetch previous) {
+			this.personIds = new HashSet<>(personIds);
+			this.conceptUuids = new HashSet<>(conceptUuids);
+			this.latestObs = latestObs;
+			this.previous = previous;
+		}
+		
+		private boolean covers(Integer personId, String conceptUuid) {
+			return personIds.contains(personId) && conceptUuids.contains(conceptUuid);
+		}
+		
+		@Override
+		public void close() {
+			if (previous != null) {
+				CURRENT.set(previous);
+			} else {
+				CURRENT.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.openmrs.module.ssemrws.constants;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Person;
+import org.openmrs.api.context.Context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory snapshot of one person's observations for a fixed set of concepts, loaded with a single
+ * ObsService call. While a snapshot is open it is bound to the current thread and the obs getters in
+ * {@link SharedConstants}, {@link GetObservationValue} and {@link GetDateObservations} read from it
+ * instead of querying the database once per concept.
+ * 
+ * <pre>
+ * try (PatientObsSnapshot snapshot = PatientObsSnapshot.open(patient, conceptUuids)) {
+ * 	// getters called here are served from the snapshot
+ * }
+ * </pre>
+ */
+public class PatientObsSnapshot implements AutoCloseable {
+	
+	private static final ThreadLocal<PatientObsSnapshot> CURRENT = new ThreadLocal<>();
+	
+	private final Integer personId;
+	
+	// Obs per concept uuid, newest first, in the order the ObsService returned them
+	private final Map<String, List<Obs>> obsByConcept;
+	
+	private final PatientObsSnapshot previous;
+	
+	private PatientObsSnapshot(Integer personId, Map<String, List<Obs>> obsByConcept, PatientObsSnapshot previous) {
+		this.personId = personId;
+		this.obsByConcept = obsByConcept;
+		this.previous = previous;
+	}
+	
+	/**
+	 * Loads all non-voided obs of the given person for the given concepts and binds the snapshot to
+	 * the current thread until it is closed.
+	 * 
+	 * @param person The person whose observations should be loaded.
+	 * @param conceptUuids The concepts to cover. Unknown concept uuids are skipped and keep going to
+	 *            the database.
+	 * @return The open snapshot.
+	 */
+	public static PatientObsSnapshot open(Person person, Collection<String> conceptUuids) {
+		Map<String, List<Obs>> obsByConcept = new HashMap<>();
+		List<Concept> concepts = new ArrayList<>();
+		for (String conceptUuid : conceptUuids) {
+			Concept concept = ConceptCache.getCachedConcept(conceptUuid);
+			if (concept != null && !obsByConcept.containsKey(conceptUuid)) {
+				concepts.add(concept);
+				obsByConcept.put(conceptUuid, new ArrayList<>());
+			}
+		}
+		
+		if (!concepts.isEmpty()) {
+			List<Obs> observations = Context.getObsService().getObservations(Collections.singletonList(person), null,
+			    concepts, null, null, null, null, null, null, null, null, false);
+			
+			for (Obs obs : observations) {
+				List<Obs> conceptObs = obsByConcept.get(obs.getConcept().getUuid());
+				if (conceptObs != null) {
+					conceptObs.add(obs);
+				}
+			}
+		}
+		
+		PatientObsSnapshot snapshot = new PatientObsSnapshot(person.getPersonId(), obsByConcept, CURRENT.get());
+		CURRENT.set(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Looks up a person's obs for a concept in the snapshot bound to the current thread.
+	 * 
+	 * @return The obs newest first, or null when no open snapshot covers this person and concept and
+	 *         the caller has to query the database.
+	 */
+	public static List<Obs> lookup(Person person, String conceptUuid) {
+		PatientObsSnapshot snapshot = CURRENT.get();
+		if (snapshot == null || person == null || !snapshot.personId.equals(person.getPersonId())) {
+			return null;
+		}
+		return snapshot.obsByConcept.get(conceptUuid);
+	}
+	
+	@Override
+	public void close() {
+		if (previous != null) {
+			CURRENT.set(previous);
+		} else {
+			CURRENT.remove();
+		}
+	}
+}
@@ -7,4 +7,10 @@ public class PrivilegeConstants {
 	public static final String VIEW_CHILD_REGIMEN_TREATMENT = "Graph: View Child Regimen Treatment";
 	
 	public static final String MANAGE_CHILD_REGIMEN_TREATMENT = "Manage Child Regimen Treatment";
+	
+	public static final String PROFILE_REQUESTS = "Profile SSEMR Requests";
+	
+	public static final String VIEW_METRICS = "View SSEMR Metrics";
+	
+	public static final String MANAGE_REPORT_JOBS = "Manage SSEMR Report Jobs";
 }
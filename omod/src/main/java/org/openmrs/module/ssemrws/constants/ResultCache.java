@@ -0,0 +1,72 @@
+package org.openmrs.module.ssemrws.constants;
+
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Results computed from the database, such as counts or aggregated indicators, kept by key for the
+ * time to live of the {@link CohortCache} so they expire with the cohorts they are shown next to.
+ * Expired results are dropped when a new one is stored, and lookups are recorded in the
+ * {@link MetricsRegistry} under the name of the cache.
+ * 
+ * @param <V> The type of the results. Callers must not modify a result once it is cached.
+ */
+public class ResultCache<V> {
+	
+	private final String name;
+	
+	private final CohortCache cohortCache;
+	
+	private final Map<String, CachedResult<V>> results = new ConcurrentHashMap<>();
+	
+	// Inner class to store a result and when it stops being valid
+	private static class CachedResult<V> {
+		
+		final V result;
+		
+		final long expiresAt;
+		
+		CachedResult(V result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	public ResultCache(String name, CohortCache cohortCache) {
+		this.name = name;
+		this.cohortCache = cohortCache;
+	}
+	
+	/**
+	 * @return The result cached under the key, or the result of the loader when there is none or it
+	 *         has expired. Nothing is cached when the time to live is 0 or less.
+	 */
+	public V get(String key, Supplier<V> loader) {
+		long now = System.currentTimeMillis();
+		CachedResult<V> cached = results.get(key);
+		if (cached != null && now < cached.expiresAt) {
+			MetricsRegistry.getInstance().recordCacheLookup(name, true);
+			return cached.result;
+		}
+		MetricsRegistry.getInstance().recordCacheLookup(name, false);
+		
+		V result = loader.get();
+		
+		long ttlSeconds = cohortCache.getTtlSeconds();
+		if (ttlSeconds > 0) {
+			results.values().removeIf(expired -> now >= expired.expiresAt);
+			results.put(key, new CachedResult<>(result, now + ttlSeconds * 1000));
+		}
+		return result;
+	}
+	
+	/**
+	 * Drops every cached result.
+	 */
+	public void clear() {
+		results.clear();
+	}
+}
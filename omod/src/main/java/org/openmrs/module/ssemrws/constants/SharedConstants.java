@@ -8,6 +8,9 @@ import org.openmrs.*;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.queries.GetPregnantOrBreastfeeding;
+import org.openmrs.module.ssemrws.service.ReportJobService;
 import org.openmrs.module.ssemrws.web.constants.GeneratePatientListObject;
 import org.openmrs.module.ssemrws.web.constants.GenerateSummary;
 import org.openmrs.module.ssemrws.web.constants.GenerateSummaryResponse;
@@ -19,17 +22,24 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.openmrs.module.ssemrws.constants.GetDateObservations.*;
 import static org.openmrs.module.ssemrws.constants.GetObservationValue.*;
 import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
+import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsInOrder;
 import static org.openmrs.module.ssemrws.web.constants.GenerateSummary.generateSummary;
 import static org.openmrs.module.ssemrws.web.constants.PatientDataUtils.*;
 import static org.openmrs.module.ssemrws.web.constants.RegimenConcepts.*;
@@ -37,18 +47,25 @@ import static org.openmrs.module.ssemrws.web.constants.RegimenConcepts.*;
 @Component
 public class SharedConstants {
 	
-	public static SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("dd-MM-yyyy");
+	// Immutable, unlike SimpleDateFormat, so the line lists built on pool threads can share it
+	public static final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
 	
 	public static final double THRESHOLD = 1000.0;
 	
+	// Keeps the IN lists of queries restricted to a cohort within what the database handles well
+	public static final int ID_CHUNK_SIZE = 1000;
+	
 	private static GenerateSummaryResponse generateSummaryResponse = null;
 	
 	private static GeneratePatientListObject generatePatientListObj;
 	
+	private static GetPregnantOrBreastfeeding getPregnantOrBreastfeeding;
+	
 	public SharedConstants(GenerateSummaryResponse generateSummaryResponse,
-	    GeneratePatientListObject generatePatientListObj) {
+	    GeneratePatientListObject generatePatientListObj, GetPregnantOrBreastfeeding getPregnantOrBreastfeeding) {
 		SharedConstants.generateSummaryResponse = generateSummaryResponse;
 		SharedConstants.generatePatientListObj = generatePatientListObj;
+		SharedConstants.getPregnantOrBreastfeeding = getPregnantOrBreastfeeding;
 	}
 	
 	public static Date[] getStartAndEndDate(String qStartDate, String qEndDate, SimpleDateFormat dateTimeFormatter)
@@ -62,6 +79,22 @@ public class SharedConstants {
 		return new Date[] { startDate, endDate };
 	}
 	
+	/**
+	 * @return Midnight at the start of the day after the given date, the exclusive end of a range that
+	 *         includes the whole of that date. Computed here rather than in SQL, as adding an interval to
+	 *         a parameter is not portable.
+	 */
+	public static Date dayAfter(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTime();
+	}
+	
 	// Retrieves a list of encounters filtered by encounter types.
 	public static List<Encounter> getEncountersByEncounterTypes(List<String> encounterTypeUuids, Date startDate,
 	        Date endDate) {
@@ -84,10 +117,24 @@ public class SharedConstants {
 		        .collect(Collectors.toList());
 	}
 	
+	/**
+	 * Runs a query restricted to the given ids once per chunk of {@value #ID_CHUNK_SIZE} ids.
+	 * 
+	 * @param ids The ids to restrict the query to.
+	 * @param query Runs the query for one chunk of ids, bound e.g. to an IN (:patientIds) parameter.
+	 * @return The rows of all chunks, in chunk order.
+	 */
+	public static <T> List<T> queryInChunks(Collection<Integer> ids, Function<List<Integer>, List<T>> query) {
+		List<T> rows = new ArrayList<>();
+		List<Integer> idList = new ArrayList<>(ids);
+		for (int i = 0; i < idList.size(); i += ID_CHUNK_SIZE) {
+			rows.addAll(query.apply(idList.subList(i, Math.min(i + ID_CHUNK_SIZE, idList.size()))));
+		}
+		return rows;
+	}
+	
 	public static String getARTRegimen(Patient patient) {
-		List<Obs> artRegimenObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(ACTIVE_REGIMEN_CONCEPT_UUID)), null,
-		    null, null, null, 0, null, null, null, false);
+		List<Obs> artRegimenObs = getPersonObs(patient.getPerson(), ACTIVE_REGIMEN_CONCEPT_UUID, 0);
 		
 		for (Obs obs : artRegimenObs) {
 			if (obs.getValueCoded() != null) {
@@ -100,15 +147,13 @@ public class SharedConstants {
 	// Determine Patient Enrollment Date From the Adult and Adolescent and Pediatric
 	// Forms
 	public static String getEnrolmentDate(Patient patient) {
-		List<Obs> enrollmentDateObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(DATE_OF_ENROLLMENT_UUID)), null,
-		    null, null, null, 0, null, null, null, false);
+		List<Obs> enrollmentDateObs = getPersonObs(patient.getPerson(), DATE_OF_ENROLLMENT_UUID, 0);
 		
 		if (!enrollmentDateObs.isEmpty()) {
 			Obs dateObs = enrollmentDateObs.get(0);
 			Date enrollmentDate = dateObs.getValueDate();
 			if (enrollmentDate != null) {
-				return dateTimeFormatter.format(enrollmentDate);
+				return formatDate(enrollmentDate);
 			}
 		}
 		return "";
@@ -117,33 +162,24 @@ public class SharedConstants {
 	
 	// Retrieve the Last Refill Date from Patient Observation
 	public static String getLastRefillDate(Patient patient) {
-		List<Obs> lastRefillDateObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(LAST_REFILL_DATE_UUID)), null, null,
-		    null, null, 0, null, null, null, false);
+		List<Obs> lastRefillDateObs = getPersonObs(patient.getPerson(), LAST_REFILL_DATE_UUID, 0);
 		
 		if (!lastRefillDateObs.isEmpty()) {
 			Obs lastObs = lastRefillDateObs.get(0);
 			Date lastRefillDate = lastObs.getValueDate();
 			if (lastRefillDate != null) {
-				return dateTimeFormatter.format(lastRefillDate);
+				return formatDate(lastRefillDate);
 			}
 		}
 		return "";
 	}
 	
+	/**
+	 * Looks the patient up in the PBFW cohort of the end date, which is computed once per day for all
+	 * patients by {@link GetPregnantOrBreastfeeding}.
+	 */
 	public static boolean determineIfPatientIsPregnantOrBreastfeeding(Patient patient, Date endDate) {
-		
-		List<Concept> pregnantAndBreastfeedingConcepts = new ArrayList<>();
-		pregnantAndBreastfeedingConcepts
-		        .add(Context.getConceptService().getConceptByUuid(CURRENTLY_BREASTFEEDING_CONCEPT_UUID));
-		pregnantAndBreastfeedingConcepts.add(Context.getConceptService().getConceptByUuid(CURRENTLY_PREGNANT_CONCEPT_UUID));
-		
-		List<Obs> obsList = Context.getObsService().getObservations(Collections.singletonList(patient), null,
-		    pregnantAndBreastfeedingConcepts,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(CONCEPT_BY_UUID)), null, null, null, null,
-		    null, null, endDate, false);
-		
-		return !obsList.isEmpty();
+		return getPregnantOrBreastfeeding.getPbfwPatientIds(endDate).contains(patient.getPatientId());
 	}
 	
 	public static Map<String, Object> createResultMap(String key, int value) {
@@ -156,6 +192,24 @@ public class SharedConstants {
 		return new ResponseEntity<>(message, new HttpHeaders(), status);
 	}
 	
+	/**
+	 * Submits a report to run in the background and responds with the state of its job, or with 503
+	 * when too many report jobs are waiting.
+	 * 
+	 * @see ReportJobService#submit(String, String, Supplier)
+	 */
+	public static ResponseEntity<Object> submitReportJob(ReportJobService reportJobService, String report, String key,
+	        Supplier<Object> computation) {
+		try {
+			ReportJobService.Job job = reportJobService.submit(report, key, computation);
+			return new ResponseEntity<>(job.toMap(reportJobService.getResultTtlMs()), new HttpHeaders(),
+			        HttpStatus.ACCEPTED);
+		}
+		catch (RejectedExecutionException e) {
+			return buildErrorResponse("Too many report jobs are waiting, try again later", HttpStatus.SERVICE_UNAVAILABLE);
+		}
+	}
+	
 	public static List<Map<String, String>> getIdentifiersList(Patient patient) {
 		List<Map<String, String>> identifiersList = new ArrayList<>();
 		for (PatientIdentifier identifier : patient.getIdentifiers()) {
@@ -192,8 +246,16 @@ public class SharedConstants {
 		return "Village: " + village + ", Landmark: " + landmark;
 	}
 	
+	/**
+	 * Formats a date, or a java.sql date or timestamp read by a native query, as dd-MM-yyyy in the
+	 * server time zone.
+	 */
+	public static String formatDate(Date date) {
+		return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).format(dateTimeFormatter);
+	}
+	
 	public static String formatBirthdate(Date birthdate) {
-		return dateTimeFormatter.format(birthdate);
+		return formatDate(birthdate);
 	}
 	
 	public static long calculateAge(Date birthdate) {
@@ -223,9 +285,7 @@ public class SharedConstants {
 	}
 	
 	public static Double getLastCD4Count(Patient patient) {
-		Concept lastCD4CountConcept = Context.getConceptService().getConceptByUuid(LAST_CD4_COUNT_UUID);
-		List<Obs> lastCD4CountObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(lastCD4CountConcept), null, null, null, null, null, null, null, null, false);
+		List<Obs> lastCD4CountObs = getPersonObs(patient.getPerson(), LAST_CD4_COUNT_UUID, null);
 		
 		if (!lastCD4CountObs.isEmpty()) {
 			Obs lastcd4Obs = lastCD4CountObs.get(0);
@@ -235,9 +295,7 @@ public class SharedConstants {
 	}
 	
 	public static String getCD4Done(Patient patient) {
-		Concept cd4Concept = Context.getConceptService().getConceptByUuid(CD4_DONE_UUID);
-		List<Obs> cd4Obs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(cd4Concept), null, null, null, null, null, null, null, null, false);
+		List<Obs> cd4Obs = getPersonObs(patient.getPerson(), CD4_DONE_UUID, null);
 		
 		if (!cd4Obs.isEmpty()) {
 			Obs lastcd4Obs = cd4Obs.get(0);
@@ -247,9 +305,7 @@ public class SharedConstants {
 	}
 	
 	public static String getIsPatientOnTb(Patient patient) {
-		Concept tbConcept = Context.getConceptService().getConceptByUuid(ON_TB);
-		List<Obs> tbObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(tbConcept), null, null, null, null, null, null, null, null, false);
+		List<Obs> tbObs = getPersonObs(patient.getPerson(), ON_TB, null);
 		
 		if (!tbObs.isEmpty()) {
 			Obs lastTbObs = tbObs.get(0);
@@ -259,10 +315,7 @@ public class SharedConstants {
 	}
 	
 	public static String getTbStatus(Patient patient) {
-		Concept tbStatusConcepts = Context.getConceptService().getConceptByUuid(TB_STATUS_CONCEPT_UUID);
-		
-		List<Obs> tbStatusObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(tbStatusConcepts), null, null, null, null, null, null, null, null, false);
+		List<Obs> tbStatusObs = getPersonObs(patient.getPerson(), TB_STATUS_CONCEPT_UUID, null);
 		
 		if (!tbStatusObs.isEmpty()) {
 			Obs tbStatus = tbStatusObs.get(0);
@@ -272,12 +325,10 @@ public class SharedConstants {
 	}
 	
 	public static String getARVRegimenDose(Patient patient) {
-		Concept arvRegimenDoseConcept = Context.getConceptService().getConceptByUuid(ARV_REGIMEN_DOSE_UUID);
-		
-		List<Obs> arvRegimenDoseObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(arvRegimenDoseConcept), null, null, null, null, null, null, null, null, false);
+		List<Obs> arvRegimenDoseObs = getPersonObs(patient.getPerson(), ARV_REGIMEN_DOSE_UUID, null);
 		
 		if (arvRegimenDoseObs.isEmpty()) {
+			Concept arvRegimenDoseConcept = Context.getConceptService().getConceptByUuid(ARV_REGIMEN_DOSE_UUID);
 			System.err.println("No observations found for the concept " + arvRegimenDoseConcept.getName().getName() + ".");
 			return "";
 		}
@@ -294,13 +345,8 @@ public class SharedConstants {
 	}
 	
 	public static String getWHOClinicalStage(Patient patient) {
-		Concept whoClinicalConcept = Context.getConceptService().getConceptByUuid(WHO_CLINICAL_UUID);
-		Concept whoClinicalStageIntakeConcept = Context.getConceptService().getConceptByUuid(WHO_CLINICAL_STAGE_INTAKE_UUID);
-		
-		List<Concept> whoConcepts = Arrays.asList(whoClinicalConcept, whoClinicalStageIntakeConcept);
-		
-		List<Obs> obsList = Context.getObsService().getObservations(Collections.singletonList(patient), null, whoConcepts,
-		    null, null, null, null, null, null, null, null, false);
+		List<Obs> obsList = getPersonObs(patient.getPerson(),
+		    Arrays.asList(WHO_CLINICAL_UUID, WHO_CLINICAL_STAGE_INTAKE_UUID));
 		
 		if (obsList.isEmpty()) {
 			return "";
@@ -326,16 +372,11 @@ public class SharedConstants {
 	}
 	
 	public static String getVLResults(Patient patient) {
-		Concept viralLoadResultsConcept = Context.getConceptService().getConceptByUuid(VIRAL_LOAD_RESULTS_UUID);
 		Concept bdlConcept = Context.getConceptService().getConceptByUuid(BDL_CONCEPT_UUID);
-		Concept viralLoadConcept = Context.getConceptService().getConceptByUuid(VIRAL_LOAD_CONCEPT_UUID);
 		
-		List<Obs> getVLResultNumericObs = Context.getObsService().getObservations(
-		    Collections.singletonList(patient.getPerson()), null, Collections.singletonList(viralLoadConcept), null, null,
-		    null, null, 1, null, null, null, false);
+		List<Obs> getVLResultNumericObs = getPersonObs(patient.getPerson(), VIRAL_LOAD_CONCEPT_UUID, 1);
 		
-		List<Obs> getVLResultObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(viralLoadResultsConcept), null, null, null, null, 1, null, null, null, false);
+		List<Obs> getVLResultObs = getPersonObs(patient.getPerson(), VIRAL_LOAD_RESULTS_UUID, 1);
 		
 		List<Obs> allObservations = new ArrayList<>();
 		allObservations.addAll(getVLResultNumericObs);
@@ -457,9 +498,7 @@ public class SharedConstants {
 	}
 	
 	public static Double getBMI(Patient patient) {
-		List<Obs> bmiObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(BMI_CONCEPT_UUID)), null, null, null,
-		    null, 1, null, null, null, false);
+		List<Obs> bmiObs = getPersonObs(patient.getPerson(), BMI_CONCEPT_UUID, 1);
 		
 		if (!bmiObs.isEmpty()) {
 			Obs bmiObservation = bmiObs.get(0);
@@ -470,9 +509,7 @@ public class SharedConstants {
 	}
 	
 	public static Double getMUAC(Patient patient) {
-		List<Obs> muacObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(MUAC_CONCEPT_UUID)), null, null, null,
-		    null, 1, null, null, null, false);
+		List<Obs> muacObs = getPersonObs(patient.getPerson(), MUAC_CONCEPT_UUID, 1);
 		
 		if (!muacObs.isEmpty()) {
 			Obs muacObservation = muacObs.get(0);
@@ -483,9 +520,7 @@ public class SharedConstants {
 	}
 	
 	public static String getClinicianName(Patient patient) {
-		List<Obs> clinicianObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(CLINICIAN_CONCEPT_UUID)), null,
-		    null, null, null, 1, null, null, null, false);
+		List<Obs> clinicianObs = getPersonObs(patient.getPerson(), CLINICIAN_CONCEPT_UUID, 1);
 		
 		if (!clinicianObs.isEmpty()) {
 			Obs clinicianObservation = clinicianObs.get(0);
@@ -506,16 +541,14 @@ public class SharedConstants {
 			Date lastVisitDate = visits.get(0).getStartDatetime();
 			
 			if (lastVisitDate != null) {
-				return dateTimeFormatter.format(lastVisitDate);
+				return formatDate(lastVisitDate);
 			}
 		}
 		return "";
 	}
 	
 	public static String getTbNumber(Patient patient) {
-		List<Obs> tbObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(TB_UNIT_NUMBER)), null, null, null, null,
-		    1, null, null, null, false);
+		List<Obs> tbObs = getPersonObs(patient.getPerson(), TB_UNIT_NUMBER, 1);
 		
 		if (!tbObs.isEmpty()) {
 			Obs tbObservation = tbObs.get(0);
@@ -743,21 +776,88 @@ public class SharedConstants {
 	// Determine if Patient is High Viral Load and return true if it is equal or
 	// above threshold
 	public static boolean determineIfPatientIsHighVl(Patient patient) {
-		List<Obs> vlObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(VIRAL_LOAD_CONCEPT_UUID)), null, null,
-		    null, null, null, null, null, null, false);
+		return getHighVlPatientIds(Collections.singletonList(patient.getPerson())).contains(patient.getPatientId());
+	}
+	
+	public static boolean determineIfPatientIsRTT(Patient patient) {
+		return getRTTPatientIds(Collections.singletonList(patient.getPerson())).contains(patient.getPatientId());
+	}
+	
+	/**
+	 * Set-based form of {@link #determineIfPatientIsHighVl(Patient)}: one ObsService call for all the
+	 * given persons.
+	 * 
+	 * @return The ids of the persons whose latest viral load is at or above the threshold.
+	 */
+	public static Set<Integer> getHighVlPatientIds(List<Person> persons) {
+		Set<Integer> highVlIds = new HashSet<>();
+		if (persons.isEmpty()) {
+			return highVlIds;
+		}
+		
+		List<Obs> vlObs = Context.getObsService().getObservations(persons, null,
+		    Collections.singletonList(ConceptCache.getCachedConcept(VIRAL_LOAD_CONCEPT_UUID)), null, null, null, null,
+		    null, null, null, null, false);
 		
-		if (vlObs != null && !vlObs.isEmpty()) {
-			return vlObs.get(0).getValueNumeric() >= THRESHOLD;
+		// Obs come newest first, so the first one seen per person is their latest viral load
+		Set<Integer> seen = new HashSet<>();
+		for (Obs obs : vlObs) {
+			Integer personId = obs.getPerson().getPersonId();
+			if (seen.add(personId) && obs.getValueNumeric() != null && obs.getValueNumeric() >= THRESHOLD) {
+				highVlIds.add(personId);
+			}
 		}
-		return false;
+		return highVlIds;
 	}
 	
-	public static boolean determineIfPatientIsRTT(Patient patient) {
-		List<Obs> rttObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(DATE_RETURNED_TO_TREATMENT)), null, null,
-		    null, null, null, null, null, null, false);
-		return rttObs != null && !rttObs.isEmpty();
+	/**
+	 * Set-based form of {@link #determineIfPatientIsRTT(Patient)}: one ObsService call for all the
+	 * given persons.
+	 * 
+	 * @return The ids of the persons with a date returned to treatment recorded.
+	 */
+	public static Set<Integer> getRTTPatientIds(List<Person> persons) {
+		return getPersonIdsWithObs(persons, DATE_RETURNED_TO_TREATMENT, null, null);
+	}
+	
+	/**
+	 * Per-patient form of {@link #getDeceasedPatientsByDateRange(Date, Date)} restricted to the given
+	 * persons.
+	 */
+	public static Set<Integer> getDeceasedPatientIds(List<Person> persons, Date endDate) {
+		return getPersonIdsWithObs(persons, DECEASED_CONCEPT_UUID, YES_CONCEPT, endDate);
+	}
+	
+	/**
+	 * Per-patient form of {@link #getTransferredOutClients(Date, Date)} restricted to the given
+	 * persons. Deceased persons are not reported as transferred out.
+	 */
+	public static Set<Integer> getTransferredOutPatientIds(List<Person> persons, Date endDate) {
+		Set<Integer> transferredOutIds = getPersonIdsWithObs(persons, TRANSFERRED_OUT_CONCEPT_UUID, YES_CONCEPT, endDate);
+		if (!transferredOutIds.isEmpty()) {
+			transferredOutIds.removeAll(getDeceasedPatientIds(persons, endDate));
+		}
+		return transferredOutIds;
+	}
+	
+	private static Set<Integer> getPersonIdsWithObs(List<Person> persons, String conceptUuid, String answerUuid,
+	        Date endDate) {
+		Set<Integer> personIds = new HashSet<>();
+		if (persons.isEmpty()) {
+			return personIds;
+		}
+		
+		List<Concept> answers = answerUuid != null
+		        ? Collections.singletonList(ConceptCache.getCachedConcept(answerUuid))
+		        : null;
+		List<Obs> observations = Context.getObsService().getObservations(persons, null,
+		    Collections.singletonList(ConceptCache.getCachedConcept(conceptUuid)), answers, null, null, null, null, null,
+		    null, endDate, false);
+		
+		for (Obs obs : observations) {
+			personIds.add(obs.getPerson().getPersonId());
+		}
+		return personIds;
 	}
 	
 	public static Map<String, Map<String, Integer>> generateDashboardSummaryFromObs(Date startDate, Date endDate,
@@ -791,10 +891,7 @@ public class SharedConstants {
 	public static List<PatientObservations.FamilyMemberObservation> getFamilyMemberObservations(Patient patient) {
 		List<PatientObservations.FamilyMemberObservation> familyMemberObservations = new ArrayList<>();
 		
-		Concept familyInfoConcept = Context.getConceptService().getConceptByUuid(GENERAL_FAMILY_MEMBERS_UUID);
-		
-		List<Obs> familyObs = Context.getObsService().getObservationsByPersonAndConcept(patient.getPerson(),
-		    familyInfoConcept);
+		List<Obs> familyObs = getPersonObs(patient.getPerson(), GENERAL_FAMILY_MEMBERS_UUID, null);
 		
 		for (Obs obs : familyObs) {
 			PatientObservations.FamilyMemberObservation memberObservation = new PatientObservations.FamilyMemberObservation();
@@ -815,11 +912,8 @@ public class SharedConstants {
 	public static List<PatientObservations.IndexFamilyMemberObservation> getIndexFamilyMemberObservations(Patient patient) {
 		List<PatientObservations.IndexFamilyMemberObservation> indexFamilyMemberObservations = new ArrayList<>();
 		
-		Concept indexFamilyInfoConcept = Context.getConceptService().getConceptByUuid(INDEX_FAMILY_MEMBERS_UUID);
-		
 		// Retrieve index family member observations
-		List<Obs> indexFamilyObs = Context.getObsService().getObservationsByPersonAndConcept(patient.getPerson(),
-		    indexFamilyInfoConcept);
+		List<Obs> indexFamilyObs = getPersonObs(patient.getPerson(), INDEX_FAMILY_MEMBERS_UUID, null);
 		
 		for (Obs obs : indexFamilyObs) {
 			PatientObservations.IndexFamilyMemberObservation indexMemberObservation = new PatientObservations.IndexFamilyMemberObservation();
@@ -874,9 +968,7 @@ public class SharedConstants {
 	        Patient patient) {
 		List<PatientObservations.CommunityHealthWorkerObservation> chwObservations = new ArrayList<>();
 		
-		Concept cadreConcept = Context.getConceptService().getConceptByUuid(COMMUNITY_CADRE);
-		List<Obs> cadreObsList = Context.getObsService().getObservationsByPersonAndConcept(patient.getPerson(),
-		    cadreConcept);
+		List<Obs> cadreObsList = getPersonObs(patient.getPerson(), COMMUNITY_CADRE, null);
 		
 		for (Obs cadreObs : cadreObsList) {
 			String cadreValue = cadreObs.getValueCoded() != null ? cadreObs.getValueCoded().getName().getName() : null;
@@ -968,10 +1060,14 @@ public class SharedConstants {
 		return getDateByConcept(patient, ART_SECOND_LINE_SWITCH_DATE);
 	}
 	
-	public static Object paginateAndGenerateSummary(List<Patient> patientList, int page, int size, int totalCount,
-	        Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
-		return generateSummaryResponse.generateSummaryResponse(patientList, page, size, "totalPatients", totalCount,
-		    startDate, endDate, filterCategory, GenerateSummary::generateSummary);
+	/**
+	 * Writes a page of the patients to the response as a line list, with the summary of all of them.
+	 */
+	public static void paginateAndGenerateSummary(List<Patient> patientList, int page, int size, int totalCount,
+	        Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory,
+	        HttpServletResponse response) {
+		generateSummaryResponse.generateSummaryResponse(patientList, page, size, "totalPatients", totalCount, startDate,
+		    endDate, filterCategory, GenerateSummary::generateSummary, response);
 	}
 	
 	public static Object fetchAndPaginatePatients(List<Patient> patientList, int page, int size, int totalCount,
@@ -988,20 +1084,55 @@ public class SharedConstants {
 		
 		int toIndex = Math.min((page + 1) * size, patientList.size());
 		
-		List<Patient> paginatedPatients = patientList.subList(fromIndex, toIndex);
+		// Order by patient id so that pages neither overlap nor skip patients between requests
+		List<Patient> orderedPatients = new ArrayList<>(patientList);
+		orderedPatients.sort(Comparator.comparing(Patient::getPatientId));
+		List<Patient> paginatedPatients = orderedPatients.subList(fromIndex, toIndex);
 		
 		ObjectNode allPatientsObj = JsonNodeFactory.instance.objectNode();
 		allPatientsObj.put("totalPatients", totalCount);
 		
-		return generatePatientListObj.generatePatientListObj(new HashSet<>(paginatedPatients), startDate, endDate,
-		    filterCategory, allPatientsObj);
+		return generatePatientListObj.generatePatientListObj(paginatedPatients, startDate, endDate, filterCategory,
+		    allPatientsObj);
+	}
+	
+	/**
+	 * Pages through a cohort pinned in the {@link CohortCache}. Only the patients on the requested page
+	 * are loaded, and they are listed in the pinned order. The handle is returned with every page so
+	 * that the next page is sliced from the same list.
+	 */
+	public static Object fetchAndPaginatePatients(CohortCache.PinnedCohort cohort, int page, int size, Date startDate,
+	        Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
+		int[] patientIds = cohort.getPatientIds();
+		
+		if (page < 0 || size <= 0) {
+			return "Invalid page or size value. Page must be >= 0 and size must be > 0.";
+		}
+		
+		int fromIndex = page * size;
+		if (fromIndex >= patientIds.length) {
+			return "Page out of bounds. Please check the page number and size.";
+		}
+		
+		int toIndex = Math.min((page + 1) * size, patientIds.length);
+		
+		List<Integer> paginatedIds = new ArrayList<>(toIndex - fromIndex);
+		for (int i = fromIndex; i < toIndex; i++) {
+			paginatedIds.add(patientIds[i]);
+		}
+		
+		ObjectNode allPatientsObj = JsonNodeFactory.instance.objectNode();
+		allPatientsObj.put("totalPatients", patientIds.length);
+		allPatientsObj.put("handle", cohort.getHandle());
+		
+		List<Patient> paginatedPatients = MetricsRegistry.getInstance().timeEnrichment("loadPatients",
+		    () -> fetchPatientsInOrder(paginatedIds));
+		return generatePatientListObj.generatePatientListObj(paginatedPatients, startDate, endDate, filterCategory,
+		    allPatientsObj);
 	}
 	
 	public static Integer getPatientSystolicPressure(Patient patient) {
-		List<Obs> systolicPressureObs = Context.getObsService().getObservations(
-		    Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(SYSTOLIC_BLOOD_PRESSURE)), null, null,
-		    null, null, null, null, null, null, false);
+		List<Obs> systolicPressureObs = getPersonObs(patient.getPerson(), SYSTOLIC_BLOOD_PRESSURE, null);
 		
 		if (!systolicPressureObs.isEmpty()) {
 			Obs systolicPressureObservation = systolicPressureObs.get(0);
@@ -1012,10 +1143,7 @@ public class SharedConstants {
 	}
 	
 	public static Integer getPatientDiastolicPressure(Patient patient) {
-		List<Obs> diastolicPressureObs = Context.getObsService().getObservations(
-		    Collections.singletonList(patient.getPerson()), null,
-		    Collections.singletonList(Context.getConceptService().getConceptByUuid(DIASTOLIC_BLOOD_PRESSURE)), null, null,
-		    null, null, null, null, null, null, false);
+		List<Obs> diastolicPressureObs = getPersonObs(patient.getPerson(), DIASTOLIC_BLOOD_PRESSURE, null);
 		
 		if (!diastolicPressureObs.isEmpty()) {
 			Obs diastolicPressureObservation = diastolicPressureObs.get(0);
@@ -1026,9 +1154,7 @@ public class SharedConstants {
 	}
 	
 	public static Double getPatientTemperature(Patient patient) {
-		List<Obs> temperatureObs = Context.getObsService().getObservations(Collections.singletonList(patient.getPerson()),
-		    null, Collections.singletonList(Context.getConceptService().getConceptByUuid(TEMPERATURE)), null, null, null,
-		    null, null, null, null, null, false);
+		List<Obs> temperatureObs = getPersonObs(patient.getPerson(), TEMPERATURE, null);
 		
 		if (!temperatureObs.isEmpty()) {
 			Obs temperatureObservation = temperatureObs.get(0);
@@ -0,0 +1,296 @@
+package org.openmrs.module.ssemrws.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * In-memory registry of the module's metrics: counters and histograms identified by a name and a set
+ * of labels, written out in the Prometheus text format by {@link #writePrometheus(Writer)}. Recording
+ * a value only touches {@link LongAdder}s, so concurrent requests never wait on each other.
+ * <p>
+ * The registry is process wide and reached with {@link #getInstance()}, so that the servlet filter
+ * and the static helpers can record metrics without a Spring context. Metrics live until the module
+ * is restarted.
+ */
+public class MetricsRegistry {
+	
+	public static final String HTTP_REQUESTS = "ssemrws_http_requests_total";
+	
+	public static final String HTTP_REQUEST_DURATION = "ssemrws_http_request_duration_seconds";
+	
+	public static final String COHORT_QUERY_DURATION = "ssemrws_cohort_query_duration_seconds";
+	
+	public static final String COHORT_SIZE = "ssemrws_cohort_size";
+	
+	public static final String ENRICHMENT_DURATION = "ssemrws_enrichment_duration_seconds";
+	
+	public static final String CACHE_LOOKUPS = "ssemrws_cache_lookups_total";
+	
+	static final double[] LATENCY_BUCKETS_SECONDS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+	
+	static final double[] SIZE_BUCKETS = { 0, 10, 100, 1000, 10000, 100000, 1000000 };
+	
+	private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+	
+	private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+	
+	/**
+	 * A monotonically increasing count.
+	 */
+	public static class Counter {
+		
+		private final LongAdder value = new LongAdder();
+		
+		public void increment() {
+			value.increment();
+		}
+		
+		public void increment(long amount) {
+			value.add(amount);
+		}
+		
+		public long get() {
+			return value.sum();
+		}
+	}
+	
+	/**
+	 * Counts observations into fixed buckets and keeps their sum. Each bucket only counts the values
+	 * above the previous bound; the cumulative counts Prometheus expects are summed when written.
+	 */
+	public static class Histogram {
+		
+		private final double[] upperBounds;
+		
+		private final LongAdder[] bucketCounts;
+		
+		private final LongAdder count = new LongAdder();
+		
+		private final DoubleAdder sum = new DoubleAdder();
+		
+		Histogram(double[] upperBounds) {
+			this.upperBounds = upperBounds;
+			// The last bucket counts the values above every bound (+Inf)
+			this.bucketCounts = new LongAdder[upperBounds.length + 1];
+			for (int i = 0; i < bucketCounts.length; i++) {
+				bucketCounts[i] = new LongAdder();
+			}
+		}
+		
+		public void observe(double value) {
+			int bucket = 0;
+			while (bucket < upperBounds.length && value > upperBounds[bucket]) {
+				bucket++;
+			}
+			bucketCounts[bucket].increment();
+			count.increment();
+			sum.add(value);
+		}
+		
+		public long getCount() {
+			return count.sum();
+		}
+		
+		public double getSum() {
+			return sum.sum();
+		}
+	}
+	
+	// Inner class to store the metrics sharing a name, keyed by their rendered labels
+	private static class Family {
+		
+		final String name;
+		
+		final String help;
+		
+		final String type;
+		
+		final double[] buckets;
+		
+		final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<>();
+		
+		Family(String name, String help, String type, double[] buckets) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.buckets = buckets;
+		}
+	}
+	
+	public static MetricsRegistry getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * @param labels Label names and values, alternating.
+	 * @return The counter of the given name and labels, created on first use.
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		Family family = getFamily(name, help, "counter", null);
+		return (Counter) family.metrics.computeIfAbsent(renderLabels(labels), key -> new Counter());
+	}
+	
+	/**
+	 * @param buckets The upper bounds of the buckets in ascending order. Only the first use of a name
+	 *            decides its buckets.
+	 * @param labels Label names and values, alternating.
+	 * @return The histogram of the given name and labels, created on first use.
+	 */
+	public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+		Family family = getFamily(name, help, "histogram", buckets);
+		return (Histogram) family.metrics.computeIfAbsent(renderLabels(labels), key -> new Histogram(family.buckets));
+	}
+	
+	/**
+	 * Records a request served by an endpoint of the module.
+	 * 
+	 * @param endpoint The request mapping that served the request.
+	 */
+	public void recordRequest(String endpoint, String method, int status, long durationNanos) {
+		counter(HTTP_REQUESTS, "Requests served, by endpoint, method and status.", "endpoint", endpoint, "method",
+		    method, "status", String.valueOf(status)).increment();
+		histogram(HTTP_REQUEST_DURATION, "Time taken to serve a request, by endpoint and method.",
+		    LATENCY_BUCKETS_SECONDS, "endpoint", endpoint, "method", method).observe(toSeconds(durationNanos));
+	}
+	
+	/**
+	 * Records the computation of a cohort and the number of patients in it.
+	 */
+	public void recordCohortQuery(String cohort, long durationNanos, int size) {
+		histogram(COHORT_QUERY_DURATION, "Time taken to compute a cohort, by cohort.", LATENCY_BUCKETS_SECONDS,
+		    "cohort", cohort).observe(toSeconds(durationNanos));
+		histogram(COHORT_SIZE, "Number of patients in a computed cohort, by cohort.", SIZE_BUCKETS, "cohort", cohort)
+		        .observe(size);
+	}
+	
+	/**
+	 * Records one stage of building the line list rows of a page, such as prefetching obs.
+	 */
+	public void recordEnrichment(String stage, long durationNanos) {
+		histogram(ENRICHMENT_DURATION, "Time taken by a line list enrichment stage, by stage.",
+		    LATENCY_BUCKETS_SECONDS, "stage", stage).observe(toSeconds(durationNanos));
+	}
+	
+	/**
+	 * Runs an enrichment stage and records how long it took, also as a span of a profiled request.
+	 */
+	public <T> T timeEnrichment(String stage, Supplier<T> work) {
+		long start = System.nanoTime();
+		try (RequestProfiler.Span ignored = RequestProfiler.span("enrichment:" + stage)) {
+			return work.get();
+		}
+		finally {
+			recordEnrichment(stage, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Records a lookup in one of the module's caches. The hit rate of a cache is its hits over all its
+	 * lookups.
+	 */
+	public void recordCacheLookup(String cache, boolean hit) {
+		counter(CACHE_LOOKUPS, "Cache lookups, by cache and result.", "cache", cache, "result", hit ? "hit" : "miss")
+		        .increment();
+	}
+	
+	/**
+	 * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		List<String> names = new ArrayList<>(families.keySet());
+		Collections.sort(names);
+		
+		for (String name : names) {
+			Family family = families.get(name);
+			writer.write("# HELP " + name + " " + family.help + "\n");
+			writer.write("# TYPE " + name + " " + family.type + "\n");
+			
+			List<String> labelSets = new ArrayList<>(family.metrics.keySet());
+			Collections.sort(labelSets);
+			for (String labels : labelSets) {
+				Object metric = family.metrics.get(labels);
+				if (metric instanceof Counter) {
+					writeSample(writer, name, labels, formatValue(((Counter) metric).get()));
+				} else {
+					writeHistogram(writer, name, labels, family.buckets, (Histogram) metric);
+				}
+			}
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Drops every metric.
+	 */
+	public void clear() {
+		families.clear();
+	}
+	
+	private Family getFamily(String name, String help, String type, double[] buckets) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, buckets));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+		}
+		return family;
+	}
+	
+	private static void writeHistogram(Writer writer, String name, String labels, double[] buckets,
+	        Histogram histogram) throws IOException {
+		String separator = labels.isEmpty() ? "" : ",";
+		long cumulativeCount = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			cumulativeCount += histogram.bucketCounts[i].sum();
+			writeSample(writer, name + "_bucket", labels + separator + "le=\"" + formatValue(buckets[i]) + "\"",
+			    formatValue(cumulativeCount));
+		}
+		cumulativeCount += histogram.bucketCounts[buckets.length].sum();
+		writeSample(writer, name + "_bucket", labels + separator + "le=\"+Inf\"", formatValue(cumulativeCount));
+		writeSample(writer, name + "_sum", labels, formatValue(histogram.getSum()));
+		writeSample(writer, name + "_count", labels, formatValue(cumulativeCount));
+	}
+	
+	private static void writeSample(Writer writer, String name, String labels, String value) throws IOException {
+		writer.write(labels.isEmpty() ? name : name + "{" + labels + "}");
+		writer.write(" " + value + "\n");
+	}
+	
+	// Renders label pairs as they appear between the braces of a sample, e.g. cohort="txCurr"
+	private static String renderLabels(String... labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be given as name and value pairs");
+		}
+		StringBuilder rendered = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				rendered.append(',');
+			}
+			rendered.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+		}
+		return rendered.toString();
+	}
+	
+	private static String escapeLabelValue(String value) {
+		if (value == null) {
+			return "";
+		}
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+	
+	private static String formatValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+	
+	private static double toSeconds(long nanos) {
+		return nanos / 1_000_000_000.0;
+	}
+}
@@ -0,0 +1,115 @@
+package org.openmrs.module.ssemrws.metrics;
+
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIException;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the SQL statements executed through Hibernate, native queries included, using the session
+ * factory statistics. {@link org.openmrs.module.ssemrws.web.filter.RequestMetricsFilter} sends the
+ * number of statements a request executed in the {@value #HEADER} header so that N+1 regressions show
+ * up in the browser.
+ * <p>
+ * Counting is off unless the {@value #ENABLED_PROPERTY} global property is true, since it turns on
+ * the statistics of the whole session factory. Turning the property off turns them off again, unless
+ * they were on before counting started.
+ * <p>
+ * Hibernate only keeps process wide counts, so the count of a request also includes the statements
+ * of any request served at the same time. It is exact when requests do not overlap and an upper
+ * bound otherwise.
+ */
+@Component
+public class QueryCounter implements GlobalPropertyListener {
+	
+	public static final String HEADER = "X-SSEMR-Query-Count";
+	
+	public static final String ENABLED_PROPERTY = "ssemrws.metrics.countQueries";
+	
+	// Null until the global property is first read, then kept up to date by the listener
+	private static volatile Boolean enabled;
+	
+	private static volatile Statistics statistics;
+	
+	private static boolean statisticsEnabledByCounter;
+	
+	/**
+	 * @return The number of statements prepared since statistics were enabled, or -1 when counting is
+	 *         off or the session factory is not available.
+	 */
+	public static long getStatementCount() {
+		if (!isEnabled()) {
+			return -1;
+		}
+		Statistics current = getStatistics();
+		return current != null ? current.getPrepareStatementCount() : -1;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return ENABLED_PROPERTY.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		setEnabled(Boolean.parseBoolean(StringUtils.trim(newValue.getPropertyValue())));
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		setEnabled(false);
+	}
+	
+	private static boolean isEnabled() {
+		Boolean current = enabled;
+		if (current == null) {
+			try {
+				String value = Context.getAdministrationService().getGlobalProperty(ENABLED_PROPERTY);
+				current = Boolean.parseBoolean(StringUtils.trim(value));
+			}
+			catch (APIException e) {
+				return false;
+			}
+			enabled = current;
+		}
+		return current;
+	}
+	
+	private static synchronized void setEnabled(boolean value) {
+		enabled = value;
+		if (!value && statistics != null) {
+			if (statisticsEnabledByCounter) {
+				statistics.setStatisticsEnabled(false);
+			}
+			statistics = null;
+			statisticsEnabledByCounter = false;
+		}
+	}
+	
+	// Statistics are disabled by default; they are turned on the first time a count is asked for
+	private static synchronized Statistics getStatistics() {
+		// Counting may have been turned off since it was checked
+		if (!Boolean.TRUE.equals(enabled)) {
+			return null;
+		}
+		if (statistics == null) {
+			try {
+				Statistics sessionFactoryStatistics = Context
+				        .getRegisteredComponent("sessionFactory", SessionFactory.class).getStatistics();
+				if (!sessionFactoryStatistics.isStatisticsEnabled()) {
+					sessionFactoryStatistics.setStatisticsEnabled(true);
+					statisticsEnabledByCounter = true;
+				}
+				statistics = sessionFactoryStatistics;
+			}
+			catch (APIException e) {
+				return null;
+			}
+		}
+		return statistics;
+	}
+}
@@ -0,0 +1,189 @@
+package org.openmrs.module.ssemrws.metrics;
+
+import javax.persistence.Query;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records a tree of timed spans for the request being served by the current thread, for the opt-in
+ * profile=true mode of {@link org.openmrs.module.ssemrws.web.filter.RequestMetricsFilter}. Spans are
+ * only recorded between {@link #start(String)} and {@link #finish()}; outside of a profiled request
+ * {@link #span(String)} returns a span that records nothing and {@link #profile(Query)} returns the
+ * query itself, so instrumented code costs next to nothing when nobody is profiling.
+ * 
+ * <pre>
+ * try (RequestProfiler.Span span = RequestProfiler.span("cohort:txCurr")) {
+ * 	// work measured by the span; spans opened here become its children
+ * }
+ * </pre>
+ */
+public class RequestProfiler {
+	
+	private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+	
+	private static final Span NO_OP = new Span(null, null);
+	
+	private static final Set<String> EXECUTING_METHODS = new HashSet<>(
+	        Arrays.asList("getResultList", "getSingleResult", "executeUpdate"));
+	
+	/**
+	 * A timed unit of work. Closing a span ends it and makes its parent the current span again.
+	 */
+	public static class Span implements AutoCloseable {
+		
+		private final String name;
+		
+		private final Span parent;
+		
+		private final long startNanos = System.nanoTime();
+		
+		private long durationNanos = -1;
+		
+		private final Map<String, Object> attributes = new LinkedHashMap<>();
+		
+		private final List<Span> children = new ArrayList<>();
+		
+		Span(String name, Span parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+		
+		/**
+		 * Sets the number of rows the work returned, e.g. for a query.
+		 */
+		public Span setRows(int rows) {
+			return setAttribute("rows", rows);
+		}
+		
+		public Span setAttribute(String key, Object value) {
+			if (this != NO_OP) {
+				attributes.put(key, value);
+			}
+			return this;
+		}
+		
+		@Override
+		public void close() {
+			if (this == NO_OP || durationNanos >= 0) {
+				return;
+			}
+			durationNanos = System.nanoTime() - startNanos;
+			if (CURRENT.get() == this) {
+				CURRENT.set(parent);
+			}
+		}
+		
+		/**
+		 * @return The span and its children as nested maps, ready to be serialized as JSON.
+		 */
+		public Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("name", name);
+			long nanos = durationNanos >= 0 ? durationNanos : System.nanoTime() - startNanos;
+			map.put("durationMs", Math.round(nanos / 10_000.0) / 100.0);
+			map.putAll(attributes);
+			if (!children.isEmpty()) {
+				List<Map<String, Object>> childMaps = new ArrayList<>(children.size());
+				for (Span child : children) {
+					childMaps.add(child.toMap());
+				}
+				map.put("children", childMaps);
+			}
+			return map;
+		}
+	}
+	
+	/**
+	 * Starts profiling the current thread with a root span of the given name.
+	 */
+	public static Span start(String name) {
+		Span root = new Span(name, null);
+		CURRENT.set(root);
+		return root;
+	}
+	
+	/**
+	 * @return Whether the current thread is being profiled.
+	 */
+	public static boolean isActive() {
+		return CURRENT.get() != null;
+	}
+	
+	/**
+	 * Opens a span under the current one. Close it, preferably with try-with-resources, when the work
+	 * is done.
+	 */
+	public static Span span(String name) {
+		Span parent = CURRENT.get();
+		if (parent == null) {
+			return NO_OP;
+		}
+		Span span = new Span(name, parent);
+		parent.children.add(span);
+		CURRENT.set(span);
+		return span;
+	}
+	
+	/**
+	 * Stops profiling the current thread.
+	 * 
+	 * @return The root span, or null when the thread was not being profiled.
+	 */
+	public static Span finish() {
+		Span span = CURRENT.get();
+		if (span == null) {
+			return null;
+		}
+		while (span.parent != null) {
+			span = span.parent;
+		}
+		span.close();
+		CURRENT.remove();
+		return span;
+	}
+	
+	/**
+	 * Wraps a native query so that executing it records a span named after the calling method, with
+	 * the number of rows returned. Outside of a profiled request the query is returned as is.
+	 */
+	public static Query profile(Query query) {
+		if (!isActive()) {
+			return query;
+		}
+		
+		StackTraceElement caller = new Throwable().getStackTrace()[1];
+		String className = caller.getClassName();
+		String spanName = "query:" + className.substring(className.lastIndexOf('.') + 1) + "." + caller.getMethodName();
+		
+		return (Query) Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[] { Query.class },
+		    (proxy, method, args) -> {
+			    Span span = EXECUTING_METHODS.contains(method.getName()) ? span(spanName) : NO_OP;
+			    try {
+				    Object result = method.invoke(query, args);
+				    if (result instanceof Collection) {
+					    span.setRows(((Collection<?>) result).size());
+				    } else if (method.getName().equals("executeUpdate")) {
+					    span.setRows((Integer) result);
+				    } else if (method.getName().equals("getSingleResult")) {
+					    span.setRows(1);
+				    }
+				    // Chained setters return the query itself, which has to stay wrapped
+				    return result == query ? proxy : result;
+			    }
+			    catch (InvocationTargetException e) {
+				    throw e.getCause();
+			    }
+			    finally {
+				    span.close();
+			    }
+		    });
+	}
+}
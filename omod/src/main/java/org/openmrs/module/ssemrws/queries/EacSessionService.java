@@ -1,11 +1,15 @@
 package org.openmrs.module.ssemrws.queries;
 
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.time.Month;
+import java.time.format.TextStyle;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 @Component
 public class EacSessionService {
@@ -13,18 +17,28 @@ public class EacSessionService {
 	@PersistenceContext
 	private EntityManager entityManager;
 	
+	/**
+	 * @return Rows of the EAC session (EAC1, EAC2 or EAC3), the abbreviated English name of the month,
+	 *         e.g. Jan, and the number of sessions held in that month within the range.
+	 */
 	public List<Object[]> getEacSessionCountsByDateRange(Date startDate, Date endDate) {
-		String qry = "SELECT 'EAC1' as eac_type, DATE_FORMAT(hvl.adherence_date, '%b') as month, COUNT(hvl.client_id) as count "
+		String qry = "SELECT 'EAC1' as eac_type, MONTH(hvl.adherence_date) as month, COUNT(hvl.client_id) as count "
 		        + "FROM ssemr_etl.ssemr_flat_encounter_high_viral_load hvl "
 		        + "WHERE hvl.adherence_date BETWEEN :startDate AND :endDate " + "GROUP BY month " + "UNION ALL "
-		        + "SELECT 'EAC2' as eac_type, DATE_FORMAT(hvl.second_eac_session_date, '%b') as month, COUNT(hvl.client_id) as count "
+		        + "SELECT 'EAC2' as eac_type, MONTH(hvl.second_eac_session_date) as month, COUNT(hvl.client_id) as count "
 		        + "FROM ssemr_etl.ssemr_flat_encounter_high_viral_load hvl "
 		        + "WHERE hvl.second_eac_session_date BETWEEN :startDate AND :endDate " + "GROUP BY month " + "UNION ALL "
-		        + "SELECT 'EAC3' as eac_type, DATE_FORMAT(hvl.third_eac_session_date, '%b') as month, COUNT(hvl.client_id) as count "
+		        + "SELECT 'EAC3' as eac_type, MONTH(hvl.third_eac_session_date) as month, COUNT(hvl.client_id) as count "
 		        + "FROM ssemr_etl.ssemr_flat_encounter_high_viral_load hvl "
 		        + "WHERE hvl.third_eac_session_date BETWEEN :startDate AND :endDate " + "GROUP BY month";
 		
-		return entityManager.createNativeQuery(qry).setParameter("startDate", startDate).setParameter("endDate", endDate)
-		        .getResultList();
+		List<Object[]> results = RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
+		
+		// The month is named here rather than with DATE_FORMAT, which only MySQL has
+		for (Object[] row : results) {
+			row[1] = Month.of(((Number) row[1]).intValue()).getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
+		}
+		return results;
 	}
 }
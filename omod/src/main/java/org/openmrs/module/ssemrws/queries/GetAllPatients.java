@@ -4,6 +4,8 @@ import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.JsonNodeFactory;
 import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.ObsPrefetcher;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier;
 import org.springframework.stereotype.Component;
 
@@ -13,25 +15,35 @@ import javax.persistence.Query;
 import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
 import static org.openmrs.module.ssemrws.constants.SharedConstants.getPatientIdentifiersArray;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
 import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsByIds;
 
 @Component
 public class GetAllPatients {
 	
+	private static final List<String> ALL_PATIENTS_CONCEPTS = Arrays.asList(ACTIVE_REGIMEN_CONCEPT_UUID,
+	    DATE_OF_ENROLLMENT_UUID, LAST_REFILL_DATE_UUID);
+	
 	private final GetNextAppointmentDate getNextAppointmentDate;
 	
+	private final ObsPrefetcher obsPrefetcher;
+	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
-	public GetAllPatients(GetNextAppointmentDate getNextAppointmentDate) {
+	public GetAllPatients(GetNextAppointmentDate getNextAppointmentDate, ObsPrefetcher obsPrefetcher) {
 		this.getNextAppointmentDate = getNextAppointmentDate;
+		this.obsPrefetcher = obsPrefetcher;
 	}
 	
 	public HashSet<Patient> getAllPatients(int page, int size) {
@@ -40,11 +52,46 @@ public class GetAllPatients {
 		return fetchPatientsByIds(patientIds);
 	}
 	
+	/**
+	 * Keyset form of {@link #getAllPatients(int, int)}: the ids of the next {@code size} patients after
+	 * the cursor, newest first. Unlike offset paging, the cost of a page does not grow with its depth.
+	 * 
+	 * @param cursor The last patient id of the previous page, or null for the first page.
+	 * @param size The page size, at least 1.
+	 * @return The patient ids, in descending order.
+	 */
+	public List<Integer> getPatientIdsBefore(Integer cursor, int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Page size must be positive: " + size);
+		}
+		String baseQuery = "select p.patient_id from openmrs.patient p where p.voided = 0 "
+		        + (cursor != null ? "and p.patient_id < :cursor " : "") + "order by p.patient_id desc limit :limit";
+		
+		try {
+			Query query = RequestProfiler.profile(entityManager.createNativeQuery(baseQuery)).setParameter("limit", size);
+			if (cursor != null) {
+				query.setParameter("cursor", cursor);
+			}
+			return query.getResultList();
+		}
+		catch (Exception e) {
+			System.err.println("Error executing all patients query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute all patients query", e);
+		}
+	}
+	
+	/**
+	 * @return The ids of the patients on the given page, in descending order.
+	 */
+	public List<Integer> getPatientIds(int page, int size) {
+		return executeAllPatientsQuery(page, size);
+	}
+	
 	private List<Integer> executeAllPatientsQuery(int page, int size) {
 		String baseQuery = "select distinct p.patient_id from openmrs.patient p where p.voided = 0 order by p.patient_id desc limit :limit offset :offset";
 		try {
-			Query query = entityManager.createNativeQuery(baseQuery).setParameter("limit", size).setParameter("offset",
-			    page * size);
+			Query query = RequestProfiler.profile(entityManager.createNativeQuery(baseQuery))
+			        .setParameter("limit", size).setParameter("offset", page * size);
 			
 			return query.getResultList();
 		}
@@ -77,7 +124,15 @@ public class GetAllPatients {
 	}
 	
 	public String allPatientsListObj(List<Patient> allPatients, ObjectNode allPatientsObj) {
-		return buildPatientList(allPatients, allPatientsObj, this::generateAllPatientObject);
+		List<Integer> patientIds = allPatients.stream().map(Patient::getPatientId).collect(Collectors.toList());
+		
+		// Resolve the appointment column and the latest obs for the whole page in one go
+		Map<Integer, String> appointmentDates = getNextAppointmentDate.getNextOrLastAppointmentDates(patientIds);
+		
+		try (ObsPrefetcher.Prefetch ignored = obsPrefetcher.prefetch(patientIds, ALL_PATIENTS_CONCEPTS)) {
+			return buildPatientList(allPatients, allPatientsObj,
+			    patient -> generateAllPatientObject(patient, appointmentDates.get(patient.getPatientId())));
+		}
 	}
 	
 	public String filteredPatientsListObj(List<Patient> allPatients, ObjectNode allPatientsObj) {
@@ -107,6 +162,10 @@ public class GetAllPatients {
 	 * Generates a complete JSON object for a patient, including all ART details.
 	 */
 	public ObjectNode generateAllPatientObject(Patient patient) {
+		return generateAllPatientObject(patient, getNextAppointmentDate.getNextArtAppointmentDate(patient));
+	}
+	
+	private ObjectNode generateAllPatientObject(Patient patient, String appointmentDate) {
 		ObjectNode patientObj = createBasePatientObject(patient);
 		
 		String enrolmentDate = getEnrolmentDate(patient);
@@ -115,7 +174,7 @@ public class GetAllPatients {
 		patientObj.put("initiationDate", enrolmentDate);
 		patientObj.put("dateEnrolled", enrolmentDate);
 		patientObj.put("lastRefillDate", getLastRefillDate(patient));
-		patientObj.put("appointmentDate", getNextAppointmentDate.getNextArtAppointmentDate(patient));
+		patientObj.put("appointmentDate", appointmentDate);
 		
 		return patientObj;
 	}
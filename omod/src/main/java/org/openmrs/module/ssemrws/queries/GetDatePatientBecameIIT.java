@@ -1,6 +1,7 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
@@ -27,16 +28,17 @@ public class GetDatePatientBecameIIT {
 		}
 		
 		// Query to fetch the IIT date for a specific patient within the date range
-		String query = "SELECT DATE_ADD(MAX(fp.start_date_time), INTERVAL 28 DAY) AS followup_date "
+		String query = "SELECT MAX(fp.start_date_time) + INTERVAL 28 DAY AS followup_date "
 		        + "FROM openmrs.patient_appointment fp " + "WHERE fp.status = 'Missed' "
-		        + "AND DATE_ADD(fp.start_date_time, INTERVAL 28 DAY) <= CURDATE() "
-		        + "AND DATE_ADD(fp.start_date_time, INTERVAL 28 DAY) BETWEEN :startDate AND :endDate "
+		        + "AND fp.start_date_time + INTERVAL 28 DAY <= CURDATE() "
+		        + "AND fp.start_date_time + INTERVAL 28 DAY BETWEEN :startDate AND :endDate "
 		        + "AND fp.patient_id = :patientId " + "AND fp.patient_id NOT IN ( " + "    SELECT DISTINCT fp2.patient_id "
 		        + "    FROM openmrs.patient_appointment fp2 " + "    WHERE fp2.start_date_time > CURDATE() " + ") "
 		        + "GROUP BY fp.patient_id";
 		
 		// Execute the query with parameters
-		List<Date> results = entityManager.createNativeQuery(query).setParameter("patientId", patient.getPatientId())
+		List<Date> results = RequestProfiler.profile(entityManager.createNativeQuery(query))
+		        .setParameter("patientId", patient.getPatientId())
 		        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
 		
 		// Check if a result exists and format the date
@@ -1,12 +1,20 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.formatDate;
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 
 @Component
 public class GetEnrollmentDate {
@@ -22,16 +30,45 @@ public class GetEnrollmentDate {
 		
 		// Query to fetch the ART start date for the given patient and within the
 		// specified date range
-		String qry = "SELECT DATE_FORMAT(tx.art_start_date, '%d-%m-%Y') AS art_start_date "
+		String qry = "SELECT DATE(tx.art_start_date) AS art_start_date "
 		        + "FROM ssemr_etl.ssemr_flat_encounter_personal_family_tx_history tx " + "WHERE tx.client_id = :patientId "
 		        + "AND DATE(tx.encounter_datetime) <= DATE(:endDate) " + "AND tx.art_start_date IS NOT NULL "
 		        + "ORDER BY tx.encounter_datetime DESC " + "LIMIT 1";
 		
 		// Execute the query with the patient ID and endDate as parameters
-		List<String> results = entityManager.createNativeQuery(qry).setParameter("patientId", patient.getPatientId())
-		        .setParameter("endDate", endDate).getResultList();
+		List<Date> results = RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		        .setParameter("patientId", patient.getPatientId()).setParameter("endDate", endDate).getResultList();
+		
+		// Return the ART start date as dd-MM-yyyy if found, otherwise return an empty string
+		return results.isEmpty() ? "" : formatDate(results.get(0));
+	}
+	
+	/**
+	 * Set-based form of {@link #getARTStartDate(Patient, Date)}: the ART start date of each of the given
+	 * patients, one query per chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @return The ART start date per patient id. Patients without one are absent.
+	 */
+	public Map<Integer, Date> getARTStartDates(Collection<Integer> patientIds, Date endDate) {
+		Map<Integer, Date> artStartDates = new HashMap<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return artStartDates;
+		}
+		
+		String qry = "SELECT t.client_id, t.art_start_date FROM ( "
+		        + "    SELECT tx.client_id, DATE(tx.art_start_date) AS art_start_date, "
+		        + "        ROW_NUMBER() OVER(PARTITION BY tx.client_id ORDER BY tx.encounter_datetime DESC) AS rn "
+		        + "    FROM ssemr_etl.ssemr_flat_encounter_personal_family_tx_history tx "
+		        + "    WHERE tx.client_id IN (:patientIds) " + "    AND DATE(tx.encounter_datetime) <= DATE(:endDate) "
+		        + "    AND tx.art_start_date IS NOT NULL " + ") t WHERE t.rn = 1";
+		
+		List<Object[]> rows = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		            .setParameter("patientIds", batchIds).setParameter("endDate", endDate).getResultList());
+		for (Object[] row : rows) {
+			artStartDates.put(((Number) row[0]).intValue(), (Date) row[1]);
+		}
 		
-		// Return the ART start date if found, otherwise return an empty string
-		return results.isEmpty() ? "" : results.get(0);
+		return artStartDates;
 	}
 }
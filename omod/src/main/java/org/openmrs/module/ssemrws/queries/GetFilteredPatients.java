@@ -0,0 +1,87 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
+
+/**
+ * Set-based form of {@link FilterUtility#applyFilter} for cohorts that are not computed by a SQL
+ * query, such as the obs based returned to treatment, transferred out and deceased lists. The
+ * cohorts computed in SQL apply {@link FilterUtility#toSqlPredicate} in their own query instead.
+ * The PBFW filter is answered from the cached cohort of {@link GetPregnantOrBreastfeeding}.
+ */
+@Component
+public class GetFilteredPatients {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private final GetPregnantOrBreastfeeding getPregnantOrBreastfeeding;
+	
+	public GetFilteredPatients(GetPregnantOrBreastfeeding getPregnantOrBreastfeeding) {
+		this.getPregnantOrBreastfeeding = getPregnantOrBreastfeeding;
+	}
+	
+	/**
+	 * Keeps the patients of the filter category, one query per chunk of
+	 * {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @return The ids of the given patients in the filter category, or all of them without a filter.
+	 */
+	public Set<Integer> filterPatientIds(Collection<Integer> patientIds,
+	        SSEMRWebServicesController.filterCategory filterCategory, Date endDate) {
+		if (filterCategory == null || patientIds == null || patientIds.isEmpty()) {
+			return patientIds == null ? new HashSet<>() : new HashSet<>(patientIds);
+		}
+		
+		if (filterCategory == SSEMRWebServicesController.filterCategory.PREGNANT_BREASTFEEDING) {
+			Set<Integer> pbfwIds = new HashSet<>(patientIds);
+			pbfwIds.retainAll(getPregnantOrBreastfeeding.getPbfwPatientIds(endDate));
+			return pbfwIds;
+		}
+		
+		String sql = "SELECT p.patient_id FROM openmrs.patient p WHERE p.patient_id IN (:patientIds) "
+		        + FilterUtility.toSqlPredicate(filterCategory, "p.patient_id");
+		
+		Set<Integer> filteredIds = new HashSet<>();
+		@SuppressWarnings("unchecked")
+		List<Number> results = queryInChunks(patientIds,
+		    batchIds -> FilterUtility
+		            .bindSqlFilter(RequestProfiler.profile(entityManager.createNativeQuery(sql)), filterCategory, endDate)
+		            .setParameter("patientIds", batchIds).getResultList());
+		for (Number patientId : results) {
+			filteredIds.add(patientId.intValue());
+		}
+		
+		return filteredIds;
+	}
+	
+	/**
+	 * @see #filterPatientIds(Collection, SSEMRWebServicesController.filterCategory, Date)
+	 */
+	public HashSet<Patient> filterPatients(Collection<Patient> patients,
+	        SSEMRWebServicesController.filterCategory filterCategory, Date endDate) {
+		if (filterCategory == null) {
+			return new HashSet<>(patients);
+		}
+		
+		Set<Integer> filteredIds = filterPatientIds(
+		    patients.stream().map(Patient::getPatientId).collect(Collectors.toList()), filterCategory, endDate);
+		return patients.stream().filter(patient -> filteredIds.contains(patient.getPatientId()))
+		        .collect(Collectors.toCollection(HashSet::new));
+	}
+}
@@ -1,56 +1,106 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsByIds;
 
 @Component
 public class GetInterruptedInTreatment {
 	
-	private final GetNextAppointmentDate getNextAppointmentDateByUuid;
-	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
-	public GetInterruptedInTreatment(GetNextAppointmentDate getNextAppointmentDateByUuid) {
-		this.getNextAppointmentDateByUuid = getNextAppointmentDateByUuid;
+	public HashSet<Patient> getIit(Date startDate, Date endDate) {
+		return getIit(startDate, endDate, null);
 	}
 	
-	public HashSet<Patient> getIit(Date startDate, Date endDate) {
-		String query = "SELECT t.patient_id FROM ( "
-		        + "SELECT p.patient_id, p.status, p.start_date_time, DATEDIFF(CURDATE(), p.start_date_time) AS date_diff "
+	/**
+	 * Like {@link #getIit(Date, Date)}, keeping only the patients of the filter category.
+	 */
+	public HashSet<Patient> getIit(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		// Fetch patients by their IDs
+		return fetchPatientsByIds(getIitIds(startDate, endDate, filterCategory));
+	}
+	
+	/**
+	 * Like {@link #getIit(Date, Date, SSEMRWebServicesController.filterCategory)}, without loading the
+	 * patients.
+	 * 
+	 * @return The ids of the patients interrupted in treatment, in ascending order.
+	 */
+	public List<Integer> getIitIds(Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
+		// Execute the query
+		Query query = RequestProfiler.profile(entityManager
+		        .createNativeQuery(buildIitQuery("", FilterUtility.toSqlPredicate(filterCategory, "p.patient_id"))));
+		List<Number> results = FilterUtility.bindSqlFilter(query, filterCategory, endDate)
+		        .setParameter("endDate", endDate).setParameter("now", new Date()).getResultList();
+		
+		List<Integer> iitIds = new ArrayList<>(results.size());
+		for (Number patientId : results) {
+			iitIds.add(patientId.intValue());
+		}
+		return iitIds;
+	}
+	
+	/**
+	 * Evaluates the IIT rule of {@link #getIit(Date, Date)} only for the given patients, one query per
+	 * chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @return The ids of the given patients who are interrupted in treatment.
+	 */
+	public Set<Integer> getIitIds(Date startDate, Date endDate, Collection<Integer> patientIds) {
+		Set<Integer> iitIds = new HashSet<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return iitIds;
+		}
+		
+		String query = buildIitQuery("WHERE patient_id IN (:patientIds) ", "AND p.patient_id IN (:patientIds) ");
+		
+		List<Number> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(query)).setParameter("endDate", endDate)
+		            .setParameter("now", new Date()).setParameter("patientIds", batchIds).getResultList());
+		for (Number patientId : results) {
+			iitIds.add(patientId.intValue());
+		}
+		
+		return iitIds;
+	}
+	
+	private String buildIitQuery(String appointmentRestriction, String patientRestriction) {
+		return "SELECT t.patient_id FROM ( "
+		        + "SELECT p.patient_id, p.status, p.start_date_time, "
+		        + "TIMESTAMPDIFF(DAY, DATE(p.start_date_time), CURDATE()) AS date_diff "
 		        + "FROM openmrs.patient_appointment p " + "JOIN ( "
 		        + "    SELECT patient_id, MAX(start_date_time) AS max_start_date_time "
-		        + "    FROM openmrs.patient_appointment " + "    GROUP BY patient_id "
+		        + "    FROM openmrs.patient_appointment " + appointmentRestriction + "    GROUP BY patient_id "
 		        + ") AS latest_appt ON p.patient_id = latest_appt.patient_id "
 		        + "AND p.start_date_time = latest_appt.max_start_date_time "
 		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up e ON e.client_id = p.patient_id "
 		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_end_of_follow_up f ON f.client_id = p.patient_id "
-		        + "WHERE p.status = 'Missed' " + "AND DATE(e.encounter_datetime) <= DATE(:endDate) "
-		        + "AND DATEDIFF(CURDATE(), p.start_date_time) > 28 "
+		        + "WHERE p.status = 'Missed' " + patientRestriction + "AND DATE(e.encounter_datetime) <= DATE(:endDate) "
+		        + "AND TIMESTAMPDIFF(DAY, DATE(p.start_date_time), CURDATE()) > 28 "
 		        + "AND (f.client_refused_treatment IS NULL OR f.client_refused_treatment != 'Yes') "
 		        + "AND NOT ((f.death = 'Yes' AND f.date_of_death IS NOT NULL) OR (f.transfer_out = 'Yes' AND f.transfer_out_date IS NOT NULL)) "
-		        + "ORDER BY p.patient_id ASC " + ") AS t;";
-		
-		// Execute the query
-		List<Integer> iitIds = entityManager.createNativeQuery(query).setParameter("endDate", endDate).getResultList();
-		
-		// Fetch patients by their IDs
-		HashSet<Patient> patients = fetchPatientsByIds(iitIds);
-		
-		// Filter out patients with upcoming appointments
-		patients.removeIf(patient -> {
-			String nextAppointmentDate = getNextAppointmentDateByUuid.getNextAppointmentDateByUuid(patient.getUuid());
-			return !nextAppointmentDate.equals("No Upcoming Appointments");
-		});
-		
-		return patients;
+		        // Exclude patients with upcoming appointments
+		        + "AND NOT EXISTS (SELECT 1 FROM openmrs.patient_appointment fa "
+		        + "    WHERE fa.patient_id = p.patient_id AND fa.start_date_time >= :now) " + "ORDER BY p.patient_id ASC "
+		        + ") AS t;";
 	}
 }
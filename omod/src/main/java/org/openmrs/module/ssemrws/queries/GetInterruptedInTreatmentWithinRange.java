@@ -1,10 +1,14 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -14,44 +18,61 @@ import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier
 @Component
 public class GetInterruptedInTreatmentWithinRange {
 	
-	private final GetNextAppointmentDate getNextAppointmentDateByUuid;
-	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
-	public GetInterruptedInTreatmentWithinRange(GetNextAppointmentDate getNextAppointmentDateByUuid) {
-		this.getNextAppointmentDateByUuid = getNextAppointmentDateByUuid;
+	public HashSet<Patient> getIitWithinRange(Date startDate, Date endDate) {
+		return getIitWithinRange(startDate, endDate, null);
 	}
 	
-	public HashSet<Patient> getIitWithinRange(Date startDate, Date endDate) {
+	/**
+	 * Like {@link #getIitWithinRange(Date, Date)}, keeping only the patients of the filter category.
+	 */
+	public HashSet<Patient> getIitWithinRange(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		// Fetch patients by their IDs
+		return fetchPatientsByIds(getIitWithinRangeIds(startDate, endDate, filterCategory));
+	}
+	
+	/**
+	 * Like {@link #getIitWithinRange(Date, Date, SSEMRWebServicesController.filterCategory)}, without
+	 * loading the patients.
+	 * 
+	 * @return The ids of the patients who became interrupted in treatment within the range, in
+	 *         ascending order.
+	 */
+	public List<Integer> getIitWithinRangeIds(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
 		String query = "SELECT t.patient_id FROM ( " + "SELECT p.patient_id, p.status, p.start_date_time, "
-		        + "DATE_ADD(p.start_date_time, INTERVAL 28 DAY) AS iit_date " + "FROM openmrs.patient_appointment p "
+		        + "p.start_date_time + INTERVAL 28 DAY AS iit_date " + "FROM openmrs.patient_appointment p "
 		        + "JOIN ( " + "    SELECT patient_id, MAX(start_date_time) AS max_start_date_time "
 		        + "    FROM openmrs.patient_appointment " + "    GROUP BY patient_id "
 		        + ") AS latest_appt ON p.patient_id = latest_appt.patient_id "
 		        + "AND p.start_date_time = latest_appt.max_start_date_time "
 		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up e ON e.client_id = p.patient_id "
 		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_end_of_follow_up f ON f.client_id = p.patient_id "
-		        + "WHERE p.status = 'Missed' "
-		        + "AND DATE_ADD(p.start_date_time, INTERVAL 28 DAY) BETWEEN :startDate AND :endDate "
-		        + "AND DATE(e.encounter_datetime) <= DATE(:endDate) " + "AND DATEDIFF(CURDATE(), p.start_date_time) > 28 "
+		        + "WHERE p.status = 'Missed' " + FilterUtility.toSqlPredicate(filterCategory, "p.patient_id")
+		        + "AND p.start_date_time + INTERVAL 28 DAY BETWEEN :startDate AND :endDate "
+		        + "AND DATE(e.encounter_datetime) <= DATE(:endDate) "
+		        // More than 28 days ago, counted in days as DATEDIFF did
+		        + "AND DATE(p.start_date_time) < CURDATE() - INTERVAL 28 DAY "
 		        + "AND NOT ((f.death = 'Yes' AND f.date_of_death IS NOT NULL) OR (f.transfer_out = 'Yes' AND f.transfer_out_date IS NOT NULL)) "
 		        + "AND (f.client_refused_treatment IS NULL OR f.client_refused_treatment != 'Yes') "
-		        + "ORDER BY p.patient_id ASC " + ") AS t";
+		        // Exclude patients with upcoming appointments
+		        + "AND NOT EXISTS (SELECT 1 FROM openmrs.patient_appointment fa "
+		        + "    WHERE fa.patient_id = p.patient_id AND fa.start_date_time >= :now) " + "ORDER BY p.patient_id ASC "
+		        + ") AS t";
 		
 		// Execute the query
-		List<Integer> iitIds = entityManager.createNativeQuery(query).setParameter("startDate", startDate)
-		        .setParameter("endDate", endDate).getResultList();
-		
-		// Fetch patients by their IDs
-		HashSet<Patient> patients = fetchPatientsByIds(iitIds);
-		
-		// Filter out patients with upcoming appointments
-		patients.removeIf(patient -> {
-			String nextAppointmentDate = getNextAppointmentDateByUuid.getNextAppointmentDateByUuid(patient.getUuid());
-			return !nextAppointmentDate.equals("No Upcoming Appointments");
-		});
+		List<Number> results = FilterUtility.bindSqlFilter(RequestProfiler.profile(entityManager.createNativeQuery(query)),
+		    filterCategory, endDate)
+		        .setParameter("startDate", startDate)
+		        .setParameter("endDate", endDate).setParameter("now", new Date()).getResultList();
 		
-		return patients;
+		List<Integer> iitIds = new ArrayList<>(results.size());
+		for (Number patientId : results) {
+			iitIds.add(patientId.intValue());
+		}
+		return iitIds;
 	}
 }
@@ -1,57 +1,112 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsByIds;
 
 @Component
 public class GetMissedAppointments {
 	
-	private final GetNextAppointmentDate getNextAppointmentDate;
-	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
-	public GetMissedAppointments(GetNextAppointmentDate getNextAppointmentDate) {
-		this.getNextAppointmentDate = getNextAppointmentDate;
+	public HashSet<Patient> getMissedAppointment(Date startDate, Date endDate) {
+		return getMissedAppointment(startDate, endDate, null);
 	}
 	
-	public HashSet<Patient> getMissedAppointment(Date startDate, Date endDate) {
-		// Calculate the cutoff date for 28 days ago from today
-		Calendar calendar = Calendar.getInstance();
-		calendar.add(Calendar.DAY_OF_YEAR, -28);
-		Date cutoffDate = calendar.getTime();
-		
+	/**
+	 * Like {@link #getMissedAppointment(Date, Date)}, keeping only the patients of the filter category.
+	 */
+	public HashSet<Patient> getMissedAppointment(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		// Fetch patients by their IDs
+		return fetchPatientsByIds(getMissedAppointmentIds(startDate, endDate, filterCategory));
+	}
+	
+	/**
+	 * Like {@link #getMissedAppointment(Date, Date, SSEMRWebServicesController.filterCategory)},
+	 * without loading the patients.
+	 * 
+	 * @return The ids of the patients who missed an appointment within the range.
+	 */
+	public List<Integer> getMissedAppointmentIds(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
 		// Execute the query to fetch the list of missed appointment patient IDs within
 		// the last 28 days
-		String query = "select distinct fp.patient_id from openmrs.patient_appointment fp "
-		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid is not null "
-		        + "and fp.status = 'Missed' " + "and fp.start_date_time >= :cutoffDate "
-		        + "and fp.start_date_time between :startDate and :endDate "
-		        + "and fp.patient_id not in (select eofu.client_id from ssemr_etl.ssemr_flat_encounter_end_of_follow_up eofu "
-		        + "where (eofu.death = 'Yes' and eofu.date_of_death is not null) "
-		        + "or (eofu.transfer_out = 'Yes' and eofu.transfer_out_date is not null))";
+		Query query = RequestProfiler.profile(entityManager.createNativeQuery(
+		    buildMissedAppointmentQuery(FilterUtility.toSqlPredicate(filterCategory, "fp.patient_id"))));
+		List<Number> results = FilterUtility.bindSqlFilter(query, filterCategory, endDate)
+		        .setParameter("cutoffDate", getCutoffDate()).setParameter("startDate", startDate)
+		        .setParameter("endDate", endDate).setParameter("now", new Date()).getResultList();
 		
-		List<Integer> missedAppointmentIds = entityManager.createNativeQuery(query).setParameter("cutoffDate", cutoffDate)
-		        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
+		List<Integer> missedAppointmentIds = new ArrayList<>(results.size());
+		for (Number patientId : results) {
+			missedAppointmentIds.add(patientId.intValue());
+		}
+		return missedAppointmentIds;
+	}
+	
+	/**
+	 * Evaluates the missed appointment rule of {@link #getMissedAppointment(Date, Date)} only for the
+	 * given patients, one query per chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @return The ids of the given patients who missed an appointment.
+	 */
+	public Set<Integer> getMissedAppointmentIds(Date startDate, Date endDate, Collection<Integer> patientIds) {
+		Set<Integer> missedAppointmentIds = new HashSet<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return missedAppointmentIds;
+		}
 		
-		// Fetch patients by their IDs
-		HashSet<Patient> patients = fetchPatientsByIds(missedAppointmentIds);
+		String query = buildMissedAppointmentQuery("and fp.patient_id in (:patientIds) ");
+		Date cutoffDate = getCutoffDate();
 		
-		// Filter out patients with upcoming appointments
-		patients.removeIf(patient -> {
-			String nextAppointmentDate = getNextAppointmentDate.getNextAppointmentDateByUuid(patient.getUuid());
-			return !nextAppointmentDate.equals("No Upcoming Appointments");
-		});
+		List<Number> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(query))
+		            .setParameter("cutoffDate", cutoffDate).setParameter("startDate", startDate)
+		            .setParameter("endDate", endDate).setParameter("now", new Date()).setParameter("patientIds", batchIds)
+		            .getResultList());
+		for (Number patientId : results) {
+			missedAppointmentIds.add(patientId.intValue());
+		}
 		
-		return patients;
+		return missedAppointmentIds;
+	}
+	
+	// Calculate the cutoff date for 28 days ago from today
+	private Date getCutoffDate() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.DAY_OF_YEAR, -28);
+		return calendar.getTime();
+	}
+	
+	private String buildMissedAppointmentQuery(String patientRestriction) {
+		return "select distinct fp.patient_id from openmrs.patient_appointment fp "
+		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid is not null " + patientRestriction
+		        + "and fp.status = 'Missed' " + "and fp.start_date_time >= :cutoffDate "
+		        + "and fp.start_date_time between :startDate and :endDate "
+		        + "and fp.patient_id not in (select eofu.client_id from ssemr_etl.ssemr_flat_encounter_end_of_follow_up eofu "
+		        + "where (eofu.death = 'Yes' and eofu.date_of_death is not null) "
+		        + "or (eofu.transfer_out = 'Yes' and eofu.transfer_out_date is not null)) "
+		        // Exclude patients with upcoming appointments
+		        + "and not exists (select 1 from openmrs.patient_appointment fa "
+		        + "where fa.patient_id = fp.patient_id and fa.start_date_time >= :now)";
 	}
 }
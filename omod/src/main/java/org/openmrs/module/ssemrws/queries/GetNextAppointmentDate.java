@@ -1,18 +1,36 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import static org.openmrs.module.ssemrws.constants.SharedConstants.dateTimeFormatter;
+import static org.openmrs.module.ssemrws.constants.SharedConstants.formatDate;
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 
 @Component
 public class GetNextAppointmentDate {
 	
+	/**
+	 * Conditional aggregates over openmrs.patient_appointment (aliased fp) returning, in order: the
+	 * next upcoming non-cancelled appointment, the last attended appointment, the last missed
+	 * appointment and whether any appointment was cancelled. Expects a :now parameter.
+	 */
+	private static final String APPOINTMENT_STATUS_COLUMNS = "min(case when fp.start_date_time >= :now "
+	        + "and fp.status <> 'Cancelled' then fp.start_date_time end) as next_appointment, "
+	        + "max(case when fp.start_date_time < :now "
+	        + "and fp.status not in ('Missed', 'Cancelled') then fp.start_date_time end) as last_attended, "
+	        + "max(case when fp.start_date_time < :now and fp.status = 'Missed' then fp.start_date_time end) as last_missed, "
+	        + "max(case when fp.status = 'Cancelled' then 1 else 0 end) as any_cancelled ";
+	
 	@PersistenceContext
 	private EntityManager entityManager;
 	
@@ -24,6 +42,10 @@ public class GetNextAppointmentDate {
 		return getNextOrLastAppointmentDateByUuid(patient.getUuid());
 	}
 	
+	/**
+	 * Resolves a patient's next upcoming appointment together with their last attended, last missed
+	 * and any cancelled appointment in a single pass over the appointment table.
+	 */
 	private String getNextOrLastAppointmentDateByUuid(String patientUuid) {
 		if (patientUuid == null || patientUuid.trim().isEmpty()) {
 			return "Invalid patient UUID";
@@ -33,53 +55,80 @@ public class GetNextAppointmentDate {
 			throw new IllegalStateException("EntityManager is not initialized!");
 		}
 		
-		Date now = new Date();
+		String query = "select " + APPOINTMENT_STATUS_COLUMNS + "from openmrs.patient_appointment fp "
+		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid";
 		
-		// Query for the next upcoming appointment
-		String futureQuery = "select fp.start_date_time " + "from openmrs.patient_appointment fp "
-		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid "
-		        + "and fp.start_date_time >= :now " + "and fp.status <> 'Cancelled' " + "order by fp.start_date_time asc";
+		List<Object[]> results = RequestProfiler.profile(entityManager.createNativeQuery(query))
+		        .setParameter("patientUuid", patientUuid).setParameter("now", new Date()).getResultList();
 		
-		List<Date> futureResults = entityManager.createNativeQuery(futureQuery).setParameter("patientUuid", patientUuid)
-		        .setParameter("now", now).getResultList();
+		if (results == null || results.isEmpty()) {
+			return "No Appointments Found";
+		}
 		
-		if (futureResults != null && !futureResults.isEmpty()) {
-			return dateTimeFormatter.format(futureResults.get(0));
+		return formatAppointmentStatus(results.get(0), 0);
+	}
+	
+	/**
+	 * Bulk form of {@link #getNextArtAppointmentDate(Patient)} used to fill the appointment column for
+	 * a whole page of patients at once.
+	 * 
+	 * @param patientIds The patient ids on the page.
+	 * @return A map of patient id to the same appointment status string the single-patient lookup
+	 *         returns. Every requested id is present in the map.
+	 */
+	public Map<Integer, String> getNextOrLastAppointmentDates(Collection<Integer> patientIds) {
+		Map<Integer, String> appointmentDates = new HashMap<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return appointmentDates;
 		}
 		
-		// If no upcoming appointments, query for the most recent past appointment
-		String pastAppointmentQuery = "select fp.start_date_time " + "from openmrs.patient_appointment fp "
-		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid "
-		        + "and fp.start_date_time < :now " + "and fp.status NOT IN ('Missed', 'Cancelled') "
-		        + "order by fp.start_date_time desc";
+		if (entityManager == null) {
+			throw new IllegalStateException("EntityManager is not initialized!");
+		}
 		
-		List<Date> pastResults = entityManager.createNativeQuery(pastAppointmentQuery)
-		        .setParameter("patientUuid", patientUuid).setParameter("now", now).getResultList();
+		Date now = new Date();
+		
+		String query = "select fp.patient_id, " + APPOINTMENT_STATUS_COLUMNS + "from openmrs.patient_appointment fp "
+		        + "where fp.patient_id in (:patientIds) " + "group by fp.patient_id";
 		
-		if (pastResults != null && !pastResults.isEmpty()) {
-			return dateTimeFormatter.format(pastResults.get(0));
+		List<Object[]> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(query))
+		            .setParameter("patientIds", batchIds).setParameter("now", now).getResultList());
+		
+		for (Object[] row : results) {
+			appointmentDates.put(((Number) row[0]).intValue(), formatAppointmentStatus(row, 1));
 		}
 		
-		// Query for missed appointments
-		String missedAppointmentQuery = "select fp.start_date_time " + "from openmrs.patient_appointment fp "
-		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid "
-		        + "and fp.start_date_time < :now " + "and fp.status = 'Missed' " + "order by fp.start_date_time desc";
+		for (Integer patientId : patientIds) {
+			appointmentDates.putIfAbsent(patientId, "No Appointments Found");
+		}
 		
-		List<Date> missedResults = entityManager.createNativeQuery(missedAppointmentQuery)
-		        .setParameter("patientUuid", patientUuid).setParameter("now", now).getResultList();
+		return appointmentDates;
+	}
+	
+	/**
+	 * Turns one row of {@link #APPOINTMENT_STATUS_COLUMNS} into the appointment status shown to users.
+	 * The precedence is next upcoming, then last attended, then last missed, then cancelled.
+	 */
+	private String formatAppointmentStatus(Object[] row, int offset) {
+		Date nextAppointment = (Date) row[offset];
+		Date lastAttended = (Date) row[offset + 1];
+		Date lastMissed = (Date) row[offset + 2];
+		Number anyCancelled = (Number) row[offset + 3];
+		
+		if (nextAppointment != null) {
+			return formatDate(nextAppointment);
+		}
 		
-		if (missedResults != null && !missedResults.isEmpty()) {
-			return "Appointment Missed: " + dateTimeFormatter.format(missedResults.get(0));
+		if (lastAttended != null) {
+			return formatDate(lastAttended);
 		}
-		// Query for cancelled appointments
-		String cancelledAppointmentQuery = "select fp.start_date_time " + "from openmrs.patient_appointment fp "
-		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid "
-		        + "and fp.status = 'Cancelled' " + "order by fp.start_date_time desc";
 		
-		List<Date> cancelledResults = entityManager.createNativeQuery(cancelledAppointmentQuery)
-		        .setParameter("patientUuid", patientUuid).getResultList();
+		if (lastMissed != null) {
+			return "Appointment Missed: " + formatDate(lastMissed);
+		}
 		
-		if (cancelledResults != null && !cancelledResults.isEmpty()) {
+		if (anyCancelled != null && anyCancelled.intValue() > 0) {
 			return "Appointment was cancelled";
 		}
 		
@@ -101,13 +150,48 @@ public class GetNextAppointmentDate {
 		        + "join openmrs.person p on fp.patient_id = p.person_id " + "where p.uuid = :patientUuid "
 		        + "and fp.start_date_time >= :now " + "order by fp.start_date_time asc";
 		
-		List<Date> results = entityManager.createNativeQuery(query).setParameter("patientUuid", patientUuid)
-		        .setParameter("now", now).getResultList();
+		List<Date> results = RequestProfiler.profile(entityManager.createNativeQuery(query))
+		        .setParameter("patientUuid", patientUuid).setParameter("now", now).getResultList();
 		
 		if (results != null && !results.isEmpty()) {
-			return dateTimeFormatter.format(results.get(0));
+			return formatDate(results.get(0));
 		} else {
 			return "No Upcoming Appointments";
 		}
 	}
+	
+	/**
+	 * Set-based variant of {@link #getNextAppointmentDateByUuid(String)}. Resolves the next upcoming
+	 * appointment for every patient id in one query per chunk of
+	 * {@value SharedConstants#ID_CHUNK_SIZE} ids instead of one query per patient.
+	 * 
+	 * @param patientIds The patient ids to resolve.
+	 * @return A map of patient id to the start of their next appointment. Patients with no upcoming
+	 *         appointment are absent from the map.
+	 */
+	public Map<Integer, Date> getNextAppointmentDates(Collection<Integer> patientIds) {
+		Map<Integer, Date> nextAppointments = new HashMap<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return nextAppointments;
+		}
+		
+		if (entityManager == null) {
+			throw new IllegalStateException("EntityManager is not initialized!");
+		}
+		
+		Date now = new Date();
+		
+		String query = "select fp.patient_id, min(fp.start_date_time) " + "from openmrs.patient_appointment fp "
+		        + "where fp.patient_id in (:patientIds) " + "and fp.start_date_time >= :now " + "group by fp.patient_id";
+		
+		List<Object[]> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(query))
+		            .setParameter("patientIds", batchIds).setParameter("now", now).getResultList());
+		
+		for (Object[] row : results) {
+			nextAppointments.put(((Number) row[0]).intValue(), (Date) row[1]);
+		}
+		
+		return nextAppointments;
+	}
 }
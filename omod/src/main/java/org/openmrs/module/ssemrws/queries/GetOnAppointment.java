@@ -1,17 +1,20 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
-import java.math.BigInteger;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 
+import static org.openmrs.module.ssemrws.constants.SharedConstants.dayAfter;
 import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsByIds;
 
 @Component
@@ -21,21 +24,47 @@ public class GetOnAppointment {
 	private EntityManager entityManager;
 	
 	public HashSet<Patient> getOnAppoinment(Date startDate, Date endDate) {
+		return getOnAppoinment(startDate, endDate, null);
+	}
+	
+	/**
+	 * Like {@link #getOnAppoinment(Date, Date)}, keeping only the patients of the filter category.
+	 */
+	public HashSet<Patient> getOnAppoinment(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		return fetchPatientsByIds(getOnAppointmentIds(startDate, endDate, filterCategory));
+	}
+	
+	/**
+	 * Like {@link #getOnAppoinment(Date, Date, SSEMRWebServicesController.filterCategory)}, without
+	 * loading the patients.
+	 * 
+	 * @return The ids of the patients with an appointment within the range.
+	 */
+	public List<Integer> getOnAppointmentIds(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
 		// Execute the query
-		List<Integer> patientIds = (List<Integer>) executePatientQuery(startDate, endDate, false);
-		return fetchPatientsByIds(patientIds);
+		List<Number> results = (List<Number>) executePatientQuery(startDate, endDate, false, filterCategory);
+		
+		List<Integer> patientIds = new ArrayList<>(results.size());
+		for (Number patientId : results) {
+			patientIds.add(patientId.intValue());
+		}
+		return patientIds;
 	}
 	
-	private Object executePatientQuery(Date startDate, Date endDate, boolean isCountQuery) {
-		String baseQuery = getQueryString(isCountQuery);
+	private Object executePatientQuery(Date startDate, Date endDate, boolean isCountQuery,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		String baseQuery = getQueryString(isCountQuery) + FilterUtility.toSqlPredicate(filterCategory, "fp.patient_id");
 		
 		try {
 			// Create and configure the query
-			Query query = entityManager.createNativeQuery(baseQuery).setParameter("startDate", startDate)
-			        .setParameter("endDate", endDate);
+			Query query = FilterUtility.bindSqlFilter(RequestProfiler.profile(entityManager.createNativeQuery(baseQuery)),
+			    filterCategory, endDate)
+			        .setParameter("startDate", startDate).setParameter("dayAfterEndDate", dayAfter(endDate));
 			
 			if (isCountQuery) {
-				BigInteger totalCount = (BigInteger) query.getSingleResult();
+				Number totalCount = (Number) query.getSingleResult();
 				return totalCount.intValue();
 			} else {
 				return query.getResultList();
@@ -53,7 +82,7 @@ public class GetOnAppointment {
 		// Base query to fetch patients based on appointment dates
 		String baseQuery = "SELECT " + selectClause + " " + "FROM openmrs.patient_appointment fp "
 		        + "JOIN openmrs.person p ON fp.patient_id = p.person_id " + "WHERE fp.start_date_time >= :startDate "
-		        + "  AND fp.start_date_time < DATE_ADD(:endDate, INTERVAL 1 DAY)";
+		        + "  AND fp.start_date_time < :dayAfterEndDate ";
 		
 		return baseQuery;
 	}
@@ -1,12 +1,19 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 
 @Component
 public class GetPMTCT {
@@ -23,9 +30,51 @@ public class GetPMTCT {
 		        + "WHERE client_id = :patientId " + "AND client_pmtct = 'Yes' "
 		        + "AND DATE(encounter_datetime) BETWEEN DATE(:startDate) AND DATE(:endDate) " + "LIMIT 1";
 		
-		List<Object> results = entityManager.createNativeQuery(qry).setParameter("patientId", patient.getPatientId())
+		List<Object> results = RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		        .setParameter("patientId", patient.getPatientId())
 		        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
 		
 		return results.isEmpty() ? "" : results.get(0).toString();
 	}
+	
+	/**
+	 * Set-based form of {@link #getPMTCTClient(Patient, Date, Date)}: the ids of every client with a
+	 * PMTCT follow-up encounter in the range.
+	 */
+	public Set<Integer> getPMTCTClientIds(Date startDate, Date endDate) {
+		String qry = "SELECT DISTINCT client_id " + "FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up "
+		        + "WHERE client_pmtct = 'Yes' " + "AND DATE(encounter_datetime) BETWEEN DATE(:startDate) AND DATE(:endDate)";
+		
+		List<Number> results = RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
+		
+		Set<Integer> clientIds = new HashSet<>();
+		for (Number clientId : results) {
+			clientIds.add(clientId.intValue());
+		}
+		return clientIds;
+	}
+	
+	/**
+	 * Restricts {@link #getPMTCTClientIds(Date, Date)} to the given clients, one query per chunk of
+	 * {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 */
+	public Set<Integer> getPMTCTClientIds(Date startDate, Date endDate, Collection<Integer> patientIds) {
+		Set<Integer> clientIds = new HashSet<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return clientIds;
+		}
+		
+		String qry = "SELECT DISTINCT client_id " + "FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up "
+		        + "WHERE client_id IN (:patientIds) " + "AND client_pmtct = 'Yes' "
+		        + "AND DATE(encounter_datetime) BETWEEN DATE(:startDate) AND DATE(:endDate)";
+		
+		List<Number> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(qry)).setParameter("patientIds", batchIds)
+		            .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList());
+		for (Number clientId : results) {
+			clientIds.add(clientId.intValue());
+		}
+		return clientIds;
+	}
 }
@@ -0,0 +1,78 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.openmrs.module.ssemrws.constants.CohortCache;
+import org.openmrs.module.ssemrws.constants.ResultCache;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The pregnant and breastfeeding women (PBFW) cohort: patients matching
+ * {@link FilterUtility#toPbfwCondition} as of a given day, the rule of the PBFW filter too. The
+ * cohort of a day is computed in one query and kept as long as a cohort of the {@link CohortCache}.
+ */
+@Component
+public class GetPregnantOrBreastfeeding {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private final ResultCache<Set<Integer>> cohortsByDay;
+	
+	public GetPregnantOrBreastfeeding(CohortCache cohortCache) {
+		this.cohortsByDay = new ResultCache<>("pbfw", cohortCache);
+	}
+	
+	/**
+	 * @param endDate The day as of which the obs are considered.
+	 * @return The ids of the PBFW patients. Callers must not modify the set.
+	 */
+	public Set<Integer> getPbfwPatientIds(Date endDate) {
+		String day = new SimpleDateFormat("yyyy-MM-dd").format(endDate);
+		return cohortsByDay.get(day, () -> {
+			long queryStart = System.nanoTime();
+			Set<Integer> patientIds = Collections.unmodifiableSet(executePbfwQuery(endDate));
+			MetricsRegistry.getInstance().recordCohortQuery("pbfw", System.nanoTime() - queryStart, patientIds.size());
+			return patientIds;
+		});
+	}
+	
+	/**
+	 * Drops every cached cohort. Called by the DenominatorInvalidationAdvice after obs or patients
+	 * change.
+	 */
+	public void clear() {
+		cohortsByDay.clear();
+	}
+	
+	private Set<Integer> executePbfwQuery(Date endDate) {
+		String query = "SELECT p.patient_id FROM openmrs.patient p WHERE " + FilterUtility.toPbfwCondition("p.patient_id");
+		
+		try {
+			@SuppressWarnings("unchecked")
+			List<Number> results = FilterUtility
+			        .bindPbfwCondition(RequestProfiler.profile(entityManager.createNativeQuery(query)), endDate)
+			        .getResultList();
+			
+			Set<Integer> patientIds = new HashSet<>();
+			for (Number patientId : results) {
+				patientIds.add(patientId.intValue());
+			}
+			return patientIds;
+		}
+		catch (Exception e) {
+			System.err.println("Error executing PBFW query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute PBFW query", e);
+		}
+	}
+}
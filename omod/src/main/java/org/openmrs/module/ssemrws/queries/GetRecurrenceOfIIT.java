@@ -1,5 +1,6 @@
 package org.openmrs.module.ssemrws.queries;
 
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
@@ -22,8 +23,8 @@ public class GetRecurrenceOfIIT {
 		        + "JOIN openmrs.person p ON e.client_id = p.person_id " + "WHERE p.uuid = :patientUuid "
 		        + "AND e.date_restarted IS NOT NULL " + "AND e.encounter_datetime <= :now";
 		
-		List<Number> results = entityManager.createNativeQuery(qry).setParameter("patientUuid", patientUuid)
-		        .setParameter("now", new Date()).getResultList();
+		List<Number> results = RequestProfiler.profile(entityManager.createNativeQuery(qry))
+		        .setParameter("patientUuid", patientUuid).setParameter("now", new Date()).getResultList();
 		
 		return (results.isEmpty() || results.get(0) == null) ? 0 : results.get(0).intValue();
 	}
@@ -1,5 +1,6 @@
 package org.openmrs.module.ssemrws.queries;
 
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
@@ -25,7 +26,7 @@ public class GetRecurrentHVL {
 		        + "    JOIN ssemr_etl.mamba_dim_person p ON hvl.client_id = p.person_id "
 		        + "    WHERE p.uuid = :patientUuid AND hvl.repeat_vl_value >= 1000 " + ") AS all_high_viral_loads";
 		
-		Query query = entityManager.createNativeQuery(qry);
+		Query query = RequestProfiler.profile(entityManager.createNativeQuery(qry));
 		query.setParameter("patientUuid", patientUuid);
 		
 		Object result = query.getSingleResult();
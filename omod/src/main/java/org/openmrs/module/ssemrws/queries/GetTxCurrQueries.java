@@ -1,16 +1,24 @@
 package org.openmrs.module.ssemrws.queries;
 
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
 import org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
+
 @Component
 public class GetTxCurrQueries {
 	
@@ -24,12 +32,57 @@ public class GetTxCurrQueries {
 	}
 	
 	public HashSet<Patient> getTxCurr(Date endDate) {
-		List<Integer> patientIds = executeTxCurrQuery(endDate);
+		return getTxCurr(endDate, null);
+	}
+	
+	/**
+	 * Like {@link #getTxCurr(Date)}, keeping only the patients of the filter category.
+	 */
+	public HashSet<Patient> getTxCurr(Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
+		List<Integer> patientIds = executeTxCurrQuery(endDate, filterCategory);
 		return fetchPatientsByIdentifier.fetchPatientsIds(patientIds);
 	}
 	
 	public List<Integer> executeTxCurrQuery(Date endDate) {
-		String sql = "SELECT DISTINCT p.patient_id " + "FROM openmrs.patient_appointment p " + "JOIN ( "
+		return executeTxCurrQuery(endDate, (SSEMRWebServicesController.filterCategory) null);
+	}
+	
+	public List<Integer> executeTxCurrQuery(Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
+		Query query = RequestProfiler.profile(entityManager
+		        .createNativeQuery(buildTxCurrQuery(FilterUtility.toSqlPredicate(filterCategory, "p.patient_id"))));
+		FilterUtility.bindSqlFilter(query, filterCategory, endDate).setParameter("endDate", endDate);
+		
+		@SuppressWarnings("unchecked")
+		List<Integer> patientIds = query.getResultList();
+		
+		return patientIds;
+	}
+	
+	/**
+	 * Evaluates the TxCurr rule of {@link #executeTxCurrQuery(Date)} only for the given patients, one
+	 * query per chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 */
+	public List<Integer> executeTxCurrQuery(Date endDate, Collection<Integer> patientIds) {
+		List<Integer> txCurrIds = new ArrayList<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return txCurrIds;
+		}
+		
+		String sql = buildTxCurrQuery("AND p.patient_id IN (:patientIds) ");
+		
+		@SuppressWarnings("unchecked")
+		List<Number> results = queryInChunks(patientIds,
+		    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(sql)).setParameter("endDate", endDate)
+		            .setParameter("patientIds", batchIds).getResultList());
+		for (Number patientId : results) {
+			txCurrIds.add(patientId.intValue());
+		}
+		
+		return txCurrIds;
+	}
+	
+	private String buildTxCurrQuery(String patientRestriction) {
+		return "SELECT DISTINCT p.patient_id " + "FROM openmrs.patient_appointment p " + "JOIN ( "
 		        + "    SELECT client_id, art_start_date "
 		        + "    FROM ssemr_etl.ssemr_flat_encounter_personal_family_tx_history " + "    UNION "
 		        + "    SELECT client_id, art_start_date "
@@ -38,22 +91,16 @@ public class GetTxCurrQueries {
 		        + "    FROM ssemr_etl.ssemr_flat_encounter_pediatric_intake_report " + ") tx ON tx.client_id = p.patient_id "
 		        + "LEFT JOIN ( " + "    SELECT client_id, transfer_out, death, client_refused_treatment "
 		        + "    FROM ssemr_etl.ssemr_flat_encounter_end_of_follow_up " + ") f ON f.client_id = p.patient_id "
-		        + "WHERE tx.art_start_date IS NOT NULL " + "  AND ( " + "      EXISTS ( " + "          SELECT 1 "
+		        + "WHERE tx.art_start_date IS NOT NULL " + patientRestriction + "  AND ( " + "      EXISTS ( "
+		        + "          SELECT 1 "
 		        + "          FROM openmrs.patient_appointment future_appointments "
 		        + "          WHERE future_appointments.patient_id = p.patient_id "
 		        + "            AND future_appointments.start_date_time > :endDate " + "      ) "
-		        + "      OR (p.status = 'Missed' AND DATEDIFF(:endDate, p.start_date_time) <= 28) "
+		        + "      OR (p.status = 'Missed' AND TIMESTAMPDIFF(DAY, DATE(p.start_date_time), DATE(:endDate)) <= 28) "
 		        + "      OR DATE(p.start_date_time) = DATE(:endDate) " + "  ) "
 		        + "  AND DATE(tx.art_start_date) <= DATE(:endDate) " + "  AND (f.death IS NULL OR f.death != 'Yes') "
 		        + "  AND (f.transfer_out IS NULL OR f.transfer_out != 'Yes') "
 		        + "  AND (f.client_refused_treatment IS NULL OR f.client_refused_treatment != 'Yes') "
 		        + "ORDER BY p.patient_id ASC";
-		
-		Query query = entityManager.createNativeQuery(sql).setParameter("endDate", endDate);
-		
-		@SuppressWarnings("unchecked")
-		List<Integer> patientIds = query.getResultList();
-		
-		return patientIds;
 	}
 }
@@ -0,0 +1,235 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.openmrs.module.ssemrws.constants.SharedConstants;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.constants.VlEligibilityResult;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
+
+/**
+ * Single source of the viral load eligibility rules. Computes, in one pass over the ETL tables, the
+ * VL eligibility date of each client together with whether a VL result is still pending and whether
+ * the client is in the high viral load cohort awaiting their third EAC session. Used by
+ * {@link GetDueForVL} for the facility list and by {@link GetVLDueDate} for the vlDueDate column.
+ */
+@Component
+public class GetVLEligibility {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	/**
+	 * Computes VL eligibility for the given clients, one query per chunk of
+	 * {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @param patientIds The client ids to evaluate.
+	 * @return The eligibility per client id. Clients without an ART start date are absent.
+	 */
+	public Map<Integer, VlEligibilityResult> getEligibility(Collection<Integer> patientIds) {
+		Map<Integer, VlEligibilityResult> eligibility = new LinkedHashMap<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return eligibility;
+		}
+		
+		String sql = buildEligibilityQuery("AND f.client_id IN (:patientIds) ", "AND h.client_id IN (:patientIds) ", "",
+		    "AND mp.person_id IN (:patientIds) ");
+		
+		collectResults(queryInChunks(patientIds, batchIds -> RequestProfiler
+		        .profile(entityManager.createNativeQuery(sql)).setParameter("patientIds", batchIds).getResultList()),
+		    eligibility);
+		
+		return eligibility;
+	}
+	
+	/**
+	 * Computes VL eligibility for every client still in care at the facility as of the given date:
+	 * on ART, not dead, not transferred out, not refusing treatment and without a latest appointment
+	 * missed for more than 28 days.
+	 * 
+	 * @param endDate The reporting date.
+	 * @return The eligibility per client id.
+	 */
+	public Map<Integer, VlEligibilityResult> getFacilityEligibility(Date endDate) {
+		return getFacilityEligibility(endDate, (SSEMRWebServicesController.filterCategory) null);
+	}
+	
+	/**
+	 * Like {@link #getFacilityEligibility(Date)}, keeping only the clients of the filter category.
+	 */
+	public Map<Integer, VlEligibilityResult> getFacilityEligibility(Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		String sql = buildFacilityEligibilityQuery("", "", "", FilterUtility.toSqlPredicate(filterCategory, "mp.person_id"));
+		
+		Map<Integer, VlEligibilityResult> eligibility = new LinkedHashMap<>();
+		try {
+			Query query = FilterUtility.bindSqlFilter(RequestProfiler.profile(entityManager.createNativeQuery(sql)),
+			    filterCategory, endDate)
+			        .setParameter("endDate", endDate);
+			collectResults(query.getResultList(), eligibility);
+		}
+		catch (Exception e) {
+			System.err.println("Error executing VL eligibility query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute VL eligibility query", e);
+		}
+		
+		return eligibility;
+	}
+	
+	/**
+	 * Same rules as {@link #getFacilityEligibility(Date)} evaluated only for the given clients, one
+	 * query per chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids.
+	 * 
+	 * @param endDate The reporting date.
+	 * @param patientIds The client ids to evaluate.
+	 * @return The eligibility per client id, for the clients still in care.
+	 */
+	public Map<Integer, VlEligibilityResult> getFacilityEligibility(Date endDate, Collection<Integer> patientIds) {
+		Map<Integer, VlEligibilityResult> eligibility = new LinkedHashMap<>();
+		if (patientIds == null || patientIds.isEmpty()) {
+			return eligibility;
+		}
+		
+		String sql = buildFacilityEligibilityQuery("AND f.client_id IN (:patientIds) ", "AND h.client_id IN (:patientIds) ",
+		    "WHERE patient_id IN (:patientIds) ", "AND mp.person_id IN (:patientIds) ");
+		
+		try {
+			collectResults(queryInChunks(patientIds,
+			    batchIds -> RequestProfiler.profile(entityManager.createNativeQuery(sql)).setParameter("endDate", endDate)
+			            .setParameter("patientIds", batchIds).getResultList()),
+			    eligibility);
+		}
+		catch (Exception e) {
+			System.err.println("Error executing VL eligibility query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute VL eligibility query", e);
+		}
+		
+		return eligibility;
+	}
+	
+	private String buildFacilityEligibilityQuery(String followUpRestriction, String hvlRestriction,
+	        String appointmentRestriction, String outerRestriction) {
+		String inCareJoins = "LEFT JOIN ssemr_etl.ssemr_flat_encounter_end_of_follow_up fup ON mp.person_id = fup.client_id "
+		        + "LEFT JOIN ( " + "    SELECT app.patient_id, app.status, app.start_date_time "
+		        + "    FROM openmrs.patient_appointment app " + "    JOIN ( "
+		        + "        SELECT patient_id, MAX(start_date_time) AS max_start_date_time "
+		        + "        FROM openmrs.patient_appointment " + appointmentRestriction + "GROUP BY patient_id "
+		        + "    ) AS latest_appt ON app.patient_id = latest_appt.patient_id AND app.start_date_time = latest_appt.max_start_date_time "
+		        + ") appt ON appt.patient_id = mp.person_id ";
+		
+		String inCareRestriction = "AND (fup.death IS NULL OR fup.death != 'Yes') "
+		        + "AND (fup.transfer_out IS NULL OR fup.transfer_out != 'Yes') "
+		        + "AND (fup.client_refused_treatment IS NULL OR fup.client_refused_treatment != 'Yes') "
+		        + "AND (appt.status IS NULL OR appt.status != 'Missed' OR TIMESTAMPDIFF(DAY, DATE(appt.start_date_time), DATE(:endDate)) <= 28) ";
+		
+		return buildEligibilityQuery(followUpRestriction, hvlRestriction, inCareJoins,
+		    inCareRestriction + outerRestriction);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void collectResults(List<Object[]> rows, Map<Integer, VlEligibilityResult> eligibility) {
+		for (Object[] row : rows) {
+			Integer clientId = ((Number) row[0]).intValue();
+			Date eligibilityDate = (Date) row[1];
+			boolean pending = ((Number) row[2]).intValue() == 1;
+			boolean inHvlCohort = ((Number) row[3]).intValue() == 1;
+			eligibility.put(clientId, new VlEligibilityResult(eligibilityDate, pending, inHvlCohort));
+		}
+	}
+	
+	/**
+	 * Builds the eligibility query. The restrictions are appended to the follow-up CTEs, the high
+	 * viral load CTE and the outer query respectively so that an id list narrows every scan. The
+	 * extra joins are added to the outer query for restrictions that need them.
+	 */
+	private String buildEligibilityQuery(String followUpRestriction, String hvlRestriction, String extraJoins,
+	        String outerRestriction) {
+		return "WITH LatestFP AS ( " + "    SELECT f.*, ROW_NUMBER() OVER(PARTITION BY f.client_id "
+		        + "        ORDER BY " + "            CASE WHEN f.date_vl_sample_collected IS NOT NULL THEN 1 ELSE 2 END, "
+		        + "            f.date_vl_sample_collected DESC, " + "            f.encounter_datetime DESC " + "    ) as rn "
+		        + "    FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up f WHERE 1 = 1 " + followUpRestriction
+		        + "), "
+		        // Latest follow-up by encounter date, used for the pending and HVL checks
+		        + "LatestFPEncounter AS ( "
+		        + "    SELECT f.client_id, f.date_vl_sample_collected, f.date_vl_results_received, f.viral_load_value, "
+		        + "        ROW_NUMBER() OVER(PARTITION BY f.client_id ORDER BY f.encounter_datetime DESC) as rn "
+		        + "    FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up f WHERE 1 = 1 " + followUpRestriction
+		        + "), " + "LatestHVL AS ( "
+		        + "    SELECT h.*, ROW_NUMBER() OVER(PARTITION BY h.client_id ORDER BY h.encounter_datetime DESC) as rn "
+		        + "    FROM ssemr_etl.ssemr_flat_encounter_high_viral_load h WHERE 1 = 1 " + hvlRestriction + ") "
+		
+		        + "SELECT DISTINCT mp.person_id AS client_id, " + "(CASE "
+		
+		        + "WHEN hvl.encounter_datetime > fp.encounter_datetime THEN " + "CASE "
+		        + "WHEN hvl.third_eac_session_date IS NOT NULL AND hvl.repeat_vl_results IS NULL THEN (hvl.third_eac_session_date + INTERVAL 1 MONTH) "
+		        + "WHEN hvl.repeat_vl_sample_date IS NOT NULL AND (hvl.repeat_vl_value < 1000 OR hvl.repeat_vl_results = 'Below Detectable (BDL)') THEN (hvl.repeat_vl_sample_date + INTERVAL 6 MONTH) "
+		        + "ELSE (hvl.encounter_datetime + INTERVAL 1 MONTH) " + "END "
+		
+		        + "ELSE " + "CASE "
+		        // --- ADULT CONDITIONS ---
+		        + "WHEN (mp.age > 18 AND pfh.art_start_date IS NOT NULL AND (fp.client_pmtct = 'No' OR fp.client_pmtct IS NULL) "
+		        + " AND (fp.viral_load_value < 1000 OR fp.vl_results = 'Below Detectable (BDL)') "
+		        + " AND EXISTS (SELECT 1 FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up prev "
+		        + "     WHERE prev.client_id = fp.client_id AND prev.date_vl_sample_collected < fp.date_vl_sample_collected "
+		        + "     AND (prev.viral_load_value < 1000 OR prev.vl_results = 'Below Detectable (BDL)')) "
+		        + ") THEN (fp.date_vl_sample_collected + INTERVAL 12 MONTH) "
+		
+		        + "WHEN (mp.age > 18 AND pfh.art_start_date IS NOT NULL AND (fp.client_pmtct = 'No' OR fp.client_pmtct IS NULL) "
+		        + " AND (fp.viral_load_value < 1000 OR fp.vl_results = 'Below Detectable (BDL)') "
+		        + " AND NOT EXISTS (SELECT 1 FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up prev "
+		        + "     WHERE prev.client_id = fp.client_id AND prev.date_vl_sample_collected < fp.date_vl_sample_collected "
+		        + "     AND (prev.viral_load_value < 1000 OR prev.vl_results = 'Below Detectable (BDL)')) "
+		        + ") THEN (fp.date_vl_sample_collected + INTERVAL 6 MONTH) "
+		
+		        + "WHEN (mp.age > 18 AND pfh.art_start_date IS NOT NULL "
+		        + " AND NOT EXISTS (SELECT 1 FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up v2 "
+		        + "     WHERE v2.client_id = fp.client_id AND v2.date_vl_sample_collected IS NOT NULL) "
+		        + ") THEN (pfh.art_start_date + INTERVAL 6 MONTH) "
+		
+		        // --- CHILD & HVL-SPECIFIC CONDITIONS (Most specific first) ---
+		        + "WHEN (mp.age <= 18 AND hvl.repeat_vl_sample_date IS NOT NULL) AND (fp.client_pmtct = 'No' OR fp.client_pmtct IS NULL) AND (hvl.repeat_vl_value IS NULL AND hvl.repeat_vl_results IS NULL) THEN (hvl.third_eac_session_date + INTERVAL 1 MONTH) "
+		        + "WHEN (mp.age <= 18 AND pfh.art_start_date IS NOT NULL) AND (fp.client_pmtct = 'No' OR fp.client_pmtct IS NULL) AND (fp.date_vl_sample_collected IS NULL AND fp.vl_results IS NULL) AND hvl.repeat_vl_sample_date IS NULL THEN (pfh.art_start_date + INTERVAL 6 MONTH) "
+		        + "WHEN (mp.age <= 18 AND fp.date_vl_sample_collected IS NOT NULL) AND (fp.client_pmtct = 'No' OR fp.client_pmtct IS NULL) AND hvl.repeat_vl_sample_date IS NULL THEN (fp.date_vl_sample_collected + INTERVAL 6 MONTH) "
+		
+		        + "WHEN hvl.third_eac_session_date IS NOT NULL AND (hvl.repeat_vl_results IS NULL) THEN (hvl.third_eac_session_date + INTERVAL 1 MONTH) "
+		        + "WHEN hvl.repeat_vl_sample_date IS NOT NULL AND (hvl.repeat_vl_value < 1000 OR hvl.repeat_vl_results = 'Below Detectable (BDL)') THEN (hvl.repeat_vl_sample_date + INTERVAL 6 MONTH) "
+		
+		        // --- PMTCT / PREGNANT & OTHER GENERAL CONDITIONS ---
+		        + "WHEN (fp.client_pmtct = 'Yes' AND fp.date_vl_sample_collected IS NOT NULL) AND (fp.viral_load_value < 1000 OR fp.vl_results = 'Below Detectable (BDL)') THEN (fp.date_vl_sample_collected + INTERVAL 3 MONTH) "
+		        + "WHEN (fp.client_pmtct = 'Yes' AND fp.date_vl_sample_collected IS NULL) THEN (fp.encounter_datetime + INTERVAL 3 MONTH) "
+		        + "WHEN (fp.client_pregnant = 'Yes' AND pfh.art_start_date IS NOT NULL) THEN fp.encounter_datetime "
+		
+		        // Eligibity in 6 months from the ART START DAte
+		        + "WHEN pfh.art_start_date IS NOT NULL AND (hvl.repeat_vl_result_date IS NULL AND fp.date_vl_sample_collected IS NULL) THEN (pfh.art_start_date + INTERVAL 6 MONTH) "
+		
+		        + "ELSE NULL " + "END " + "END) AS eligibility_date, "
+		
+		        // Sample collected on the latest follow-up or repeat VL but no result yet
+		        + "(CASE WHEN (fe.date_vl_sample_collected IS NOT NULL AND fe.date_vl_results_received IS NULL) "
+		        + "    OR (hvl.repeat_vl_sample_date IS NOT NULL AND hvl.repeat_vl_result_date IS NULL) "
+		        + "THEN 1 ELSE 0 END) AS pending, "
+		
+		        // Latest VL is high and the third EAC session has not happened yet
+		        + "(CASE WHEN fe.client_id IS NOT NULL AND hvl.third_eac_session_date IS NULL "
+		        + "    AND (fe.viral_load_value >= 1000 OR hvl.repeat_vl_value >= 1000) "
+		        + "THEN 1 ELSE 0 END) AS in_hvl_cohort "
+		
+		        + "FROM ssemr_etl.mamba_dim_person mp "
+		        + "LEFT JOIN LatestFP fp ON mp.person_id = fp.client_id AND fp.rn = 1 "
+		        + "LEFT JOIN LatestFPEncounter fe ON mp.person_id = fe.client_id AND fe.rn = 1 "
+		        + "LEFT JOIN LatestHVL hvl ON mp.person_id = hvl.client_id AND hvl.rn = 1 "
+		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_personal_family_tx_history pfh ON mp.person_id = pfh.client_id "
+		        + extraJoins + "WHERE pfh.art_start_date IS NOT NULL " + outerRestriction;
+	}
+}
@@ -0,0 +1,93 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.constants.ViralLoadCascade;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.THRESHOLD;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
+
+/**
+ * Pivots the high viral load flat table into one row per HVL client holding the date the client
+ * reached each stage of the {@link ViralLoadCascade}, in one query. The flat table has no extended
+ * EAC or ART switch columns, so those dates are taken from their date obs in the same query.
+ */
+@Component
+public class GetViralLoadCascadeStages {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	/**
+	 * A client enters the cascade with a follow-up VL at or above the threshold between the start
+	 * and end dates, unless they died or transferred out by the end date. Only stage dates recorded
+	 * on or after that first high VL are considered.
+	 * 
+	 * @return One array per client, indexed like {@link ViralLoadCascade#STAGES}, with a null date for
+	 *         the stages the client has not reached.
+	 */
+	public List<Date[]> getClientStageDates(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		String sql = "SELECT hv.client_id, hv.hvl_date, " + "MIN(h.adherence_date) AS first_eac_date, "
+		        + "MIN(h.second_eac_session_date) AS second_eac_date, " + "MIN(h.third_eac_session_date) AS third_eac_date, "
+		        + "MIN(CASE WHEN c.uuid = :extendedEacDateUuid THEN o.value_datetime END) AS extended_eac_date, "
+		        + "MIN(h.repeat_vl_sample_date) AS repeat_vl_date, "
+		        + "MIN(CASE WHEN h.repeat_vl_value >= :threshold "
+		        + "    THEN COALESCE(h.repeat_vl_result_date, h.repeat_vl_sample_date) END) AS persistent_hvl_date, "
+		        + "MIN(CASE WHEN c.uuid = :firstLineSwitchDateUuid THEN o.value_datetime END) AS art_switch_date, "
+		        + "MIN(CASE WHEN c.uuid = :secondLineSwitchDateUuid THEN o.value_datetime END) AS second_line_date "
+		        + "FROM ( " + "    SELECT fp.client_id, MIN(fp.encounter_datetime) AS hvl_date "
+		        + "    FROM ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up fp "
+		        + "    WHERE fp.viral_load_value >= :threshold "
+		        + "    AND fp.encounter_datetime BETWEEN :startDate AND :endDate " + "    GROUP BY fp.client_id "
+		        + ") hv "
+		        + "LEFT JOIN ssemr_etl.ssemr_flat_encounter_high_viral_load h ON h.client_id = hv.client_id "
+		        + "    AND DATE(h.encounter_datetime) >= DATE(hv.hvl_date) "
+		        + "LEFT JOIN (openmrs.obs o JOIN openmrs.concept c ON c.concept_id = o.concept_id "
+		        + "    AND c.uuid IN (:extendedEacDateUuid, :firstLineSwitchDateUuid, :secondLineSwitchDateUuid)) "
+		        + "    ON o.person_id = hv.client_id AND o.voided = 0 AND o.value_datetime >= DATE(hv.hvl_date) "
+		        + "WHERE NOT EXISTS (SELECT 1 FROM ssemr_etl.ssemr_flat_encounter_end_of_follow_up f "
+		        + "    WHERE f.client_id = hv.client_id AND (f.death = 'Yes' OR f.transfer_out = 'Yes') "
+		        + "    AND f.encounter_datetime <= :endDate) "
+		        + FilterUtility.toSqlPredicate(filterCategory, "hv.client_id") + "GROUP BY hv.client_id, hv.hvl_date";
+		
+		long queryStart = System.nanoTime();
+		try {
+			Query query = FilterUtility.bindSqlFilter(RequestProfiler.profile(entityManager.createNativeQuery(sql)),
+			    filterCategory, endDate)
+			        .setParameter("threshold", THRESHOLD).setParameter("extendedEacDateUuid", EXTENDED_EAC_DATE_UUID)
+			        .setParameter("firstLineSwitchDateUuid", ART_FIRST_LINE_SWITCH_DATE)
+			        .setParameter("secondLineSwitchDateUuid", ART_SECOND_LINE_SWITCH_DATE)
+			        .setParameter("startDate", startDate).setParameter("endDate", endDate);
+			
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = query.getResultList();
+			List<Date[]> clientStageDates = new ArrayList<>(rows.size());
+			for (Object[] row : rows) {
+				// Column 0 is the client id, which only serves to group the rows
+				Date[] stageDates = new Date[ViralLoadCascade.STAGES.size()];
+				for (int stage = 0; stage < stageDates.length; stage++) {
+					stageDates[stage] = (Date) row[stage + 1];
+				}
+				clientStageDates.add(stageDates);
+			}
+			MetricsRegistry.getInstance().recordCohortQuery("viralLoadCascade", System.nanoTime() - queryStart,
+			    clientStageDates.size());
+			return clientStageDates;
+		}
+		catch (Exception e) {
+			System.err.println("Error executing viral load cascade query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute viral load cascade query", e);
+		}
+	}
+}
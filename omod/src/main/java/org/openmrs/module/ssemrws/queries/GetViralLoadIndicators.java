@@ -0,0 +1,111 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.openmrs.module.ssemrws.constants.CohortCache;
+import org.openmrs.module.ssemrws.constants.ResultCache;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.constants.ViralLoadIndicators;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.List;
+
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
+
+/**
+ * Aggregates the viral load indicators of a period in one grouped query over the VL obs, so the cost
+ * does not depend on how many patients had a VL. A patient is covered with a VL result obs in the
+ * period, and suppressed when a result in the period was Below Detectable (BDL) or a VL value was
+ * below 1000 copies/ml. The indicators of a period are kept as long as a cohort of the
+ * {@link CohortCache} so the dashboard and chart variants of an indicator share one result.
+ */
+@Component
+public class GetViralLoadIndicators {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private final ResultCache<ViralLoadIndicators> indicatorsByPeriod;
+	
+	public GetViralLoadIndicators(CohortCache cohortCache) {
+		this.indicatorsByPeriod = new ResultCache<>("viralLoadIndicators", cohortCache);
+	}
+	
+	/**
+	 * @return The covered and suppressed patients between the start and end dates, by age band, sex
+	 *         and PBFW status. Callers must not modify the result.
+	 */
+	public ViralLoadIndicators getViralLoadIndicators(Date startDate, Date endDate) {
+		String period = startDate.getTime() + "|" + endDate.getTime();
+		return indicatorsByPeriod.get(period, () -> {
+			long queryStart = System.nanoTime();
+			ViralLoadIndicators indicators = executeIndicatorsQuery(startDate, endDate);
+			MetricsRegistry.getInstance().recordCohortQuery("viralLoadIndicators", System.nanoTime() - queryStart,
+			    indicators.getCovered());
+			return indicators;
+		});
+	}
+	
+	/**
+	 * Drops every cached result.
+	 */
+	public void clear() {
+		indicatorsByPeriod.clear();
+	}
+	
+	private ViralLoadIndicators executeIndicatorsQuery(Date startDate, Date endDate) {
+		// One row per patient with any VL obs in the period, then one row per age band, sex and PBFW group
+		String query = "SELECT " + buildAgeBandCase("pe.birthdate") + " AS age_band, "
+		        + "COALESCE(pe.gender, 'Unknown') AS sex, "
+		        + "CASE WHEN " + FilterUtility.toPbfwCondition("vl.person_id") + "THEN 1 ELSE 0 END AS pbfw, "
+		        + "COUNT(*) AS covered, SUM(vl.suppressed) AS suppressed "
+		        + "FROM ( "
+		        + "    SELECT o.person_id, "
+		        + "        MAX(CASE WHEN c.uuid = :vlResultsUuid THEN 1 ELSE 0 END) AS has_result, "
+		        + "        MAX(CASE WHEN (c.uuid = :vlResultsUuid "
+		        + "                AND (o.value_text = 'Below Detectable (BDL)' OR coded.uuid = :bdlUuid)) "
+		        + "            OR (c.uuid = :vlNumericUuid AND o.value_numeric < 1000) THEN 1 ELSE 0 END) AS suppressed "
+		        + "    FROM openmrs.obs o " + "    JOIN openmrs.concept c ON c.concept_id = o.concept_id "
+		        + "    LEFT JOIN openmrs.concept coded ON coded.concept_id = o.value_coded "
+		        + "    WHERE o.voided = 0 AND c.uuid IN (:vlResultsUuid, :vlNumericUuid) "
+		        + "    AND o.obs_datetime >= :startDate AND o.obs_datetime <= :endDate "
+		        + "    GROUP BY o.person_id " + ") vl "
+		        + "JOIN openmrs.patient p ON p.patient_id = vl.person_id AND p.voided = 0 "
+		        + "JOIN openmrs.person pe ON pe.person_id = vl.person_id " + "WHERE vl.has_result = 1 "
+		        + "GROUP BY age_band, sex, pbfw";
+		
+		ViralLoadIndicators indicators = new ViralLoadIndicators();
+		try {
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = FilterUtility
+			        .bindPbfwCondition(RequestProfiler.profile(entityManager.createNativeQuery(query)), endDate)
+			        .setParameter("vlResultsUuid", VIRAL_LOAD_RESULTS_UUID)
+			        .setParameter("vlNumericUuid", VIRAL_LOAD_CONCEPT_UUID).setParameter("bdlUuid", BDL_CONCEPT_UUID)
+			        .setParameter("startDate", startDate).setParameter("endDate", endDate).getResultList();
+			for (Object[] row : rows) {
+				indicators.addGroup((String) row[0], (String) row[1], ((Number) row[2]).intValue() == 1,
+				    ((Number) row[3]).intValue(), ((Number) row[4]).intValue());
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Error executing viral load indicators query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute viral load indicators query", e);
+		}
+		
+		return indicators;
+	}
+	
+	// Age in years at the end of the period, banded as in ViralLoadIndicators.AGE_BANDS
+	private static String buildAgeBandCase(String birthdateColumn) {
+		String age = "TIMESTAMPDIFF(YEAR, " + birthdateColumn + ", :endDate)";
+		return "CASE WHEN " + birthdateColumn + " IS NULL THEN 'Unknown' " + "WHEN " + age + " < 1 THEN '<1' "
+		        + "WHEN " + age + " < 5 THEN '1-4' " + "WHEN " + age + " < 10 THEN '5-9' " + "WHEN " + age
+		        + " < 15 THEN '10-14' " + "WHEN " + age + " < 20 THEN '15-19' " + "WHEN " + age + " < 25 THEN '20-24' "
+		        + "WHEN " + age + " < 30 THEN '25-29' " + "WHEN " + age + " < 35 THEN '30-34' " + "WHEN " + age
+		        + " < 40 THEN '35-39' " + "WHEN " + age + " < 45 THEN '40-44' " + "WHEN " + age + " < 50 THEN '45-49' "
+		        + "ELSE '50+' END";
+	}
+}
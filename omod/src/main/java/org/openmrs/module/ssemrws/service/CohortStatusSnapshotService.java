@@ -0,0 +1,267 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.queries.GetNextAppointmentDate;
+import org.openmrs.module.ssemrws.queries.GetPMTCT;
+import org.openmrs.module.ssemrws.queries.GetVLEligibility;
+import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.web.constants.GetTxCurr;
+import org.openmrs.module.ssemrws.web.constants.VlEligibilityResult;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
+
+/**
+ * Daily snapshot of the dashboard cohorts, stored in the {@code ssemrws_cohort_status} table with one
+ * row per patient and day. {@link #rebuild(Date)} is run nightly by
+ * {@link org.openmrs.module.ssemrws.task.CohortStatusSnapshotTask} and records, for the default
+ * dashboard window of that day (the first of the month up to the day), which cohorts each patient
+ * belonged to. The dashboard endpoints use {@link #covers(Date, Date)} to answer requests for a past
+ * day from the snapshot instead of recomputing the whole facility.
+ * <p>
+ * The IIT and missed appointment cohorts are not recorded: their queries compare appointments with
+ * the time they run rather than with the end of the range, so a nightly run would not reproduce what
+ * the day's requests saw. They are always computed live. For the same reason TxCurr is recorded
+ * before the IIT patients are removed, and they are removed live when it is read.
+ */
+@Service
+public class CohortStatusSnapshotService {
+	
+	private static final int INSERT_CHUNK_SIZE = 500;
+	
+	private static final String INSERT_COLUMNS = "INSERT INTO ssemrws_cohort_status (patient_id, status_date, tx_curr, "
+	        + "due_for_vl, high_vl, rtt, pmtct, transferred_out, died, art_start_date, next_appointment_date, "
+	        + "vl_eligibility_date, date_created) VALUES ";
+	
+	private static final int INSERT_COLUMN_COUNT = 13;
+	
+	/**
+	 * The cohorts recorded in the snapshot, each backed by a boolean column.
+	 */
+	public enum Cohort {
+		
+		/**
+		 * The patients active on treatment before the IIT patients are removed, which readers remove
+		 * with {@link GetTxCurr#removeInterruptedInTreatment}.
+		 */
+		TX_CURR("tx_curr"),
+		DUE_FOR_VL("due_for_vl"),
+		HIGH_VL("high_vl"),
+		RTT("rtt"),
+		PMTCT("pmtct"),
+		TRANSFERRED_OUT("transferred_out"),
+		DIED("died");
+		
+		private final String column;
+		
+		Cohort(String column) {
+			this.column = column;
+		}
+	}
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	// Days known to be recorded, so that covers() queries the table once per day rather than per request
+	private final Set<Date> recordedDays = ConcurrentHashMap.newKeySet();
+	
+	private final GetTxCurr getTxCurr;
+	
+	private final GetVLEligibility getVLEligibility;
+	
+	private final GetPMTCT getPMTCT;
+	
+	private final GetNextAppointmentDate getNextAppointmentDate;
+	
+	public CohortStatusSnapshotService(GetTxCurr getTxCurr, GetVLEligibility getVLEligibility, GetPMTCT getPMTCT,
+	    GetNextAppointmentDate getNextAppointmentDate) {
+		this.getTxCurr = getTxCurr;
+		this.getVLEligibility = getVLEligibility;
+		this.getPMTCT = getPMTCT;
+		this.getNextAppointmentDate = getNextAppointmentDate;
+	}
+	
+	/**
+	 * Recomputes every cohort for the given day and replaces that day's rows.
+	 * 
+	 * @param statusDate The day to record.
+	 * @return The number of patients recorded.
+	 */
+	@Transactional
+	public int rebuild(Date statusDate) {
+		Date endDate = startOfDay(statusDate);
+		Date startDate = startOfMonth(endDate);
+		
+		// Recorded before the IIT patients are removed, see Cohort.TX_CURR
+		Map<Integer, Date> txCurr = getTxCurr.getArtStartDatesBeforeIit(endDate);
+		
+		Set<Integer> highVl = toIds(getPatientsWithHighVL(startDate, endDate));
+		Set<Integer> rtt = toIds(getReturnToTreatmentPatients(startDate, endDate));
+		Set<Integer> pmtct = getPMTCT.getPMTCTClientIds(startDate, endDate);
+		Set<Integer> transferredOut = toIds(getTransferredOutClients(startDate, endDate));
+		Set<Integer> died = toIds(getDeceasedPatientsByDateRange(startDate, endDate));
+		
+		Map<Integer, VlEligibilityResult> vlEligibility = getVLEligibility.getFacilityEligibility(endDate);
+		Set<Integer> dueForVl = new HashSet<>();
+		for (Map.Entry<Integer, VlEligibilityResult> entry : vlEligibility.entrySet()) {
+			if (entry.getValue().isDueWithin(startDate, endDate)) {
+				dueForVl.add(entry.getKey());
+			}
+		}
+		
+		Set<Integer> patientIds = new TreeSet<>(txCurr.keySet());
+		patientIds.addAll(dueForVl);
+		patientIds.addAll(highVl);
+		patientIds.addAll(rtt);
+		patientIds.addAll(pmtct);
+		patientIds.addAll(transferredOut);
+		patientIds.addAll(died);
+		
+		Map<Integer, Date> nextAppointments = getNextAppointmentDate.getNextAppointmentDates(patientIds);
+		
+		entityManager.createNativeQuery("DELETE FROM ssemrws_cohort_status WHERE status_date = :statusDate")
+		        .setParameter("statusDate", endDate).executeUpdate();
+		
+		Date now = new Date();
+		List<Integer> ids = new ArrayList<>(patientIds);
+		for (int i = 0; i < ids.size(); i += INSERT_CHUNK_SIZE) {
+			List<Integer> batchIds = ids.subList(i, Math.min(i + INSERT_CHUNK_SIZE, ids.size()));
+			
+			StringBuilder sql = new StringBuilder(INSERT_COLUMNS);
+			for (int row = 0; row < batchIds.size(); row++) {
+				sql.append(row == 0 ? "(" : ", (");
+				for (int column = 1; column <= INSERT_COLUMN_COUNT; column++) {
+					sql.append(column == 1 ? "?" : ", ?").append(row * INSERT_COLUMN_COUNT + column);
+				}
+				sql.append(")");
+			}
+			
+			Query insert = entityManager.createNativeQuery(sql.toString());
+			int position = 1;
+			for (Integer patientId : batchIds) {
+				VlEligibilityResult eligibility = vlEligibility.get(patientId);
+				insert.setParameter(position++, patientId);
+				insert.setParameter(position++, endDate);
+				insert.setParameter(position++, txCurr.containsKey(patientId));
+				insert.setParameter(position++, dueForVl.contains(patientId));
+				insert.setParameter(position++, highVl.contains(patientId));
+				insert.setParameter(position++, rtt.contains(patientId));
+				insert.setParameter(position++, pmtct.contains(patientId));
+				insert.setParameter(position++, transferredOut.contains(patientId));
+				insert.setParameter(position++, died.contains(patientId));
+				insert.setParameter(position++, txCurr.get(patientId));
+				insert.setParameter(position++, nextAppointments.get(patientId));
+				insert.setParameter(position++, eligibility != null ? eligibility.getEligibilityDate() : null);
+				insert.setParameter(position++, now);
+			}
+			insert.executeUpdate();
+		}
+		
+		return ids.size();
+	}
+	
+	/**
+	 * Removes the snapshots recorded before the given day.
+	 */
+	@Transactional
+	public int purgeBefore(Date statusDate) {
+		Date cutoff = startOfDay(statusDate);
+		recordedDays.removeIf(day -> day.before(cutoff));
+		return entityManager.createNativeQuery("DELETE FROM ssemrws_cohort_status WHERE status_date < :statusDate")
+		        .setParameter("statusDate", cutoff).executeUpdate();
+	}
+	
+	/**
+	 * Whether a request for the given range can be answered from the snapshot: the range is the
+	 * default dashboard window of a past day and that day has been recorded. Requests for the current
+	 * day keep being computed live so they see today's encounters. A recorded day is remembered, so
+	 * only the first request for it reads the table.
+	 */
+	@Transactional(readOnly = true)
+	public boolean covers(Date startDate, Date endDate) {
+		if (startDate == null || endDate == null) {
+			return false;
+		}
+		
+		Date statusDate = startOfDay(endDate);
+		if (!statusDate.before(startOfDay(new Date())) || !startOfDay(startDate).equals(startOfMonth(statusDate))) {
+			return false;
+		}
+		
+		if (recordedDays.contains(statusDate)) {
+			return true;
+		}
+		
+		List<?> results = RequestProfiler.profile(entityManager
+		        .createNativeQuery("SELECT 1 FROM ssemrws_cohort_status WHERE status_date = :statusDate LIMIT 1"))
+		        .setParameter("statusDate", statusDate).getResultList();
+		if (results.isEmpty()) {
+			return false;
+		}
+		recordedDays.add(statusDate);
+		return true;
+	}
+	
+	/**
+	 * @return The ids of the patients recorded in the cohort on the given day, in ascending order.
+	 */
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(Date statusDate, Cohort cohort) {
+		return getPatientIds(statusDate, cohort, null);
+	}
+	
+	/**
+	 * @return The ids of the patients of the filter category recorded in the cohort on the given day,
+	 *         in ascending order.
+	 */
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(Date statusDate, Cohort cohort,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		Query query = RequestProfiler.profile(entityManager.createNativeQuery(
+		    "SELECT s.patient_id FROM ssemrws_cohort_status s WHERE s.status_date = :statusDate AND s." + cohort.column
+		            + " = TRUE " + FilterUtility.toSqlPredicate(filterCategory, "s.patient_id")
+		            + "ORDER BY s.patient_id ASC"));
+		List<Number> results = FilterUtility.bindSqlFilter(query, filterCategory, statusDate)
+		        .setParameter("statusDate", startOfDay(statusDate)).getResultList();
+		
+		List<Integer> patientIds = new ArrayList<>(results.size());
+		for (Number patientId : results) {
+			patientIds.add(patientId.intValue());
+		}
+		return patientIds;
+	}
+	
+	private static Set<Integer> toIds(Collection<Patient> patients) {
+		Set<Integer> ids = new HashSet<>();
+		for (Patient patient : patients) {
+			ids.add(patient.getPatientId());
+		}
+		return ids;
+	}
+	
+	private static Date startOfDay(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+	
+	private static Date startOfMonth(Date date) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(startOfDay(date));
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTime();
+	}
+}
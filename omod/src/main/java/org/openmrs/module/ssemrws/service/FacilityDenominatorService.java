@@ -0,0 +1,66 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.openmrs.module.ssemrws.constants.CohortCache;
+import org.openmrs.module.ssemrws.constants.ResultCache;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.function.Supplier;
+
+/**
+ * Facility level denominators of the dashboard charts, counted in the database instead of loading
+ * every patient. A count is cached until patient, encounter or obs data changes through the OpenMRS
+ * API (see {@link org.openmrs.module.ssemrws.advice.DenominatorInvalidationAdvice}), and at most for
+ * the time to live of the {@link CohortCache} since the ETL tables are refreshed outside the API.
+ */
+@Service
+public class FacilityDenominatorService {
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private final ResultCache<Integer> counts;
+	
+	public FacilityDenominatorService(CohortCache cohortCache) {
+		this.counts = new ResultCache<>("denominator", cohortCache);
+	}
+	
+	/**
+	 * @return The number of patients that are not voided, as in
+	 *         {@code Context.getPatientService().getAllPatients().size()}.
+	 */
+	@Transactional(readOnly = true)
+	public int getTotalPatients() {
+		return getCount("totalPatients", () -> executeCount("SELECT COUNT(*) FROM openmrs.patient p WHERE p.voided = 0"));
+	}
+	
+	/**
+	 * Drops every cached count.
+	 */
+	public void clear() {
+		counts.clear();
+	}
+	
+	private int getCount(String key, Supplier<Integer> counter) {
+		return counts.get(key, () -> {
+			long countStart = System.nanoTime();
+			int count = counter.get();
+			MetricsRegistry.getInstance().recordCohortQuery("denominator:" + key, System.nanoTime() - countStart, count);
+			return count;
+		});
+	}
+	
+	private int executeCount(String sql) {
+		try {
+			return ((Number) RequestProfiler.profile(entityManager.createNativeQuery(sql)).getSingleResult()).intValue();
+		}
+		catch (Exception e) {
+			System.err.println("Error executing denominator query: " + e.getMessage());
+			throw new RuntimeException("Failed to execute denominator query", e);
+		}
+	}
+}
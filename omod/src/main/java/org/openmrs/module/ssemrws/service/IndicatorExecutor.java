@@ -0,0 +1,150 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Computes independent indicators of one response concurrently, so that an endpoint made of several
+ * cohorts, such as the waterfall analysis, takes as long as its slowest cohort instead of their sum.
+ * <p>
+ * Indicators run on a pool of {@value #POOL_SIZE} module-owned threads, each in its own OpenMRS
+ * session carrying the user context, and so the privileges, of the thread that submitted it. The
+ * session is closed and the user context unset when the indicator is done. When
+ * {@value #QUEUE_CAPACITY} indicators are already waiting, or when an indicator submits another one,
+ * the indicator runs in the submitting thread instead, so the pool can neither reject work nor
+ * deadlock on itself.
+ * <p>
+ * The indicators of a request share the UserContext of the submitting thread rather than a copy, as
+ * concurrent requests of one HTTP session already do. This is safe because indicators only read it:
+ * they check privileges and read the user and locale, but never log in or out, change the locale or
+ * location, or add proxy privileges, and must not start doing so. Nothing else in the module changes
+ * a user context once it has been handed to an indicator. A user logging out while a report job runs
+ * makes its remaining queries fail their privilege checks, which is what the logout asks for.
+ * 
+ * <pre>
+ * Future&lt;Integer&gt; txNew = indicatorExecutor.submit(() -&gt; getNewlyEnrolledPatients(startDate, endDate).size());
+ * Future&lt;Integer&gt; iit = indicatorExecutor.submit(() -&gt; getIit(startDate, endDate).size());
+ * Future&lt;?&gt;[] indicators = { txNew, iit };
+ * int total = IndicatorExecutor.getResult(txNew, indicators) + IndicatorExecutor.getResult(iit, indicators);
+ * </pre>
+ * 
+ * Indicators should return counts or other plain values rather than entities, which are detached
+ * once their session is closed.
+ */
+@Service
+public class IndicatorExecutor implements DisposableBean {
+	
+	public static final int POOL_SIZE = 4;
+	
+	public static final int QUEUE_CAPACITY = 32;
+	
+	// Set on the pool's threads, whose indicators run any indicator they submit themselves
+	private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<>();
+	
+	private final ThreadPoolExecutor executor;
+	
+	public IndicatorExecutor() {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+		        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+			        Thread thread = new Thread(() -> {
+				        WORKER.set(Boolean.TRUE);
+				        runnable.run();
+			        }, "ssemrws-indicator-" + threadCount.incrementAndGet());
+			        thread.setDaemon(true);
+			        return thread;
+		        }, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Starts computing an indicator in a session of the current user.
+	 * 
+	 * @return The pending indicator, see {@link #getResult(Future)}.
+	 */
+	public <T> Future<T> submit(Supplier<T> computation) {
+		if (WORKER.get() != null) {
+			FutureTask<T> task = new FutureTask<>(computation::get);
+			task.run();
+			return task;
+		}
+		return executor.submit(inCallerSession(computation));
+	}
+	
+	/**
+	 * Waits for an indicator. A failure of the indicator is rethrown as it was thrown, or wrapped in a
+	 * RuntimeException when it was checked. When the indicator fails or the wait is interrupted, the
+	 * indicator and its siblings are cancelled, so that the other indicators of a response that can no
+	 * longer be built stop holding a pool thread and a database connection.
+	 * 
+	 * @param siblings The other indicators of the same response. The indicator itself may be among
+	 *            them, and indicators that are done are left as they are.
+	 */
+	public static <T> T getResult(Future<T> indicator, Future<?>... siblings) {
+		try {
+			return indicator.get();
+		}
+		catch (ExecutionException e) {
+			cancel(siblings);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Failed to compute indicator", e.getCause());
+		}
+		catch (InterruptedException e) {
+			indicator.cancel(true);
+			cancel(siblings);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing indicator", e);
+		}
+	}
+	
+	private static void cancel(Future<?>... indicators) {
+		for (Future<?> indicator : indicators) {
+			indicator.cancel(true);
+		}
+	}
+	
+	/**
+	 * Wraps a computation to run in a new OpenMRS session with the user context of the calling thread,
+	 * closing the session and unsetting the user context when it is done, so that the pool thread
+	 * keeps neither for its next indicator. Run in the calling thread itself, the computation simply
+	 * uses the current session.
+	 */
+	public static <T> Callable<T> inCallerSession(Supplier<T> computation) {
+		Thread caller = Thread.currentThread();
+		UserContext userContext = Context.getUserContext();
+		return () -> {
+			if (Thread.currentThread() == caller) {
+				return computation.get();
+			}
+			
+			Context.openSession();
+			try {
+				Context.setUserContext(userContext);
+				return computation.get();
+			}
+			finally {
+				Context.clearUserContext();
+				Context.closeSession();
+			}
+		};
+	}
+	
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
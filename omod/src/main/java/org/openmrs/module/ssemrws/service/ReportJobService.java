@@ -0,0 +1,355 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.context.Context;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs heavy aggregate reports such as the viral load cascade in the background, so that the request
+ * submitting one returns a job id at once instead of holding a servlet thread until the report is
+ * done. Jobs run on a pool of {@value #POOL_SIZE} module-owned threads with at most
+ * {@value #QUEUE_CAPACITY} jobs waiting, each in an OpenMRS session of the user who submitted it
+ * (see {@link IndicatorExecutor#inCallerSession(Supplier)}).
+ * <p>
+ * A job is identified by the report and its parameters: submitting a report that is already queued,
+ * running or completed returns the existing job. Finished jobs and their results are kept for
+ * {@value #RESULT_TTL_SECONDS_PROPERTY} seconds, and the synchronous endpoints serve a completed
+ * result through {@link #getCompletedResult(String)} while it is kept.
+ * <p>
+ * Jobs are therefore shared by every user requesting the same report: any user who knows a job id
+ * can poll it, like any user can call the synchronous endpoint. The job records who submitted it so
+ * that cancelling, which affects everyone waiting on it, can be restricted.
+ */
+@Service
+public class ReportJobService implements DisposableBean {
+	
+	public static final String RESULT_TTL_SECONDS_PROPERTY = "ssemrws.reportJobs.resultTtlSeconds";
+	
+	public static final int POOL_SIZE = 2;
+	
+	public static final int QUEUE_CAPACITY = 20;
+	
+	private static final long DEFAULT_RESULT_TTL_SECONDS = 900;
+	
+	private static final int MAX_FINISHED_JOBS = 100;
+	
+	/**
+	 * The states of a job. COMPLETED, FAILED and CANCELLED are final.
+	 */
+	public enum Status {
+		QUEUED,
+		RUNNING,
+		COMPLETED,
+		FAILED,
+		CANCELLED;
+		
+		public boolean isFinished() {
+			return this == COMPLETED || this == FAILED || this == CANCELLED;
+		}
+	}
+	
+	/**
+	 * A submitted report and, once it completes, its result.
+	 */
+	public static class Job {
+		
+		private final String id;
+		
+		private final String report;
+		
+		private final Integer submittedBy;
+		
+		private final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+		
+		private final long submittedAt;
+		
+		private volatile long startedAt;
+		
+		private volatile Future<?> future;
+		
+		Job(String report, Integer submittedBy) {
+			this.id = UUID.randomUUID().toString();
+			this.report = report;
+			this.submittedBy = submittedBy;
+			this.submittedAt = System.currentTimeMillis();
+		}
+		
+		public String getId() {
+			return id;
+		}
+		
+		public String getReport() {
+			return report;
+		}
+		
+		/**
+		 * @return The id of the user who submitted the job, or null when it was submitted without one.
+		 */
+		public Integer getSubmittedBy() {
+			return submittedBy;
+		}
+		
+		public Status getStatus() {
+			return state.get().status;
+		}
+		
+		/**
+		 * @return The report, or null until the job has completed.
+		 */
+		public Object getResult() {
+			return state.get().result;
+		}
+		
+		// Moves a queued job to RUNNING
+		boolean start() {
+			return state.compareAndSet(State.QUEUED, State.RUNNING);
+		}
+		
+		// Moves the job to a final state unless it already reached one
+		boolean finish(Status finalStatus, Object result, String error) {
+			State finished = new State(finalStatus, result, error, System.currentTimeMillis());
+			State current = state.get();
+			while (!current.status.isFinished()) {
+				if (state.compareAndSet(current, finished)) {
+					return true;
+				}
+				current = state.get();
+			}
+			return false;
+		}
+		
+		boolean isExpired(long now, long ttlMs) {
+			State current = state.get();
+			return current.status.isFinished() && now >= current.finishedAt + ttlMs;
+		}
+		
+		/**
+		 * @return The state of the job, with the result once it has completed.
+		 */
+		public Map<String, Object> toMap(long resultTtlMs) {
+			SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+			State current = state.get();
+			long started = startedAt;
+			
+			Map<String, Object> jobObj = new LinkedHashMap<>();
+			jobObj.put("jobId", id);
+			jobObj.put("report", report);
+			jobObj.put("status", current.status.name());
+			jobObj.put("submittedAt", timeFormatter.format(new Date(submittedAt)));
+			jobObj.put("startedAt", started > 0 ? timeFormatter.format(new Date(started)) : null);
+			jobObj.put("finishedAt",
+			    current.status.isFinished() ? timeFormatter.format(new Date(current.finishedAt)) : null);
+			if (current.status.isFinished()) {
+				jobObj.put("expiresAt", timeFormatter.format(new Date(current.finishedAt + resultTtlMs)));
+			}
+			if (current.status == Status.FAILED) {
+				jobObj.put("error", current.error);
+			}
+			if (current.status == Status.COMPLETED) {
+				jobObj.put("result", current.result);
+			}
+			return jobObj;
+		}
+	}
+	
+	/**
+	 * The status of a job together with its outcome. A job moves from one state to the next by
+	 * replacing the whole state, so a reader that sees a final status also sees its result, error and
+	 * finish time.
+	 */
+	private static final class State {
+		
+		static final State QUEUED = new State(Status.QUEUED, null, null, 0);
+		
+		static final State RUNNING = new State(Status.RUNNING, null, null, 0);
+		
+		final Status status;
+		
+		final Object result;
+		
+		final String error;
+		
+		final long finishedAt;
+		
+		State(Status status, Object result, String error, long finishedAt) {
+			this.status = status;
+			this.result = result;
+			this.error = error;
+			this.finishedAt = finishedAt;
+		}
+	}
+	
+	private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+	
+	private final ConcurrentHashMap<String, Job> jobsByKey = new ConcurrentHashMap<>();
+	
+	private final ThreadPoolExecutor executor;
+	
+	public ReportJobService() {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+		        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+			        Thread thread = new Thread(runnable, "ssemrws-report-job-" + threadCount.incrementAndGet());
+			        thread.setDaemon(true);
+			        return thread;
+		        });
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * @return The key identifying a report for the given parameters, e.g.
+	 *         viralLoadCascade|2025-01-01|2025-03-31|CHILDREN_ADOLESCENTS. Null parameters are left
+	 *         empty.
+	 */
+	public static String buildKey(String report, Date startDate, Date endDate, Object... options) {
+		SimpleDateFormat dayFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		StringBuilder key = new StringBuilder(report).append('|')
+		        .append(startDate != null ? dayFormatter.format(startDate) : "").append('|')
+		        .append(endDate != null ? dayFormatter.format(endDate) : "");
+		for (Object option : options) {
+			key.append('|').append(option != null ? option : "");
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Queues a report, or returns the job already computing or holding it.
+	 * 
+	 * @param report The name of the report, e.g. the endpoint serving it synchronously.
+	 * @param key The key of the report and its parameters, see {@link #buildKey}.
+	 * @param computation Computes the report. It runs in a session of the current user.
+	 * @throws RejectedExecutionException When {@value #QUEUE_CAPACITY} jobs are already waiting.
+	 */
+	public Job submit(String report, String key, Supplier<Object> computation) {
+		purgeExpired();
+		
+		synchronized (jobsByKey) {
+			Job existing = jobsByKey.get(key);
+			if (existing != null && existing.getStatus() != Status.FAILED && existing.getStatus() != Status.CANCELLED) {
+				return existing;
+			}
+			
+			Job job = new Job(report, Context.isAuthenticated() ? Context.getAuthenticatedUser().getUserId() : null);
+			Callable<Object> reportTask = IndicatorExecutor.inCallerSession(computation);
+			job.future = executor.submit(() -> run(job, reportTask));
+			jobs.put(job.id, job);
+			jobsByKey.put(key, job);
+			return job;
+		}
+	}
+	
+	/**
+	 * @return The job with the given id, or null when it is unknown or has expired.
+	 */
+	public Job getJob(String jobId) {
+		purgeExpired();
+		return StringUtils.isBlank(jobId) ? null : jobs.get(jobId.trim());
+	}
+	
+	/**
+	 * @return The result of the completed job for the given key, or null when there is none.
+	 */
+	public Object getCompletedResult(String key) {
+		Job job = jobsByKey.get(key);
+		if (job == null || job.getStatus() != Status.COMPLETED
+		        || job.isExpired(System.currentTimeMillis(), getResultTtlMs())) {
+			return null;
+		}
+		return job.getResult();
+	}
+	
+	/**
+	 * Cancels a queued or running job. A running report is interrupted and its result discarded.
+	 * 
+	 * @return true when the job was cancelled, false when it had already finished.
+	 */
+	public boolean cancel(Job job) {
+		if (!job.finish(Status.CANCELLED, null, null)) {
+			return false;
+		}
+		Future<?> future = job.future;
+		if (future != null) {
+			future.cancel(true);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return How long, in milliseconds, a finished job and its result are kept.
+	 */
+	public long getResultTtlMs() {
+		String value = Context.getAdministrationService().getGlobalProperty(RESULT_TTL_SECONDS_PROPERTY);
+		if (StringUtils.isBlank(value)) {
+			return DEFAULT_RESULT_TTL_SECONDS * 1000;
+		}
+		try {
+			return Long.parseLong(value.trim()) * 1000;
+		}
+		catch (NumberFormatException e) {
+			System.err.println("Invalid value for global property " + RESULT_TTL_SECONDS_PROPERTY + ": " + value);
+			return DEFAULT_RESULT_TTL_SECONDS * 1000;
+		}
+	}
+	
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+	
+	private static void run(Job job, Callable<Object> report) {
+		if (!job.start()) {
+			return;
+		}
+		job.startedAt = System.currentTimeMillis();
+		
+		try {
+			job.finish(Status.COMPLETED, report.call(), null);
+		}
+		catch (Exception e) {
+			System.err.println("Error running report job " + job.report + ": " + e.getMessage());
+			job.finish(Status.FAILED, null, e.getMessage());
+		}
+	}
+	
+	// Removes expired jobs, then the oldest finished ones beyond the limit
+	private void purgeExpired() {
+		long now = System.currentTimeMillis();
+		long ttlMs = getResultTtlMs();
+		synchronized (jobsByKey) {
+			jobs.values().removeIf(job -> job.isExpired(now, ttlMs));
+			
+			long finished = jobs.values().stream().filter(job -> job.getStatus().isFinished()).count();
+			while (finished > MAX_FINISHED_JOBS) {
+				Job oldest = null;
+				for (Job job : jobs.values()) {
+					if (job.getStatus().isFinished()
+					        && (oldest == null || job.state.get().finishedAt < oldest.state.get().finishedAt)) {
+						oldest = job;
+					}
+				}
+				if (oldest == null || jobs.remove(oldest.id) == null) {
+					break;
+				}
+				finished--;
+			}
+			jobsByKey.values().removeIf(job -> !jobs.containsKey(job.id));
+		}
+	}
+}
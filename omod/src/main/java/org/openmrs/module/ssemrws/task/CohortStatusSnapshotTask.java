@@ -0,0 +1,50 @@
+package org.openmrs.module.ssemrws.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.service.CohortStatusSnapshotService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Scheduled nightly (see the module liquibase.xml) to record the previous day's cohort status
+ * snapshot and to drop snapshots older than {@value #RETENTION_DAYS} days.
+ */
+public class CohortStatusSnapshotTask extends AbstractTask {
+	
+	private static final int RETENTION_DAYS = 400;
+	
+	private final Log log = LogFactory.getLog(this.getClass());
+	
+	@Override
+	public void execute() {
+		if (isExecuting) {
+			return;
+		}
+		
+		startExecuting();
+		try {
+			CohortStatusSnapshotService snapshotService = Context
+			        .getRegisteredComponents(CohortStatusSnapshotService.class).get(0);
+			
+			Calendar calendar = Calendar.getInstance();
+			calendar.add(Calendar.DAY_OF_MONTH, -1);
+			Date statusDate = calendar.getTime();
+			
+			int recorded = snapshotService.rebuild(statusDate);
+			log.info("Recorded cohort status of " + recorded + " patients for " + statusDate);
+			
+			calendar.add(Calendar.DAY_OF_MONTH, -RETENTION_DAYS);
+			snapshotService.purgeBefore(calendar.getTime());
+		}
+		catch (Exception e) {
+			log.error("Failed to record the cohort status snapshot", e);
+		}
+		finally {
+			stopExecuting();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.openmrs.module.ssemrws.web.constants;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.openmrs.module.ssemrws.web.constants.FetchPatientsByIdentifier.fetchPatientsInOrder;
+
+/**
+ * Streams the whole line list of a cohort to the response as CSV or newline delimited JSON (NDJSON),
+ * with the fields of {@link GeneratePatientObject#LINE_LIST_FIELDS}. Patients are loaded and enriched
+ * {@value #CHUNK_SIZE} at a time and the session is cleared after every chunk, so only the patient
+ * ids of the cohort are held for the whole export and memory stays flat at any cohort size.
+ */
+@Component
+public class CohortExporter {
+	
+	public static final int CHUNK_SIZE = 500;
+	
+	// The first characters that make a spreadsheet read a cell as a formula
+	private static final String FORMULA_PREFIXES = "=+-@\t\r";
+	
+	/**
+	 * The formats a cohort can be exported in.
+	 */
+	public enum Format {
+		
+		CSV("text/csv;charset=UTF-8", "csv"),
+		NDJSON("application/x-ndjson;charset=UTF-8", "ndjson");
+		
+		private final String contentType;
+		
+		private final String extension;
+		
+		Format(String contentType, String extension) {
+			this.contentType = contentType;
+			this.extension = extension;
+		}
+		
+		/**
+		 * @return The format named by a request parameter, ignoring case, or null when there is none.
+		 */
+		public static Format fromParameter(String value) {
+			for (Format format : values()) {
+				if (format.name().equalsIgnoreCase(value)) {
+					return format;
+				}
+			}
+			return null;
+		}
+	}
+	
+	private final GeneratePatientListObject generatePatientListObject;
+	
+	public CohortExporter(GeneratePatientListObject generatePatientListObject) {
+		this.generatePatientListObject = generatePatientListObject;
+	}
+	
+	/**
+	 * Writes a row for every patient of the cohort, in the order of the ids, as an attachment named
+	 * after the given file name.
+	 * 
+	 * @param patientIds The ids of the cohort, e.g. from the {@link org.openmrs.module.ssemrws.constants.CohortCache}.
+	 * @param fileName The name of the attachment, without the extension.
+	 */
+	public void export(int[] patientIds, String fileName, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, Format format, HttpServletResponse response) {
+		response.setContentType(format.contentType);
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "." + format.extension + "\"");
+		
+		// Computing the cohort may have loaded all of its patients into the session
+		Context.clearSession();
+		
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+			if (format == Format.CSV) {
+				writeCsvLine(writer, GeneratePatientObject.LINE_LIST_FIELDS);
+			}
+			
+			for (int fromIndex = 0; fromIndex < patientIds.length; fromIndex += CHUNK_SIZE) {
+				int toIndex = Math.min(fromIndex + CHUNK_SIZE, patientIds.length);
+				List<Integer> chunkIds = new ArrayList<>(toIndex - fromIndex);
+				for (int i = fromIndex; i < toIndex; i++) {
+					chunkIds.add(patientIds[i]);
+				}
+				
+				try (RequestProfiler.Span ignored = RequestProfiler.span("export:chunk").setRows(chunkIds.size())) {
+					generatePatientListObject.forEachPatientObj(fetchPatientsInOrder(chunkIds), startDate, endDate,
+					    filterCategory, (patient, patientObj) -> {
+						    if (format == Format.CSV) {
+							    writeCsvLine(writer, toCsvValues(patientObj));
+						    } else {
+							    StreamingJsonResponse.writeLine(writer, patientObj);
+						    }
+					    });
+				}
+				writer.flush();
+				
+				// Lets the patients, obs and encounters of the chunk be garbage collected
+				Context.clearSession();
+			}
+			writer.flush();
+		}
+		catch (IOException e) {
+			System.err.println("Error writing cohort export: " + e.getMessage());
+			throw new RuntimeException("Failed to write cohort export", e);
+		}
+	}
+	
+	private static List<String> toCsvValues(ObjectNode patientObj) {
+		List<String> values = new ArrayList<>(GeneratePatientObject.LINE_LIST_FIELDS.size());
+		for (String field : GeneratePatientObject.LINE_LIST_FIELDS) {
+			JsonNode value = patientObj.get(field);
+			if (value == null || value.isNull()) {
+				values.add("");
+			} else if (value.isArray()) {
+				// Identifiers, written as "type: identifier" pairs in one cell
+				StringBuilder identifiers = new StringBuilder();
+				for (JsonNode identifier : value) {
+					if (identifiers.length() > 0) {
+						identifiers.append("; ");
+					}
+					identifiers.append(identifier.path("identifierType").asText()).append(": ")
+					        .append(identifier.path("identifier").asText());
+				}
+				values.add(identifiers.toString());
+			} else {
+				values.add(value.asText());
+			}
+		}
+		return values;
+	}
+	
+	// Quotes the values that need it as in RFC 4180, and prefixes the values a spreadsheet would
+	// evaluate as a formula, e.g. a name entered as =HYPERLINK(...), with a quote so they show as text
+	private static void writeCsvLine(Writer writer, List<String> values) throws IOException {
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			String value = values.get(i);
+			if (!value.isEmpty() && FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0) {
+				value = "'" + value;
+			}
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+			        || value.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(value.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(value);
+			}
+		}
+		writer.write("\r\n");
+	}
+}
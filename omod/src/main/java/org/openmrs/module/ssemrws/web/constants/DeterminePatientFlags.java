@@ -2,18 +2,22 @@ package org.openmrs.module.ssemrws.web.constants;
 
 import ca.uhn.hl7v2.model.v23.datatype.ST;
 import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.module.ssemrws.constants.ObsPrefetcher;
 import org.openmrs.module.ssemrws.constants.SharedConstants;
-import org.openmrs.module.ssemrws.queries.GetDueForVL;
 import org.openmrs.module.ssemrws.queries.GetInterruptedInTreatment;
 import org.openmrs.module.ssemrws.queries.GetMissedAppointments;
+import org.openmrs.module.ssemrws.queries.GetVLEligibility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.openmrs.module.ssemrws.queries.GetPMTCT;
-import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.DATE_OF_ENROLLMENT_UUID;
 
 @Component
 public class DeterminePatientFlags {
@@ -24,90 +28,128 @@ public class DeterminePatientFlags {
 	
 	private final GetMissedAppointments getMissedAppointments;
 	
-	private final GetDueForVL getDueForVl;
+	private final GetVLEligibility getVLEligibility;
 	
 	private final GetTxCurr getTxCurr;
 	
 	private final GetPMTCT getPMTCT;
 	
+	private final ObsPrefetcher obsPrefetcher;
+	
 	public DeterminePatientFlags(GetInterruptedInTreatment getInterruptedInTreatment,
-	    GetMissedAppointments getMissedAppointments, GetDueForVL getDueForVl, GetTxCurr getTxCurr, GetPMTCT getPMTCT) {
+	    GetMissedAppointments getMissedAppointments, GetVLEligibility getVLEligibility, GetTxCurr getTxCurr,
+	    GetPMTCT getPMTCT, ObsPrefetcher obsPrefetcher) {
 		this.getInterruptedInTreatment = getInterruptedInTreatment;
 		this.getMissedAppointments = getMissedAppointments;
-		this.getDueForVl = getDueForVl;
+		this.getVLEligibility = getVLEligibility;
 		this.getTxCurr = getTxCurr;
 		this.getPMTCT = getPMTCT;
+		this.obsPrefetcher = obsPrefetcher;
 	}
 	
 	public List<SharedConstants.Flags> determinePatientFlags(Patient patient, Date startDate, Date endDate) {
-		List<SharedConstants.Flags> flags = new ArrayList<>();
-		
-		List<GetTxNew.PatientEnrollmentData> activeClients = getTxCurr.getTxCurrPatients(startDate, endDate);
-		for (GetTxNew.PatientEnrollmentData activeClient : activeClients) {
-			if (activeClient.getPatient().getId().equals(patient.getId())) {
-				flags.add(SharedConstants.Flags.ACTIVE);
-				break;
-			}
-		}
-		
-		HashSet<Patient> deceasedPatients = getDeceasedPatientsByDateRange(startDate, endDate);
-		if (deceasedPatients.contains(patient)) {
-			flags.add(SharedConstants.Flags.DIED);
-		}
-		
-		HashSet<Patient> transferredOutPatients = getTransferredOutClients(startDate, endDate);
-		if (transferredOutPatients.contains(patient)) {
-			flags.add(SharedConstants.Flags.TRANSFERRED_OUT);
-		}
-		
-		HashSet<Patient> interruptedInTreatment = getInterruptedInTreatment.getIit(startDate, endDate);
-		if (interruptedInTreatment.contains(patient)) {
-			flags.add(SharedConstants.Flags.IIT);
-		}
-		
-		HashSet<Patient> missedAppointment = getMissedAppointments.getMissedAppointment(startDate, endDate);
-		if (missedAppointment.contains(patient)) {
-			flags.add(SharedConstants.Flags.MISSED_APPOINTMENT);
-		}
-		
-		HashSet<Patient> dueForVlClients = getDueForVl.getDueForVl(startDate, endDate);
-		if (dueForVlClients.contains(patient)) {
-			flags.add(SharedConstants.Flags.DUE_FOR_VL);
+		return determinePatientFlags(Collections.singletonList(patient), startDate, endDate).get(patient.getPatientId());
+	}
+	
+	/**
+	 * Determines the flags of the given patients. Every flag rule is evaluated only for these patients,
+	 * so the cost grows with the number of patients asked about rather than with the size of the
+	 * facility cohorts.
+	 * 
+	 * @return The flags per patient id, in the same order for every patient.
+	 */
+	public Map<Integer, List<SharedConstants.Flags>> determinePatientFlags(List<Patient> patients, Date startDate,
+	        Date endDate) {
+		List<Integer> patientIds = new ArrayList<>();
+		List<Person> persons = new ArrayList<>();
+		for (Patient patient : patients) {
+			patientIds.add(patient.getPatientId());
+			persons.add(patient.getPerson());
 		}
 		
-		boolean highVL = determineIfPatientIsHighVl(patient);
-		if (highVL) {
-			flags.add(SharedConstants.Flags.HIGH_VL);
-		}
+		Set<Integer> activeClients = getTxCurr.getTxCurrPatientIds(startDate, endDate, patientIds);
+		Set<Integer> deceasedPatients = getDeceasedPatientIds(persons, endDate);
+		Set<Integer> transferredOutPatients = getTransferredOutPatientIds(persons, endDate);
+		Set<Integer> interruptedInTreatment = getInterruptedInTreatment.getIitIds(startDate, endDate, patientIds);
+		Set<Integer> missedAppointment = getMissedAppointments.getMissedAppointmentIds(startDate, endDate, patientIds);
+		Set<Integer> highVl = getHighVlPatientIds(persons);
+		Set<Integer> rtt = getRTTPatientIds(persons);
+		Set<Integer> pmtct = getPMTCT.getPMTCTClientIds(startDate, endDate, patientIds);
 		
-		boolean rtt = determineIfPatientIsRTT(patient);
-		if (rtt) {
-			flags.add(SharedConstants.Flags.RTT);
+		Set<Integer> dueForVlClients = new HashSet<>();
+		for (Map.Entry<Integer, VlEligibilityResult> entry : getVLEligibility.getFacilityEligibility(endDate, patientIds)
+		        .entrySet()) {
+			if (entry.getValue().isDueWithin(startDate, endDate)) {
+				dueForVlClients.add(entry.getKey());
+			}
 		}
 		
-		String pmtct = getPMTCT.getPMTCTClient(patient, startDate, endDate);
-		if (pmtct != null && !pmtct.isEmpty()) {
-			flags.add(SharedConstants.Flags.PMTCT);
+		Map<Integer, List<SharedConstants.Flags>> patientFlags = new LinkedHashMap<>();
+		try (ObsPrefetcher.Prefetch ignored = obsPrefetcher.prefetch(patientIds,
+		    Collections.singletonList(DATE_OF_ENROLLMENT_UUID))) {
+			for (Patient patient : patients) {
+				Integer patientId = patient.getPatientId();
+				List<SharedConstants.Flags> flags = new ArrayList<>();
+				
+				if (activeClients.contains(patientId)) {
+					flags.add(SharedConstants.Flags.ACTIVE);
+				}
+				
+				if (deceasedPatients.contains(patientId)) {
+					flags.add(SharedConstants.Flags.DIED);
+				}
+				
+				if (transferredOutPatients.contains(patientId)) {
+					flags.add(SharedConstants.Flags.TRANSFERRED_OUT);
+				}
+				
+				if (interruptedInTreatment.contains(patientId)) {
+					flags.add(SharedConstants.Flags.IIT);
+				}
+				
+				if (missedAppointment.contains(patientId)) {
+					flags.add(SharedConstants.Flags.MISSED_APPOINTMENT);
+				}
+				
+				if (dueForVlClients.contains(patientId)) {
+					flags.add(SharedConstants.Flags.DUE_FOR_VL);
+				}
+				
+				if (highVl.contains(patientId)) {
+					flags.add(SharedConstants.Flags.HIGH_VL);
+				}
+				
+				if (rtt.contains(patientId)) {
+					flags.add(SharedConstants.Flags.RTT);
+				}
+				
+				if (pmtct.contains(patientId)) {
+					flags.add(SharedConstants.Flags.PMTCT);
+				}
+				
+				if (isNewClient(patient)) {
+					flags.add(SharedConstants.Flags.NEW_CLIENT);
+				}
+				
+				patientFlags.put(patientId, flags);
+			}
 		}
 		
+		return patientFlags;
+	}
+	
+	private boolean isNewClient(Patient patient) {
 		String enrollmentDateStr = getEnrolmentDate(patient);
 		if (!enrollmentDateStr.isEmpty()) {
 			try {
-				Date enrollmentDate = dateTimeFormatter.parse(enrollmentDateStr);
-				Calendar enrollmentCal = Calendar.getInstance();
-				enrollmentCal.setTime(enrollmentDate);
-				
-				Calendar now = Calendar.getInstance();
-				if (enrollmentCal.get(Calendar.YEAR) == now.get(Calendar.YEAR)
-				        && enrollmentCal.get(Calendar.MONTH) == now.get(Calendar.MONTH)) {
-					flags.add(SharedConstants.Flags.NEW_CLIENT);
-				}
+				LocalDate enrollmentDate = LocalDate.parse(enrollmentDateStr, dateTimeFormatter);
+				LocalDate now = LocalDate.now();
+				return enrollmentDate.getYear() == now.getYear() && enrollmentDate.getMonth() == now.getMonth();
 			}
-			catch (ParseException e) {
+			catch (DateTimeParseException e) {
 				logger.error("Error parsing enrollment date for patient id: {}", patient.getId(), e);
 			}
 		}
-		
-		return flags;
+		return false;
 	}
 }
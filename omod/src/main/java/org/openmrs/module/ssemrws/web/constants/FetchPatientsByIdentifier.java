@@ -1,26 +1,52 @@
 package org.openmrs.module.ssemrws.web.constants;
 
 import org.openmrs.Patient;
-import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.SharedConstants;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.queryInChunks;
 
 @Component
 public class FetchPatientsByIdentifier {
 	
-	@PersistenceContext
-	private EntityManager entityManager;
+	// Set when the component is created, so the static helpers can query like the rest of the module
+	private static EntityManager entityManager;
 	
-	private static final int BATCH_SIZE = 15;
+	@PersistenceContext
+	public void setEntityManager(EntityManager entityManager) {
+		FetchPatientsByIdentifier.entityManager = entityManager;
+	}
 	
 	public static HashSet<Patient> fetchPatientsByIds(List<Integer> patientIds) {
-		HashSet<Patient> patients = new HashSet<>();
+		return new HashSet<>(fetchPatientsInOrder(patientIds));
+	}
+	
+	/**
+	 * Like {@link #fetchPatientsByIds(List)}, but keeps the order of the given ids. The patients are
+	 * loaded with one query per chunk of {@value SharedConstants#ID_CHUNK_SIZE} ids; ids that are not
+	 * patients are skipped.
+	 */
+	public static List<Patient> fetchPatientsInOrder(List<Integer> patientIds) {
+		List<Patient> loaded = queryInChunks(patientIds,
+		    batchIds -> entityManager.createQuery("SELECT p FROM Patient p WHERE p.patientId IN :patientIds", Patient.class)
+		            .setParameter("patientIds", batchIds).getResultList());
+		
+		Map<Integer, Patient> patientsById = new HashMap<>();
+		for (Patient patient : loaded) {
+			patientsById.put(patient.getPatientId(), patient);
+		}
+		
+		List<Patient> patients = new ArrayList<>(patientIds.size());
 		for (Integer patientId : patientIds) {
-			Patient patient = Context.getPatientService().getPatient(patientId);
+			Patient patient = patientsById.get(patientId);
 			if (patient != null) {
 				patients.add(patient);
 			}
@@ -29,14 +55,6 @@ public class FetchPatientsByIdentifier {
 	}
 	
 	public HashSet<Patient> fetchPatientsIds(List<Integer> patientIds) {
-		HashSet<Patient> patients = new HashSet<>();
-		int total = patientIds.size();
-		for (int i = 0; i < total; i += BATCH_SIZE) {
-			List<Integer> batchIds = patientIds.subList(i, Math.min(i + BATCH_SIZE, total));
-			patients.addAll(
-			    entityManager.createQuery("SELECT p FROM Patient p WHERE p.patientId IN :patientIds", Patient.class)
-			            .setParameter("patientIds", batchIds).getResultList());
-		}
-		return patients;
+		return fetchPatientsByIds(patientIds);
 	}
 }
@@ -3,14 +3,25 @@ package org.openmrs.module.ssemrws.web.constants;
 import org.openmrs.Patient;
 import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 
+import javax.persistence.Query;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
 
 public class FilterUtility {
 	
 	private static final int CHILDREN_ADOLESCENT_AGE = 19;
 	
+	/**
+	 * The reference implementation of the filter categories, evaluated per patient. The module filters
+	 * cohorts with {@link #toSqlPredicate} or GetFilteredPatients; this form is only kept as the
+	 * baseline they are checked against in FilterUtilityTest and benchmarked against in the
+	 * FilterBenchmark of the benchmarks module.
+	 */
 	public static boolean applyFilter(Patient patient, SSEMRWebServicesController.filterCategory filterCategory,
 	        Date endDate) {
 		if (filterCategory == null) {
@@ -26,4 +37,75 @@ public class FilterUtility {
 		}
 	}
 	
+	/**
+	 * The SQL form of {@link #applyFilter}: a predicate, to be appended to a WHERE clause, that keeps
+	 * only the patients of the filter category. Its parameters are set by {@link #bindSqlFilter}. Ages
+	 * are computed from the birthdate in openmrs.person, as {@code getPatientAge} does, rather than
+	 * read from the ETL, so both forms agree however recently the ETL ran.
+	 * 
+	 * @param patientIdColumn The qualified column holding the patient id, e.g. "p.patient_id".
+	 * @return The predicate starting with AND, or an empty string when there is no filter.
+	 */
+	public static String toSqlPredicate(SSEMRWebServicesController.filterCategory filterCategory,
+	        String patientIdColumn) {
+		if (filterCategory == null) {
+			return "";
+		}
+		switch (filterCategory) {
+			case CHILDREN_ADOLESCENTS:
+				return "AND EXISTS (SELECT 1 FROM openmrs.person filter_person "
+				        + "    WHERE filter_person.person_id = " + patientIdColumn
+				        + " AND filter_person.birthdate > :filterBornAfter) ";
+			case PREGNANT_BREASTFEEDING:
+				return "AND " + toPbfwCondition(patientIdColumn);
+			default:
+				return "";
+		}
+	}
+	
+	/**
+	 * Sets the parameters of the predicate returned by {@link #toSqlPredicate} on the query.
+	 */
+	public static Query bindSqlFilter(Query query, SSEMRWebServicesController.filterCategory filterCategory,
+	        Date endDate) {
+		if (filterCategory == SSEMRWebServicesController.filterCategory.CHILDREN_ADOLESCENTS) {
+			query.setParameter("filterBornAfter", childrenAdolescentsBornAfter());
+		} else if (filterCategory == SSEMRWebServicesController.filterCategory.PREGNANT_BREASTFEEDING) {
+			bindPbfwCondition(query, endDate);
+		}
+		return query;
+	}
+	
+	// Patients born after this day are CHILDREN_ADOLESCENT_AGE or younger today, as getPatientAge counts years
+	private static Date childrenAdolescentsBornAfter() {
+		LocalDate bornAfter = LocalDate.now().minusYears(CHILDREN_ADOLESCENT_AGE + 1);
+		return Date.from(bornAfter.atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+	
+	/**
+	 * The PBFW rule of every query that counts pregnant or breastfeeding women: a currently pregnant
+	 * or currently breastfeeding obs answered Yes at any time on or before the end day. Its
+	 * parameters are set by {@link #bindPbfwCondition}.
+	 * 
+	 * @param personIdColumn The qualified column holding the person id, e.g. "p.patient_id".
+	 * @return An EXISTS condition, without a leading AND.
+	 */
+	public static String toPbfwCondition(String personIdColumn) {
+		return "EXISTS (SELECT 1 FROM openmrs.obs pbfw_obs "
+		        + "    JOIN openmrs.concept pbfw_question ON pbfw_question.concept_id = pbfw_obs.concept_id "
+		        + "    JOIN openmrs.concept pbfw_answer ON pbfw_answer.concept_id = pbfw_obs.value_coded "
+		        + "    WHERE pbfw_obs.person_id = " + personIdColumn + " AND pbfw_obs.voided = 0 "
+		        + "    AND pbfw_question.uuid IN (:pbfwConceptUuids) AND pbfw_answer.uuid = :pbfwAnswerUuid "
+		        + "    AND pbfw_obs.obs_datetime < :pbfwDayAfterEndDate) ";
+	}
+	
+	/**
+	 * Sets the parameters of the condition returned by {@link #toPbfwCondition} on the query.
+	 */
+	public static Query bindPbfwCondition(Query query, Date endDate) {
+		return query
+		        .setParameter("pbfwConceptUuids",
+		            Arrays.asList(CURRENTLY_BREASTFEEDING_CONCEPT_UUID, CURRENTLY_PREGNANT_CONCEPT_UUID))
+		        .setParameter("pbfwAnswerUuid", CONCEPT_BY_UUID).setParameter("pbfwDayAfterEndDate", dayAfter(endDate));
+	}
 }
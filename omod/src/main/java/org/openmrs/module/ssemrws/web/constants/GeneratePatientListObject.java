@@ -1,77 +1,191 @@
 package org.openmrs.module.ssemrws.web.constants;
 
-import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.JsonNodeFactory;
 import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.ObsPrefetcher;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.openmrs.module.ssemrws.queries.GetNextAppointmentDate;
+import org.openmrs.module.ssemrws.queries.GetVLDueDate;
 import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.openmrs.module.ssemrws.web.constants.GenerateSummary.*;
 
 @Component
 public class GeneratePatientListObject {
 	
+	/**
+	 * Receives the rows of a line list as they are built.
+	 */
+	public interface PatientObjConsumer {
+		
+		void accept(Patient patient, ObjectNode patientObj) throws IOException;
+	}
+	
+	/**
+	 * Called once the columns of a page are resolved, before its first row is built.
+	 */
+	public interface PageStart {
+		
+		void run() throws IOException;
+	}
+	
 	private final GeneratePatientObject generatePatientObject;
 	
-	public GeneratePatientListObject(GeneratePatientObject generatePatientObject) {
+	private final GetNextAppointmentDate getNextAppointmentDate;
+	
+	private final GetVLDueDate getVLDueDate;
+	
+	private final ObsPrefetcher obsPrefetcher;
+	
+	public GeneratePatientListObject(GeneratePatientObject generatePatientObject,
+	    GetNextAppointmentDate getNextAppointmentDate, GetVLDueDate getVLDueDate, ObsPrefetcher obsPrefetcher) {
 		this.generatePatientObject = generatePatientObject;
+		this.getNextAppointmentDate = getNextAppointmentDate;
+		this.getVLDueDate = getVLDueDate;
+		this.obsPrefetcher = obsPrefetcher;
 	}
 	
 	/**
 	 * Generates a summary of patient data within a specified date range, grouped by year, month, and
 	 * week.
 	 * 
-	 * @param allPatients A set of all patients to be considered for the summary.
+	 * @param allPatients The patients of the page, in the order they are listed.
 	 * @param startDate The start date of the range for which to generate the summary.
 	 * @param endDate The end date of the range for which to generate the summary.
 	 * @param filterCategory The category to filter patients.
 	 * @param allPatientsObj The object to store all patient details.
 	 * @return A JSON string representing the summary of patient data.
 	 */
-	public Object generatePatientListObj(HashSet<Patient> allPatients, Date startDate, Date endDate,
+	public Object generatePatientListObj(Collection<Patient> allPatients, Date startDate, Date endDate,
 	        SSEMRWebServicesController.filterCategory filterCategory, ObjectNode allPatientsObj) {
-		ArrayNode patientList = JsonNodeFactory.instance.arrayNode();
-		
+		return StreamingJsonResponse.toString(generator -> writePatientListObj(allPatients, startDate, endDate,
+		    filterCategory, allPatientsObj, null, generator));
+	}
+	
+	/**
+	 * Writes the same object as {@link #generatePatientListObj} to a generator, one row at a time, so
+	 * that only the row being written is held in memory.
+	 * 
+	 * @param allPatientsObj The fields written ahead of the page, e.g. the total.
+	 * @param summaryObj The summary to write, or null to write the summary of the page.
+	 */
+	public void writePatientListObj(Collection<Patient> allPatients, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, ObjectNode allPatientsObj, ObjectNode summaryObj,
+	        JsonGenerator generator) throws IOException {
 		List<Date> patientDates = new ArrayList<>();
 		Calendar startCal = Calendar.getInstance();
 		startCal.setTime(startDate);
 		Calendar endCal = Calendar.getInstance();
 		endCal.setTime(endDate);
 		
-		for (Patient patient : allPatients) {
-			ObjectNode patientObj = generatePatientObject.generatePatientObject(startDate, endDate, filterCategory, patient);
-			if (patientObj != null) {
-				patientList.add(patientObj);
-				
-				Calendar patientCal = Calendar.getInstance();
-				patientCal.setTime(patient.getDateCreated());
-				
-				if (!patientCal.before(startCal) && !patientCal.after(endCal)) {
-					if (patient.getDateCreated() != null && !patientCal.before(startCal) && !patientCal.after(endCal)) {
-						patientDates.add(patient.getDateCreated());
-					}
-				} else {
-					System.out.println("Patient date out of range");
+		// Nothing is written until the page's columns are loaded, so a failed lookup can still be
+		// answered with an error status instead of a truncated body
+		forEachPatientObj(allPatients, startDate, endDate, filterCategory, () -> {
+			generator.writeStartObject();
+			Iterator<Map.Entry<String, JsonNode>> fields = allPatientsObj.getFields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				generator.writeFieldName(field.getKey());
+				generator.writeTree(field.getValue());
+			}
+			generator.writeNumberField("pageSize", allPatients.size());
+			generator.writeArrayFieldStart("results");
+		}, (patient, patientObj) -> {
+			try (RequestProfiler.Span ignored = RequestProfiler.span("serialization")) {
+				generator.writeTree(patientObj);
+			}
+			
+			Calendar patientCal = Calendar.getInstance();
+			patientCal.setTime(patient.getDateCreated());
+			
+			if (!patientCal.before(startCal) && !patientCal.after(endCal)) {
+				if (patient.getDateCreated() != null && !patientCal.before(startCal) && !patientCal.after(endCal)) {
+					patientDates.add(patient.getDateCreated());
 				}
+			} else {
+				System.out.println("Patient date out of range");
 			}
-		}
+		});
 		
-		Map<String, Map<String, Integer>> summary = generateSummary(patientDates);
+		generator.writeEndArray();
+		generator.writeFieldName("summary");
+		generator.writeTree(summaryObj != null ? summaryObj : generateSummaryObj(patientDates));
+		generator.writeEndObject();
+	}
+	
+	/**
+	 * Builds the line list row of each patient, resolving the appointment and VL due date columns and
+	 * the latest obs of all the patients in one go, and hands the rows to the consumer in order.
+	 * Patients that the filter category excludes are skipped.
+	 */
+	public void forEachPatientObj(Collection<Patient> allPatients, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, PatientObjConsumer consumer) throws IOException {
+		forEachPatientObj(allPatients, startDate, endDate, filterCategory, () -> {}, consumer);
+	}
+	
+	/**
+	 * Same as {@link #forEachPatientObj(Collection, Date, Date, SSEMRWebServicesController.filterCategory,
+	 * PatientObjConsumer)}, calling pageStart once the columns of the page are resolved and before the
+	 * first row is built.
+	 */
+	public void forEachPatientObj(Collection<Patient> allPatients, Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, PageStart pageStart, PatientObjConsumer consumer)
+	        throws IOException {
+		List<Integer> patientIds = allPatients.stream().map(Patient::getPatientId).collect(Collectors.toList());
+		
+		// Resolve the appointment and VL due date columns and the latest obs for the whole page in one go
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		Map<Integer, String> appointmentDates = metrics.timeEnrichment("appointmentDates",
+		    () -> getNextAppointmentDate.getNextOrLastAppointmentDates(patientIds));
+		Map<Integer, String> vlDueDates = metrics.timeEnrichment("vlDueDates", () -> getVLDueDate.getVLDueDates(patientIds));
 		
+		try (ObsPrefetcher.Prefetch ignored = metrics.timeEnrichment("obsPrefetch",
+		    () -> obsPrefetcher.prefetch(patientIds, GeneratePatientObject.LINE_LIST_CONCEPTS))) {
+			pageStart.run();
+			long rowsStart = System.nanoTime();
+			RequestProfiler.Span rowsSpan = RequestProfiler.span("enrichment:patientRows").setRows(allPatients.size());
+			for (Patient patient : allPatients) {
+				ObjectNode patientObj;
+				try (RequestProfiler.Span ignoredRow = RequestProfiler.span("patientRow").setAttribute("patientId",
+				    patient.getPatientId())) {
+					patientObj = generatePatientObject.generatePatientObject(startDate, endDate, filterCategory, patient,
+					    appointmentDates.get(patient.getPatientId()), vlDueDates.get(patient.getPatientId()));
+				}
+				if (patientObj != null) {
+					consumer.accept(patient, patientObj);
+				}
+			}
+			rowsSpan.close();
+			metrics.recordEnrichment("patientRows", System.nanoTime() - rowsStart);
+		}
+	}
+	
+	/**
+	 * @return The summary object of a line list, {"groupYear": {...}}, for the given dates.
+	 */
+	public static ObjectNode generateSummaryObj(List<Date> dates) {
+		return toSummaryObj(generateSummary(dates));
+	}
+	
+	/**
+	 * @return The summary object of a line list for an already generated summary.
+	 */
+	public static ObjectNode toSummaryObj(Map<String, Map<String, Integer>> summary) {
 		ObjectNode groupingObj = JsonNodeFactory.instance.objectNode();
 		ObjectNode groupYear = JsonNodeFactory.instance.objectNode();
 		
 		summary.get("groupYear").forEach(groupYear::put);
 		
 		groupingObj.put("groupYear", groupYear);
-		
-		allPatientsObj.put("pageSize", allPatients.size());
-		allPatientsObj.put("results", patientList);
-		allPatientsObj.put("summary", groupingObj);
-		
-		return allPatientsObj.toString();
+		return groupingObj;
 	}
 }
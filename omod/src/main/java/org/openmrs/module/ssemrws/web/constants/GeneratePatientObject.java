@@ -11,14 +11,35 @@ import org.openmrs.module.ssemrws.queries.GetVLDueDate;
 import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
 import static org.openmrs.module.ssemrws.constants.SharedConstants.determineIfPatientIsPregnantOrBreastfeeding;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
 
 @Component
 public class GeneratePatientObject {
 	
+	/**
+	 * Concepts whose latest obs are read for every row of a patient line list. Pages prefetch them
+	 * through {@link org.openmrs.module.ssemrws.constants.ObsPrefetcher}.
+	 */
+	public static final List<String> LINE_LIST_CONCEPTS = Collections.unmodifiableList(Arrays.asList(
+	    ACTIVE_REGIMEN_CONCEPT_UUID, DATE_OF_ENROLLMENT_UUID, DATE_OF_DEATH_UUID, DATE_TRANSFERRED_OUT_UUID,
+	    DATE_RETURNED_TO_TREATMENT, LAST_REFILL_DATE_UUID, COW_NAME_UUID, CHW_NAME_UUID, COW_PHONE_UUID, CHW_PHONE_UUID));
+	
+	/**
+	 * The fields of a line list row, in the order they are set. Exports write them as columns, so a
+	 * field added to the row must be added here too.
+	 */
+	public static final List<String> LINE_LIST_FIELDS = Collections.unmodifiableList(Arrays.asList("name", "uuid", "sex",
+	    "age", "identifiers", "address", "contact", "alternateContact", "childOrAdolescent", "ARTRegimen",
+	    "initiationDate", "dateEnrolled", "lastRefillDate", "appointmentDate", "datePatientDied",
+	    "datePatientTransferredOut", "dateReturnedToTreatment", "dateClientBecameIIT", "vlDueDate", "chwName", "chwPhone"));
+	
 	private final GetNextAppointmentDate getNextAppointmentDate;
 	
 	private final GetDatePatientBecameIIT getDatePatientBecameIIT;
@@ -37,6 +58,19 @@ public class GeneratePatientObject {
 	
 	public ObjectNode generatePatientObject(Date startDate, Date endDate,
 	        SSEMRWebServicesController.filterCategory filterCategory, Patient patient) {
+		return generatePatientObject(startDate, endDate, filterCategory, patient,
+		    getNextAppointmentDate.getNextArtAppointmentDate(patient), getVLDueDate.getVLDueDate(patient));
+	}
+	
+	/**
+	 * Same as {@link #generatePatientObject(Date, Date, SSEMRWebServicesController.filterCategory, Patient)}
+	 * but with the appointment and VL due date columns already resolved, e.g. in bulk for a whole page
+	 * through {@link GetNextAppointmentDate#getNextOrLastAppointmentDates(java.util.Collection)} and
+	 * {@link GetVLDueDate#getVLDueDates(java.util.Collection)}.
+	 */
+	public ObjectNode generatePatientObject(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory, Patient patient, String artAppointmentDate,
+	        String vlDueDate) {
 		ObjectNode patientObj = JsonNodeFactory.instance.objectNode();
 		String artRegimen = getARTRegimen(patient);
 		String dateEnrolled = getEnrolmentDate(patient);
@@ -45,9 +79,7 @@ public class GeneratePatientObject {
 		String datePatientTransferredOut = getDateTransferredOut(patient);
 		String dateReturnedToTreatment = getReturnToTreatmentDate(patient);
 		String lastRefillDate = getLastRefillDate(patient);
-		String artAppointmentDate = getNextAppointmentDate.getNextArtAppointmentDate(patient);
 		String iitDate = String.valueOf(getDatePatientBecameIIT.getIitDateForPatient(patient, startDate, endDate));
-		String vlDueDate = getVLDueDate.getVLDueDate(patient);
 		String chwName = getCHWName(patient);
 		String chwPhone = getCHWPhone(patient);
 		String contact = patient.getAttribute("Client Telephone Number") != null
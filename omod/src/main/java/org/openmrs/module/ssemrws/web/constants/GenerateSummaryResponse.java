@@ -1,14 +1,12 @@
 package org.openmrs.module.ssemrws.web.constants;
 
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.JsonNodeFactory;
-import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.Patient;
 import org.openmrs.module.ssemrws.constants.SharedConstants;
 import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -29,9 +27,9 @@ public class GenerateSummaryResponse {
 		this.paginatedPages = paginatedPages;
 	}
 	
-	public Object generateSummaryResponse(List<Patient> patientList, int page, int size, String totalKey, int totalCount,
+	public void generateSummaryResponse(List<Patient> patientList, int page, int size, String totalKey, int totalCount,
 	        Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory,
-	        Function<List<Date>, Map<String, Map<String, Integer>>> summaryGenerator) {
+	        Function<List<Date>, Map<String, Map<String, Integer>>> summaryGenerator, HttpServletResponse response) {
 		
 		SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy");
 		
@@ -49,35 +47,11 @@ public class GenerateSummaryResponse {
 		
 		Map<String, Map<String, Integer>> summary = summaryGenerator.apply(patientDates);
 		
-		// Step 2: Paginate the patient list
+		// Step 2: Write the page of the patient list with the summary of the full list
 		Object paginatedResponse = paginatedPages.fetchAndPaginatePatients(patientList, page, size, totalKey, totalCount,
-		    startDate, endDate, filterCategory);
-		
-		// Convert to ObjectNode if it's a String (which could be a JSON string)
-		ObjectNode responseObj;
+		    startDate, endDate, filterCategory, GeneratePatientListObject.toSummaryObj(summary), response);
 		if (paginatedResponse instanceof String) {
-			ObjectMapper objectMapper = new ObjectMapper();
-			try {
-				responseObj = (ObjectNode) objectMapper.readTree((String) paginatedResponse);
-			}
-			catch (Exception e) {
-				throw new RuntimeException("Failed to parse paginated response as JSON", e);
-			}
-		} else {
-			responseObj = (ObjectNode) paginatedResponse;
+			throw new RuntimeException("Failed to paginate patients: " + paginatedResponse);
 		}
-		
-		// Step 3: Add the summary to the paginated response
-		ObjectNode groupingObj = JsonNodeFactory.instance.objectNode();
-		ObjectNode groupYear = JsonNodeFactory.instance.objectNode();
-		
-		// Populate the summary into the response
-		summary.get("groupYear").forEach(groupYear::put);
-		
-		groupingObj.put("groupYear", groupYear);
-		
-		responseObj.put("summary", groupingObj);
-		
-		return responseObj.toString();
 	}
 }
@@ -1,12 +1,12 @@
 package org.openmrs.module.ssemrws.web.constants;
 
-import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.node.JsonNodeFactory;
 import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.Patient;
 import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.http.HttpServletResponse;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -20,10 +20,10 @@ public class GenerateTxCurrSummaryResponse {
 		this.paginateTxCurrAndTxNewPages = paginateTxCurrAndTxNewPages;
 	}
 	
-	public Object generateActiveClientsSummaryResponse(ArrayList<GetTxNew.PatientEnrollmentData> patientDataList, int page,
+	public void generateActiveClientsSummaryResponse(ArrayList<GetTxNew.PatientEnrollmentData> patientDataList, int page,
 	        int size, String totalKey, int totalCount, Date startDate, Date endDate,
 	        SSEMRWebServicesController.filterCategory filterCategory,
-	        Function<List<Date>, Map<String, Map<String, Integer>>> summaryGenerator) {
+	        Function<List<Date>, Map<String, Map<String, Integer>>> summaryGenerator, HttpServletResponse response) {
 		
 		// Step 1: Calculate the summary based on the filtered patient list using
 		// enrollment dates
@@ -36,43 +36,21 @@ public class GenerateTxCurrSummaryResponse {
 		List<Patient> patientList = patientDataList.stream().map(GetTxNew.PatientEnrollmentData::getPatient)
 		        .collect(Collectors.toList());
 		
-		// Step 3: Paginate the patient list
+		ObjectNode summaryObj = summary != null && !summary.isEmpty() ? GeneratePatientListObject.toSummaryObj(summary)
+		        : null;
+		
+		// Step 3: Write the page of the patient list, with the summary of the full list when available
 		Object paginatedResponse = paginateTxCurrAndTxNewPages.fetchAndPaginatePatientsForNewlyEnrolledPatients(patientList,
-		    page, size, totalKey, totalCount, startDate, endDate, filterCategory);
+		    page, size, totalKey, totalCount, startDate, endDate, filterCategory, summaryObj, response);
 		
-		// Convert to ObjectNode if it's a String (which could be a JSON string)
-		ObjectNode responseObj;
+		// Without a page to list, respond with the summary and the total only
 		if (paginatedResponse instanceof String) {
-			ObjectMapper objectMapper = new ObjectMapper();
-			try {
-				responseObj = (ObjectNode) objectMapper.readTree((String) paginatedResponse);
-			}
-			catch (Exception e) {
-				// Handle the case when no data is available gracefully by returning an empty
-				// response
-				responseObj = JsonNodeFactory.instance.objectNode();
+			ObjectNode responseObj = JsonNodeFactory.instance.objectNode();
+			if (summaryObj != null) {
+				responseObj.put("summary", summaryObj);
 			}
-		} else if (paginatedResponse instanceof ObjectNode) {
-			responseObj = (ObjectNode) paginatedResponse;
-		} else {
-			// Default empty response to avoid serialization issues
-			responseObj = JsonNodeFactory.instance.objectNode();
-		}
-		
-		// Step 4: Add the summary to the paginated response if available
-		if (summary != null && !summary.isEmpty()) {
-			ObjectNode groupingObj = JsonNodeFactory.instance.objectNode();
-			ObjectNode groupYear = JsonNodeFactory.instance.objectNode();
-			
-			// Populate the summary into the response
-			summary.get("groupYear").forEach(groupYear::put);
-			
-			groupingObj.put("groupYear", groupYear);
-			responseObj.put("summary", groupingObj);
+			responseObj.put(totalKey, totalCount);
+			StreamingJsonResponse.write(response, generator -> generator.writeTree(responseObj));
 		}
-		
-		responseObj.put(totalKey, totalCount);
-		
-		return responseObj.toString();
 	}
 }
@@ -2,11 +2,11 @@ package org.openmrs.module.ssemrws.web.constants;
 
 import org.openmrs.*;
 import org.openmrs.module.ssemrws.queries.*;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Component
 public class GetTxCurr {
@@ -25,31 +25,91 @@ public class GetTxCurr {
 	}
 	
 	public List<GetTxNew.PatientEnrollmentData> getTxCurrPatients(Date startDate, Date endDate) {
-		HashSet<Patient> txCurrPatients = getTxCurrQueries.getTxCurr(endDate);
+		return getTxCurrPatients(startDate, endDate, null);
+	}
+	
+	/**
+	 * Like {@link #getTxCurrPatients(Date, Date)}, keeping only the patients of the filter category.
+	 */
+	public List<GetTxNew.PatientEnrollmentData> getTxCurrPatients(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		HashSet<Patient> txCurrPatients = getTxCurrQueries.getTxCurr(endDate, filterCategory);
 		
 		HashSet<Patient> interruptedInTreatmentPatients = getInterruptedInTreatment.getIit(startDate, endDate);
 		
 		txCurrPatients.removeAll(interruptedInTreatmentPatients);
 		
 		// Transform patients into PatientEnrollmentData objects
+		Map<Integer, Date> artStartDates = getEnrollmentDate.getARTStartDates(
+		    txCurrPatients.stream().map(Patient::getPatientId).collect(Collectors.toList()), endDate);
 		List<GetTxNew.PatientEnrollmentData> filteredClients = new ArrayList<>();
 		for (Patient patient : txCurrPatients) {
-			String artStartDateString = getEnrollmentDate.getARTStartDate(patient, endDate);
-			if (artStartDateString != null && !artStartDateString.isEmpty()) {
-				try {
-					Date artStartDate = new SimpleDateFormat("dd-MM-yyyy").parse(artStartDateString);
-					if (!artStartDate.after(endDate)) {
-						GetTxNew.PatientEnrollmentData patientData = new GetTxNew.PatientEnrollmentData(patient,
-						        artStartDate);
-						filteredClients.add(patientData);
-					}
-				}
-				catch (ParseException e) {
-					System.err.println("Failed to parse ART start date for patient " + patient.getPatientId());
-				}
+			Date artStartDate = artStartDates.get(patient.getPatientId());
+			if (artStartDate != null && !artStartDate.after(endDate)) {
+				filteredClients.add(new GetTxNew.PatientEnrollmentData(patient, artStartDate));
 			}
 		}
 		
 		return filteredClients;
 	}
+	
+	/**
+	 * Like {@link #getTxCurrPatients(Date, Date, SSEMRWebServicesController.filterCategory)}, without
+	 * loading the patients.
+	 * 
+	 * @return The ids of the patients of the filter category who are active on treatment.
+	 */
+	public Set<Integer> getTxCurrPatientIds(Date startDate, Date endDate,
+	        SSEMRWebServicesController.filterCategory filterCategory) {
+		return retainActive(startDate, endDate, getTxCurrQueries.executeTxCurrQuery(endDate, filterCategory));
+	}
+	
+	/**
+	 * Evaluates the rule of {@link #getTxCurrPatients(Date, Date)} only for the given patients.
+	 * 
+	 * @return The ids of the given patients who are active on treatment.
+	 */
+	public Set<Integer> getTxCurrPatientIds(Date startDate, Date endDate, Collection<Integer> patientIds) {
+		return retainActive(startDate, endDate, getTxCurrQueries.executeTxCurrQuery(endDate, patientIds));
+	}
+	
+	/**
+	 * The part of the rule of {@link #getTxCurrPatients(Date, Date)} that only depends on the end date,
+	 * for cohorts recorded ahead of time: the patients who meet the TxCurr query and started ART by the
+	 * end date. The IIT patients are not removed, since the IIT rule compares appointments with the
+	 * time it runs; remove them when reading the cohort with {@link #removeInterruptedInTreatment}.
+	 * 
+	 * @return The ART start date per patient id.
+	 */
+	public Map<Integer, Date> getArtStartDatesBeforeIit(Date endDate) {
+		Map<Integer, Date> artStartDates = getEnrollmentDate.getARTStartDates(getTxCurrQueries.executeTxCurrQuery(endDate),
+		    endDate);
+		artStartDates.values().removeIf(artStartDate -> artStartDate.after(endDate));
+		return artStartDates;
+	}
+	
+	/**
+	 * Completes the rule of {@link #getTxCurrPatients(Date, Date)} for patients from
+	 * {@link #getArtStartDatesBeforeIit(Date)}, evaluating the IIT rule now.
+	 * 
+	 * @return The given patient ids without the patients interrupted in treatment, in their order.
+	 */
+	public List<Integer> removeInterruptedInTreatment(Date startDate, Date endDate, Collection<Integer> patientIds) {
+		Set<Integer> iitIds = getInterruptedInTreatment.getIitIds(startDate, endDate, patientIds);
+		return patientIds.stream().filter(patientId -> !iitIds.contains(patientId)).collect(Collectors.toList());
+	}
+	
+	// Removes the IIT patients and the patients without an ART start date by the end of the range
+	private Set<Integer> retainActive(Date startDate, Date endDate, Collection<Integer> txCurrPatientIds) {
+		Set<Integer> txCurrIds = new HashSet<>(txCurrPatientIds);
+		txCurrIds.removeAll(getInterruptedInTreatment.getIitIds(startDate, endDate, txCurrIds));
+		
+		Map<Integer, Date> artStartDates = getEnrollmentDate.getARTStartDates(txCurrIds, endDate);
+		txCurrIds.removeIf(patientId -> {
+			Date artStartDate = artStartDates.get(patientId);
+			return artStartDate == null || artStartDate.after(endDate);
+		});
+		
+		return txCurrIds;
+	}
 }
@@ -7,8 +7,10 @@ import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 
 import static org.openmrs.module.ssemrws.web.constants.GeneratePatientListObject.*;
@@ -22,8 +24,15 @@ public class PaginatedPages {
 		this.generatePatientListObject = generatePatientListObject;
 	}
 	
+	/**
+	 * Writes the requested page of the patients to the response as a line list.
+	 * 
+	 * @param summaryObj The summary to write with the page, or null for the summary of the page.
+	 * @return A message when the page or size is invalid, null once the page has been written.
+	 */
 	public Object fetchAndPaginatePatients(List<Patient> patientList, int page, int size, String totalKey, int totalCount,
-	        Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory) {
+	        Date startDate, Date endDate, SSEMRWebServicesController.filterCategory filterCategory, ObjectNode summaryObj,
+	        HttpServletResponse response) {
 		
 		if (page < 0 || size <= 0) {
 			return "Invalid page or size value. Page must be >= 0 and size must be > 0.";
@@ -35,12 +44,16 @@ public class PaginatedPages {
 		}
 		int toIndex = Math.min((page + 1) * size, patientList.size());
 		
-		List<Patient> paginatedPatients = patientList.subList(fromIndex, toIndex);
+		// Order by patient id so that pages neither overlap nor skip patients between requests
+		List<Patient> orderedPatients = new ArrayList<>(patientList);
+		orderedPatients.sort(Comparator.comparing(Patient::getPatientId));
+		List<Patient> paginatedPatients = orderedPatients.subList(fromIndex, toIndex);
 		
 		ObjectNode allPatientsObj = JsonNodeFactory.instance.objectNode();
 		allPatientsObj.put(totalKey, totalCount);
 		
-		return generatePatientListObject.generatePatientListObj(new HashSet<>(paginatedPatients), startDate, endDate,
-		    filterCategory, allPatientsObj);
+		StreamingJsonResponse.write(response, generator -> generatePatientListObject.writePatientListObj(paginatedPatients,
+		    startDate, endDate, filterCategory, allPatientsObj, summaryObj, generator));
+		return null;
 	}
 }
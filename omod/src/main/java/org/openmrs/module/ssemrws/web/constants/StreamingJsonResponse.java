@@ -0,0 +1,96 @@
+package org.openmrs.module.ssemrws.web.constants;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.MappingJsonFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Writes a JSON response with a {@link JsonGenerator} straight to the servlet output stream, so a
+ * large body such as a line list page is never held as a tree or a String. The generator can write
+ * {@link org.codehaus.jackson.JsonNode}s, which lets each row be built as a node and dropped once it
+ * is written.
+ */
+public class StreamingJsonResponse {
+	
+	private static final String CONTENT_TYPE = "application/json;charset=UTF-8";
+	
+	// Thread safe once configured, and the generators it creates can write trees
+	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	
+	/**
+	 * The body of a response, written as a series of generator calls.
+	 */
+	public interface Body {
+		
+		void writeTo(JsonGenerator generator) throws IOException;
+	}
+	
+	private StreamingJsonResponse() {
+	}
+	
+	/**
+	 * Writes the body to the response as UTF-8 JSON.
+	 * <p>
+	 * The status is sent with the first bytes of the body, which reach the client once the generator
+	 * and the servlet buffer fill up. A body that fails before then, e.g. while loading the data of a
+	 * page ahead of its first row, is discarded and the failure is rethrown, so the client gets an
+	 * error status. A body that fails after bytes were sent can no longer change the 200 status: the
+	 * client gets truncated JSON, which fails to parse. Callers therefore validate the request, e.g.
+	 * the page and size, and load what they can before writing.
+	 */
+	public static void write(HttpServletResponse response, Body body) {
+		response.setContentType(CONTENT_TYPE);
+		try {
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+			// The container owns the output stream and closes it when the request completes
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			body.writeTo(generator);
+			generator.close();
+		}
+		catch (IOException | RuntimeException e) {
+			System.err.println("Error writing JSON response: " + e.getMessage());
+			if (!response.isCommitted()) {
+				// Drop the partial body so that the error is reported with its own status
+				response.reset();
+			} else {
+				System.err.println("JSON response truncated after it was committed");
+			}
+			throw new RuntimeException("Failed to write JSON response", e);
+		}
+	}
+	
+	/**
+	 * Writes one JSON value on a line of its own, as in newline delimited JSON. The writer is left
+	 * open.
+	 */
+	public static void writeLine(Writer writer, JsonNode value) throws IOException {
+		JsonGenerator generator = JSON_FACTORY.createJsonGenerator(writer);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.writeTree(value);
+		generator.close();
+		writer.write('\n');
+	}
+	
+	/**
+	 * @return The body as a JSON string, for callers that still need one.
+	 */
+	public static String toString(Body body) {
+		StringWriter writer = new StringWriter();
+		try {
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(writer);
+			body.writeTo(generator);
+			generator.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to write JSON", e);
+		}
+		return writer.toString();
+	}
+}
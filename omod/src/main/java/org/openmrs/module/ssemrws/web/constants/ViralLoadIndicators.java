@@ -0,0 +1,94 @@
+package org.openmrs.module.ssemrws.web.constants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Viral load indicators of a reporting period as aggregated by
+ * {@link org.openmrs.module.ssemrws.queries.GetViralLoadIndicators}: the number of patients with a VL
+ * result in the period (covered) and how many of them were suppressed, in total and by age band, sex
+ * and pregnant or breastfeeding (PBFW) status.
+ */
+public class ViralLoadIndicators {
+	
+	/**
+	 * The age bands, in years at the end of the period, the indicators are broken down by. Patients
+	 * without a birthdate are counted under "Unknown".
+	 */
+	public static final List<String> AGE_BANDS = Collections.unmodifiableList(Arrays.asList("<1", "1-4", "5-9",
+	    "10-14", "15-19", "20-24", "25-29", "30-34", "35-39", "40-44", "45-49", "50+", "Unknown"));
+	
+	private int covered;
+	
+	private int suppressed;
+	
+	private int coveredPbfw;
+	
+	private int suppressedPbfw;
+	
+	private final Map<String, Integer> coveredByAgeBand = new LinkedHashMap<>();
+	
+	private final Map<String, Integer> suppressedByAgeBand = new LinkedHashMap<>();
+	
+	private final Map<String, Integer> coveredBySex = new LinkedHashMap<>();
+	
+	private final Map<String, Integer> suppressedBySex = new LinkedHashMap<>();
+	
+	public ViralLoadIndicators() {
+		for (String ageBand : AGE_BANDS) {
+			coveredByAgeBand.put(ageBand, 0);
+			suppressedByAgeBand.put(ageBand, 0);
+		}
+	}
+	
+	/**
+	 * Adds the counts of one age band, sex and PBFW group.
+	 */
+	public void addGroup(String ageBand, String sex, boolean pbfw, int coveredCount, int suppressedCount) {
+		covered += coveredCount;
+		suppressed += suppressedCount;
+		if (pbfw) {
+			coveredPbfw += coveredCount;
+			suppressedPbfw += suppressedCount;
+		}
+		coveredByAgeBand.merge(ageBand, coveredCount, Integer::sum);
+		suppressedByAgeBand.merge(ageBand, suppressedCount, Integer::sum);
+		coveredBySex.merge(sex, coveredCount, Integer::sum);
+		suppressedBySex.merge(sex, suppressedCount, Integer::sum);
+	}
+	
+	public int getCovered() {
+		return covered;
+	}
+	
+	public int getSuppressed() {
+		return suppressed;
+	}
+	
+	public int getCoveredPbfw() {
+		return coveredPbfw;
+	}
+	
+	public int getSuppressedPbfw() {
+		return suppressedPbfw;
+	}
+	
+	public Map<String, Integer> getCoveredByAgeBand() {
+		return coveredByAgeBand;
+	}
+	
+	public Map<String, Integer> getSuppressedByAgeBand() {
+		return suppressedByAgeBand;
+	}
+	
+	public Map<String, Integer> getCoveredBySex() {
+		return coveredBySex;
+	}
+	
+	public Map<String, Integer> getSuppressedBySex() {
+		return suppressedBySex;
+	}
+}
@@ -2,22 +2,57 @@ package org.openmrs.module.ssemrws.web.constants;
 
 import java.util.Date;
 
+import static org.openmrs.module.ssemrws.constants.SharedConstants.formatDate;
+
+/**
+ * Viral load eligibility of one client as computed by
+ * {@link org.openmrs.module.ssemrws.queries.GetVLEligibility}.
+ */
 public class VlEligibilityResult {
 	
-	private final boolean isEligible;
+	private final Date eligibilityDate;
+	
+	private final boolean pendingResults;
+	
+	private final boolean inHvlCohort;
+	
+	public VlEligibilityResult(Date eligibilityDate, boolean pendingResults, boolean inHvlCohort) {
+		this.eligibilityDate = eligibilityDate;
+		this.pendingResults = pendingResults;
+		this.inHvlCohort = inHvlCohort;
+	}
+	
+	public Date getEligibilityDate() {
+		return eligibilityDate;
+	}
 	
-	private final Date vlDueDate;
+	public boolean isPendingResults() {
+		return pendingResults;
+	}
 	
-	public VlEligibilityResult(boolean isEligible, Date vlDueDate) {
-		this.isEligible = isEligible;
-		this.vlDueDate = vlDueDate;
+	public boolean isInHvlCohort() {
+		return inHvlCohort;
 	}
 	
-	public boolean isEligible() {
-		return isEligible;
+	/**
+	 * Whether the client is due for a VL within the given range: eligible in the range, with no result
+	 * pending and not waiting on EAC.
+	 */
+	public boolean isDueWithin(Date startDate, Date endDate) {
+		return !pendingResults && !inHvlCohort && eligibilityDate != null && !eligibilityDate.before(startDate)
+		        && !eligibilityDate.after(endDate);
 	}
 	
-	public Date getVlDueDate() {
-		return vlDueDate;
+	/**
+	 * @return The value shown in the vlDueDate column.
+	 */
+	public String getVlDueDate() {
+		if (pendingResults) {
+			return "Pending Results";
+		}
+		if (inHvlCohort) {
+			return "Pending EAC 3";
+		}
+		return eligibilityDate != null ? formatDate(eligibilityDate) : "N/A";
 	}
 }
@@ -0,0 +1,75 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.openmrs.module.ssemrws.constants.LineListCohorts;
+import org.openmrs.module.ssemrws.web.constants.CohortExporter;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.buildErrorResponse;
+import static org.openmrs.module.ssemrws.constants.SharedConstants.getStartAndEndDate;
+
+/**
+ * Exports the whole line list of a dashboard indicator in one response, for reports that would
+ * otherwise page through the list.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/ssemr")
+public class CohortExportController {
+	
+	private final LineListCohorts lineListCohorts;
+	
+	private final CohortExporter cohortExporter;
+	
+	public CohortExportController(LineListCohorts lineListCohorts, CohortExporter cohortExporter) {
+		this.lineListCohorts = lineListCohorts;
+		this.cohortExporter = cohortExporter;
+	}
+	
+	/**
+	 * Streams every patient of the line list of an indicator, e.g. /dashboard/highVl/export, as CSV or
+	 * NDJSON. The cohort is the one the line list endpoint pages through, so it is cached the same way.
+	 * 
+	 * @param indicator The name of the line list endpoint, see {@link LineListCohorts#getIndicators()}.
+	 * @param qFormat csv, the default, or ndjson.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/{indicator}/export")
+	@ResponseBody
+	public Object exportCohort(HttpServletRequest request, HttpServletResponse response,
+	        @PathVariable("indicator") String indicator,
+	        @RequestParam(required = false, value = "startDate") String qStartDate,
+	        @RequestParam(required = false, value = "endDate") String qEndDate,
+	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
+	        @RequestParam(required = false, value = "format", defaultValue = "csv") String qFormat)
+	        throws ParseException {
+		if (!lineListCohorts.isLineList(indicator)) {
+			String message = "No line list to export for " + indicator + ". Expected one of "
+			        + lineListCohorts.getIndicators();
+			return buildErrorResponse(message, HttpStatus.NOT_FOUND);
+		}
+		CohortExporter.Format format = CohortExporter.Format.fromParameter(qFormat);
+		if (format == null) {
+			return buildErrorResponse("Unsupported export format " + qFormat + ". Use csv or ndjson.",
+			    HttpStatus.BAD_REQUEST);
+		}
+		
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
+		
+		int[] patientIds = lineListCohorts.getPatientIds(indicator, dates[0], dates[1], filterCategory);
+		String fileName = indicator + "-" + dateTimeFormatter.format(dates[0]) + "-" + dateTimeFormatter.format(dates[1]);
+		cohortExporter.export(patientIds, fileName, dates[0], dates[1], filterCategory, format, response);
+		return null;
+	}
+}
@@ -0,0 +1,54 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.PrivilegeConstants;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.buildErrorResponse;
+
+/**
+ * Exposes the module's metrics for Prometheus to scrape, to users with the
+ * {@value PrivilegeConstants#VIEW_METRICS} privilege. The scraper authenticates as such a user.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/ssemr")
+public class MetricsController {
+	
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	/**
+	 * Returns the request, cohort query, enrichment and cache metrics in the Prometheus text format, or
+	 * 403 without the {@value PrivilegeConstants#VIEW_METRICS} privilege.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/metrics")
+	@ResponseBody
+	public ResponseEntity<Object> getMetrics() {
+		if (!Context.isAuthenticated() || !Context.hasPrivilege(PrivilegeConstants.VIEW_METRICS)) {
+			return buildErrorResponse("Privilege required: " + PrivilegeConstants.VIEW_METRICS, HttpStatus.FORBIDDEN);
+		}
+		
+		StringWriter writer = new StringWriter();
+		try {
+			MetricsRegistry.getInstance().writePrometheus(writer);
+		}
+		catch (IOException e) {
+			System.err.println("Error writing metrics: " + e.getMessage());
+			throw new RuntimeException("Failed to write metrics", e);
+		}
+		
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.CONTENT_TYPE, PROMETHEUS_CONTENT_TYPE);
+		return new ResponseEntity<>(writer.toString(), headers, HttpStatus.OK);
+	}
+}
@@ -68,4 +68,51 @@ public class PatientFlagsController {
 		
 		return new ResponseEntity<>(responseMap, new HttpHeaders(), HttpStatus.OK);
 	}
+	
+	/**
+	 * Batch form of {@link #getPatientFlags} for list views: determines the flags of many patients in
+	 * one request, evaluating each flag rule once for the whole set.
+	 * 
+	 * @param patientUuids Comma separated patient uuids.
+	 * @return The flags per patient uuid, and the uuids that were not found.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/flags/batch")
+	@ResponseBody
+	public ResponseEntity<Object> getPatientsFlags(HttpServletRequest request,
+	        @RequestParam("patientUuids") List<String> patientUuids) throws ParseException {
+		
+		Date startDate = new SimpleDateFormat("yyyy-MM-dd").parse("1970-01-01");
+		Date endDate = new Date();
+		
+		if (patientUuids == null || patientUuids.isEmpty()) {
+			return buildErrorResponse("You must specify patientUuids in the request!", HttpStatus.BAD_REQUEST);
+		}
+		
+		List<Patient> patients = new ArrayList<>();
+		List<String> notFound = new ArrayList<>();
+		for (String patientUuid : new LinkedHashSet<>(patientUuids)) {
+			Patient patient = StringUtils.isBlank(patientUuid) ? null
+			        : Context.getPatientService().getPatientByUuid(patientUuid.trim());
+			if (patient != null) {
+				patients.add(patient);
+			} else {
+				notFound.add(patientUuid);
+			}
+		}
+		
+		Map<Integer, List<Flags>> flagsByPatientId = determinePatientFlags.determinePatientFlags(patients, startDate,
+		    endDate);
+		
+		Map<String, Object> results = new LinkedHashMap<>();
+		for (Patient patient : patients) {
+			results.put(patient.getUuid(),
+			    flagsByPatientId.get(patient.getPatientId()).stream().map(Enum::name).collect(Collectors.toList()));
+		}
+		
+		Map<String, Object> responseMap = new HashMap<>();
+		responseMap.put("results", results);
+		responseMap.put("notFound", notFound);
+		
+		return new ResponseEntity<>(responseMap, new HttpHeaders(), HttpStatus.OK);
+	}
 }
@@ -0,0 +1,77 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.PrivilegeConstants;
+import org.openmrs.module.ssemrws.service.ReportJobService;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import static org.openmrs.module.ssemrws.constants.SharedConstants.buildErrorResponse;
+
+/**
+ * Polls and cancels the report jobs submitted with POST to an aggregate endpoint, e.g.
+ * /dashboard/viralLoadCascade/jobs.
+ * <p>
+ * A job is shared by every user who submits the same report, so any user can poll it. Only the user
+ * who submitted a job, or a user with the {@value PrivilegeConstants#MANAGE_REPORT_JOBS} privilege,
+ * can cancel it.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/ssemr")
+public class ReportJobController {
+	
+	private final ReportJobService reportJobService;
+	
+	public ReportJobController(ReportJobService reportJobService) {
+		this.reportJobService = reportJobService;
+	}
+	
+	/**
+	 * @return The status of a job, with the report once it has completed.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/reportJobs/{jobId}")
+	@ResponseBody
+	public Object getReportJob(@PathVariable("jobId") String jobId) {
+		ReportJobService.Job job = reportJobService.getJob(jobId);
+		if (job == null) {
+			return buildErrorResponse("No report job " + jobId + ", or it has expired", HttpStatus.NOT_FOUND);
+		}
+		return job.toMap(reportJobService.getResultTtlMs());
+	}
+	
+	/**
+	 * Cancels a queued or running job. A job that has already finished is left as it is.
+	 * 
+	 * @return The cancelled job, or an error response, e.g. 403 when the user neither submitted the
+	 *         job nor has the {@value PrivilegeConstants#MANAGE_REPORT_JOBS} privilege.
+	 */
+	@RequestMapping(method = RequestMethod.DELETE, value = "/reportJobs/{jobId}")
+	@ResponseBody
+	public Object cancelReportJob(@PathVariable("jobId") String jobId) {
+		ReportJobService.Job job = reportJobService.getJob(jobId);
+		if (job == null) {
+			return buildErrorResponse("No report job " + jobId + ", or it has expired", HttpStatus.NOT_FOUND);
+		}
+		if (!canCancel(job)) {
+			return buildErrorResponse("Privilege required: " + PrivilegeConstants.MANAGE_REPORT_JOBS, HttpStatus.FORBIDDEN);
+		}
+		if (!reportJobService.cancel(job)) {
+			return buildErrorResponse("Report job " + jobId + " has already finished as " + job.getStatus(),
+			    HttpStatus.CONFLICT);
+		}
+		return job.toMap(reportJobService.getResultTtlMs());
+	}
+	
+	private static boolean canCancel(ReportJobService.Job job) {
+		if (!Context.isAuthenticated()) {
+			return false;
+		}
+		return Context.getAuthenticatedUser().getUserId().equals(job.getSubmittedBy())
+		        || Context.hasPrivilege(PrivilegeConstants.MANAGE_REPORT_JOBS);
+	}
+}
@@ -3,7 +3,7 @@
  * v. 2.0. If a copy of the MPL was not distributed with this file, You can
  * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
  * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
- *
+ * 
  * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
  * graphic logo is a trademark of OpenMRS Inc.
  */
@@ -12,17 +12,22 @@ package org.openmrs.module.ssemrws.web.controller;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.node.JsonNodeFactory;
 import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.CohortCache;
+import org.openmrs.module.ssemrws.constants.LineListCohorts;
+import org.openmrs.module.ssemrws.constants.PatientObsSnapshot;
+import org.openmrs.module.ssemrws.constants.PrivilegeConstants;
 import org.openmrs.module.ssemrws.queries.*;
+import org.openmrs.module.ssemrws.service.FacilityDenominatorService;
 import org.openmrs.module.ssemrws.web.constants.*;
 import org.openmrs.module.ssemrws.web.dto.PatientObservations;
 import org.openmrs.module.webservices.rest.web.RestConstants;
@@ -47,14 +52,6 @@ public class SSEMRWebServicesController {
 	
 	private final GetNextAppointmentDate getNextAppointmentDate;
 	
-	private final GetInterruptedInTreatment getInterruptedInTreatment;
-	
-	private final GetInterruptedInTreatmentWithinRange getInterruptedInTreatmentWithinRange;
-	
-	private final GetMissedAppointments getMissedAppointments;
-	
-	private final GetOnAppointment getOnAppoinment;
-	
 	private final GetAllPatients getAllPatients;
 	
 	private final GetPatientRegimens getPatientRegimens;
@@ -67,23 +64,30 @@ public class SSEMRWebServicesController {
 	
 	private final GetRecurrentHVL getRecurrentHVL;
 	
-	public SSEMRWebServicesController(GetNextAppointmentDate getNextAppointmentDate,
-	    GetInterruptedInTreatment getInterruptedInTreatment,
-	    GetInterruptedInTreatmentWithinRange getInterruptedInTreatmentWithinRange,
-	    GetMissedAppointments getMissedAppointments, GetOnAppointment getOnAppoinment, GetAllPatients getAllPatients,
+	private final CohortCache cohortCache;
+	
+	private final LineListCohorts lineListCohorts;
+	
+	private final GetFilteredPatients getFilteredPatients;
+	
+	private final FacilityDenominatorService facilityDenominatorService;
+	
+	public SSEMRWebServicesController(GetNextAppointmentDate getNextAppointmentDate, GetAllPatients getAllPatients,
 	    GetPatientRegimens getPatientRegimens, GetVLDueDate getVLDueDate, GetTxCurr getTxCurrMain,
-	    GetRecurrenceOfIIT getRecurrenceOfIIT, GetRecurrentHVL getRecurrentHVL) {
+	    GetRecurrenceOfIIT getRecurrenceOfIIT, GetRecurrentHVL getRecurrentHVL, CohortCache cohortCache,
+	    LineListCohorts lineListCohorts, GetFilteredPatients getFilteredPatients,
+	    FacilityDenominatorService facilityDenominatorService) {
 		this.getNextAppointmentDate = getNextAppointmentDate;
-		this.getInterruptedInTreatment = getInterruptedInTreatment;
-		this.getInterruptedInTreatmentWithinRange = getInterruptedInTreatmentWithinRange;
-		this.getMissedAppointments = getMissedAppointments;
-		this.getOnAppoinment = getOnAppoinment;
 		this.getAllPatients = getAllPatients;
 		this.getPatientRegimens = getPatientRegimens;
 		this.getVLDueDate = getVLDueDate;
 		this.getTxCurrMain = getTxCurrMain;
 		this.getRecurrenceOfIIT = getRecurrenceOfIIT;
 		this.getRecurrentHVL = getRecurrentHVL;
+		this.cohortCache = cohortCache;
+		this.lineListCohorts = lineListCohorts;
+		this.getFilteredPatients = getFilteredPatients;
+		this.facilityDenominatorService = facilityDenominatorService;
 	}
 	
 	public enum filterCategory {
@@ -123,31 +127,55 @@ public class SSEMRWebServicesController {
 	}
 	
 	/**
-	 * Retrieves all patients from the system, applying pagination and filtering options.
+	 * Retrieves all patients from the system, applying pagination and filtering options. Passing the
+	 * {@code nextCursor} of a response as {@code cursor} fetches the following page by patient id
+	 * instead of by offset, which keeps deep pages as fast as the first one. Without a cursor the
+	 * {@code page} offset is used as before.
 	 */
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/allClients")
 	@ResponseBody
 	public Object getAllPatients(HttpServletRequest request,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(required = false, value = "page") Integer page,
-	        @RequestParam(required = false, value = "size") Integer size) {
+	        @RequestParam(required = false, value = "size") Integer size,
+	        @RequestParam(required = false, value = "cursor") String cursor) {
 		
 		if (page == null)
 			page = 0;
 		if (size == null)
 			size = 15;
+		if (size <= 0) {
+			return buildErrorResponse("Invalid page size: " + size, HttpStatus.BAD_REQUEST);
+		}
 		
-		HashSet<Patient> allClientsSet = getAllPatients.getAllPatients(page, size);
+		List<Integer> patientIds;
+		if (StringUtils.isNotBlank(cursor)) {
+			Integer lastPatientId;
+			try {
+				lastPatientId = Integer.valueOf(cursor.trim());
+			}
+			catch (NumberFormatException e) {
+				return buildErrorResponse("Invalid cursor: " + cursor, HttpStatus.BAD_REQUEST);
+			}
+			patientIds = getAllPatients.getPatientIdsBefore(lastPatientId, size);
+		} else {
+			patientIds = getAllPatients.getPatientIds(page, size);
+		}
 		
-		if (allClientsSet.isEmpty()) {
+		List<Patient> allClients = FetchPatientsByIdentifier.fetchPatientsInOrder(patientIds);
+		if (allClients.isEmpty()) {
 			return "No Patients found.";
 		}
 		
-		List<Patient> allClients = new ArrayList<>(allClientsSet);
-		allClients.sort(Comparator.comparing(Patient::getPatientId).reversed());
-		
 		ObjectNode allPatientsObj = JsonNodeFactory.instance.objectNode();
 		
+		// A full page may have more patients after it; the cursor is the last id the query returned
+		if (patientIds.size() == size) {
+			allPatientsObj.put("nextCursor", String.valueOf(patientIds.get(patientIds.size() - 1)));
+		} else {
+			allPatientsObj.putNull("nextCursor");
+		}
+		
 		return getAllPatients.allPatientsListObj(allClients, allPatientsObj);
 	}
 	
@@ -163,7 +191,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -173,17 +202,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> interruptedInTreatmentPatients = getInterruptedInTreatment.getIit(dates[0], dates[1]);
+		CohortCache.PinnedCohort interruptedInTreatmentCohort = lineListCohorts.getPinnedCohort(handle,
+		    "interruptedInTreatment", dates[0], dates[1], filterCategory);
 		
-		interruptedInTreatmentPatients = interruptedInTreatmentPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = interruptedInTreatmentPatients.size();
-		
-		List<Patient> iitList = new ArrayList<>(interruptedInTreatmentPatients);
-		
-		return fetchAndPaginatePatients(iitList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(interruptedInTreatmentCohort, page, size, dates[0], dates[1], filterCategory);
 	}
 	
 	/**
@@ -198,7 +220,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("startDate") String qStartDate, @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -208,17 +231,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> iitWithinRangePatients = getInterruptedInTreatmentWithinRange.getIitWithinRange(dates[0], dates[1]);
+		CohortCache.PinnedCohort iitWithinRangeCohort = lineListCohorts.getPinnedCohort(handle,
+		    "interruptedInTreatmentWithinRange", dates[0], dates[1], filterCategory);
 		
-		iitWithinRangePatients = iitWithinRangePatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = iitWithinRangePatients.size();
-		
-		List<Patient> iitWithinRangeList = new ArrayList<>(iitWithinRangePatients);
-		
-		return fetchAndPaginatePatients(iitWithinRangeList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(iitWithinRangeCohort, page, size, dates[0], dates[1], filterCategory);
 	}
 	
 	/**
@@ -233,7 +249,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date startDate = dateTimeFormatter.parse(qStartDate);
@@ -244,16 +261,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> onAppointment = getOnAppoinment.getOnAppoinment(startDate, endDate);
-		
-		onAppointment = onAppointment.stream().filter(patient -> FilterUtility.applyFilter(patient, filterCategory, endDate))
-		        .collect(Collectors.toCollection(HashSet::new));
+		CohortCache.PinnedCohort onAppointmentCohort = lineListCohorts.getPinnedCohort(handle, "onAppointment", startDate,
+		    endDate, filterCategory);
 		
-		int totalPatients = onAppointment.size();
-		
-		List<Patient> onAppoinmentList = new ArrayList<>(onAppointment);
-		
-		return fetchAndPaginatePatients(onAppoinmentList, page, size, totalPatients, startDate, endDate, filterCategory);
+		return fetchAndPaginatePatients(onAppointmentCohort, page, size, startDate, endDate, filterCategory);
 	}
 	
 	/**
@@ -268,7 +279,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date startDate = dateTimeFormatter.parse(qStartDate);
@@ -279,17 +291,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> missedAppointment = getMissedAppointments.getMissedAppointment(startDate, endDate);
-		
-		missedAppointment = missedAppointment.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, endDate))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = missedAppointment.size();
+		CohortCache.PinnedCohort missedAppointmentCohort = lineListCohorts.getPinnedCohort(handle, "missedAppointment",
+		    startDate, endDate, filterCategory);
 		
-		List<Patient> missedAppoinmentList = new ArrayList<>(missedAppointment);
-		
-		return fetchAndPaginatePatients(missedAppoinmentList, page, size, totalPatients, startDate, endDate, filterCategory);
+		return fetchAndPaginatePatients(missedAppointmentCohort, page, size, startDate, endDate, filterCategory);
 	}
 	
 	/**
@@ -307,7 +312,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -317,16 +323,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> rttPatients = getReturnToTreatmentPatients(dates[0], dates[1]);
-		
-		rttPatients = rttPatients.stream().filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = rttPatients.size();
-		
-		List<Patient> rttList = new ArrayList<>(rttPatients);
+		CohortCache.PinnedCohort rttCohort = lineListCohorts.getPinnedCohort(handle, "returnedToTreatment", dates[0],
+		    dates[1], filterCategory);
 		
-		return fetchAndPaginatePatients(rttList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(rttCohort, page, size, dates[0], dates[1], filterCategory);
 	}
 	
 	/**
@@ -346,7 +346,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -356,17 +357,10 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> transferredOutPatients = getTransferredOutClients(dates[0], dates[1]);
-		
-		transferredOutPatients = transferredOutPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = transferredOutPatients.size();
-		
-		List<Patient> transferOutList = new ArrayList<>(transferredOutPatients);
+		CohortCache.PinnedCohort transferredOutCohort = lineListCohorts.getPinnedCohort(handle, "transferredOut", dates[0],
+		    dates[1], filterCategory);
 		
-		return fetchAndPaginatePatients(transferOutList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(transferredOutCohort, page, size, dates[0], dates[1], filterCategory);
 	}
 	
 	/**
@@ -378,7 +372,8 @@ public class SSEMRWebServicesController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -388,23 +383,51 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> deceasedPatients = getDeceasedPatientsByDateRange(dates[0], dates[1]);
+		CohortCache.PinnedCohort deceasedCohort = lineListCohorts.getPinnedCohort(handle, "deceased", dates[0], dates[1],
+		    filterCategory);
 		
-		// Filter out patients who have an upcoming appointment
-		deceasedPatients.removeIf(patient -> {
-			String nextAppointmentDate = getNextAppointmentDate.getNextAppointmentDateByUuid(patient.getUuid());
-			return !nextAppointmentDate.equals("No Upcoming Appointments");
-		});
+		return fetchAndPaginatePatients(deceasedCohort, page, size, dates[0], dates[1], filterCategory);
+	}
+	
+	/**
+	 * Returns the pregnant and breastfeeding women (PBFW): patients recorded as currently pregnant or
+	 * breastfeeding on or before the end date.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/pbfw")
+	@ResponseBody
+	public Object getPregnantAndBreastfeedingPatients(HttpServletRequest request,
+	        @RequestParam(required = false, value = "startDate") String qStartDate,
+	        @RequestParam(required = false, value = "endDate") String qEndDate,
+	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
+	        @RequestParam(value = "page", required = false) Integer page,
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
-		deceasedPatients = deceasedPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		int totalPatients = deceasedPatients.size();
+		if (page == null)
+			page = 0;
+		if (size == null)
+			size = 15;
 		
-		List<Patient> deceasedList = new ArrayList<>(deceasedPatients);
+		CohortCache.PinnedCohort pbfwCohort = lineListCohorts.getPinnedCohort(handle, "pbfw", dates[0], dates[1],
+		    filterCategory);
 		
-		return fetchAndPaginatePatients(deceasedList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(pbfwCohort, page, size, dates[0], dates[1], filterCategory);
+	}
+	
+	/**
+	 * Returns the size and hit, miss and eviction counts of the dashboard cohort cache to users with the
+	 * {@value PrivilegeConstants#VIEW_METRICS} privilege.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/cohortCache")
+	@ResponseBody
+	public ResponseEntity<Object> getCohortCacheStatistics(HttpServletRequest request) {
+		if (!Context.isAuthenticated() || !Context.hasPrivilege(PrivilegeConstants.VIEW_METRICS)) {
+			return buildErrorResponse("Privilege required: " + PrivilegeConstants.VIEW_METRICS, HttpStatus.FORBIDDEN);
+		}
+		return new ResponseEntity<>(cohortCache.getStatistics(), new HttpHeaders(), HttpStatus.OK);
 	}
 	
 	/**
@@ -478,7 +501,7 @@ public class SSEMRWebServicesController {
 	 */
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/underCareOfCommunityProgrammes")
 	@ResponseBody
-	public Object getPatientsUnderCareOfCommunityProgrammes(HttpServletRequest request,
+	public void getPatientsUnderCareOfCommunityProgrammes(HttpServletRequest request, HttpServletResponse response,
 	        @RequestParam("startDate") String qStartDate, @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
@@ -492,24 +515,12 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		EncounterType communityLinkageEncounterType = Context.getEncounterService()
-		        .getEncounterTypeByUuid(COMMUNITY_LINKAGE_ENCOUNTER_UUID);
-		EncounterSearchCriteria encounterSearchCriteria = new EncounterSearchCriteria(null, null, dates[0], dates[1], null,
-		        null, Collections.singletonList(communityLinkageEncounterType), null, null, null, false);
-		List<Encounter> encounters = Context.getEncounterService().getEncounters(encounterSearchCriteria);
-		
-		HashSet<Patient> underCareOfCommunityPatients = encounters.stream().map(Encounter::getPatient).collect(HashSet::new,
-		    HashSet::add, HashSet::addAll);
-		
-		underCareOfCommunityPatients = underCareOfCommunityPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = underCareOfCommunityPatients.size();
+		List<Patient> underCareList = lineListCohorts.getPatients("underCareOfCommunityProgrammes", dates[0], dates[1],
+		    filterCategory);
 		
-		List<Patient> underCareList = new ArrayList<>(underCareOfCommunityPatients);
+		int totalPatients = underCareList.size();
 		
-		return paginateAndGenerateSummary(underCareList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		paginateAndGenerateSummary(underCareList, page, size, totalPatients, dates[0], dates[1], filterCategory, response);
 	}
 	
 	/**
@@ -534,7 +545,7 @@ public class SSEMRWebServicesController {
 		if (size == null)
 			size = 15;
 		
-		int totalPatients = Context.getPatientService().getAllPatients().size();
+		int totalPatients = facilityDenominatorService.getTotalPatients();
 		
 		if (totalPatients == 0) {
 			Map<String, Integer> response = new HashMap<>();
@@ -553,9 +564,8 @@ public class SSEMRWebServicesController {
 		HashSet<Patient> underCareOfCommunityPatients = encounters.stream().map(Encounter::getPatient).collect(HashSet::new,
 		    HashSet::add, HashSet::addAll);
 		
-		underCareOfCommunityPatients = underCareOfCommunityPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
+		underCareOfCommunityPatients = getFilteredPatients.filterPatients(underCareOfCommunityPatients, filterCategory,
+		    dates[1]);
 		
 		List<Patient> underCareList = new ArrayList<>(underCareOfCommunityPatients);
 		
@@ -596,7 +606,32 @@ public class SSEMRWebServicesController {
 		return new ResponseEntity<>(responseMap, new HttpHeaders(), HttpStatus.OK);
 	}
 	
+	/**
+	 * Concepts read by {@link #getPatientObservations(Patient)}. They are loaded up front in a single
+	 * {@link PatientObsSnapshot} instead of one ObsService call per getter.
+	 */
+	private static final List<String> PATIENT_OBSERVATION_CONCEPTS = Collections
+	        .unmodifiableList(Arrays.asList(DATE_OF_ENROLLMENT_UUID, LAST_REFILL_DATE_UUID, ACTIVE_REGIMEN_CONCEPT_UUID,
+	            LAST_CD4_COUNT_UUID, CD4_DONE_UUID, TB_STATUS_CONCEPT_UUID, ARV_REGIMEN_DOSE_UUID, WHO_CLINICAL_UUID,
+	            WHO_CLINICAL_STAGE_INTAKE_UUID, SAMPLE_COLLECTION_DATE_UUID, REPEAT_VL_COLLECTION_DATE,
+	            DATE_VL_RESULTS_RECEIVED_UUID, REAPEAT_VL_COLLECTION, VIRAL_LOAD_CONCEPT_UUID, VIRAL_LOAD_RESULTS_UUID,
+	            BMI_CONCEPT_UUID, MUAC_CONCEPT_UUID, CLINICIAN_CONCEPT_UUID, TB_UNIT_NUMBER, GENERAL_FAMILY_MEMBERS_UUID,
+	            FAMILY_MEMBER_NAME_UUID, FAMILY_MEMBER_AGE_UUID, FAMILY_MEMBER_SEX_UUID, FAMILY_MEMBER_HIV_STATUS_UUID,
+	            FAMILY_MEMBER_UAN_UUID, INDEX_FAMILY_MEMBERS_UUID, INDEX_FAMILY_MEMBER_NAME_UUID,
+	            INDEX_FAMILY_MEMBER_AGE_UUID, INDEX_FAMILY_MEMBER_SEX_UUID, INDEX_FAMILY_MEMBER_RELATIONSHIP_UUID,
+	            INDEX_FAMILY_MEMBER_HIV_STATUS_KNOWN_UUID, INDEX_FAMILY_MEMBER_HIV_STATUS_UUID,
+	            INDEX_FAMILY_MEMBER_PHONE_UUID, INDEX_FAMILY_MEMBER_ART_NUMBER_UUID, TEMPERATURE, SYSTOLIC_BLOOD_PRESSURE,
+	            DIASTOLIC_BLOOD_PRESSURE, COMMUNITY_CADRE, NAME_OF_COMMUNITY_HIV_SERVICE_OFFICER,
+	            COMMUNITY_HIV_SERVICE_OFFICER_PHONE, NAME_OF_MENTOR_MOTHER, MENTOR_MOTHER_PHONE, ADDRESS_OF_MENTOR_MOTHER,
+	            NAME_OF_SENIOR_MENTOR_MOTHER, SENIOR_MENTOR_MOTHER_PHONE, NAME_OF_COW, COW_PHONE, ADDRESS_OF_COW, ON_TB));
+	
 	private PatientObservations getPatientObservations(Patient patient) {
+		try (PatientObsSnapshot ignored = PatientObsSnapshot.open(patient, PATIENT_OBSERVATION_CONCEPTS)) {
+			return buildPatientObservations(patient);
+		}
+	}
+	
+	private PatientObservations buildPatientObservations(Patient patient) {
 		PatientObservations observations = new PatientObservations();
 		
 		observations.setEnrollmentDate(getEnrolmentDate(patient));
@@ -1,5 +1,8 @@
 package org.openmrs.module.ssemrws.web.controller;
 
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.LineListCohorts;
+import org.openmrs.module.ssemrws.queries.GetEnrollmentDate;
 import org.openmrs.module.ssemrws.web.constants.*;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.springframework.stereotype.Controller;
@@ -9,6 +12,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -26,16 +30,20 @@ public class TxCurrController {
 	
 	private final GenerateTxCurrSummaryResponse generateTxCurrSummaryResponse;
 	
-	private final GetTxCurr getTxCurr;
+	private final LineListCohorts lineListCohorts;
 	
-	public TxCurrController(GenerateTxCurrSummaryResponse generateTxCurrSummaryResponse, GetTxCurr getTxCurr) {
+	private final GetEnrollmentDate getEnrollmentDate;
+	
+	public TxCurrController(GenerateTxCurrSummaryResponse generateTxCurrSummaryResponse, LineListCohorts lineListCohorts,
+	    GetEnrollmentDate getEnrollmentDate) {
 		this.generateTxCurrSummaryResponse = generateTxCurrSummaryResponse;
-		this.getTxCurr = getTxCurr;
+		this.lineListCohorts = lineListCohorts;
+		this.getEnrollmentDate = getEnrollmentDate;
 	}
 	
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/activeClients")
 	@ResponseBody
-	public Object getActiveClientsEndpoint(HttpServletRequest request,
+	public void getActiveClientsEndpoint(HttpServletRequest request, HttpServletResponse response,
 	        @RequestParam(required = false, value = "startDate") String qStartDate,
 	        @RequestParam(required = false, value = "endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
@@ -50,25 +58,27 @@ public class TxCurrController {
 		if (size == null)
 			size = 15;
 		
-		List<GetTxNew.PatientEnrollmentData> txCurrPatients = getTxCurr.getTxCurrPatients(dates[0], dates[1]);
-		
-		txCurrPatients = txCurrPatients.stream()
-		        .filter(data -> FilterUtility.applyFilter(data.getPatient(), filterCategory, dates[1]))
-		        .collect(Collectors.toList());
+		List<Patient> txCurrPatients = lineListCohorts.getPatients("activeClients", dates[0], dates[1], filterCategory);
 		
-		int totalPatients = txCurrPatients.size();
+		// The summary groups the clients by ART start date
+		Map<Integer, Date> artStartDates = getEnrollmentDate.getARTStartDates(
+		    txCurrPatients.stream().map(Patient::getPatientId).collect(Collectors.toList()), dates[1]);
+		ArrayList<GetTxNew.PatientEnrollmentData> txCurrList = new ArrayList<>();
+		for (Patient patient : txCurrPatients) {
+			txCurrList.add(new GetTxNew.PatientEnrollmentData(patient, artStartDates.get(patient.getPatientId())));
+		}
 		
-		ArrayList<GetTxNew.PatientEnrollmentData> txCurrList = new ArrayList<>(txCurrPatients);
+		int totalPatients = txCurrList.size();
 		
-		return paginateAndGenerateSummaryForTxCurr(txCurrList, page, size, totalPatients, dates[0], dates[1],
-		    filterCategory);
+		paginateAndGenerateSummaryForTxCurr(txCurrList, page, size, totalPatients, dates[0], dates[1], filterCategory,
+		    response);
 	}
 	
-	private Object paginateAndGenerateSummaryForTxCurr(ArrayList<GetTxNew.PatientEnrollmentData> patientList, int page,
+	private void paginateAndGenerateSummaryForTxCurr(ArrayList<GetTxNew.PatientEnrollmentData> patientList, int page,
 	        int size, int totalCount, Date startDate, Date endDate,
-	        SSEMRWebServicesController.filterCategory filterCategory) {
-		return generateTxCurrSummaryResponse.generateActiveClientsSummaryResponse(patientList, page, size, "totalPatients",
+	        SSEMRWebServicesController.filterCategory filterCategory, HttpServletResponse response) {
+		generateTxCurrSummaryResponse.generateActiveClientsSummaryResponse(patientList, page, size, "totalPatients",
 		    totalCount, startDate, endDate, filterCategory, (enrollmentDates) -> GenerateCumulativeSummary
-		            .generateCumulativeSummary(enrollmentDates, startDate, endDate, totalCount));
+		            .generateCumulativeSummary(enrollmentDates, startDate, endDate, totalCount), response);
 	}
 }
@@ -1,6 +1,8 @@
 package org.openmrs.module.ssemrws.web.controller;
 
-import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.Patient;
+import org.openmrs.module.ssemrws.constants.LineListCohorts;
+import org.openmrs.module.ssemrws.constants.ObsPrefetcher;
 import org.openmrs.module.ssemrws.web.constants.GenerateTxNewSummary;
 import org.openmrs.module.ssemrws.web.constants.GenerateTxNewSummaryResponse;
 import org.openmrs.module.webservices.rest.web.RestConstants;
@@ -11,12 +13,15 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.getStartAndEndDate;
+import static org.openmrs.module.ssemrws.constants.GetDateObservations.getDateByConcept;
+import static org.openmrs.module.ssemrws.web.constants.AllConcepts.DATE_OF_ENROLLMENT_UUID;
 import static org.openmrs.module.ssemrws.web.constants.GetTxNew.*;
 
 /**
@@ -29,13 +34,20 @@ public class TxNewController {
 	
 	private final GenerateTxNewSummaryResponse getGenerateTxNewSummaryResponse;
 	
-	public TxNewController(GenerateTxNewSummaryResponse getGenerateTxNewSummaryResponse) {
+	private final LineListCohorts lineListCohorts;
+	
+	private final ObsPrefetcher obsPrefetcher;
+	
+	public TxNewController(GenerateTxNewSummaryResponse getGenerateTxNewSummaryResponse, LineListCohorts lineListCohorts,
+	    ObsPrefetcher obsPrefetcher) {
 		this.getGenerateTxNewSummaryResponse = getGenerateTxNewSummaryResponse;
+		this.lineListCohorts = lineListCohorts;
+		this.obsPrefetcher = obsPrefetcher;
 	}
 	
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/newClients")
 	@ResponseBody
-	public Object getNewPatients(HttpServletRequest request,
+	public void getNewPatients(HttpServletRequest request, HttpServletResponse response,
 	        @RequestParam(required = false, value = "startDate") String qStartDate,
 	        @RequestParam(required = false, value = "endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
@@ -50,25 +62,30 @@ public class TxNewController {
 		if (size == null)
 			size = 15;
 		
-		List<PatientEnrollmentData> enrolledPatients = getNewlyEnrolledPatients(dates[0], dates[1]);
-		
-		enrolledPatients = enrolledPatients.stream()
-		        .filter(data -> FilterUtility.applyFilter(data.getPatient(), filterCategory, dates[1]))
-		        .collect(Collectors.toList());
+		List<Patient> enrolledPatients = lineListCohorts.getPatients("newClients", dates[0], dates[1], filterCategory);
 		
-		int totalPatients = enrolledPatients.size();
+		// The summary groups the clients by their latest enrollment date
+		ArrayList<PatientEnrollmentData> txNewList = new ArrayList<>();
+		try (ObsPrefetcher.Prefetch ignored = obsPrefetcher.prefetch(
+		    enrolledPatients.stream().map(Patient::getPatientId).collect(Collectors.toList()),
+		    Collections.singletonList(DATE_OF_ENROLLMENT_UUID))) {
+			for (Patient patient : enrolledPatients) {
+				txNewList.add(new PatientEnrollmentData(patient, getDateByConcept(patient, DATE_OF_ENROLLMENT_UUID)));
+			}
+		}
 		
-		ArrayList<PatientEnrollmentData> txNewList = new ArrayList<>(enrolledPatients);
+		int totalPatients = txNewList.size();
 		
 		// Use the reusable method
-		return paginateAndGenerateSummaryForNewlyEnrolledClients(txNewList, page, size, totalPatients, dates[0], dates[1],
-		    filterCategory);
+		paginateAndGenerateSummaryForNewlyEnrolledClients(txNewList, page, size, totalPatients, dates[0], dates[1],
+		    filterCategory, response);
 	}
 	
-	private Object paginateAndGenerateSummaryForNewlyEnrolledClients(ArrayList<PatientEnrollmentData> patientList, int page,
+	private void paginateAndGenerateSummaryForNewlyEnrolledClients(ArrayList<PatientEnrollmentData> patientList, int page,
 	        int size, int totalCount, Date startDate, Date endDate,
-	        SSEMRWebServicesController.filterCategory filterCategory) {
-		return getGenerateTxNewSummaryResponse.generateNewlyEnrolledClientsSummaryResponse(patientList, page, size,
-		    "totalPatients", totalCount, startDate, endDate, filterCategory, GenerateTxNewSummary::generateTxNewSummary);
+	        SSEMRWebServicesController.filterCategory filterCategory, HttpServletResponse response) {
+		getGenerateTxNewSummaryResponse.generateNewlyEnrolledClientsSummaryResponse(patientList, page, size,
+		    "totalPatients", totalCount, startDate, endDate, filterCategory, GenerateTxNewSummary::generateTxNewSummary,
+		    response);
 	}
 }
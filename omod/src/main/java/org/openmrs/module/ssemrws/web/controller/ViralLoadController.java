@@ -3,9 +3,15 @@ package org.openmrs.module.ssemrws.web.controller;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.CohortCache;
+import org.openmrs.module.ssemrws.constants.LineListCohorts;
 import org.openmrs.module.ssemrws.queries.EacSessionService;
-import org.openmrs.module.ssemrws.queries.GetDueForVL;
-import org.openmrs.module.ssemrws.web.constants.FilterUtility;
+import org.openmrs.module.ssemrws.queries.GetViralLoadCascadeStages;
+import org.openmrs.module.ssemrws.queries.GetViralLoadIndicators;
+import org.openmrs.module.ssemrws.service.FacilityDenominatorService;
+import org.openmrs.module.ssemrws.service.IndicatorExecutor;
+import org.openmrs.module.ssemrws.service.ReportJobService;
+import org.openmrs.module.ssemrws.web.constants.ViralLoadIndicators;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.parameter.EncounterSearchCriteria;
 import org.springframework.stereotype.Controller;
@@ -15,14 +21,14 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Future;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
 import static org.openmrs.module.ssemrws.web.constants.AllConcepts.*;
-import static org.openmrs.module.ssemrws.web.constants.AllConcepts.EAC_SESSION_CONCEPT_UUID;
 import static org.openmrs.module.ssemrws.web.constants.ViralLoadCascade.getViralLoadCascade;
 
 /**
@@ -33,13 +39,31 @@ import static org.openmrs.module.ssemrws.web.constants.ViralLoadCascade.getViral
 @RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/ssemr")
 public class ViralLoadController {
 	
-	private final GetDueForVL getDueForVl;
-	
 	private final EacSessionService eacSessionService;
 	
-	public ViralLoadController(GetDueForVL getDueForVl, EacSessionService eacSessionService) {
-		this.getDueForVl = getDueForVl;
+	private final LineListCohorts lineListCohorts;
+	
+	private final FacilityDenominatorService facilityDenominatorService;
+	
+	private final GetViralLoadIndicators getViralLoadIndicators;
+	
+	private final GetViralLoadCascadeStages getViralLoadCascadeStages;
+	
+	private final ReportJobService reportJobService;
+	
+	private final IndicatorExecutor indicatorExecutor;
+	
+	public ViralLoadController(EacSessionService eacSessionService, LineListCohorts lineListCohorts,
+	    FacilityDenominatorService facilityDenominatorService, GetViralLoadIndicators getViralLoadIndicators,
+	    GetViralLoadCascadeStages getViralLoadCascadeStages, ReportJobService reportJobService,
+	    IndicatorExecutor indicatorExecutor) {
 		this.eacSessionService = eacSessionService;
+		this.lineListCohorts = lineListCohorts;
+		this.facilityDenominatorService = facilityDenominatorService;
+		this.getViralLoadIndicators = getViralLoadIndicators;
+		this.getViralLoadCascadeStages = getViralLoadCascadeStages;
+		this.reportJobService = reportJobService;
+		this.indicatorExecutor = indicatorExecutor;
 	}
 	
 	/**
@@ -49,8 +73,8 @@ public class ViralLoadController {
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/dueForVl")
 	// gets all visit forms for a patient
 	@ResponseBody
-	public Object getPatientsDueForVl(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
-	        @RequestParam("endDate") String qEndDate,
+	public void getPatientsDueForVl(HttpServletRequest request, HttpServletResponse response,
+	        @RequestParam("startDate") String qStartDate, @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
 	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
@@ -63,17 +87,11 @@ public class ViralLoadController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> dueForVlClients = getDueForVl.getDueForVl(dates[0], dates[1]);
-		
-		dueForVlClients = dueForVlClients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
+		List<Patient> dueForVlList = lineListCohorts.getPatients("dueForVl", dates[0], dates[1], filterCategory);
 		
-		int totalPatients = dueForVlClients.size();
+		int totalPatients = dueForVlList.size();
 		
-		List<Patient> dueForVlList = new ArrayList<>(dueForVlClients);
-		
-		return paginateAndGenerateSummary(dueForVlList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		paginateAndGenerateSummary(dueForVlList, page, size, totalPatients, dates[0], dates[1], filterCategory, response);
 	}
 	
 	/**
@@ -91,7 +109,8 @@ public class ViralLoadController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "handle", required = false) String handle) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
@@ -101,17 +120,10 @@ public class ViralLoadController {
 		if (size == null)
 			size = 15;
 		
-		HashSet<Patient> highVLPatients = getPatientsWithHighVL(dates[0], dates[1]);
-		
-		highVLPatients = highVLPatients.stream()
-		        .filter(patient -> FilterUtility.applyFilter(patient, filterCategory, dates[1]))
-		        .collect(Collectors.toCollection(HashSet::new));
-		
-		int totalPatients = highVLPatients.size();
-		
-		List<Patient> highVlList = new ArrayList<>(highVLPatients);
+		CohortCache.PinnedCohort highVLCohort = lineListCohorts.getPinnedCohort(handle, "highVl", dates[0], dates[1],
+		    filterCategory);
 		
-		return fetchAndPaginatePatients(highVlList, page, size, totalPatients, dates[0], dates[1], filterCategory);
+		return fetchAndPaginatePatients(highVLCohort, page, size, dates[0], dates[1], filterCategory);
 	}
 	
 	/**
@@ -210,29 +222,60 @@ public class ViralLoadController {
 	}
 	
 	/**
-	 * Retrieves Clients with viral load coverage data
+	 * Retrieves Clients with viral load coverage data. A completed report job for the same parameters
+	 * is returned instead of computing the coverage again.
 	 * 
 	 * @return JSON representation of the list of patients with viral load coverage data
 	 */
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/viralLoadCoverage")
 	@ResponseBody
 	public Object getViralLoadCoverage(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
-	        @RequestParam("endDate") String qEndDate) throws ParseException {
+	        @RequestParam("endDate") String qEndDate,
+	        @RequestParam(value = "breakdown", required = false) boolean breakdown) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		int totalPatients = Context.getPatientService().getAllPatients().size();
+		Object completed = reportJobService
+		        .getCompletedResult(ReportJobService.buildKey("viralLoadCoverage", dates[0], dates[1], breakdown));
+		return completed != null ? completed : computeViralLoadCoverage(dates[0], dates[1], breakdown);
+	}
+	
+	/**
+	 * Submits the viral load coverage as a report job and returns the job at once. Poll
+	 * /reportJobs/{jobId} for the result.
+	 */
+	@RequestMapping(method = RequestMethod.POST, value = "/dashboard/viralLoadCoverage/jobs")
+	@ResponseBody
+	public Object submitViralLoadCoverage(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
+	        @RequestParam("endDate") String qEndDate,
+	        @RequestParam(value = "breakdown", required = false) boolean breakdown) throws ParseException {
+		
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
+		
+		return submitReportJob(reportJobService, "viralLoadCoverage",
+		    ReportJobService.buildKey("viralLoadCoverage", dates[0], dates[1], breakdown),
+		    () -> computeViralLoadCoverage(dates[0], dates[1], breakdown));
+	}
+	
+	private Map<String, Object> computeViralLoadCoverage(Date startDate, Date endDate, boolean breakdown) {
+		Future<ViralLoadIndicators> viralLoadIndicators = indicatorExecutor
+		        .submit(() -> getViralLoadIndicators.getViralLoadIndicators(startDate, endDate));
+		int totalPatients = facilityDenominatorService.getTotalPatients();
 		
-		List<Patient> patientsWithVLCoverage = fetchPatientsWithViralLoadCoverage(dates[0], dates[1]);
-		int vlCoverage = patientsWithVLCoverage.size();
+		ViralLoadIndicators indicators = IndicatorExecutor.getResult(viralLoadIndicators);
+		int vlCoverage = indicators.getCovered();
 		
 		int notVlCovered = totalPatients - vlCoverage;
 		
-		Map<String, Integer> response = new HashMap<>();
+		Map<String, Object> response = new HashMap<>();
 		response.put("totalPatients", totalPatients);
 		response.put("vlCoverage", vlCoverage);
 		response.put("notVlCovered", notVlCovered);
+		if (breakdown) {
+			putCoverageBreakdown(response, indicators);
+		}
 		
 		return response;
 	}
@@ -245,11 +288,12 @@ public class ViralLoadController {
 	@RequestMapping(method = RequestMethod.GET, value = "/chart/viralLoadCoverage")
 	@ResponseBody
 	public Object viralLoadCoverageChart(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
-	        @RequestParam("endDate") String qEndDate) throws ParseException {
+	        @RequestParam("endDate") String qEndDate,
+	        @RequestParam(value = "breakdown", required = false) boolean breakdown) throws ParseException {
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		int totalPatients = Context.getPatientService().getAllPatients().size();
+		int totalPatients = facilityDenominatorService.getTotalPatients();
 		
 		if (totalPatients == 0) {
 			Map<String, Object> response = new HashMap<>();
@@ -259,13 +303,8 @@ public class ViralLoadController {
 			return response;
 		}
 		
-		List<Patient> patientsWithVLCoverage = fetchPatientsWithViralLoadCoverage(dates[0], dates[1]);
-		
-		if (patientsWithVLCoverage == null) {
-			patientsWithVLCoverage = new ArrayList<>();
-		}
-		;
-		int vlCoverage = patientsWithVLCoverage.size();
+		ViralLoadIndicators indicators = getViralLoadIndicators.getViralLoadIndicators(dates[0], dates[1]);
+		int vlCoverage = indicators.getCovered();
 		
 		int notVlCovered = totalPatients - vlCoverage;
 		
@@ -276,39 +315,16 @@ public class ViralLoadController {
 		response.put("Total Patients", totalPatients);
 		response.put("covered", covered);
 		response.put("notCovered", notCovered);
+		if (breakdown) {
+			putCoverageBreakdown(response, indicators);
+		}
 		
 		return response;
 	}
 	
-	private List<Patient> fetchPatientsWithViralLoadCoverage(Date startDate, Date endDate) {
-		Set<Integer> patientIds = fetchViralLoadPatientIds(startDate, endDate);
-		
-		return Context.getPatientService().getAllPatients().stream().filter(patient -> {
-			boolean found = patientIds.contains(patient.getPerson().getPersonId());
-			if (!found) {
-				System.out.println("❌ Patient Not Found in VL List: " + patient.getPatientId() + " | Person ID: "
-				        + patient.getPerson().getPersonId());
-			}
-			return found;
-		}).collect(Collectors.toList());
-	}
-	
-	private Set<Integer> fetchViralLoadPatientIds(Date startDate, Date endDate) {
-		Concept viralLoadResultsConcept = Context.getConceptService().getConceptByUuid(VIRAL_LOAD_RESULTS_UUID);
-		
-		List<Obs> vlResultsObs = Context.getObsService().getObservations(null, null,
-		    Collections.singletonList(viralLoadResultsConcept), null, null, null, null, null, null, startDate, endDate,
-		    false);
-		
-		if (vlResultsObs.isEmpty()) {
-			return Collections.emptySet();
-		}
-		
-		Set<Integer> patientIds = vlResultsObs.stream().map(obs -> {
-			return obs.getPerson().getPersonId();
-		}).collect(Collectors.toSet());
-		
-		return patientIds;
+	private static void putCoverageBreakdown(Map<String, Object> response, ViralLoadIndicators indicators) {
+		response.put("vlCoverageByAgeBand", indicators.getCoveredByAgeBand());
+		response.put("vlCoverageBySex", indicators.getCoveredBySex());
 	}
 	
 	/**
@@ -324,22 +340,25 @@ public class ViralLoadController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "breakdown", required = false) boolean breakdown) throws ParseException {
 		
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		int totalPatients = Context.getPatientService().getAllPatients().size();
+		int totalPatients = facilityDenominatorService.getTotalPatients();
 		
-		List<Patient> vlCoveredPatients = fetchPatientsWithViralLoadCoverage(dates[0], dates[1]);
-		int vlCoverage = vlCoveredPatients.size();
+		ViralLoadIndicators indicators = getViralLoadIndicators.getViralLoadIndicators(dates[0], dates[1]);
+		int vlCoverage = indicators.getCovered();
+		int vlSuppressed = indicators.getSuppressed();
 		
-		int vlSuppressed = countViralLoadSuppressedPatients(vlCoveredPatients, dates[0], dates[1]);
-		
-		Map<String, Integer> response = new HashMap<>();
+		Map<String, Object> response = new HashMap<>();
 		response.put("totalPatients", totalPatients);
 		response.put("vlCoverage", vlCoverage);
 		response.put("vlSuppressed", vlSuppressed);
+		if (breakdown) {
+			putSuppressionBreakdown(response, indicators);
+		}
 		
 		return response;
 	}
@@ -355,11 +374,12 @@ public class ViralLoadController {
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory,
 	        @RequestParam(value = "page", required = false) Integer page,
-	        @RequestParam(value = "size", required = false) Integer size) throws ParseException {
+	        @RequestParam(value = "size", required = false) Integer size,
+	        @RequestParam(value = "breakdown", required = false) boolean breakdown) throws ParseException {
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		int totalPatients = Context.getPatientService().getAllPatients().size();
+		int totalPatients = facilityDenominatorService.getTotalPatients();
 		
 		if (totalPatients == 0) {
 			Map<String, Integer> response = new HashMap<>();
@@ -370,70 +390,72 @@ public class ViralLoadController {
 			return response;
 		}
 		
-		List<Patient> vlCoveredPatients = fetchPatientsWithViralLoadCoverage(dates[0], dates[1]);
-		int vlCoverage = vlCoveredPatients.size();
-		int vlSuppressed = countViralLoadSuppressedPatients(vlCoveredPatients, dates[0], dates[1]);
+		ViralLoadIndicators indicators = getViralLoadIndicators.getViralLoadIndicators(dates[0], dates[1]);
+		int vlCoverage = indicators.getCovered();
+		int vlSuppressed = indicators.getSuppressed();
 		
 		int suppressed = vlCoverage > 0 ? Math.round(((float) vlSuppressed / vlCoverage) * 100) : 0;
 		int unSuppressed = vlCoverage > 0 ? 100 - suppressed : 0;
 		
-		Map<String, Integer> response = new HashMap<>();
+		Map<String, Object> response = new HashMap<>();
 		response.put("totalPatients", totalPatients);
 		response.put("suppressed", suppressed);
 		response.put("unSuppressed", unSuppressed);
+		if (breakdown) {
+			putSuppressionBreakdown(response, indicators);
+		}
 		
 		return response;
 	}
 	
+	private static void putSuppressionBreakdown(Map<String, Object> response, ViralLoadIndicators indicators) {
+		putCoverageBreakdown(response, indicators);
+		response.put("vlCoveragePbfw", indicators.getCoveredPbfw());
+		response.put("vlSuppressedByAgeBand", indicators.getSuppressedByAgeBand());
+		response.put("vlSuppressedBySex", indicators.getSuppressedBySex());
+		response.put("vlSuppressedPbfw", indicators.getSuppressedPbfw());
+	}
+	
 	/**
-	 * Get count of VL Suppressed Patients (BDL or VL < 1000)
+	 * This method handles the viral load cascade endpoint for the ART dashboard. It retrieves the
+	 * necessary data from the database and calculates the viral load cascade, unless a completed report
+	 * job already holds the cascade for the same parameters.
 	 */
-	private int countViralLoadSuppressedPatients(List<Patient> vlCoveredPatients, Date startDate, Date endDate) {
-		Concept vlResultConcept = Context.getConceptService().getConceptByUuid(VIRAL_LOAD_RESULTS_UUID);
-		Concept vlNumericConcept = Context.getConceptService().getConceptByUuid(VIRAL_LOAD_CONCEPT_UUID);
+	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/viralLoadCascade")
+	@ResponseBody
+	public Object viralLoadCascade(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
+	        @RequestParam("endDate") String qEndDate,
+	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory)
+	        throws ParseException {
 		
-		HashSet<Integer> suppressedPatients = new HashSet<>();
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		for (Patient patient : vlCoveredPatients) {
-			List<Obs> vlObservations = Context.getObsService().getObservations(
-			    Collections.singletonList(patient.getPerson()), null, Arrays.asList(vlResultConcept, vlNumericConcept), null,
-			    null, null, null, null, null, startDate, endDate, false);
-			
-			for (Obs obs : vlObservations) {
-				// Check if VL is Below Detectable (BDL)
-				if (obs.getConcept().equals(vlResultConcept)
-				        && "Below Detectable (BDL)".equalsIgnoreCase(obs.getValueText())) {
-					suppressedPatients.add(patient.getPatientId());
-					break;
-				}
-				
-				// Check if VL Numeric Value is < 1000
-				if (obs.getConcept().equals(vlNumericConcept) && obs.getValueNumeric() != null
-				        && obs.getValueNumeric() < 1000) {
-					suppressedPatients.add(patient.getPatientId());
-					break;
-				}
-			}
+		Object completed = reportJobService
+		        .getCompletedResult(ReportJobService.buildKey("viralLoadCascade", dates[0], dates[1], filterCategory));
+		if (completed != null) {
+			return completed;
 		}
-		
-		return suppressedPatients.size();
+		return getViralLoadCascade(getViralLoadCascadeStages.getClientStageDates(dates[0], dates[1], filterCategory));
 	}
 	
 	/**
-	 * This method handles the viral load cascade endpoint for the ART dashboard. It retrieves the
-	 * necessary data from the database and calculates the viral load cascade.
+	 * Submits the viral load cascade as a report job and returns the job at once. Poll
+	 * /reportJobs/{jobId} for the result.
 	 */
-	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/viralLoadCascade")
+	@RequestMapping(method = RequestMethod.POST, value = "/dashboard/viralLoadCascade/jobs")
 	@ResponseBody
-	public Object viralLoadCascade(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
+	public Object submitViralLoadCascade(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
 	        @RequestParam("endDate") String qEndDate,
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory)
 	        throws ParseException {
 		
-		return getViralLoadCascade(qStartDate, qEndDate,
-		    Arrays.asList(FIRST_EAC_SESSION, SECOND_EAC_SESSION, THIRD_EAC_SESSION, EXTENDED_EAC_CONCEPT_UUID,
-		        REAPEAT_VL_COLLECTION, REPEAT_VL_RESULTS, HIGH_VL_ENCOUNTERTYPE_UUID, ACTIVE_REGIMEN_CONCEPT_UUID),
-		    EAC_SESSION_CONCEPT_UUID);
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
+		
+		return submitReportJob(reportJobService, "viralLoadCascade",
+		    ReportJobService.buildKey("viralLoadCascade", dates[0], dates[1], filterCategory),
+		    () -> getViralLoadCascade(getViralLoadCascadeStages.getClientStageDates(dates[0], dates[1], filterCategory)));
 	}
 	
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/completedEACSessions")
@@ -2,8 +2,9 @@ package org.openmrs.module.ssemrws.web.controller;
 
 import org.openmrs.Patient;
 import org.openmrs.module.ssemrws.queries.GetInterruptedInTreatment;
+import org.openmrs.module.ssemrws.service.IndicatorExecutor;
+import org.openmrs.module.ssemrws.service.ReportJobService;
 import org.openmrs.module.ssemrws.web.constants.GetTxCurr;
-import org.openmrs.module.ssemrws.web.constants.GetTxNew;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -18,6 +19,7 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import static org.openmrs.module.ssemrws.constants.SharedConstants.*;
 import static org.openmrs.module.ssemrws.constants.SharedConstants.createResultMap;
@@ -35,11 +37,21 @@ public class WaterfallAnalysisController {
 	
 	private final GetInterruptedInTreatment getInterruptedInTreatment;
 	
-	public WaterfallAnalysisController(GetTxCurr getTxCurr, GetInterruptedInTreatment getInterruptedInTreatment) {
+	private final ReportJobService reportJobService;
+	
+	private final IndicatorExecutor indicatorExecutor;
+	
+	public WaterfallAnalysisController(GetTxCurr getTxCurr, GetInterruptedInTreatment getInterruptedInTreatment,
+	    ReportJobService reportJobService, IndicatorExecutor indicatorExecutor) {
 		this.getTxCurr = getTxCurr;
 		this.getInterruptedInTreatment = getInterruptedInTreatment;
+		this.reportJobService = reportJobService;
+		this.indicatorExecutor = indicatorExecutor;
 	}
 	
+	/**
+	 * Returns the waterfall analysis of the period, from a completed report job when one holds it.
+	 */
 	@RequestMapping(method = RequestMethod.GET, value = "/dashboard/waterfallAnalysis")
 	@ResponseBody
 	public Object getWaterfallAnalysis(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
@@ -47,46 +59,68 @@ public class WaterfallAnalysisController {
 	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory)
 	        throws ParseException {
 		
-		return getWaterfallAnalysisChart(qStartDate, qEndDate);
-	}
-	
-	private Object getWaterfallAnalysisChart(String qStartDate, String qEndDate) throws ParseException {
 		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
 		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		// Get all active clients for the entire period
-		List<GetTxNew.PatientEnrollmentData> activeClientsEntirePeriod = getTxCurr.getTxCurrPatients(dates[0], dates[1]);
-		int totalActiveClients = activeClientsEntirePeriod.size();
-		
-		List<GetTxNew.PatientEnrollmentData> activeClientsLast30Days = getTxCurr.getTxCurrPatients(dates[0], null);
-		
-		// Exclude active clients from the last 30 days
-		activeClientsEntirePeriod.removeAll(activeClientsLast30Days);
-		int txCurrFirstTwoMonths = activeClientsEntirePeriod.size();
+		Object completed = reportJobService
+		        .getCompletedResult(ReportJobService.buildKey("waterfallAnalysis", dates[0], dates[1]));
+		return completed != null ? completed : getWaterfallAnalysisChart(dates);
+	}
+	
+	/**
+	 * Submits the waterfall analysis as a report job and returns the job at once. Poll
+	 * /reportJobs/{jobId} for the result.
+	 */
+	@RequestMapping(method = RequestMethod.POST, value = "/dashboard/waterfallAnalysis/jobs")
+	@ResponseBody
+	public Object submitWaterfallAnalysis(HttpServletRequest request, @RequestParam("startDate") String qStartDate,
+	        @RequestParam("endDate") String qEndDate,
+	        @RequestParam(required = false, value = "filter") SSEMRWebServicesController.filterCategory filterCategory)
+	        throws ParseException {
 		
-		// Use newly enrolled patients for TX_NEW
-		List<GetTxNew.PatientEnrollmentData> enrolledPatients = getNewlyEnrolledPatients(dates[0], dates[1]);
-		int txNewThirdMonth = enrolledPatients.size();
+		SimpleDateFormat dateTimeFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		Date[] dates = getStartAndEndDate(qStartDate, qEndDate, dateTimeFormatter);
 		
-		// Other calculations remain unchanged
-		HashSet<Patient> transferredInPatientsCurrentQuarter = getTransferredInPatients(dates[0], dates[1]);
-		HashSet<Patient> returnToTreatmentPatientsCurrentQuarter = getReturnToTreatmentPatients(dates[0], dates[1]);
-		HashSet<Patient> transferredOutPatientsCurrentQuarter = getTransferredOutClients(dates[0], dates[1]);
-		HashSet<Patient> deceasedPatientsCurrentQuarter = new HashSet<>(getDeceasedPatientsByDateRange(dates[0], dates[1]));
-		HashSet<Patient> interruptedInTreatmentPatientsCurrentQuarter = getInterruptedInTreatment.getIit(dates[0], dates[1]);
+		return submitReportJob(reportJobService, "waterfallAnalysis",
+		    ReportJobService.buildKey("waterfallAnalysis", dates[0], dates[1]), () -> getWaterfallAnalysisChart(dates));
+	}
+	
+	private Object getWaterfallAnalysisChart(Date[] dates) {
+		// The cohorts are independent, so they are computed concurrently and only their sizes are kept
+		Future<Integer> activeClientsEntirePeriod = indicatorExecutor
+		        .submit(() -> getTxCurr.getTxCurrPatients(dates[0], dates[1]).size());
+		Future<Integer> enrolledPatients = indicatorExecutor
+		        .submit(() -> getNewlyEnrolledPatients(dates[0], dates[1]).size());
+		Future<Integer> transferredInPatientsCurrentQuarter = indicatorExecutor
+		        .submit(() -> getTransferredInPatients(dates[0], dates[1]).size());
+		Future<Integer> returnToTreatmentPatientsCurrentQuarter = indicatorExecutor
+		        .submit(() -> getReturnToTreatmentPatients(dates[0], dates[1]).size());
+		Future<Integer> transferredOutPatientsCurrentQuarter = indicatorExecutor
+		        .submit(() -> getTransferredOutClients(dates[0], dates[1]).size());
+		Future<Integer> deceasedPatientsCurrentQuarter = indicatorExecutor
+		        .submit(() -> new HashSet<>(getDeceasedPatientsByDateRange(dates[0], dates[1])).size());
+		// Split in the session that loaded the IIT patients, since the split reads their obs
+		Future<int[]> interruptedInTreatmentCurrentQuarter = indicatorExecutor.submit(() -> {
+			HashSet<Patient> interruptedInTreatmentPatients = getInterruptedInTreatment.getIit(dates[0], dates[1]);
+			return new int[] { filterInterruptedInTreatmentPatients(interruptedInTreatmentPatients, 3, false).size(),
+			        filterInterruptedInTreatmentPatients(interruptedInTreatmentPatients, 3, true).size() };
+		});
 		
-		int transferInCurrentQuarter = transferredInPatientsCurrentQuarter.size();
-		int txRttCurrentQuarter = returnToTreatmentPatientsCurrentQuarter.size();
-		int transferOutCurrentQuarter = transferredOutPatientsCurrentQuarter.size();
-		int txDeathCurrentQuarter = deceasedPatientsCurrentQuarter.size();
+		// Once one of them fails the chart cannot be built, so waiting for one cancels the others on failure
+		Future<?>[] indicators = { activeClientsEntirePeriod, enrolledPatients, transferredInPatientsCurrentQuarter,
+		        returnToTreatmentPatientsCurrentQuarter, transferredOutPatientsCurrentQuarter,
+		        deceasedPatientsCurrentQuarter, interruptedInTreatmentCurrentQuarter };
 		
-		HashSet<Patient> interruptedInTreatmentLessThan3Months = filterInterruptedInTreatmentPatients(
-		    interruptedInTreatmentPatientsCurrentQuarter, 3, false);
-		int txMlIitLessThan3MoCurrentQuarter = interruptedInTreatmentLessThan3Months.size();
+		int totalActiveClients = IndicatorExecutor.getResult(activeClientsEntirePeriod, indicators);
+		int txNewThirdMonth = IndicatorExecutor.getResult(enrolledPatients, indicators);
+		int transferInCurrentQuarter = IndicatorExecutor.getResult(transferredInPatientsCurrentQuarter, indicators);
+		int txRttCurrentQuarter = IndicatorExecutor.getResult(returnToTreatmentPatientsCurrentQuarter, indicators);
+		int transferOutCurrentQuarter = IndicatorExecutor.getResult(transferredOutPatientsCurrentQuarter, indicators);
+		int txDeathCurrentQuarter = IndicatorExecutor.getResult(deceasedPatientsCurrentQuarter, indicators);
 		
-		HashSet<Patient> interruptedInTreatmentMoreThan3Months = filterInterruptedInTreatmentPatients(
-		    interruptedInTreatmentPatientsCurrentQuarter, 3, true);
-		int txMlIitMoreThan3MoCurrentQuarter = interruptedInTreatmentMoreThan3Months.size();
+		int[] interruptedInTreatment = IndicatorExecutor.getResult(interruptedInTreatmentCurrentQuarter, indicators);
+		int txMlIitLessThan3MoCurrentQuarter = interruptedInTreatment[0];
+		int txMlIitMoreThan3MoCurrentQuarter = interruptedInTreatment[1];
 		
 		int txCurrPreviousQuarter = totalActiveClients - txNewThirdMonth - transferInCurrentQuarter - txRttCurrentQuarter;
 		
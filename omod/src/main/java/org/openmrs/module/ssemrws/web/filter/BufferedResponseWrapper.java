@@ -0,0 +1,120 @@
+package org.openmrs.module.ssemrws.web.filter;
+
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Holds back the body of a profiled response so that the profile can be added to it once the request
+ * is done. The time from the first byte written to the end of the request is recorded as the
+ * writeResponse span, which is where @ResponseBody results are serialized.
+ */
+class BufferedResponseWrapper extends HttpServletResponseWrapper {
+	
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	
+	private ServletOutputStream outputStream;
+	
+	private PrintWriter writer;
+	
+	private RequestProfiler.Span writeSpan;
+	
+	BufferedResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+	
+	@Override
+	public ServletOutputStream getOutputStream() {
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+				
+				@Override
+				public void write(int b) {
+					startWriteSpan();
+					buffer.write(b);
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) {
+					startWriteSpan();
+					buffer.write(b, off, len);
+				}
+				
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+				
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+				}
+			};
+		}
+		return outputStream;
+	}
+	
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+		}
+		return writer;
+	}
+	
+	// The length is only known once the profile has been added
+	@Override
+	public void setContentLength(int len) {
+	}
+	
+	@Override
+	public void setContentLengthLong(long len) {
+	}
+	
+	@Override
+	public void flushBuffer() {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+	
+	// Drops the held back body, including what the writer has not passed on yet
+	@Override
+	public void resetBuffer() {
+		flushBuffer();
+		buffer.reset();
+	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		resetBuffer();
+		// The character encoding may change after a reset, so the next writer is created with it
+		writer = null;
+	}
+	
+	/**
+	 * Ends the writeResponse span.
+	 * 
+	 * @return The body written so far.
+	 */
+	byte[] finish() {
+		flushBuffer();
+		if (writeSpan != null) {
+			writeSpan.close();
+		}
+		return buffer.toByteArray();
+	}
+	
+	private void startWriteSpan() {
+		if (writeSpan == null) {
+			writeSpan = RequestProfiler.span("writeResponse");
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.openmrs.module.ssemrws.web.filter;
+
+import org.openmrs.module.ssemrws.metrics.QueryCounter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Sets the {@value QueryCounter#HEADER} header when the body starts being written, the last moment
+ * headers can still be sent. Statements executed while the body is serialized are therefore not
+ * counted.
+ */
+class QueryCountResponseWrapper extends HttpServletResponseWrapper {
+	
+	private final long statementsBefore;
+	
+	private boolean headerSet;
+	
+	QueryCountResponseWrapper(HttpServletResponse response, long statementsBefore) {
+		super(response);
+		this.statementsBefore = statementsBefore;
+	}
+	
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		setQueryCountHeader();
+		return super.getOutputStream();
+	}
+	
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		setQueryCountHeader();
+		return super.getWriter();
+	}
+	
+	@Override
+	public void flushBuffer() throws IOException {
+		setQueryCountHeader();
+		super.flushBuffer();
+	}
+	
+	@Override
+	public void sendError(int sc) throws IOException {
+		setQueryCountHeader();
+		super.sendError(sc);
+	}
+	
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		setQueryCountHeader();
+		super.sendError(sc, msg);
+	}
+	
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		setQueryCountHeader();
+		super.sendRedirect(location);
+	}
+	
+	private void setQueryCountHeader() {
+		if (!headerSet) {
+			headerSet = true;
+			setQueryCountHeader((HttpServletResponse) getResponse(), statementsBefore);
+		}
+	}
+	
+	/**
+	 * Sets the header to the number of statements executed since the given count, unless statements
+	 * cannot be counted.
+	 */
+	static void setQueryCountHeader(HttpServletResponse response, long statementsBefore) {
+		long statementsAfter = QueryCounter.getStatementCount();
+		if (statementsBefore >= 0 && statementsAfter >= 0 && !response.isCommitted()) {
+			response.setHeader(QueryCounter.HEADER, String.valueOf(statementsAfter - statementsBefore));
+		}
+	}
+}
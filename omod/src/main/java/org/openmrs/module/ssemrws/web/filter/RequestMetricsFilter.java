@@ -0,0 +1,133 @@
+package org.openmrs.module.ssemrws.web.filter;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.constants.PrivilegeConstants;
+import org.openmrs.module.ssemrws.metrics.MetricsRegistry;
+import org.openmrs.module.ssemrws.metrics.QueryCounter;
+import org.openmrs.module.ssemrws.metrics.RequestProfiler;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Registered in config.xml on the module's REST endpoints. Counts every request and records how long
+ * it took under the request mapping that served it, e.g. /rest/v1/ssemr/dashboard/txCurr, so that
+ * path variables do not create a metric per patient. The number of SQL statements the request
+ * executed is sent in the {@value QueryCounter#HEADER} header, see {@link QueryCounter}.
+ * <p>
+ * A request with profile=true made by a user with the {@value PrivilegeConstants#PROFILE_REQUESTS}
+ * privilege is also profiled with the {@link RequestProfiler}: the span tree is added to a JSON
+ * object response as a "profile" field, or sent in the {@value #PROFILE_HEADER} header otherwise.
+ * The privilege is checked against the session before the request runs; without it profile=true is
+ * ignored and the response is streamed as usual. When the request throws, the held back body is
+ * dropped and the error is left to the container.
+ */
+public class RequestMetricsFilter implements Filter {
+	
+	public static final String PROFILE_PARAMETER = "profile";
+	
+	public static final String PROFILE_HEADER = "X-SSEMR-Profile";
+	
+	private static final String UNMATCHED_ENDPOINT = "unmatched";
+	
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Override
+	public void init(FilterConfig filterConfig) {
+	}
+	
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+	        throws IOException, ServletException {
+		if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		HttpServletResponse httpResponse = (HttpServletResponse) response;
+		// Checked before the request runs, so nothing is profiled or held back for other users
+		boolean profile = "true".equalsIgnoreCase(request.getParameter(PROFILE_PARAMETER)) && canViewProfile();
+		BufferedResponseWrapper bufferedResponse = profile ? new BufferedResponseWrapper(httpResponse) : null;
+		if (profile) {
+			RequestProfiler.start(httpRequest.getMethod() + " " + httpRequest.getRequestURI());
+		}
+		
+		long start = System.nanoTime();
+		long statementsBefore = QueryCounter.getStatementCount();
+		int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		boolean completed = false;
+		try {
+			chain.doFilter(request,
+			    new QueryCountResponseWrapper(profile ? bufferedResponse : httpResponse, statementsBefore));
+			status = httpResponse.getStatus();
+			completed = true;
+		}
+		finally {
+			Object pattern = httpRequest.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+			MetricsRegistry.getInstance().recordRequest(pattern != null ? pattern.toString() : UNMATCHED_ENDPOINT,
+			    httpRequest.getMethod(), status, System.nanoTime() - start);
+			
+			if (profile) {
+				byte[] body = bufferedResponse.finish();
+				RequestProfiler.Span root = RequestProfiler.finish();
+				// A partial body is dropped when the request failed, so that the error is reported instead
+				if (completed) {
+					// The body was held back, so the count can include the statements run while writing it
+					QueryCountResponseWrapper.setQueryCountHeader(httpResponse, statementsBefore);
+					writeProfiledResponse(httpResponse, body, root);
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void destroy() {
+	}
+	
+	private static boolean canViewProfile() {
+		return Context.isAuthenticated() && Context.hasPrivilege(PrivilegeConstants.PROFILE_REQUESTS);
+	}
+	
+	// Writes the held back body with the profile
+	private void writeProfiledResponse(HttpServletResponse response, byte[] body, RequestProfiler.Span profile)
+	        throws IOException {
+		if (!response.isCommitted()) {
+			Charset charset = Charset.forName(response.getCharacterEncoding());
+			JsonNode profileNode = objectMapper.valueToTree(profile.toMap());
+			JsonNode bodyNode = parseJson(new String(body, charset));
+			if (bodyNode instanceof ObjectNode) {
+				((ObjectNode) bodyNode).put("profile", profileNode);
+				body = objectMapper.writeValueAsString(bodyNode).getBytes(charset);
+			} else {
+				response.setHeader(PROFILE_HEADER, objectMapper.writeValueAsString(profileNode));
+			}
+		}
+		
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+		response.flushBuffer();
+	}
+	
+	private JsonNode parseJson(String body) {
+		try {
+			return objectMapper.readTree(body);
+		}
+		catch (IOException e) {
+			// Not a JSON response, the profile goes in the header
+			return null;
+		}
+	}
+}
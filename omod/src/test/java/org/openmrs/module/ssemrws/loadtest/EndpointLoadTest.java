@@ -0,0 +1,265 @@
+package org.openmrs.module.ssemrws.loadtest;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.web.controller.ControllerDispatcher;
+import org.openmrs.module.ssemrws.web.controller.EtlTestSchema;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+import org.springframework.core.MethodParameter;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ValueConstants;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load test harness: seeds the in-memory database with {@link SyntheticDatasetGenerator}, then calls
+ * every GET endpoint of the module in-process from concurrent clients and prints the latency of each
+ * endpoint with {@link LatencyReport}. The database is H2 in MySQL mode standing in for MySQL, so the
+ * numbers compare runs and changes with each other, not with production.
+ * <p>
+ * Skipped unless {@value #PATIENTS_PROPERTY} is set. It commits the seeded data, so run it on its own:
+ * 
+ * <pre>
+ * mvn test -pl omod -Dtest=EndpointLoadTest -Dssemrws.loadtest.patients=100000 \
+ *     -Dssemrws.loadtest.concurrency=16 -Dssemrws.loadtest.requests=50 -DargLine=-Xmx8g
+ * </pre>
+ * 
+ * The patients are typically 10000, 100000 or 1000000; the last needs a heap of about 16 GB. The
+ * requests are per endpoint, after one cold request per endpoint that is reported on its own. The
+ * run fails when a request to any endpoint fails, after the report is printed.
+ */
+public class EndpointLoadTest extends BaseModuleWebContextSensitiveTest {
+	
+	public static final String PATIENTS_PROPERTY = "ssemrws.loadtest.patients";
+	
+	public static final String CONCURRENCY_PROPERTY = "ssemrws.loadtest.concurrency";
+	
+	public static final String REQUESTS_PROPERTY = "ssemrws.loadtest.requests";
+	
+	private static final String START_DATE = "2025-01-01";
+	
+	private static final String END_DATE = "2025-12-31";
+	
+	private static final int UUIDS_PER_BATCH_REQUEST = 20;
+	
+	private int patients;
+	
+	private List<String> patientUuids;
+	
+	// Inner class to store an endpoint and the parameters it requires
+	private class Endpoint {
+		
+		final String path;
+		
+		final List<String> requiredParameters;
+		
+		Endpoint(String path, List<String> requiredParameters) {
+			this.path = path;
+			this.requiredParameters = requiredParameters;
+		}
+		
+		// Every request asks about other patients, so per-patient caches do not flatter the numbers
+		String[] parameters() {
+			List<String> parameters = new ArrayList<>();
+			for (String name : requiredParameters) {
+				parameters.add(name);
+				parameters.add(parameterValue(name));
+			}
+			if (!requiredParameters.contains("startDate")) {
+				Collections.addAll(parameters, "startDate", START_DATE, "endDate", END_DATE);
+			}
+			return parameters.toArray(new String[0]);
+		}
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		assumeTrue("Set -D" + PATIENTS_PROPERTY + " to run the load test", System.getProperty(PATIENTS_PROPERTY) != null);
+		patients = Integer.getInteger(PATIENTS_PROPERTY);
+		
+		EtlTestSchema.create(getRuntimeProperties());
+		executeDataSet(EtlTestSchema.INCLUDE + "enrollmentAndViralLoadDataset.xml");
+		// The clients run on other threads, which only see committed rows
+		TestTransaction.flagForCommit();
+		TestTransaction.end();
+		
+		long start = System.nanoTime();
+		try (Connection connection = EtlTestSchema.openConnection(getRuntimeProperties())) {
+			patientUuids = new SyntheticDatasetGenerator(connection).generate(patients);
+		}
+		System.out.printf("Generated %d patients in %.1f s%n", patients, (System.nanoTime() - start) / 1e9);
+	}
+	
+	@Test
+	public void callEveryEndpoint() throws Exception {
+		int concurrency = Integer.getInteger(CONCURRENCY_PROPERTY, 8);
+		int requests = Integer.getInteger(REQUESTS_PROPERTY, 20);
+		
+		ControllerDispatcher dispatcher = new ControllerDispatcher(applicationContext);
+		List<Endpoint> endpoints = findEndpoints(dispatcher);
+		assertFalse("No endpoint to call", endpoints.isEmpty());
+		
+		LatencyReport report = new LatencyReport();
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		try {
+			long start = System.nanoTime();
+			// One cold request per endpoint first, one at a time
+			clients.submit(asClient(() -> {
+				for (Endpoint endpoint : endpoints) {
+					call(dispatcher, endpoint, report, true);
+				}
+			})).get();
+			
+			AtomicInteger remaining = new AtomicInteger(endpoints.size() * requests);
+			List<Future<?>> running = new ArrayList<>();
+			for (int i = 0; i < concurrency; i++) {
+				running.add(clients.submit(asClient(() -> {
+					int request;
+					while ((request = remaining.getAndDecrement()) > 0) {
+						call(dispatcher, endpoints.get(request % endpoints.size()), report, false);
+					}
+				})));
+			}
+			for (Future<?> client : running) {
+				client.get();
+			}
+			
+			report.print(System.out, patients, concurrency, System.nanoTime() - start);
+			List<String> failing = report.getFailingEndpoints();
+			assertTrue("Requests failed for " + failing, failing.isEmpty());
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @return The GET endpoints of the module whose required parameters can be filled in.
+	 */
+	private List<Endpoint> findEndpoints(ControllerDispatcher dispatcher) {
+		List<Endpoint> endpoints = new ArrayList<>();
+		for (Map.Entry<RequestMappingInfo, HandlerMethod> mapping : dispatcher.getHandlerMethods().entrySet()) {
+			RequestMappingInfo info = mapping.getKey();
+			if (!info.getMethodsCondition().getMethods().isEmpty()
+			        && !info.getMethodsCondition().getMethods().contains(RequestMethod.GET)) {
+				continue;
+			}
+			
+			for (String pattern : info.getPatternsCondition().getPatterns()) {
+				if (!pattern.startsWith(ControllerDispatcher.BASE_PATH)) {
+					continue;
+				}
+				List<String> requiredParameters = getRequiredParameters(mapping.getValue());
+				if (pattern.contains("{") || requiredParameters == null) {
+					System.out.println("Skipping " + pattern + ": it needs a path variable or an unknown parameter");
+					continue;
+				}
+				endpoints.add(new Endpoint(pattern.substring(ControllerDispatcher.BASE_PATH.length()),
+				        requiredParameters));
+			}
+		}
+		return endpoints;
+	}
+	
+	/**
+	 * @return The names of the required request parameters, or null when one of them cannot be filled.
+	 */
+	private List<String> getRequiredParameters(HandlerMethod handlerMethod) {
+		List<String> names = new ArrayList<>();
+		for (MethodParameter parameter : handlerMethod.getMethodParameters()) {
+			if (parameter.hasParameterAnnotation(PathVariable.class)) {
+				return null;
+			}
+			RequestParam requestParam = parameter.getParameterAnnotation(RequestParam.class);
+			if (requestParam == null || !requestParam.required()
+			        || !ValueConstants.DEFAULT_NONE.equals(requestParam.defaultValue())) {
+				continue;
+			}
+			String name = requestParam.value().isEmpty() ? requestParam.name() : requestParam.value();
+			if (parameterValue(name) == null) {
+				return null;
+			}
+			names.add(name);
+		}
+		return names;
+	}
+	
+	private String parameterValue(String name) {
+		switch (name) {
+			case "startDate":
+				return START_DATE;
+			case "endDate":
+				return END_DATE;
+			case "patientUuid":
+				return randomPatientUuid();
+			case "patientUuids":
+				List<String> uuids = new ArrayList<>();
+				for (int i = 0; i < UUIDS_PER_BATCH_REQUEST; i++) {
+					uuids.add(randomPatientUuid());
+				}
+				return String.join(",", uuids);
+			default:
+				return null;
+		}
+	}
+	
+	private String randomPatientUuid() {
+		return patientUuids.get(ThreadLocalRandom.current().nextInt(patientUuids.size()));
+	}
+	
+	private static void call(ControllerDispatcher dispatcher, Endpoint endpoint, LatencyReport report, boolean cold) {
+		long start = System.nanoTime();
+		String failure = null;
+		try {
+			MockHttpServletResponse response = dispatcher.get(endpoint.path, endpoint.parameters());
+			if (response.getStatus() >= 400) {
+				failure = "HTTP " + response.getStatus();
+			}
+		}
+		catch (Exception e) {
+			failure = ExceptionUtils.getRootCauseMessage(e);
+		}
+		long nanos = System.nanoTime() - start;
+		
+		if (cold) {
+			report.recordCold(endpoint.path, nanos, failure);
+		} else {
+			report.record(endpoint.path, nanos, failure);
+		}
+	}
+	
+	// Runs the work with an OpenMRS session of its own, as the web filters do for a request
+	private static Runnable asClient(Runnable work) {
+		return () -> {
+			Context.openSession();
+			try {
+				Context.authenticate("admin", "test");
+				work.run();
+			}
+			finally {
+				Context.closeSession();
+			}
+		};
+	}
+}
@@ -0,0 +1,161 @@
+package org.openmrs.module.ssemrws.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the latency of every request of a load test run, per endpoint, and prints the requests
+ * and the p50, p95 and p99 latencies of each endpoint, with a histogram over the whole run. Endpoints
+ * with a failed request are listed on their own with the first failure, and their latencies are left
+ * out, since a request that fails early would flatter the percentiles.
+ */
+public class LatencyReport {
+	
+	private static final double[] HISTOGRAM_BOUNDS_MILLIS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+	
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+	
+	// Inner class to store the latencies and failures of one endpoint
+	private static class Endpoint {
+		
+		private long[] latencies = new long[64];
+		
+		private int count;
+		
+		private long coldNanos = -1;
+		
+		private final AtomicInteger failures = new AtomicInteger();
+		
+		private volatile String firstFailure;
+		
+		synchronized void add(long nanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+		
+		synchronized void fail(String failure) {
+			if (failures.getAndIncrement() == 0) {
+				firstFailure = failure;
+			}
+		}
+		
+		synchronized long[] sorted() {
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+	}
+	
+	/**
+	 * Records the first request to an endpoint, served before the caches are warm. It is reported on
+	 * its own and not counted in the percentiles.
+	 * 
+	 * @param failure Why the request failed, or null when it succeeded.
+	 */
+	public void recordCold(String endpoint, long nanos, String failure) {
+		Endpoint stats = getEndpoint(endpoint);
+		if (failure != null) {
+			stats.fail(failure);
+		} else {
+			stats.coldNanos = nanos;
+		}
+	}
+	
+	/**
+	 * @param failure Why the request failed, or null when it succeeded.
+	 */
+	public void record(String endpoint, long nanos, String failure) {
+		Endpoint stats = getEndpoint(endpoint);
+		if (failure != null) {
+			stats.fail(failure);
+		} else {
+			stats.add(nanos);
+		}
+	}
+	
+	/**
+	 * @return The endpoints with at least one failed request, in name order.
+	 */
+	public List<String> getFailingEndpoints() {
+		List<String> failing = new ArrayList<>();
+		for (String name : sortedNames()) {
+			if (endpoints.get(name).failures.get() > 0) {
+				failing.add(name);
+			}
+		}
+		return failing;
+	}
+	
+	public void print(PrintStream out, int patients, int concurrency, long wallNanos) {
+		out.printf("%nLoad test: %d patients, %d concurrent clients, %.1f s%n", patients, concurrency,
+		    wallNanos / 1e9);
+		out.printf("%-60s %8s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "cold ms", "p50 ms", "p95 ms",
+		    "p99 ms", "max ms");
+		
+		List<String> failing = getFailingEndpoints();
+		long[] histogram = new long[HISTOGRAM_BOUNDS_MILLIS.length + 1];
+		for (String name : sortedNames()) {
+			if (failing.contains(name)) {
+				continue;
+			}
+			Endpoint stats = endpoints.get(name);
+			long[] sorted = stats.sorted();
+			out.printf("%-60s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, sorted.length, millis(stats.coldNanos),
+			    millis(percentile(sorted, 50)), millis(percentile(sorted, 95)), millis(percentile(sorted, 99)),
+			    millis(sorted.length > 0 ? sorted[sorted.length - 1] : -1));
+			for (long nanos : sorted) {
+				int bucket = 0;
+				while (bucket < HISTOGRAM_BOUNDS_MILLIS.length && millis(nanos) > HISTOGRAM_BOUNDS_MILLIS[bucket]) {
+					bucket++;
+				}
+				histogram[bucket]++;
+			}
+		}
+		
+		out.printf("%nLatency histogram, endpoints without failures%n");
+		for (int i = 0; i < histogram.length; i++) {
+			String bound = i < HISTOGRAM_BOUNDS_MILLIS.length ? "<= " + (long) HISTOGRAM_BOUNDS_MILLIS[i] + " ms"
+			        : "> " + (long) HISTOGRAM_BOUNDS_MILLIS[i - 1] + " ms";
+			out.printf("%12s %8d%n", bound, histogram[i]);
+		}
+		
+		if (!failing.isEmpty()) {
+			out.printf("%nFailing endpoints, left out of the latencies%n");
+			out.printf("%-60s %8s  %s%n", "endpoint", "failures", "first failure");
+			for (String name : failing) {
+				Endpoint stats = endpoints.get(name);
+				out.printf("%-60s %8d  %s%n", name, stats.failures.get(), stats.firstFailure);
+			}
+		}
+	}
+	
+	private String[] sortedNames() {
+		String[] names = endpoints.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		return names;
+	}
+	
+	private Endpoint getEndpoint(String endpoint) {
+		return endpoints.computeIfAbsent(endpoint, key -> new Endpoint());
+	}
+	
+	// Nearest-rank percentile
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+	
+	private static double millis(long nanos) {
+		return nanos < 0 ? Double.NaN : nanos / 1e6;
+	}
+}
@@ -0,0 +1,222 @@
+package org.openmrs.module.ssemrws.loadtest;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Seeds the test database with synthetic patients: the core person, patient, name, identifier,
+ * encounter and obs rows, and the matching ETL flat table, mamba_dim_person and appointment rows the
+ * dashboard queries read. The mix is meant to look like a facility's: most patients on ART, one in
+ * ten with a high VL followed by EAC, a few who died or transferred out, and a share with a missed
+ * appointment.
+ * <p>
+ * Rows are inserted in JDBC batches and committed every {@value #BATCH_SIZE} patients. The concepts
+ * are the ones of enrollmentAndViralLoadDataset.xml, which must be loaded first. A fixed seed makes
+ * every run generate the same data.
+ */
+public class SyntheticDatasetGenerator {
+	
+	/**
+	 * Generated ids start here, clear of the ids of the test datasets.
+	 */
+	public static final int FIRST_ID = 100000;
+	
+	private static final int BATCH_SIZE = 5000;
+	
+	private static final int ENROLLMENT_DATE_CONCEPT_ID = 9101;
+	
+	private static final int VIRAL_LOAD_CONCEPT_ID = 9102;
+	
+	private static final int VIRAL_LOAD_RESULTS_CONCEPT_ID = 9103;
+	
+	private static final int SAMPLE_COLLECTION_DATE_CONCEPT_ID = 9104;
+	
+	private static final long SEED = 20251231L;
+	
+	private final Connection connection;
+	
+	private final Random random = new Random(SEED);
+	
+	private final List<PreparedStatement> statements = new ArrayList<>();
+	
+	private PreparedStatement person, patient, personName, patientIdentifier, encounter, obs, mambaDimPerson,
+	        txHistory, followUp, highViralLoad, endOfFollowUp, appointment;
+	
+	private int nextObsId = FIRST_ID;
+	
+	private int nextAppointmentId = FIRST_ID;
+	
+	/**
+	 * @param connection A connection outside of the test transaction, so that the rows are visible to
+	 *            every thread of the load test.
+	 */
+	public SyntheticDatasetGenerator(Connection connection) {
+		this.connection = connection;
+	}
+	
+	/**
+	 * Inserts the given number of patients.
+	 * 
+	 * @return The uuids of the generated patients.
+	 */
+	public List<String> generate(int patients) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			prepareStatements();
+			List<String> uuids = new ArrayList<>(patients);
+			for (int i = 0; i < patients; i++) {
+				uuids.add(addPatient(FIRST_ID + i));
+				if ((i + 1) % BATCH_SIZE == 0) {
+					flush();
+				}
+			}
+			flush();
+			return uuids;
+		}
+		finally {
+			for (PreparedStatement statement : statements) {
+				statement.close();
+			}
+			statements.clear();
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+	
+	private String addPatient(int patientId) throws SQLException {
+		String uuid = uuid("person", patientId);
+		int age = random.nextInt(70);
+		Timestamp birthdate = daysBefore(timestamp(2025, Calendar.DECEMBER, 31), age * 365 + random.nextInt(365));
+		Timestamp artStartDate = daysAfter(timestamp(2018, Calendar.JANUARY, 1), random.nextInt(8 * 365));
+		Timestamp followUpDate = daysAfter(timestamp(2025, Calendar.JANUARY, 1), random.nextInt(365));
+		double viralLoad = random.nextInt(10) == 0 ? 1000 + random.nextInt(100000) : random.nextInt(1000);
+		
+		insert(person, patientId, random.nextBoolean() ? "F" : "M", birthdate, artStartDate, uuid);
+		insert(patient, patientId, artStartDate);
+		insert(personName, patientId, patientId, "Given" + patientId, "Family" + patientId, artStartDate,
+		    uuid("name", patientId));
+		insert(patientIdentifier, patientId, patientId, String.format("ART-%08d", patientId), artStartDate,
+		    uuid("identifier", patientId));
+		insert(encounter, patientId, patientId, followUpDate, uuid("encounter", patientId));
+		
+		addObs(patientId, ENROLLMENT_DATE_CONCEPT_ID, artStartDate, null, null, artStartDate);
+		Timestamp sampleDate = daysBefore(followUpDate, 14);
+		addObs(patientId, SAMPLE_COLLECTION_DATE_CONCEPT_ID, followUpDate, null, null, sampleDate);
+		addObs(patientId, VIRAL_LOAD_CONCEPT_ID, followUpDate, viralLoad, null, null);
+		addObs(patientId, VIRAL_LOAD_RESULTS_CONCEPT_ID, followUpDate, null,
+		    viralLoad < 50 ? "Below Detectable (BDL)" : "Detectable", null);
+		
+		insert(mambaDimPerson, patientId, uuid, age);
+		insert(txHistory, patientId, patientId, artStartDate, artStartDate);
+		insert(followUp, patientId, patientId, followUpDate, sampleDate, followUpDate, viralLoad,
+		    viralLoad < 50 ? "Below Detectable (BDL)" : "Detectable");
+		if (viralLoad >= 1000) {
+			Timestamp adherenceDate = daysAfter(followUpDate, 14);
+			insert(highViralLoad, patientId, patientId, adherenceDate, adherenceDate, daysAfter(adherenceDate, 30),
+			    daysAfter(adherenceDate, 60), daysAfter(adherenceDate, 90), daysAfter(adherenceDate, 104),
+			    (double) random.nextInt(5000));
+		}
+		int outcome = random.nextInt(100);
+		if (outcome < 3) {
+			Timestamp outcomeDate = daysAfter(followUpDate, 30);
+			insert(endOfFollowUp, patientId, patientId, outcomeDate, outcome == 0 ? "Yes" : null,
+			    outcome == 0 ? outcomeDate : null, outcome != 0 ? "Yes" : null, outcome != 0 ? outcomeDate : null);
+		}
+		
+		addAppointment(patientId, followUpDate, "Completed");
+		Timestamp nextAppointment = daysAfter(followUpDate, 90);
+		addAppointment(patientId, nextAppointment, random.nextInt(10) == 0 ? "Missed" : "Scheduled");
+		
+		return uuid;
+	}
+	
+	private void addObs(int patientId, int conceptId, Timestamp obsDatetime, Double valueNumeric, String valueText,
+	        Timestamp valueDatetime) throws SQLException {
+		int obsId = nextObsId++;
+		insert(obs, obsId, patientId, conceptId, patientId, obsDatetime, valueNumeric, valueText, valueDatetime,
+		    obsDatetime, uuid("obs", obsId));
+	}
+	
+	private void addAppointment(int patientId, Timestamp startDateTime, String status) throws SQLException {
+		int appointmentId = nextAppointmentId++;
+		insert(appointment, appointmentId, patientId, startDateTime, startDateTime, status,
+		    uuid("appointment", appointmentId));
+	}
+	
+	private void prepareStatements() throws SQLException {
+		person = prepare("INSERT INTO person (person_id, gender, birthdate, birthdate_estimated, dead, "
+		        + "deathdate_estimated, creator, date_created, voided, uuid) VALUES (?, ?, ?, 0, 0, 0, 1, ?, 0, ?)");
+		patient = prepare("INSERT INTO patient (patient_id, creator, date_created, voided, allergy_status) "
+		        + "VALUES (?, 1, ?, 0, 'Unknown')");
+		personName = prepare("INSERT INTO person_name (person_name_id, preferred, person_id, given_name, family_name, "
+		        + "creator, date_created, voided, uuid) VALUES (?, 1, ?, ?, ?, 1, ?, 0, ?)");
+		patientIdentifier = prepare("INSERT INTO patient_identifier (patient_identifier_id, patient_id, identifier, "
+		        + "identifier_type, preferred, location_id, creator, date_created, voided, uuid) "
+		        + "VALUES (?, ?, ?, 1, 1, 1, 1, ?, 0, ?)");
+		encounter = prepare("INSERT INTO encounter (encounter_id, encounter_type, patient_id, location_id, "
+		        + "encounter_datetime, creator, date_created, voided, uuid) VALUES (?, 1, ?, 1, ?, 1, NOW(), 0, ?)");
+		obs = prepare("INSERT INTO obs (obs_id, person_id, concept_id, encounter_id, obs_datetime, location_id, "
+		        + "value_numeric, value_text, value_datetime, creator, date_created, voided, status, uuid) "
+		        + "VALUES (?, ?, ?, ?, ?, 1, ?, ?, ?, 1, ?, 0, 'FINAL', ?)");
+		mambaDimPerson = prepare("INSERT INTO ssemr_etl.mamba_dim_person (person_id, uuid, age) VALUES (?, ?, ?)");
+		txHistory = prepare("INSERT INTO ssemr_etl.ssemr_flat_encounter_personal_family_tx_history "
+		        + "(encounter_id, client_id, encounter_datetime, art_start_date) VALUES (?, ?, ?, ?)");
+		followUp = prepare("INSERT INTO ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up (encounter_id, client_id, "
+		        + "encounter_datetime, date_vl_sample_collected, date_vl_results_received, viral_load_value, "
+		        + "vl_results) VALUES (?, ?, ?, ?, ?, ?, ?)");
+		highViralLoad = prepare("INSERT INTO ssemr_etl.ssemr_flat_encounter_high_viral_load (encounter_id, client_id, "
+		        + "encounter_datetime, adherence_date, second_eac_session_date, third_eac_session_date, "
+		        + "repeat_vl_sample_date, repeat_vl_result_date, repeat_vl_value) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		endOfFollowUp = prepare("INSERT INTO ssemr_etl.ssemr_flat_encounter_end_of_follow_up (encounter_id, client_id, "
+		        + "encounter_datetime, death, date_of_death, transfer_out, transfer_out_date) "
+		        + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+		appointment = prepare("INSERT INTO patient_appointment (patient_appointment_id, patient_id, start_date_time, "
+		        + "end_date_time, status, uuid) VALUES (?, ?, ?, ?, ?, ?)");
+	}
+	
+	private PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		statements.add(statement);
+		return statement;
+	}
+	
+	private static void insert(PreparedStatement statement, Object... values) throws SQLException {
+		for (int i = 0; i < values.length; i++) {
+			statement.setObject(i + 1, values[i]);
+		}
+		statement.addBatch();
+	}
+	
+	private void flush() throws SQLException {
+		for (PreparedStatement statement : statements) {
+			statement.executeBatch();
+		}
+		connection.commit();
+	}
+	
+	private static String uuid(String kind, int id) {
+		return UUID.nameUUIDFromBytes((kind + "-" + id).getBytes()).toString();
+	}
+	
+	private static Timestamp timestamp(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day);
+		return new Timestamp(calendar.getTimeInMillis());
+	}
+	
+	private static Timestamp daysAfter(Timestamp timestamp, int days) {
+		return new Timestamp(timestamp.getTime() + days * 24L * 60 * 60 * 1000);
+	}
+	
+	private static Timestamp daysBefore(Timestamp timestamp, int days) {
+		return daysAfter(timestamp, -days);
+	}
+}
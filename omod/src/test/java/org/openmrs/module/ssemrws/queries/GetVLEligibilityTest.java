@@ -0,0 +1,76 @@
+package org.openmrs.module.ssemrws.queries;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.ssemrws.web.constants.VlEligibilityResult;
+import org.openmrs.module.ssemrws.web.controller.EtlTestSchema;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Evaluates the VL eligibility rules for the clients of vlEligibilityData.sql, each at the edge of a
+ * rule.
+ */
+public class GetVLEligibilityTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private GetVLEligibility getVLEligibility;
+	
+	private Map<Integer, VlEligibilityResult> eligibility;
+	
+	@Before
+	public void setUp() throws Exception {
+		EtlTestSchema.create(getRuntimeProperties());
+		EtlTestSchema.runScript(getConnection(), EtlTestSchema.INCLUDE + "vlEligibilityData.sql");
+		
+		eligibility = getVLEligibility.getEligibility(Arrays.asList(101, 102, 103, 104, 105, 106));
+	}
+	
+	@Test
+	public void getEligibility_shouldPutAClientWithAViralLoadOfExactly1000InTheHighViralLoadCohort() {
+		assertTrue(eligibility.get(101).isInHvlCohort());
+		assertEquals("Pending EAC 3", eligibility.get(101).getVlDueDate());
+		assertFalse(eligibility.get(102).isInHvlCohort());
+	}
+	
+	@Test
+	public void getEligibility_shouldMakeAClientEligibleAMonthAfterTheThirdEacSession() throws Exception {
+		VlEligibilityResult result = eligibility.get(103);
+		
+		assertFalse(result.isInHvlCohort());
+		assertEquals(day("2025-02-28"), result.getEligibilityDate());
+		assertEquals("28-02-2025", result.getVlDueDate());
+	}
+	
+	@Test
+	public void getEligibility_shouldOnlyMarkResultsPendingForTheLatestSampleOrRepeatSample() {
+		assertTrue(eligibility.get(104).isPendingResults());
+		assertTrue(eligibility.get(105).isPendingResults());
+		assertEquals("Pending Results", eligibility.get(105).getVlDueDate());
+		assertFalse(eligibility.get(106).isPendingResults());
+		assertFalse(eligibility.get(102).isPendingResults());
+	}
+	
+	@Test
+	public void isDueWithin_shouldIncludeBothEndsOfTheRange() throws Exception {
+		VlEligibilityResult result = eligibility.get(102);
+		assertEquals(day("2025-09-01"), result.getEligibilityDate());
+		
+		assertTrue(result.isDueWithin(day("2025-09-01"), day("2025-09-30")));
+		assertTrue(result.isDueWithin(day("2025-08-01"), day("2025-09-01")));
+		assertFalse(result.isDueWithin(day("2025-08-01"), day("2025-08-31")));
+		assertFalse(result.isDueWithin(day("2025-09-02"), day("2025-09-30")));
+		assertFalse(eligibility.get(105).isDueWithin(day("2025-01-01"), day("2025-12-31")));
+	}
+	
+	private static Date day(String date) throws Exception {
+		return new SimpleDateFormat("yyyy-MM-dd").parse(date);
+	}
+}
@@ -0,0 +1,71 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IndicatorExecutorTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private IndicatorExecutor indicatorExecutor;
+	
+	@Test
+	public void submit_shouldRunTheIndicatorInASessionOfTheSubmittingUser() {
+		Future<Integer> userId = indicatorExecutor.submit(() -> Context.getAuthenticatedUser().getUserId());
+		Future<String> threadName = indicatorExecutor.submit(() -> Thread.currentThread().getName());
+		
+		assertEquals(Context.getAuthenticatedUser().getUserId(), IndicatorExecutor.getResult(userId));
+		assertTrue(IndicatorExecutor.getResult(threadName).startsWith("ssemrws-indicator-"));
+	}
+	
+	@Test
+	public void submit_shouldRunAnIndicatorSubmittedByAnotherInTheSameThread() {
+		Future<Boolean> sameThread = indicatorExecutor.submit(() -> {
+			Thread outer = Thread.currentThread();
+			return IndicatorExecutor.getResult(indicatorExecutor.submit(Thread::currentThread)) == outer;
+		});
+		
+		assertTrue(IndicatorExecutor.getResult(sameThread));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void getResult_shouldRethrowTheFailureOfTheIndicator() {
+		Future<Object> failing = indicatorExecutor.submit(() -> {
+			throw new IllegalStateException("No cohort");
+		});
+		
+		IndicatorExecutor.getResult(failing);
+	}
+	
+	@Test
+	public void getResult_shouldCancelTheSiblingsOfAFailedIndicator() {
+		CountDownLatch never = new CountDownLatch(1);
+		Future<Boolean> waiting = indicatorExecutor.submit(() -> {
+			try {
+				return never.await(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		});
+		Future<Object> failing = indicatorExecutor.submit(() -> {
+			throw new IllegalStateException("No cohort");
+		});
+		
+		try {
+			IndicatorExecutor.getResult(failing, waiting, failing);
+			fail("The failure of the indicator should have been rethrown");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(waiting.isCancelled());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.openmrs.module.ssemrws.service;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReportJobServiceTest extends BaseModuleContextSensitiveTest {
+	
+	private static final long TIMEOUT_MS = 10000;
+	
+	@Autowired
+	private ReportJobService reportJobService;
+	
+	@Test
+	public void submit_shouldKeepTheResultOfACompletedJobForItsKey() throws Exception {
+		String key = ReportJobService.buildKey("completedReport", new Date(), new Date());
+		Map<String, Object> report = Collections.singletonMap("total", 42);
+		
+		ReportJobService.Job job = reportJobService.submit("completedReport", key, () -> report);
+		awaitFinished(job);
+		
+		assertEquals(ReportJobService.Status.COMPLETED, job.getStatus());
+		assertEquals(report, reportJobService.getCompletedResult(key));
+		assertSame(job, reportJobService.submit("completedReport", key, () -> report));
+		assertSame(job, reportJobService.getJob(job.getId()));
+	}
+	
+	@Test
+	public void submit_shouldRunTheReportAsTheSubmittingUser() throws Exception {
+		String key = ReportJobService.buildKey("userReport", null, null);
+		
+		ReportJobService.Job job = reportJobService.submit("userReport", key,
+		    () -> Context.getAuthenticatedUser().getUserId());
+		awaitFinished(job);
+		
+		assertEquals(ReportJobService.Status.COMPLETED, job.getStatus());
+		assertEquals(Context.getAuthenticatedUser().getUserId(), job.getResult());
+	}
+	
+	@Test
+	public void getStatus_shouldOnlyShowACompletedJobWithItsResult() throws Exception {
+		String key = ReportJobService.buildKey("polledReport", null, null);
+		Map<String, Object> report = Collections.singletonMap("total", 7);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		ReportJobService.Job job = reportJobService.submit("polledReport", key, () -> {
+			try {
+				release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return report;
+		});
+		release.countDown();
+		
+		// Poll as fast as possible while the job completes
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (true) {
+			ReportJobService.Status status = job.getStatus();
+			Object result = job.getResult();
+			Map<String, Object> jobObj = job.toMap(TIMEOUT_MS);
+			if (status == ReportJobService.Status.COMPLETED) {
+				assertEquals(report, result);
+			}
+			if (ReportJobService.Status.COMPLETED.name().equals(jobObj.get("status"))) {
+				assertEquals(report, jobObj.get("result"));
+				assertNotNull(jobObj.get("finishedAt"));
+				break;
+			}
+			assertFalse(jobObj.containsKey("result"));
+			assertTrue("The job did not complete", System.currentTimeMillis() < deadline);
+		}
+	}
+	
+	@Test
+	public void cancel_shouldDiscardARunningJob() throws Exception {
+		String key = ReportJobService.buildKey("slowReport", null, null);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		ReportJobService.Job job = reportJobService.submit("slowReport", key, () -> {
+			started.countDown();
+			try {
+				release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "done";
+		});
+		assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		
+		assertTrue(reportJobService.cancel(job));
+		release.countDown();
+		
+		assertEquals(ReportJobService.Status.CANCELLED, job.getStatus());
+		assertNull(job.getResult());
+		assertNull(reportJobService.getCompletedResult(key));
+		assertFalse(reportJobService.cancel(job));
+	}
+	
+	private static void awaitFinished(ReportJobService.Job job) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!job.getStatus().isFinished() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+	}
+}
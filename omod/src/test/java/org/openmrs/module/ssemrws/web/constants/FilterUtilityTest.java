@@ -0,0 +1,133 @@
+package org.openmrs.module.ssemrws.web.constants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.queries.GetFilteredPatients;
+import org.openmrs.module.ssemrws.queries.GetPregnantOrBreastfeeding;
+import org.openmrs.module.ssemrws.web.controller.EtlTestSchema;
+import org.openmrs.module.ssemrws.web.controller.SSEMRWebServicesController;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link FilterUtility#applyFilter} and the SQL filter of
+ * {@link FilterUtility#toSqlPredicate} keep the same patients. Patients 2 and 6 are 20 today and 20
+ * tomorrow, 7 is an adult pregnant within 2025 and 8 a child whose pregnancy obs of filterDataset.xml
+ * is after it.
+ */
+public class FilterUtilityTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private GetFilteredPatients getFilteredPatients;
+	
+	@Autowired
+	private GetPregnantOrBreastfeeding getPregnantOrBreastfeeding;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	private Date endDate;
+	
+	private List<Patient> patients;
+	
+	@Before
+	public void setUp() throws Exception {
+		EtlTestSchema.create(getRuntimeProperties());
+		executeDataSet(EtlTestSchema.INCLUDE + "filterDataset.xml");
+		
+		LocalDate today = LocalDate.now();
+		setBirthdate(2, today.minusYears(20));
+		setBirthdate(6, today.minusYears(20).plusDays(1));
+		setBirthdate(7, today.minusYears(40));
+		setBirthdate(8, today.minusYears(10));
+		Context.flushSession();
+		getPregnantOrBreastfeeding.clear();
+		
+		endDate = new SimpleDateFormat("yyyy-MM-dd").parse("2025-12-31");
+		patients = new ArrayList<>();
+		for (Patient patient : Context.getPatientService().getAllPatients()) {
+			if (patient.getBirthdate() != null) {
+				patients.add(patient);
+			}
+		}
+	}
+	
+	@Test
+	public void toSqlPredicate_shouldKeepTheSameChildrenAndAdolescentsAsApplyFilter() {
+		Set<Integer> children = applyFilter(SSEMRWebServicesController.filterCategory.CHILDREN_ADOLESCENTS);
+		
+		assertTrue(children.contains(6));
+		assertTrue(children.contains(8));
+		assertFalse(children.contains(2));
+		assertFalse(children.contains(7));
+		assertEquals(children, sqlFilter(SSEMRWebServicesController.filterCategory.CHILDREN_ADOLESCENTS));
+		assertEquals(children, getFilteredPatients.filterPatientIds(ids(patients),
+		    SSEMRWebServicesController.filterCategory.CHILDREN_ADOLESCENTS, endDate));
+	}
+	
+	@Test
+	public void toSqlPredicate_shouldKeepTheSamePregnantAndBreastfeedingWomenAsApplyFilter() {
+		Set<Integer> pbfw = applyFilter(SSEMRWebServicesController.filterCategory.PREGNANT_BREASTFEEDING);
+		
+		assertEquals(new HashSet<>(Collections.singletonList(7)), pbfw);
+		assertEquals(pbfw, sqlFilter(SSEMRWebServicesController.filterCategory.PREGNANT_BREASTFEEDING));
+		assertEquals(pbfw, getFilteredPatients.filterPatientIds(ids(patients),
+		    SSEMRWebServicesController.filterCategory.PREGNANT_BREASTFEEDING, endDate));
+	}
+	
+	private Set<Integer> applyFilter(SSEMRWebServicesController.filterCategory filterCategory) {
+		Set<Integer> patientIds = new HashSet<>();
+		for (Patient patient : patients) {
+			if (FilterUtility.applyFilter(patient, filterCategory, endDate)) {
+				patientIds.add(patient.getPatientId());
+			}
+		}
+		return patientIds;
+	}
+	
+	// The predicate appended to a query over the patients, as the cohort queries do
+	private Set<Integer> sqlFilter(SSEMRWebServicesController.filterCategory filterCategory) {
+		String sql = "SELECT p.patient_id FROM openmrs.patient p WHERE p.patient_id IN (:patientIds) "
+		        + FilterUtility.toSqlPredicate(filterCategory, "p.patient_id");
+		
+		@SuppressWarnings("unchecked")
+		List<Number> results = FilterUtility.bindSqlFilter(entityManager.createNativeQuery(sql), filterCategory, endDate)
+		        .setParameter("patientIds", ids(patients)).getResultList();
+		Set<Integer> patientIds = new HashSet<>();
+		for (Number patientId : results) {
+			patientIds.add(patientId.intValue());
+		}
+		return patientIds;
+	}
+	
+	private static List<Integer> ids(List<Patient> patients) {
+		List<Integer> patientIds = new ArrayList<>();
+		for (Patient patient : patients) {
+			patientIds.add(patient.getPatientId());
+		}
+		return patientIds;
+	}
+	
+	private static void setBirthdate(int patientId, LocalDate birthdate) {
+		Patient patient = Context.getPatientService().getPatient(patientId);
+		patient.setBirthdate(Date.from(birthdate.atStartOfDay(ZoneId.systemDefault()).toInstant()));
+		patient.setBirthdateEstimated(false);
+		Context.getPatientService().savePatient(patient);
+	}
+}
@@ -0,0 +1,85 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.ssemrws.web.constants.GeneratePatientObject;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports line lists of the seeded dataset through /dashboard/{indicator}/export and checks they hold
+ * the same patients as the paged line list.
+ */
+public class CohortExportControllerTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final String[] PERIOD = { "startDate", "2025-01-01", "endDate", "2025-12-31" };
+	
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	
+	private ControllerDispatcher dispatcher;
+	
+	@Before
+	public void setUp() throws Exception {
+		EtlTestSchema.create(getRuntimeProperties());
+		executeDataSet(EtlTestSchema.INCLUDE + "enrollmentAndViralLoadDataset.xml");
+		EtlTestSchema.runScript(getConnection(), EtlTestSchema.INCLUDE + "ssemrEtlData.sql");
+		
+		dispatcher = new ControllerDispatcher(applicationContext);
+	}
+	
+	@Test
+	public void exportCohort_shouldWriteTheLineListFieldsAsCsvColumns() throws Exception {
+		MockHttpServletResponse response = dispatcher.get("/dashboard/activeClients/export", PERIOD);
+		
+		assertEquals(HttpStatus.OK.value(), response.getStatus());
+		assertTrue(response.getContentType().startsWith("text/csv"));
+		String[] lines = response.getContentAsString().split("\r\n");
+		assertEquals(String.join(",", GeneratePatientObject.LINE_LIST_FIELDS), lines[0]);
+		assertEquals(getTotalPatients("/dashboard/activeClients"), lines.length - 1);
+	}
+	
+	@Test
+	public void exportCohort_shouldWriteOneJsonObjectPerLineForNdjson() throws Exception {
+		MockHttpServletResponse response = dispatcher.get("/dashboard/activeClients/export", "startDate", "2025-01-01",
+		    "endDate", "2025-12-31", "format", "ndjson");
+		
+		assertEquals(HttpStatus.OK.value(), response.getStatus());
+		String content = response.getContentAsString();
+		int rows = 0;
+		for (String line : content.split("\n")) {
+			if (!line.isEmpty()) {
+				JsonNode row = objectMapper.readTree(line);
+				for (String field : GeneratePatientObject.LINE_LIST_FIELDS) {
+					assertTrue("No " + field + " in " + line, row.has(field));
+				}
+				rows++;
+			}
+		}
+		assertEquals(getTotalPatients("/dashboard/activeClients"), rows);
+	}
+	
+	@Test
+	public void exportCohort_shouldRespondNotFoundForAnIndicatorWithoutLineList() throws Exception {
+		MockHttpServletResponse response = dispatcher.get("/dashboard/viralLoadCascade/export", PERIOD);
+		
+		assertEquals(HttpStatus.NOT_FOUND.value(), response.getStatus());
+	}
+	
+	@Test
+	public void exportCohort_shouldRespondBadRequestForAnUnknownFormat() throws Exception {
+		MockHttpServletResponse response = dispatcher.get("/dashboard/activeClients/export", "startDate", "2025-01-01",
+		    "endDate", "2025-12-31", "format", "xlsx");
+		
+		assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+	}
+	
+	private int getTotalPatients(String path) throws Exception {
+		MockHttpServletResponse response = dispatcher.get(path, PERIOD);
+		return objectMapper.readTree(response.getContentAsString()).get("totalPatients").getIntValue();
+	}
+}
@@ -0,0 +1,82 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.openmrs.module.ssemrws.web.filter.RequestMetricsFilter;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Serves GET requests to the module's controllers in-process, the way the /ws servlet does, behind
+ * the {@link RequestMetricsFilter}. Safe to use from several threads once created.
+ */
+public class ControllerDispatcher {
+	
+	public static final String BASE_PATH = "/rest/v1/ssemr";
+	
+	private final RequestMappingHandlerMapping handlerMapping = new RequestMappingHandlerMapping();
+	
+	private final RequestMappingHandlerAdapter handlerAdapter = new RequestMappingHandlerAdapter();
+	
+	private final RequestMetricsFilter filter = new RequestMetricsFilter();
+	
+	public ControllerDispatcher(ApplicationContext applicationContext) {
+		handlerMapping.setApplicationContext(applicationContext);
+		handlerMapping.afterPropertiesSet();
+		
+		handlerAdapter.setApplicationContext(applicationContext);
+		handlerAdapter.setMessageConverters(
+		    Arrays.asList(new StringHttpMessageConverter(), new MappingJackson2HttpMessageConverter()));
+		handlerAdapter.afterPropertiesSet();
+	}
+	
+	/**
+	 * @return Every request mapping of the controllers with its handler method.
+	 */
+	public Map<RequestMappingInfo, HandlerMethod> getHandlerMethods() {
+		return handlerMapping.getHandlerMethods();
+	}
+	
+	/**
+	 * @param path The path below {@value #BASE_PATH}, e.g. /dashboard/activeClients.
+	 * @param parameters Parameter names and values, alternating.
+	 */
+	public MockHttpServletResponse get(String path, String... parameters) throws Exception {
+		String pathInfo = BASE_PATH + path;
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/openmrs/ws" + pathInfo);
+		request.setContextPath("/openmrs");
+		request.setServletPath("/ws");
+		request.setPathInfo(pathInfo);
+		for (int i = 0; i < parameters.length; i += 2) {
+			request.addParameter(parameters[i], parameters[i + 1]);
+		}
+		
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, (filteredRequest, filteredResponse) -> {
+			try {
+				HandlerExecutionChain handler = handlerMapping.getHandler((HttpServletRequest) filteredRequest);
+				if (handler == null) {
+					throw new IllegalArgumentException("No controller is mapped to " + path);
+				}
+				handlerAdapter.handle((HttpServletRequest) filteredRequest, (HttpServletResponse) filteredResponse,
+				    handler.getHandler());
+			}
+			catch (Exception e) {
+				throw new ServletException(e);
+			}
+		});
+		return response;
+	}
+}
@@ -0,0 +1,76 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.metrics.QueryCounter;
+import org.openmrs.module.ssemrws.web.filter.RequestMetricsFilter;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serves the dashboard endpoints through the {@link RequestMetricsFilter} against a small seeded
+ * dataset and fails when an endpoint executes more SQL statements than its budget, as counted in the
+ * {@value QueryCounter#HEADER} header. The seeded patients are few on purpose: a budget is only
+ * exceeded when statements are run per patient or per obs, which is the regression to catch. Raise a
+ * budget only when an endpoint needs a new query, never to accommodate a loop.
+ * <p>
+ * Counting is turned on with the {@value QueryCounter#ENABLED_PROPERTY} global property for the
+ * duration of each test.
+ */
+public class DashboardQueryBudgetTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final String PATIENT_UUID = "256ccf6d-6b41-455c-9be2-51ff4386ae76";
+	
+	private ControllerDispatcher dispatcher;
+	
+	@Before
+	public void setUp() throws Exception {
+		EtlTestSchema.create(getRuntimeProperties());
+		executeDataSet(EtlTestSchema.INCLUDE + "enrollmentAndViralLoadDataset.xml");
+		EtlTestSchema.runScript(getConnection(), EtlTestSchema.INCLUDE + "ssemrEtlData.sql");
+		
+		dispatcher = new ControllerDispatcher(applicationContext);
+		Context.getAdministrationService().setGlobalProperty(QueryCounter.ENABLED_PROPERTY, "true");
+	}
+	
+	@After
+	public void tearDown() {
+		Context.getAdministrationService().setGlobalProperty(QueryCounter.ENABLED_PROPERTY, "false");
+	}
+	
+	@Test
+	public void getPatientObs_shouldStayWithinStatementBudget() throws Exception {
+		assertWithinStatementBudget(40, "/dashboard/obs", "patientUuid", PATIENT_UUID);
+	}
+	
+	@Test
+	public void getPatientFlags_shouldStayWithinStatementBudget() throws Exception {
+		assertWithinStatementBudget(30, "/flags", "patientUuid", PATIENT_UUID);
+	}
+	
+	@Test
+	public void getActiveClients_shouldStayWithinStatementBudget() throws Exception {
+		assertWithinStatementBudget(40, "/dashboard/activeClients", "startDate", "2025-01-01", "endDate", "2025-12-31");
+	}
+	
+	@Test
+	public void getViralLoadCascade_shouldStayWithinStatementBudget() throws Exception {
+		assertWithinStatementBudget(5, "/dashboard/viralLoadCascade", "startDate", "2025-01-01", "endDate",
+		    "2025-12-31");
+	}
+	
+	private void assertWithinStatementBudget(int budget, String path, String... parameters) throws Exception {
+		MockHttpServletResponse response = dispatcher.get(path, parameters);
+		assertEquals(HttpStatus.OK.value(), response.getStatus());
+		
+		String queryCount = response.getHeader(QueryCounter.HEADER);
+		assertNotNull("No " + QueryCounter.HEADER + " header for " + path, queryCount);
+		int statements = Integer.parseInt(queryCount);
+		assertTrue(path + " executed " + statements + " statements, over its budget of " + budget, statements <= budget);
+	}
+}
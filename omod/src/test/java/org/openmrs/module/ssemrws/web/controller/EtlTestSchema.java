@@ -0,0 +1,53 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.h2.tools.RunScript;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Creates the tables the module's native queries read besides the core tables in the in-memory test
+ * database, see ssemrEtlSchema.sql.
+ */
+public class EtlTestSchema {
+	
+	public static final String INCLUDE = "org/openmrs/module/ssemrws/include/";
+	
+	private static boolean created;
+	
+	/**
+	 * Creates the schema once per JVM. DDL commits the open transaction, so it runs on a connection of
+	 * its own.
+	 * 
+	 * @param runtimeProperties The runtime properties of the test, holding the connection settings.
+	 */
+	public static synchronized void create(Properties runtimeProperties) throws Exception {
+		if (created) {
+			return;
+		}
+		try (Connection connection = openConnection(runtimeProperties)) {
+			runScript(connection, INCLUDE + "ssemrEtlSchema.sql");
+		}
+		created = true;
+	}
+	
+	/**
+	 * @return A new connection to the test database, outside of the test transaction.
+	 */
+	public static Connection openConnection(Properties runtimeProperties) throws SQLException {
+		return DriverManager.getConnection(runtimeProperties.getProperty("connection.url"),
+		    runtimeProperties.getProperty("connection.username"), runtimeProperties.getProperty("connection.password"));
+	}
+	
+	public static void runScript(Connection connection, String resource) throws Exception {
+		try (Reader reader = new InputStreamReader(EtlTestSchema.class.getClassLoader().getResourceAsStream(resource),
+		        StandardCharsets.UTF_8)) {
+			RunScript.execute(connection, reader);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.openmrs.module.ssemrws.web.controller;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.ssemrws.web.constants.GeneratePatientListObject;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the streamed line lists of the seeded dataset are the documents the ObjectNode tree used
+ * to produce, with the same fields in the same order.
+ */
+public class StreamingLineListControllerTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final String[] PERIOD = { "startDate", "2025-01-01", "endDate", "2025-12-31" };
+	
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Autowired
+	private GeneratePatientListObject generatePatientListObject;
+	
+	private ControllerDispatcher dispatcher;
+	
+	@Before
+	public void setUp() throws Exception {
+		EtlTestSchema.create(getRuntimeProperties());
+		executeDataSet(EtlTestSchema.INCLUDE + "enrollmentAndViralLoadDataset.xml");
+		EtlTestSchema.runScript(getConnection(), EtlTestSchema.INCLUDE + "ssemrEtlData.sql");
+		
+		dispatcher = new ControllerDispatcher(applicationContext);
+	}
+	
+	@Test
+	public void getActiveClientsEndpoint_shouldWriteTheDocumentOfTheObjectNodeTree() throws Exception {
+		JsonNode body = assertSameAsObjectNodeTree("/dashboard/activeClients");
+		
+		assertTrue(body.get("results").size() > 0);
+	}
+	
+	@Test
+	public void getPatientsDueForVl_shouldWriteTheDocumentOfTheObjectNodeTree() throws Exception {
+		assertSameAsObjectNodeTree("/dashboard/dueForVl");
+	}
+	
+	/**
+	 * Rebuilds the page the endpoint listed the way the ObjectNode tree was built, i.e. the total, then
+	 * the page size, the rows and the summary, and compares its serialization with the response body.
+	 */
+	private JsonNode assertSameAsObjectNodeTree(String path) throws Exception {
+		MockHttpServletResponse response = dispatcher.get(path, PERIOD);
+		assertEquals(HttpStatus.OK.value(), response.getStatus());
+		assertTrue(response.getContentType().startsWith("application/json"));
+		
+		String content = response.getContentAsString();
+		JsonNode body = objectMapper.readTree(content);
+		assertEquals(Arrays.asList("totalPatients", "pageSize", "results", "summary"), fieldNames(body));
+		assertTrue(body.get("summary").get("groupYear").isObject());
+		
+		List<Patient> patients = new ArrayList<>();
+		for (JsonNode row : body.get("results")) {
+			patients.add(Context.getPatientService().getPatientByUuid(row.get("uuid").getTextValue()));
+		}
+		
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Date startDate = dateFormat.parse(PERIOD[1]);
+		Date endDate = dateFormat.parse(PERIOD[3]);
+		ArrayNode patientList = JsonNodeFactory.instance.arrayNode();
+		generatePatientListObject.forEachPatientObj(patients, startDate, endDate, null,
+		    (patient, patientObj) -> patientList.add(patientObj));
+		
+		ObjectNode allPatientsObj = JsonNodeFactory.instance.objectNode();
+		allPatientsObj.put("totalPatients", body.get("totalPatients").getIntValue());
+		allPatientsObj.put("pageSize", patients.size());
+		allPatientsObj.put("results", patientList);
+		allPatientsObj.put("summary", body.get("summary"));
+		
+		assertEquals(allPatientsObj.toString(), content);
+		return body;
+	}
+	
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<>();
+		Iterator<String> fieldNames = node.getFieldNames();
+		while (fieldNames.hasNext()) {
+			names.add(fieldNames.next());
+		}
+		return names;
+	}
+}
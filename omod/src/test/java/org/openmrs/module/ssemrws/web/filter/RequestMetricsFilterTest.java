@@ -0,0 +1,64 @@
+package org.openmrs.module.ssemrws.web.filter;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Profiles requests as the authenticated superuser, whose responses are held back by the
+ * {@link BufferedResponseWrapper}, and checks what is sent when writing the body fails part way.
+ */
+public class RequestMetricsFilterTest extends BaseModuleContextSensitiveTest {
+	
+	private final RequestMetricsFilter filter = new RequestMetricsFilter();
+	
+	@Test
+	public void doFilter_shouldOnlySendTheBodyWrittenAfterAReset() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(profiledRequest(), response, (request, chainResponse) -> {
+			chainResponse.setContentType("application/json");
+			chainResponse.getWriter().write("{\"results\":[1,");
+			// As StreamingJsonResponse does when writing the body fails
+			chainResponse.reset();
+			chainResponse.setContentType("application/json");
+			chainResponse.getWriter().write("{\"error\":\"Failed to write JSON response\"}");
+		});
+		
+		JsonNode body = new ObjectMapper().readTree(response.getContentAsString());
+		assertFalse(body.has("results"));
+		assertEquals("Failed to write JSON response", body.get("error").getTextValue());
+		assertTrue(body.has("profile"));
+	}
+	
+	@Test
+	public void doFilter_shouldNotSendThePartialBodyWhenTheRequestFails() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		FilterChain failingChain = (request, chainResponse) -> {
+			chainResponse.getWriter().write("{\"results\":[1,");
+			throw new ServletException("Failed to write JSON response");
+		};
+		
+		try {
+			filter.doFilter(profiledRequest(), response, failingChain);
+			fail("The failure of the request should be rethrown");
+		}
+		catch (ServletException e) {
+			assertEquals("Failed to write JSON response", e.getMessage());
+		}
+		assertEquals("", response.getContentAsString());
+	}
+	
+	private static MockHttpServletRequest profiledRequest() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/openmrs/ws/rest/v1/ssemr/dashboard/txCurr");
+		request.addParameter(RequestMetricsFilter.PROFILE_PARAMETER, "true");
+		return request;
+	}
+}
@@ -0,0 +1,27 @@
+-- ETL rows of the patients of enrollmentAndViralLoadDataset.xml: patient 7 is on ART with a suppressed
+-- VL and an upcoming appointment, patient 8 is on ART with a high VL followed by EAC sessions.
+INSERT INTO ssemr_etl.mamba_dim_person (person_id, uuid, age) VALUES
+	(7, '5946f880-b197-400b-9caa-a3c661d23041', 49),
+	(8, '256ccf6d-6b41-455c-9be2-51ff4386ae76', 16);
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_personal_family_tx_history (encounter_id, client_id, encounter_datetime,
+	art_start_date) VALUES
+	(9001, 7, '2024-01-10 09:00:00', '2024-01-10 00:00:00'),
+	(9002, 8, '2024-02-05 09:00:00', '2024-02-05 00:00:00');
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up (encounter_id, client_id, encounter_datetime,
+	date_vl_sample_collected, date_vl_results_received, viral_load_value, vl_results) VALUES
+	(9011, 7, '2025-03-01 09:00:00', '2025-03-01 00:00:00', '2025-03-15 00:00:00', 40, 'Below Detectable (BDL)'),
+	(9012, 8, '2025-03-02 09:00:00', '2025-03-02 00:00:00', '2025-03-16 00:00:00', 25000, 'Detectable');
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_high_viral_load (encounter_id, client_id, encounter_datetime,
+	adherence_date, second_eac_session_date, third_eac_session_date, repeat_vl_sample_date, repeat_vl_result_date,
+	repeat_vl_value) VALUES
+	(9021, 8, '2025-04-01 09:00:00', '2025-04-01 00:00:00', '2025-05-01 00:00:00', '2025-06-01 00:00:00',
+	 '2025-07-01 00:00:00', '2025-07-15 00:00:00', 1500);
+
+INSERT INTO patient_appointment (patient_appointment_id, patient_id, start_date_time, end_date_time, status, uuid)
+	VALUES
+	(9031, 7, '2025-06-01 09:00:00', '2025-06-01 09:30:00', 'Completed', 'b1f3c3de-4f0e-4d6a-9d2c-3e0f6d1a7c01'),
+	(9032, 7, '2099-01-01 09:00:00', '2099-01-01 09:30:00', 'Scheduled', 'b1f3c3de-4f0e-4d6a-9d2c-3e0f6d1a7c02'),
+	(9033, 8, '2099-01-02 09:00:00', '2099-01-02 09:30:00', 'Scheduled', 'b1f3c3de-4f0e-4d6a-9d2c-3e0f6d1a7c03');
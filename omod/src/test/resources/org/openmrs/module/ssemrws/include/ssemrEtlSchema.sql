@@ -0,0 +1,110 @@
+-- Tables the dashboard queries read besides the core OpenMRS tables: the ETL flat tables, the
+-- appointments module table and the cohort status snapshot. The queries name the OpenMRS schema
+-- explicitly, so it is mapped onto the in-memory database with views.
+SET MODE MySQL;
+
+CREATE SCHEMA IF NOT EXISTS ssemr_etl;
+CREATE SCHEMA IF NOT EXISTS openmrs;
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.mamba_dim_person (
+	person_id INT NOT NULL PRIMARY KEY,
+	uuid CHAR(38),
+	age INT
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	client_pmtct VARCHAR(255),
+	client_pregnant VARCHAR(255),
+	date_vl_sample_collected DATETIME,
+	date_vl_results_received DATETIME,
+	viral_load_value DOUBLE,
+	vl_results VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_high_viral_load (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	adherence_date DATETIME,
+	second_eac_session_date DATETIME,
+	third_eac_session_date DATETIME,
+	repeat_vl_sample_date DATETIME,
+	repeat_vl_result_date DATETIME,
+	repeat_vl_value DOUBLE,
+	repeat_vl_results VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_end_of_follow_up (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	death VARCHAR(255),
+	date_of_death DATETIME,
+	transfer_out VARCHAR(255),
+	transfer_out_date DATETIME,
+	client_refused_treatment VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_art_interruption (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	date_restarted DATETIME
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_personal_family_tx_history (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	art_start_date DATETIME
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_adult_and_adolescent_intake (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	art_start_date DATETIME
+);
+
+CREATE TABLE IF NOT EXISTS ssemr_etl.ssemr_flat_encounter_pediatric_intake_report (
+	encounter_id INT NOT NULL PRIMARY KEY,
+	client_id INT NOT NULL,
+	encounter_datetime DATETIME NOT NULL,
+	art_start_date DATETIME
+);
+
+CREATE TABLE IF NOT EXISTS patient_appointment (
+	patient_appointment_id INT NOT NULL PRIMARY KEY,
+	patient_id INT NOT NULL,
+	start_date_time DATETIME,
+	end_date_time DATETIME,
+	status VARCHAR(45),
+	voided BOOLEAN DEFAULT FALSE,
+	uuid CHAR(38)
+);
+
+CREATE TABLE IF NOT EXISTS ssemrws_cohort_status (
+	cohort_status_id INT AUTO_INCREMENT PRIMARY KEY,
+	patient_id INT NOT NULL,
+	status_date DATE NOT NULL,
+	tx_curr BOOLEAN DEFAULT FALSE NOT NULL,
+	due_for_vl BOOLEAN DEFAULT FALSE NOT NULL,
+	high_vl BOOLEAN DEFAULT FALSE NOT NULL,
+	rtt BOOLEAN DEFAULT FALSE NOT NULL,
+	pmtct BOOLEAN DEFAULT FALSE NOT NULL,
+	transferred_out BOOLEAN DEFAULT FALSE NOT NULL,
+	died BOOLEAN DEFAULT FALSE NOT NULL,
+	art_start_date DATE,
+	next_appointment_date DATETIME,
+	vl_eligibility_date DATE,
+	date_created DATETIME
+);
+
+CREATE OR REPLACE VIEW openmrs.obs AS SELECT * FROM PUBLIC.obs;
+CREATE OR REPLACE VIEW openmrs.concept AS SELECT * FROM PUBLIC.concept;
+CREATE OR REPLACE VIEW openmrs.person AS SELECT * FROM PUBLIC.person;
+CREATE OR REPLACE VIEW openmrs.patient AS SELECT * FROM PUBLIC.patient;
+CREATE OR REPLACE VIEW openmrs.patient_appointment AS SELECT * FROM PUBLIC.patient_appointment;
@@ -0,0 +1,35 @@
+-- Clients at the edges of the VL eligibility rules, all on ART since 2024 and aged 30: 101 has a
+-- latest VL of exactly 1000 and 102 of 999, 103 had a high VL and a third EAC session on the last
+-- day of January, 104 has a sample without a result, 105 a repeat VL sample without a result and
+-- 106 a sample without a result followed by a follow-up without a sample.
+INSERT INTO ssemr_etl.mamba_dim_person (person_id, uuid, age) VALUES
+	(101, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1001', 30),
+	(102, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1002', 30),
+	(103, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1003', 30),
+	(104, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1004', 30),
+	(105, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1005', 30),
+	(106, 'c7e0a4a2-5b1e-4f0a-9d67-0d2f5e9b1006', 30);
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_personal_family_tx_history (encounter_id, client_id, encounter_datetime,
+	art_start_date) VALUES
+	(9101, 101, '2024-01-01 09:00:00', '2024-01-01 00:00:00'),
+	(9102, 102, '2024-01-01 09:00:00', '2024-01-01 00:00:00'),
+	(9103, 103, '2024-01-01 09:00:00', '2024-01-01 00:00:00'),
+	(9104, 104, '2024-01-01 09:00:00', '2024-01-01 00:00:00'),
+	(9105, 105, '2024-01-01 09:00:00', '2024-01-01 00:00:00'),
+	(9106, 106, '2024-01-01 09:00:00', '2024-01-01 00:00:00');
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_hiv_care_follow_up (encounter_id, client_id, encounter_datetime,
+	date_vl_sample_collected, date_vl_results_received, viral_load_value, vl_results) VALUES
+	(9111, 101, '2025-03-01 09:00:00', '2025-03-01 00:00:00', '2025-03-15 00:00:00', 1000, 'Detectable'),
+	(9112, 102, '2025-03-01 09:00:00', '2025-03-01 00:00:00', '2025-03-15 00:00:00', 999, 'Detectable'),
+	(9113, 103, '2024-12-01 09:00:00', '2024-12-01 00:00:00', '2024-12-10 00:00:00', 1000, 'Detectable'),
+	(9114, 104, '2025-03-01 09:00:00', '2025-03-01 00:00:00', NULL, NULL, NULL),
+	(9115, 105, '2024-12-01 09:00:00', '2024-12-01 00:00:00', '2024-12-10 00:00:00', 5000, 'Detectable'),
+	(9116, 106, '2025-01-01 09:00:00', '2025-01-01 00:00:00', NULL, NULL, NULL),
+	(9117, 106, '2025-04-01 09:00:00', NULL, NULL, NULL, NULL);
+
+INSERT INTO ssemr_etl.ssemr_flat_encounter_high_viral_load (encounter_id, client_id, encounter_datetime,
+	third_eac_session_date, repeat_vl_sample_date, repeat_vl_result_date, repeat_vl_value) VALUES
+	(9121, 103, '2025-01-05 09:00:00', '2025-01-31 00:00:00', NULL, NULL, NULL),
+	(9122, 105, '2025-01-05 09:00:00', '2025-01-31 00:00:00', '2025-03-01 00:00:00', NULL, NULL);